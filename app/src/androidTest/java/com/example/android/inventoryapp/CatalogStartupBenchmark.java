@@ -0,0 +1,96 @@
+package com.example.android.inventoryapp;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.os.SystemClock;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.rule.ActivityTestRule;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.example.android.inventoryapp.data.InventoryMetrics;
+import com.example.android.inventoryapp.data.ProductContract.ProductEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Measures the time from {@link CatalogActivity#onCreate} to the first products on screen,
+ * over a catalog large enough that loading the whole table is noticeably slower.
+ */
+@RunWith(AndroidJUnit4.class)
+public class CatalogStartupBenchmark {
+
+    private static final String LOG_TAG = CatalogStartupBenchmark.class.getSimpleName();
+
+    private static final int CATALOG_SIZE = 5000;
+    private static final int RUNS = 10;
+    private static final long TIMEOUT_MS = 10000;
+
+    @Rule
+    public ActivityTestRule<CatalogActivity> mActivityRule =
+            new ActivityTestRule<>(CatalogActivity.class, false, false);
+
+    private ContentResolver mResolver;
+
+    @Before
+    public void setUp() {
+        mResolver = InstrumentationRegistry.getTargetContext().getContentResolver();
+        mResolver.delete(ProductEntry.CONTENT_URI, null, null);
+        ContentValues[] rows = new ContentValues[CATALOG_SIZE];
+        for (int i = 0; i < CATALOG_SIZE; i++) {
+            rows[i] = new ContentValues();
+            rows[i].put(ProductEntry.COLUMN_PRODUCT_NAME, "Product " + i);
+            rows[i].put(ProductEntry.COLUMN_PRODUCT_STOCK, i % 50);
+            rows[i].put(ProductEntry.COLUMN_PRODUCT_PRICE, i);
+            rows[i].put(ProductEntry.COLUMN_PRODUCT_PICTURE, "");
+        }
+        mResolver.bulkInsert(ProductEntry.CONTENT_URI, rows);
+    }
+
+    @After
+    public void tearDown() {
+        mResolver.delete(ProductEntry.CONTENT_URI, null, null);
+    }
+
+    @Test
+    public void timeToFirstContent() throws Exception {
+        long[] firstContent = new long[RUNS];
+        long[] fullContent = new long[RUNS];
+        for (int run = 0; run < RUNS; run++) {
+            InventoryMetrics.reset();
+            mActivityRule.launchActivity(null);
+            waitForGauge(CatalogStartup.METRIC_TIME_TO_FULL_CONTENT);
+            firstContent[run] = (long) InventoryMetrics.getGauge(CatalogStartup.METRIC_TIME_TO_FIRST_CONTENT);
+            fullContent[run] = (long) InventoryMetrics.getGauge(CatalogStartup.METRIC_TIME_TO_FULL_CONTENT);
+            mActivityRule.getActivity().finish();
+            InstrumentationRegistry.getInstrumentation().waitForIdleSync();
+        }
+
+        Arrays.sort(firstContent);
+        Arrays.sort(fullContent);
+        Log.i(LOG_TAG, "time to first content: median " + firstContent[RUNS / 2]
+                + " ms, max " + firstContent[RUNS - 1] + " ms");
+        Log.i(LOG_TAG, "time to full content: median " + fullContent[RUNS / 2]
+                + " ms, max " + fullContent[RUNS - 1] + " ms");
+        assertTrue("First content should never come after the full catalog",
+                firstContent[RUNS / 2] <= fullContent[RUNS / 2]);
+    }
+
+    private static void waitForGauge(String name) throws InterruptedException {
+        long deadline = SystemClock.elapsedRealtime() + TIMEOUT_MS;
+        while (InventoryMetrics.getGauge(name) == 0) {
+            if (SystemClock.elapsedRealtime() > deadline) {
+                throw new AssertionError("Timed out waiting for " + name);
+            }
+            Thread.sleep(10);
+        }
+    }
+}
@@ -0,0 +1,246 @@
+package com.example.android.inventoryapp.data;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.os.SystemClock;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.example.android.inventoryapp.data.ProductContract.ProductEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Loads the same catalog from CSV (parse every line, insert every row) and from a
+ * {@link CatalogSnapshot}, checks that both give exactly the same products table, and logs how
+ * long each takes.
+ */
+@RunWith(AndroidJUnit4.class)
+public class CatalogSnapshotBenchmark {
+
+    private static final String LOG_TAG = CatalogSnapshotBenchmark.class.getSimpleName();
+
+    private static final int CATALOG_SIZE = 100000;
+    private static final int RUNS = 5;
+
+    private static final String[] COLUMNS = { ProductEntry._ID, ProductEntry.COLUMN_PRODUCT_NAME,
+            ProductEntry.COLUMN_PRODUCT_NAME_KEY, ProductEntry.COLUMN_PRODUCT_STOCK,
+            ProductEntry.COLUMN_PRODUCT_PRICE, ProductEntry.COLUMN_PRODUCT_PICTURE,
+            ProductEntry.COLUMN_PRODUCT_REORDER_THRESHOLD };
+
+    private File mCsv;
+    private File mSnapshot;
+    private File mCsvDatabase;
+    private File mSnapshotDatabase;
+
+    @Before
+    public void setUp() throws IOException {
+        Context context = InstrumentationRegistry.getTargetContext();
+        mCsv = new File(context.getCacheDir(), "catalog.csv");
+        mSnapshot = new File(context.getCacheDir(), "catalog.snapshot");
+        mCsvDatabase = context.getDatabasePath("catalog_csv.db");
+        mSnapshotDatabase = context.getDatabasePath("catalog_snapshot.db");
+        mCsvDatabase.getParentFile().mkdirs();
+
+        CatalogSnapshot.Writer snapshot = new CatalogSnapshot.Writer();
+        Writer csv = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(mCsv), "UTF-8"));
+        try {
+            for (int i = 1; i <= CATALOG_SIZE; i++) {
+                // Commas, quotes and non-ASCII characters, so both paths must get escaping right
+                String name = "Product " + i + (i % 7 == 0 ? ", \"special\" édition" : "");
+                String picture = i % 3 == 0 ? ProductEntry.NO_IMAGE : "content://pictures/" + i;
+                snapshot.add(i, name, i % 50, i * 10, picture, i % 5);
+                csv.write(i + "," + quote(name) + "," + (i % 50) + "," + (i * 10) + ","
+                        + quote(picture) + "," + (i % 5) + "\n");
+            }
+        } finally {
+            csv.close();
+        }
+        OutputStream out = new FileOutputStream(mSnapshot);
+        try {
+            snapshot.writeTo(out);
+        } finally {
+            out.close();
+        }
+        Log.i(LOG_TAG, "csv " + mCsv.length() / 1024 + " KiB, snapshot "
+                + mSnapshot.length() / 1024 + " KiB");
+    }
+
+    @After
+    public void tearDown() {
+        mCsv.delete();
+        mSnapshot.delete();
+        SQLiteDatabase.deleteDatabase(mCsvDatabase);
+        SQLiteDatabase.deleteDatabase(mSnapshotDatabase);
+    }
+
+    @Test
+    public void snapshotMatchesCsvAndLoadsFaster() throws IOException {
+        long[] csvTimes = new long[RUNS];
+        long[] snapshotTimes = new long[RUNS];
+        for (int run = 0; run < RUNS; run++) {
+            SQLiteDatabase csvDb = createDatabase(mCsvDatabase);
+            SQLiteDatabase snapshotDb = createDatabase(mSnapshotDatabase);
+            try {
+                long start = SystemClock.elapsedRealtime();
+                loadCsv(csvDb);
+                csvTimes[run] = SystemClock.elapsedRealtime() - start;
+
+                start = SystemClock.elapsedRealtime();
+                CatalogSnapshot.open(mSnapshot).loadInto(snapshotDb);
+                snapshotTimes[run] = SystemClock.elapsedRealtime() - start;
+
+                if (run == 0) {
+                    assertSameProducts(csvDb, snapshotDb);
+                }
+            } finally {
+                csvDb.close();
+                snapshotDb.close();
+            }
+        }
+
+        Arrays.sort(csvTimes);
+        Arrays.sort(snapshotTimes);
+        Log.i(LOG_TAG, "load " + CATALOG_SIZE + " products: csv median " + csvTimes[RUNS / 2]
+                + " ms, snapshot median " + snapshotTimes[RUNS / 2] + " ms");
+        assertTrue("Loading the snapshot should not be slower than the CSV",
+                snapshotTimes[RUNS / 2] <= csvTimes[RUNS / 2]);
+    }
+
+    @Test
+    public void readsStraightFromTheMapping() throws IOException {
+        CatalogSnapshot snapshot = CatalogSnapshot.open(mSnapshot);
+        snapshot.verify();
+        assertEquals(CATALOG_SIZE, snapshot.size());
+
+        int position = snapshot.findPosition(70);
+        assertEquals(70, snapshot.getId(position));
+        assertEquals("Product 70, \"special\" édition", snapshot.getName(position));
+        assertEquals(20, snapshot.getStock(position));
+        assertEquals(700, snapshot.getPrice(position));
+        assertTrue(snapshot.findPosition(CATALOG_SIZE + 1) < 0);
+    }
+
+    /** A fresh database with the products table at the current schema version */
+    private static SQLiteDatabase createDatabase(File file) {
+        SQLiteDatabase.deleteDatabase(file);
+        SQLiteDatabase db = SQLiteDatabase.openOrCreateDatabase(file, null);
+        db.execSQL("CREATE TABLE " + ProductEntry.TABLE_NAME + " ("
+                + ProductEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+                + ProductEntry.COLUMN_PRODUCT_NAME + " TEXT NOT NULL, "
+                + ProductEntry.COLUMN_PRODUCT_STOCK + " INTEGER NOT NULL DEFAULT 0, "
+                + ProductEntry.COLUMN_PRODUCT_PRICE + " INTEGER NOT NULL DEFAULT 0, "
+                + ProductEntry.COLUMN_PRODUCT_PICTURE + " TEXT NOT NULL, "
+                + ProductEntry.COLUMN_PRODUCT_VERSION + " INTEGER NOT NULL DEFAULT 0, "
+                + ProductEntry.COLUMN_PRODUCT_REORDER_THRESHOLD + " INTEGER NOT NULL DEFAULT 0, "
+                + ProductEntry.COLUMN_PRODUCT_NAME_KEY + " TEXT)");
+        return db;
+    }
+
+    /** The CSV path: parse every line and insert it, in one transaction */
+    private void loadCsv(SQLiteDatabase db) throws IOException {
+        SQLiteStatement insert = db.compileStatement("INSERT INTO " + ProductEntry.TABLE_NAME
+                + " (" + ProductEntry._ID + ", " + ProductEntry.COLUMN_PRODUCT_NAME + ", "
+                + ProductEntry.COLUMN_PRODUCT_NAME_KEY + ", " + ProductEntry.COLUMN_PRODUCT_STOCK
+                + ", " + ProductEntry.COLUMN_PRODUCT_PRICE + ", "
+                + ProductEntry.COLUMN_PRODUCT_PICTURE + ", "
+                + ProductEntry.COLUMN_PRODUCT_REORDER_THRESHOLD + ") VALUES (?, ?, ?, ?, ?, ?, ?)");
+        BufferedReader reader = new BufferedReader(
+                new InputStreamReader(new FileInputStream(mCsv), "UTF-8"));
+        db.beginTransaction();
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                List<String> fields = parseCsvLine(line);
+                insert.bindLong(1, Long.parseLong(fields.get(0)));
+                insert.bindString(2, fields.get(1));
+                insert.bindString(3, ProductEntry.normalizeName(fields.get(1)));
+                insert.bindLong(4, Integer.parseInt(fields.get(2)));
+                insert.bindLong(5, Integer.parseInt(fields.get(3)));
+                insert.bindString(6, fields.get(4));
+                insert.bindLong(7, Integer.parseInt(fields.get(5)));
+                insert.executeInsert();
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            insert.close();
+            reader.close();
+        }
+    }
+
+    private static void assertSameProducts(SQLiteDatabase expected, SQLiteDatabase actual) {
+        Cursor expectedRows = expected.query(ProductEntry.TABLE_NAME, COLUMNS, null, null,
+                null, null, ProductEntry._ID);
+        Cursor actualRows = actual.query(ProductEntry.TABLE_NAME, COLUMNS, null, null,
+                null, null, ProductEntry._ID);
+        try {
+            assertEquals(CATALOG_SIZE, expectedRows.getCount());
+            assertEquals(expectedRows.getCount(), actualRows.getCount());
+            while (expectedRows.moveToNext() && actualRows.moveToNext()) {
+                for (int i = 0; i < COLUMNS.length; i++) {
+                    assertEquals(COLUMNS[i], expectedRows.getString(i), actualRows.getString(i));
+                }
+            }
+        } finally {
+            expectedRows.close();
+            actualRows.close();
+        }
+    }
+
+    private static String quote(String value) {
+        return "\"" + value.replace("\"", "\"\"") + "\"";
+    }
+
+    /** Split a CSV line, with fields optionally quoted and quotes doubled inside them */
+    private static List<String> parseCsvLine(String line) {
+        List<String> fields = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quoted) {
+                if (c == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    field.append('"');
+                    i++;
+                } else if (c == '"') {
+                    quoted = false;
+                } else {
+                    field.append(c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+        fields.add(field.toString());
+        return fields;
+    }
+}
@@ -0,0 +1,199 @@
+package com.example.android.inventoryapp.data;
+
+import android.content.Context;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.os.Debug;
+import android.os.SystemClock;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.example.android.inventoryapp.data.ProductContract.ProductEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Measures backup time and peak memory of {@link DatabaseBackup} on a catalog of a million
+ * products, and checks that a restored backup holds the same rows and that a damaged one is
+ * rejected.
+ */
+@RunWith(AndroidJUnit4.class)
+public class DatabaseBackupBenchmark {
+
+    private static final String LOG_TAG = DatabaseBackupBenchmark.class.getSimpleName();
+
+    private static final int CATALOG_SIZE = 1000000;
+
+    /** How often the memory sampler looks at the heap */
+    private static final long SAMPLE_INTERVAL_MS = 5;
+
+    private File mDatabase;
+    private File mBackup;
+
+    @Before
+    public void setUp() {
+        Context context = InstrumentationRegistry.getTargetContext();
+        mDatabase = context.getDatabasePath("backup_benchmark.db");
+        mBackup = new File(context.getCacheDir(), "backup_benchmark.bak");
+        SQLiteDatabase.deleteDatabase(mDatabase);
+        mDatabase.getParentFile().mkdirs();
+
+        // The schema of the app, with its triggers and AUTOINCREMENT tables
+        ProductDbHelper helper = new ProductDbHelper(context, mDatabase.getName());
+        SQLiteDatabase db = helper.getWritableDatabase();
+        try {
+            SQLiteStatement insert = db.compileStatement("INSERT INTO " + ProductEntry.TABLE_NAME
+                    + " (" + ProductEntry.COLUMN_PRODUCT_NAME + ", " + ProductEntry.COLUMN_PRODUCT_STOCK
+                    + ", " + ProductEntry.COLUMN_PRODUCT_PRICE + ", " + ProductEntry.COLUMN_PRODUCT_PICTURE
+                    + ") VALUES (?, ?, ?, ?)");
+            db.beginTransaction();
+            try {
+                for (int i = 0; i < CATALOG_SIZE; i++) {
+                    insert.bindString(1, "Product " + i);
+                    insert.bindLong(2, i % 50);
+                    insert.bindLong(3, i);
+                    insert.bindString(4, ProductEntry.NO_IMAGE);
+                    insert.executeInsert();
+                }
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+                insert.close();
+            }
+        } finally {
+            helper.close();
+        }
+    }
+
+    @After
+    public void tearDown() {
+        SQLiteDatabase.deleteDatabase(mDatabase);
+        SQLiteDatabase.deleteDatabase(new File(mDatabase.getPath() + ".restore"));
+        mBackup.delete();
+    }
+
+    @Test
+    public void backupAndRestoreMillionProducts() throws Exception {
+        Runtime.getRuntime().gc();
+        MemorySampler sampler = new MemorySampler();
+        sampler.start();
+        long start = SystemClock.elapsedRealtime();
+        OutputStream out = new BufferedOutputStream(new FileOutputStream(mBackup));
+        DatabaseBackup.Result result;
+        try {
+            result = DatabaseBackup.backup(mDatabase, out);
+        } finally {
+            out.close();
+        }
+        long backupMs = SystemClock.elapsedRealtime() - start;
+        sampler.finish();
+
+        Log.i(LOG_TAG, "backup of " + result.rows + " rows: " + backupMs + " ms, "
+                + mBackup.length() / 1024 + " KiB, peak java heap growth "
+                + sampler.mPeakJavaHeap / 1024 + " KiB, peak native heap growth "
+                + sampler.mPeakNativeHeap / 1024 + " KiB");
+        // The rows of the other tables the triggers fill count as well
+        assertTrue(result.rows > CATALOG_SIZE);
+
+        start = SystemClock.elapsedRealtime();
+        File restored = restore();
+        Log.i(LOG_TAG, "restore: " + (SystemClock.elapsedRealtime() - start) + " ms");
+        SQLiteDatabase db = SQLiteDatabase.openDatabase(restored.getPath(), null,
+                SQLiteDatabase.OPEN_READONLY);
+        try {
+            assertEquals(CATALOG_SIZE, DatabaseUtils.queryNumEntries(db, ProductEntry.TABLE_NAME));
+            assertEquals(CATALOG_SIZE, DatabaseUtils.longForQuery(db, "SELECT seq FROM"
+                    + " sqlite_sequence WHERE name = ?", new String[] { ProductEntry.TABLE_NAME }));
+        } finally {
+            db.close();
+        }
+    }
+
+    @Test
+    public void damagedBackupIsRejected() throws Exception {
+        OutputStream out = new BufferedOutputStream(new FileOutputStream(mBackup));
+        try {
+            DatabaseBackup.backup(mDatabase, out);
+        } finally {
+            out.close();
+        }
+
+        // Flip a byte in the middle of the compressed data
+        RandomAccessFile file = new RandomAccessFile(mBackup, "rw");
+        try {
+            file.seek(file.length() / 2);
+            int value = file.read();
+            file.seek(file.length() / 2);
+            file.write(value ^ 0xff);
+        } finally {
+            file.close();
+        }
+
+        try {
+            restore();
+            fail("A damaged backup must not be restored");
+        } catch (IOException expected) {
+            assertEquals(false, new File(mDatabase.getPath() + ".restore").exists());
+        }
+    }
+
+    private File restore() throws IOException {
+        InputStream in = new BufferedInputStream(new FileInputStream(mBackup));
+        try {
+            return DatabaseBackup.restoreToTemporaryFile(in, mDatabase, Integer.MAX_VALUE);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Samples the Java and native heap on its own thread, and keeps the largest growth over
+     * the size at start.
+     */
+    private static class MemorySampler extends Thread {
+        private final long mJavaHeapAtStart = usedJavaHeap();
+        private final long mNativeHeapAtStart = Debug.getNativeHeapAllocatedSize();
+        private volatile boolean mRunning = true;
+        long mPeakJavaHeap;
+        long mPeakNativeHeap;
+
+        @Override
+        public void run() {
+            while (mRunning) {
+                mPeakJavaHeap = Math.max(mPeakJavaHeap, usedJavaHeap() - mJavaHeapAtStart);
+                mPeakNativeHeap = Math.max(mPeakNativeHeap,
+                        Debug.getNativeHeapAllocatedSize() - mNativeHeapAtStart);
+                SystemClock.sleep(SAMPLE_INTERVAL_MS);
+            }
+        }
+
+        void finish() throws InterruptedException {
+            mRunning = false;
+            join();
+        }
+
+        private static long usedJavaHeap() {
+            Runtime runtime = Runtime.getRuntime();
+            return runtime.totalMemory() - runtime.freeMemory();
+        }
+    }
+}
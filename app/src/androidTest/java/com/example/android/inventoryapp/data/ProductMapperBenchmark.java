@@ -0,0 +1,163 @@
+package com.example.android.inventoryapp.data;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.os.SystemClock;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.example.android.inventoryapp.data.ProductContract.ProductEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Reads every row of the same cursor twice, looking the columns up by name for every row as
+ * the list and the editor used to, and through one {@link ProductMapper}. Checks that both read
+ * the same products, and logs how long each takes.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ProductMapperBenchmark {
+
+    private static final String LOG_TAG = ProductMapperBenchmark.class.getSimpleName();
+
+    private static final int CATALOG_SIZE = 20000;
+    private static final int RUNS = 9;
+
+    private File mDatabaseFile;
+    private SQLiteDatabase mDb;
+
+    @Before
+    public void setUp() {
+        Context context = InstrumentationRegistry.getTargetContext();
+        mDatabaseFile = context.getDatabasePath("product_mapper.db");
+        mDatabaseFile.getParentFile().mkdirs();
+        SQLiteDatabase.deleteDatabase(mDatabaseFile);
+        mDb = SQLiteDatabase.openOrCreateDatabase(mDatabaseFile, null);
+        mDb.execSQL("CREATE TABLE " + ProductEntry.TABLE_NAME + " ("
+                + ProductEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+                + ProductEntry.COLUMN_PRODUCT_NAME + " TEXT NOT NULL, "
+                + ProductEntry.COLUMN_PRODUCT_STOCK + " INTEGER NOT NULL DEFAULT 0, "
+                + ProductEntry.COLUMN_PRODUCT_PRICE + " INTEGER NOT NULL DEFAULT 0, "
+                + ProductEntry.COLUMN_PRODUCT_PICTURE + " TEXT NOT NULL, "
+                + ProductEntry.COLUMN_PRODUCT_VERSION + " INTEGER NOT NULL DEFAULT 0, "
+                + ProductEntry.COLUMN_PRODUCT_REORDER_THRESHOLD + " INTEGER NOT NULL DEFAULT 0)");
+
+        SQLiteStatement insert = mDb.compileStatement("INSERT INTO " + ProductEntry.TABLE_NAME
+                + " (" + ProductEntry.COLUMN_PRODUCT_NAME + ", " + ProductEntry.COLUMN_PRODUCT_STOCK
+                + ", " + ProductEntry.COLUMN_PRODUCT_PRICE + ", "
+                + ProductEntry.COLUMN_PRODUCT_PICTURE + ") VALUES (?, ?, ?, ?)");
+        mDb.beginTransaction();
+        try {
+            for (int i = 0; i < CATALOG_SIZE; i++) {
+                insert.bindString(1, "Product " + i);
+                insert.bindLong(2, i % 50);
+                insert.bindLong(3, i * 10);
+                insert.bindString(4, ProductEntry.NO_IMAGE);
+                insert.executeInsert();
+            }
+            mDb.setTransactionSuccessful();
+        } finally {
+            mDb.endTransaction();
+            insert.close();
+        }
+    }
+
+    @After
+    public void tearDown() {
+        mDb.close();
+        SQLiteDatabase.deleteDatabase(mDatabaseFile);
+    }
+
+    @Test
+    public void mapperMatchesLookupByNameAndIsFaster() {
+        // The same projection and column order as the catalog list
+        Cursor cursor = mDb.query(ProductEntry.TABLE_NAME, Product.COLUMNS, null, null,
+                null, null, null);
+        try {
+            // Fill the cursor window first, so both only measure reading it
+            assertEquals(CATALOG_SIZE, cursor.getCount());
+
+            long[] byNameTimes = new long[RUNS];
+            long[] mapperTimes = new long[RUNS];
+            long byNameSum = 0;
+            long mapperSum = 0;
+            for (int run = 0; run < RUNS; run++) {
+                long start = SystemClock.elapsedRealtimeNanos();
+                byNameSum = 0;
+                cursor.moveToPosition(-1);
+                while (cursor.moveToNext()) {
+                    byNameSum += checksum(readByName(cursor));
+                }
+                byNameTimes[run] = SystemClock.elapsedRealtimeNanos() - start;
+
+                start = SystemClock.elapsedRealtimeNanos();
+                mapperSum = 0;
+                ProductMapper mapper = ProductMapper.forCursor(cursor);
+                cursor.moveToPosition(-1);
+                while (cursor.moveToNext()) {
+                    mapperSum += checksum(mapper.read(cursor));
+                }
+                mapperTimes[run] = SystemClock.elapsedRealtimeNanos() - start;
+            }
+            assertEquals(byNameSum, mapperSum);
+
+            Arrays.sort(byNameTimes);
+            Arrays.sort(mapperTimes);
+            Log.i(LOG_TAG, "read " + CATALOG_SIZE + " products: by name median "
+                    + byNameTimes[RUNS / 2] / 1000 + " us, mapper median "
+                    + mapperTimes[RUNS / 2] / 1000 + " us");
+            assertTrue("Reading through the mapper should not be slower than by name",
+                    mapperTimes[RUNS / 2] <= byNameTimes[RUNS / 2]);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Test
+    public void reuseKeepsUnchangedSnapshots() {
+        Cursor cursor = mDb.query(ProductEntry.TABLE_NAME, Product.COLUMNS, null, null,
+                null, null, ProductEntry._ID, "2");
+        try {
+            ProductMapper mapper = ProductMapper.forCursor(cursor);
+            cursor.moveToFirst();
+            Product first = mapper.read(cursor);
+            assertTrue(mapper.reuse(first, cursor) == first);
+            cursor.moveToNext();
+            assertEquals(2, mapper.reuse(first, cursor).getId());
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /** How rows were read before the mapper: every column looked up by name, for every row */
+    private static Product readByName(Cursor cursor) {
+        return new Product(
+                cursor.getLong(cursor.getColumnIndexOrThrow(ProductEntry._ID)),
+                cursor.getString(cursor.getColumnIndexOrThrow(ProductEntry.COLUMN_PRODUCT_NAME)),
+                cursor.getInt(cursor.getColumnIndexOrThrow(ProductEntry.COLUMN_PRODUCT_STOCK)),
+                cursor.getInt(cursor.getColumnIndexOrThrow(ProductEntry.COLUMN_PRODUCT_PRICE)),
+                cursor.getString(cursor.getColumnIndexOrThrow(ProductEntry.COLUMN_PRODUCT_PICTURE)),
+                cursor.getInt(cursor.getColumnIndexOrThrow(ProductEntry.COLUMN_PRODUCT_VERSION)),
+                cursor.getInt(cursor.getColumnIndexOrThrow(
+                        ProductEntry.COLUMN_PRODUCT_REORDER_THRESHOLD)));
+    }
+
+    /** Uses every field, so neither loop can be optimized away */
+    private static long checksum(Product product) {
+        return product.getId() + product.getName().length() + product.getStock()
+                + product.getPrice() + product.getPicture().length() + product.getVersion()
+                + product.getReorderThreshold();
+    }
+}
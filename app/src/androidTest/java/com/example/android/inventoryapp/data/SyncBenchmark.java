@@ -0,0 +1,88 @@
+package com.example.android.inventoryapp.data;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.sqlite.SQLiteDatabase;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.example.android.inventoryapp.data.ProductContract.ProductEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Syncs 10,000 changed products from one store to another through the in-memory server, and
+ * logs the bytes sent and received and the time each store took.
+ */
+@RunWith(AndroidJUnit4.class)
+public class SyncBenchmark {
+
+    private static final String LOG_TAG = SyncBenchmark.class.getSimpleName();
+
+    private static final int CHANGES = 10000;
+
+    private File mSourceFile;
+    private File mTargetFile;
+    private ProductDbHelper mSource;
+    private ProductDbHelper mTarget;
+
+    @Before
+    public void setUp() {
+        Context context = InstrumentationRegistry.getTargetContext();
+        mSourceFile = context.getDatabasePath("sync_source.db");
+        mTargetFile = context.getDatabasePath("sync_target.db");
+        SQLiteDatabase.deleteDatabase(mSourceFile);
+        SQLiteDatabase.deleteDatabase(mTargetFile);
+        mSource = new ProductDbHelper(context, mSourceFile.getName());
+        mTarget = new ProductDbHelper(context, mTargetFile.getName());
+
+        SQLiteDatabase db = mSource.getWritableDatabase();
+        ContentValues values = new ContentValues();
+        db.beginTransaction();
+        try {
+            for (int i = 0; i < CHANGES; i++) {
+                values.put(ProductEntry.COLUMN_PRODUCT_NAME, "Product " + i);
+                values.put(ProductEntry.COLUMN_PRODUCT_NAME_KEY, "product " + i);
+                values.put(ProductEntry.COLUMN_PRODUCT_STOCK, i % 50);
+                values.put(ProductEntry.COLUMN_PRODUCT_PRICE, i * 10);
+                values.put(ProductEntry.COLUMN_PRODUCT_PICTURE, ProductEntry.NO_IMAGE);
+                db.insert(ProductEntry.TABLE_NAME, null, values);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    @After
+    public void tearDown() {
+        mSource.close();
+        mTarget.close();
+        SQLiteDatabase.deleteDatabase(mSourceFile);
+        SQLiteDatabase.deleteDatabase(mTargetFile);
+    }
+
+    @Test
+    public void syncTenThousandChanges() throws Exception {
+        InMemorySyncServer server = new InMemorySyncServer();
+        DatabaseExecutor executor = new DatabaseExecutor();
+
+        SyncReport push = new SyncClient(mSource.getWritableDatabase(), executor).sync(server);
+        SyncReport pull = new SyncClient(mTarget.getWritableDatabase(), executor).sync(server);
+        assertEquals(CHANGES, push.getPushed());
+        assertEquals(CHANGES, pull.getPulled());
+
+        Log.i(LOG_TAG, "pushing " + CHANGES + " changes: " + push.getBytesSent() + " B sent, "
+                + push.getBytesReceived() + " B received, " + push.getElapsedMillis() + " ms");
+        Log.i(LOG_TAG, "pulling " + CHANGES + " changes: " + pull.getBytesSent() + " B sent, "
+                + pull.getBytesReceived() + " B received, " + pull.getElapsedMillis() + " ms");
+    }
+}
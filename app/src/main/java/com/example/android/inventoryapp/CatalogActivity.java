@@ -1,24 +1,35 @@
 package com.example.android.inventoryapp;
 
+import android.app.AlertDialog;
 import android.app.LoaderManager;
 import android.content.ContentUris;
 import android.content.ContentValues;
+import android.content.Context;
 import android.content.CursorLoader;
+import android.content.DialogInterface;
 import android.content.Intent;
 import android.content.Loader;
 import android.database.Cursor;
 import android.net.Uri;
+import android.os.AsyncTask;
 import android.support.design.widget.FloatingActionButton;
 import android.support.v7.app.AppCompatActivity;
 import android.os.Bundle;
+import android.text.TextUtils;
 import android.util.Log;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
+import android.widget.AbsListView;
 import android.widget.AdapterView;
+import android.widget.EditText;
 import android.widget.ListView;
+import android.widget.Toast;
 
+import com.example.android.inventoryapp.data.InventoryHttpService;
+import com.example.android.inventoryapp.data.Product;
 import com.example.android.inventoryapp.data.ProductContract.ProductEntry;
+import com.example.android.inventoryapp.data.ProductContract.ProductQuery;
 
 
 /**
@@ -32,13 +43,59 @@ public class CatalogActivity extends AppCompatActivity implements
     /** Identifier for the product data loader */
     private static final int PRODUCT_LOADER = 0;
 
+    /** Identifier for the loader of the alphabetical sections, while sorted by name */
+    private static final int SECTIONS_LOADER = 1;
+
+    /** Key of the product query in the saved instance state */
+    private static final String STATE_QUERY = "query";
+
+    /** Key of the last queue entry of the purchase order being sent, in the saved state */
+    private static final String STATE_SENT_ORDER = "sent_order";
+
+    /** Request code of the e-mail app sending a purchase order */
+    private static final int REQUEST_SEND_ORDER = 1;
+
+    /** The sort and filters of the list, all of them answered by the provider */
+    private ProductQuery mQuery = new ProductQuery.Builder().build();
+
     /** Adapter for the ListView */
     ProductCursorAdapter mCursorAdapter;
 
+    /** Cold-start pipeline that shows products before the loader has finished */
+    private CatalogStartup mStartup;
+
+    /**
+     * Last queue entry of the purchase order handed to the e-mail app, or -1 while none is.
+     * Its entries are only marked as ordered once the user confirms the e-mail was sent.
+     */
+    private long mSentOrderLastEntryId = -1;
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
+
+        if (savedInstanceState != null && savedInstanceState.getString(STATE_QUERY) != null) {
+            mQuery = ProductQuery.fromUri(Uri.parse(savedInstanceState.getString(STATE_QUERY)));
+        }
+        if (savedInstanceState != null) {
+            mSentOrderLastEntryId = savedInstanceState.getLong(STATE_SENT_ORDER, -1);
+        }
+
+        // Start opening the database and reading the first products before inflating the UI,
+        // so both happen in parallel. Results arrive on the main thread after onCreate.
+        mStartup = new CatalogStartup(this, mQuery);
+        mStartup.start(new CatalogStartup.Listener() {
+            @Override
+            public void onStartupContent(Cursor cursor, String source) {
+                Cursor previous = mCursorAdapter.swapCursor(cursor);
+                if (previous != null) {
+                    previous.close();
+                }
+            }
+        });
+
         setContentView(R.layout.activity_catalog);
+
         // Setup FAB to open EditorActivity
         FloatingActionButton fab = (FloatingActionButton) findViewById(R.id.fab);
         fab.setOnClickListener(new View.OnClickListener() {
@@ -65,6 +122,27 @@ public class CatalogActivity extends AppCompatActivity implements
         mCursorAdapter = new ProductCursorAdapter(this, null);
         productListView.setAdapter(mCursorAdapter);
 
+        // The adapter indexes the list by first letter while it is sorted by name
+        productListView.setFastScrollEnabled(true);
+
+        // The loader may start with the first page only, load the rest once it is scrolled to
+        productListView.setOnScrollListener(new AbsListView.OnScrollListener() {
+            @Override
+            public void onScrollStateChanged(AbsListView view, int scrollState) {
+            }
+
+            @Override
+            public void onScroll(AbsListView view, int firstVisibleItem, int visibleItemCount,
+                                 int totalItemCount) {
+                if (totalItemCount > 0 && firstVisibleItem + visibleItemCount >= totalItemCount) {
+                    Loader<Cursor> loader = getLoaderManager().getLoader(PRODUCT_LOADER);
+                    if (loader instanceof CatalogLoader) {
+                        ((CatalogLoader) loader).loadRest();
+                    }
+                }
+            }
+        });
+
         // Setup the item click listener
         productListView.setOnItemClickListener(new AdapterView.OnItemClickListener() {
             @Override
@@ -83,6 +161,13 @@ public class CatalogActivity extends AppCompatActivity implements
                 // Set the URI on the data field of the intent
                 intent.setData(currentProductUri);
 
+                // Hand over the row we are already showing, so the editor can render it
+                // right away instead of waiting for its own query.
+                Product product = mCursorAdapter.getProduct(position);
+                if (product != null) {
+                    intent.putExtra(EditorActivity.EXTRA_PRODUCT, product);
+                }
+
                 // Launch the {@link EditorActivity} to display the data for the current product.
                 startActivity(intent);
             }
@@ -90,6 +175,124 @@ public class CatalogActivity extends AppCompatActivity implements
 
         // Kick off the loader
         getLoaderManager().initLoader(PRODUCT_LOADER, null, this);
+        if (hasSections()) {
+            getLoaderManager().initLoader(SECTIONS_LOADER, null, this);
+        }
+    }
+
+    /**
+     * Returns whether or not the list has alphabetical sections, which it only has while it
+     * is sorted by name.
+     */
+    private boolean hasSections() {
+        return ProductEntry.SORT_NAME.equals(mQuery.getSort());
+    }
+
+    @Override
+    protected void onSaveInstanceState(Bundle outState) {
+        super.onSaveInstanceState(outState);
+        outState.putString(STATE_QUERY, mQuery.toUri().toString());
+        outState.putLong(STATE_SENT_ORDER, mSentOrderLastEntryId);
+    }
+
+    /**
+     * Show the products of the given query from now on.
+     */
+    private void setQuery(ProductQuery query) {
+        mQuery = query;
+        invalidateOptionsMenu();
+        getLoaderManager().restartLoader(PRODUCT_LOADER, null, this);
+        if (hasSections()) {
+            getLoaderManager().restartLoader(SECTIONS_LOADER, null, this);
+        } else {
+            getLoaderManager().destroyLoader(SECTIONS_LOADER);
+            mCursorAdapter.setSections(null);
+        }
+    }
+
+    /**
+     * Sort by the given key. A filter only goes with the sort on its own column, so any
+     * other filter is dropped.
+     */
+    private void sortBy(String sort) {
+        ProductQuery.Builder builder = mQuery.buildUpon().setSort(sort, mQuery.isDescending());
+        if (!ProductEntry.SORT_NAME.equals(sort)) {
+            builder.setNamePrefix(null);
+        }
+        if (!ProductEntry.SORT_PRICE.equals(sort)) {
+            builder.setPriceRange(null, null);
+        }
+        setQuery(builder.build());
+    }
+
+    /**
+     * Show a dialog to filter by the start of the name or by a price range. The list is then
+     * sorted by the filtered column.
+     */
+    private void showFilterDialog() {
+        View view = getLayoutInflater().inflate(R.layout.dialog_filter, null);
+        final EditText namePrefixEditText = (EditText) view.findViewById(R.id.filter_name_prefix);
+        final EditText minPriceEditText = (EditText) view.findViewById(R.id.filter_min_price);
+        final EditText maxPriceEditText = (EditText) view.findViewById(R.id.filter_max_price);
+        if (mQuery.getNamePrefix() != null) {
+            namePrefixEditText.setText(mQuery.getNamePrefix());
+        }
+        if (mQuery.getMinPrice() != null) {
+            minPriceEditText.setText(String.valueOf(mQuery.getMinPrice()));
+        }
+        if (mQuery.getMaxPrice() != null) {
+            maxPriceEditText.setText(String.valueOf(mQuery.getMaxPrice()));
+        }
+
+        AlertDialog.Builder builder = new AlertDialog.Builder(this);
+        builder.setTitle(R.string.filter_dialog_title);
+        builder.setView(view);
+        builder.setPositiveButton(R.string.filter_apply, new DialogInterface.OnClickListener() {
+            @Override
+            public void onClick(DialogInterface dialog, int id) {
+                String namePrefix = namePrefixEditText.getText().toString().trim();
+                Integer minPrice = parsePrice(minPriceEditText);
+                Integer maxPrice = parsePrice(maxPriceEditText);
+                ProductQuery.Builder query = mQuery.buildUpon();
+                if (!TextUtils.isEmpty(namePrefix)) {
+                    // The name wins if both were filled in, the two don't go together
+                    query.setSort(ProductEntry.SORT_NAME, mQuery.isDescending())
+                            .setNamePrefix(namePrefix)
+                            .setPriceRange(null, null);
+                } else if (minPrice != null || maxPrice != null) {
+                    query.setSort(ProductEntry.SORT_PRICE, mQuery.isDescending())
+                            .setNamePrefix(null)
+                            .setPriceRange(minPrice, maxPrice);
+                } else {
+                    query.setNamePrefix(null).setPriceRange(null, null);
+                }
+                try {
+                    setQuery(query.build());
+                } catch (IllegalArgumentException e) {
+                    Toast.makeText(CatalogActivity.this, R.string.toast_invalid_filter,
+                            Toast.LENGTH_SHORT).show();
+                }
+            }
+        });
+        builder.setNegativeButton(R.string.filter_clear, new DialogInterface.OnClickListener() {
+            @Override
+            public void onClick(DialogInterface dialog, int id) {
+                setQuery(mQuery.buildUpon().setNamePrefix(null).setPriceRange(null, null).build());
+            }
+        });
+        builder.create().show();
+    }
+
+    /**
+     * Returns the price in the EditText, or null if it is empty or not a number.
+     */
+    private static Integer parsePrice(EditText editText) {
+        String price = editText.getText().toString().trim();
+        try {
+            return TextUtils.isEmpty(price) ? null : Integer.valueOf(price);
+        } catch (NumberFormatException e) {
+            return null;
+        }
     }
 
     /**
@@ -120,6 +323,104 @@ public class CatalogActivity extends AppCompatActivity implements
         Log.v("CatalogActivity", rowsDeleted + "rows deleted from product database");
     }
 
+    /**
+     * Switch the server that lets terminals on the same network read the stock on or off.
+     */
+    private void setServingOnNetwork(boolean enabled) {
+        InventoryHttpService.setEnabled(this, enabled);
+        if (enabled) {
+            Toast.makeText(this, getString(R.string.toast_serving_on_network,
+                    InventoryHttpService.PORT), Toast.LENGTH_SHORT).show();
+        }
+    }
+
+    /**
+     * Send one purchase order for every product on the reorder queue that is not ordered yet.
+     * The queue is read off the main thread, then the order goes to the e-mail app.
+     */
+    private void orderLowStock() {
+        new ComposeOrderTask().execute();
+    }
+
+    /**
+     * The e-mail app doesn't tell whether the purchase order was sent, so ask the user before
+     * taking its products off the pending queue. Otherwise they stay on it for the next order.
+     */
+    @Override
+    protected void onActivityResult(int requestCode, int resultCode, Intent data) {
+        super.onActivityResult(requestCode, resultCode, data);
+        if (requestCode != REQUEST_SEND_ORDER || mSentOrderLastEntryId == -1) {
+            return;
+        }
+        final long lastEntryId = mSentOrderLastEntryId;
+        mSentOrderLastEntryId = -1;
+
+        AlertDialog.Builder builder = new AlertDialog.Builder(this);
+        builder.setMessage(R.string.order_sent_dialog_msg);
+        builder.setPositiveButton(R.string.order_sent, new DialogInterface.OnClickListener() {
+            @Override
+            public void onClick(DialogInterface dialog, int id) {
+                new MarkOrderedTask(getApplicationContext(), lastEntryId).execute();
+            }
+        });
+        builder.setNegativeButton(R.string.order_not_sent, null);
+        builder.create().show();
+    }
+
+    /**
+     * Composes the purchase order off the main thread, then hands it to the e-mail app.
+     */
+    private class ComposeOrderTask extends AsyncTask<Void, Void, PurchaseOrder> {
+        private final Context mContext = getApplicationContext();
+
+        @Override
+        protected PurchaseOrder doInBackground(Void... params) {
+            return PurchaseOrder.fromPendingQueue(mContext);
+        }
+
+        @Override
+        protected void onPostExecute(PurchaseOrder order) {
+            if (isFinishing()) {
+                return;
+            }
+            if (order == null) {
+                Toast.makeText(CatalogActivity.this, R.string.toast_nothing_to_reorder,
+                        Toast.LENGTH_SHORT).show();
+                return;
+            }
+            Intent intent = order.toEmailIntent();
+            if (intent.resolveActivity(getPackageManager()) != null) {
+                //send off the email, the products stay pending until the user confirms it
+                mSentOrderLastEntryId = order.getLastEntryId();
+                startActivityForResult(intent, REQUEST_SEND_ORDER);
+            }
+        }
+    }
+
+    /**
+     * Takes the products of a sent purchase order off the pending queue, off the main thread.
+     * Only keeps the application context, so it may finish after the activity is gone.
+     */
+    private static class MarkOrderedTask extends AsyncTask<Void, Void, Integer> {
+        private final Context mContext;
+        private final long mLastEntryId;
+
+        MarkOrderedTask(Context context, long lastEntryId) {
+            mContext = context;
+            mLastEntryId = lastEntryId;
+        }
+
+        @Override
+        protected Integer doInBackground(Void... params) {
+            return PurchaseOrder.markAsOrdered(mContext.getContentResolver(), mLastEntryId);
+        }
+
+        @Override
+        protected void onPostExecute(Integer ordered) {
+            Log.v(LOG_TAG, ordered + " products put on a purchase order");
+        }
+    }
+
     @Override
     public boolean onCreateOptionsMenu(Menu menu) {
         // Inflate the menu options from the res/menu/menu_catalog.xml file.
@@ -128,10 +429,66 @@ public class CatalogActivity extends AppCompatActivity implements
         return true;
     }
 
+    @Override
+    public boolean onPrepareOptionsMenu(Menu menu) {
+        // Reflect the current query in the sort and filter options
+        int sortItem;
+        if (ProductEntry.SORT_NAME.equals(mQuery.getSort())) {
+            sortItem = R.id.action_sort_name;
+        } else if (ProductEntry.SORT_PRICE.equals(mQuery.getSort())) {
+            sortItem = R.id.action_sort_price;
+        } else if (ProductEntry.SORT_STOCK.equals(mQuery.getSort())) {
+            sortItem = R.id.action_sort_stock;
+        } else {
+            sortItem = R.id.action_sort_added;
+        }
+        menu.findItem(sortItem).setChecked(true);
+        menu.findItem(R.id.action_sort_descending).setChecked(mQuery.isDescending());
+        menu.findItem(R.id.action_in_stock_only).setChecked(mQuery.isInStockOnly());
+        menu.findItem(R.id.action_serve_on_network).setChecked(InventoryHttpService.isEnabled());
+        return super.onPrepareOptionsMenu(menu);
+    }
+
     @Override
     public boolean onOptionsItemSelected(MenuItem item) {
         // User clicked on a menu option in the app bar overflow menu
         switch (item.getItemId()) {
+            // Respond to a click on one of the sort options
+            case R.id.action_sort_added:
+                sortBy(ProductEntry.SORT_ADDED);
+                return true;
+            case R.id.action_sort_name:
+                sortBy(ProductEntry.SORT_NAME);
+                return true;
+            case R.id.action_sort_price:
+                sortBy(ProductEntry.SORT_PRICE);
+                return true;
+            case R.id.action_sort_stock:
+                sortBy(ProductEntry.SORT_STOCK);
+                return true;
+            case R.id.action_sort_descending:
+                setQuery(mQuery.buildUpon().setSort(mQuery.getSort(), !mQuery.isDescending()).build());
+                return true;
+            // Respond to a click on the "Filter" menu option
+            case R.id.action_filter:
+                showFilterDialog();
+                return true;
+            // Respond to a click on the "In stock only" menu option
+            case R.id.action_in_stock_only:
+                setQuery(mQuery.buildUpon().setInStockOnly(!mQuery.isInStockOnly()).build());
+                return true;
+            // Respond to a click on the "Order low stock" menu option
+            case R.id.action_order_low_stock:
+                orderLowStock();
+                return true;
+            // Respond to a click on the "Sales report" menu option
+            case R.id.action_sales_report:
+                startActivity(new Intent(this, ReportActivity.class));
+                return true;
+            // Respond to a click on the "Share stock on network" menu option
+            case R.id.action_serve_on_network:
+                setServingOnNetwork(!InventoryHttpService.isEnabled());
+                return true;
             // Respond to a click on the "Insert dummy data" menu option
             case R.id.action_insert_dummy_data:
                 insertProduct();
@@ -152,31 +509,53 @@ public class CatalogActivity extends AppCompatActivity implements
      */
     @Override
     public Loader<Cursor> onCreateLoader(int i, Bundle bundle) {
-        // Define a projection that specifies the columns from the table we care about.
-        String[] projection = {
-                ProductEntry._ID,
-                ProductEntry.COLUMN_PRODUCT_NAME,
-                ProductEntry.COLUMN_PRODUCT_STOCK,
-                ProductEntry.COLUMN_PRODUCT_PRICE,
-                ProductEntry.COLUMN_PRODUCT_PICTURE};
-
-        // This loader will execute the ContentProvider's query method on a background thread
-        return new CursorLoader(this,   // Parent activity context
-                ProductEntry.CONTENT_URI,   // Provider content URI to query
-                projection,             // Columns to include in the resulting Cursor
-                null,                   // No selection clause
-                null,                   // No selection arguments
-                null);                  // Default sort order
+        if (i == SECTIONS_LOADER) {
+            // One row per first letter, counted by the provider for the same query as the list
+            return new CursorLoader(this, mQuery.toSectionsUri(), null, null, null, null);
+        }
+
+        // This loader will execute the ContentProvider's query method on a background thread,
+        // unless the startup pipeline already read the first page of the same query.
+        return new CatalogLoader(this, mStartup, mQuery);
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        mStartup.cancel();
+        // A cursor from the startup pipeline is ours to close, loader cursors are not
+        if (!mStartup.isLoaderDelivered()) {
+            Cursor previous = mCursorAdapter.swapCursor(null);
+            if (previous != null) {
+                previous.close();
+            }
+        }
     }
 
     @Override
     public void onLoadFinished(Loader<Cursor> loader, Cursor data) {
+        if (loader.getId() == SECTIONS_LOADER) {
+            mCursorAdapter.setSections(data);
+            return;
+        }
+
         // Update {@link ProductCursorAdapter} with this new cursor containing updated product data
-        mCursorAdapter.swapCursor(data);
+        Cursor previous = mCursorAdapter.swapCursor(data);
+
+        // Until the loader delivered, the list showed a cursor from the startup pipeline
+        if (!mStartup.isLoaderDelivered() && previous != null) {
+            previous.close();
+        }
+        mStartup.onLoaderDelivered(data);
     }
 
     @Override
     public void onLoaderReset(Loader<Cursor> loader) {
+        if (loader.getId() == SECTIONS_LOADER) {
+            mCursorAdapter.setSections(null);
+            return;
+        }
+
         // Callback called when the data needs to be deleted
         mCursorAdapter.swapCursor(null);
     }
@@ -0,0 +1,66 @@
+package com.example.android.inventoryapp;
+
+import android.content.Context;
+import android.content.CursorLoader;
+import android.database.Cursor;
+
+import com.example.android.inventoryapp.data.Product;
+import com.example.android.inventoryapp.data.ProductContract.ProductQuery;
+
+/**
+ * Loads the products of the {@link CatalogActivity} for a {@link ProductQuery}.
+ *
+ * Its first load takes the first page of products the {@link CatalogStartup} read while the
+ * activity was created, rather than querying for the same rows again. That page ends after
+ * {@link CatalogStartup#FIRST_PAGE_SIZE} products, so if it is full, the rest of the catalog is
+ * loaded once the list is scrolled to its end ({@link #loadRest()}). Any change of the
+ * products loads the whole list as well.
+ */
+class CatalogLoader extends CursorLoader {
+
+    private final CatalogStartup mStartup;
+    private final ProductQuery mQuery;
+
+    /** Reloads when the products of a first page change, as the loader does for its own */
+    private final ForceLoadContentObserver mObserver = new ForceLoadContentObserver();
+
+    /** Whether or not the last result was a full first page, with more products after it */
+    private volatile boolean mPartial;
+
+    CatalogLoader(Context context, CatalogStartup startup, ProductQuery query) {
+        // The sort and filters travel in the URI, the provider turns them into SQL
+        super(context, query.toUri(), Product.COLUMNS, null, null, null);
+        mStartup = startup;
+        mQuery = query;
+    }
+
+    @Override
+    public Cursor loadInBackground() {
+        Cursor firstPage = mStartup.takeFirstPage(mQuery);
+        if (firstPage == null) {
+            mPartial = false;
+            return super.loadInBackground();
+        }
+        // The provider set the notification URI of the page, like that of any other query
+        firstPage.registerContentObserver(mObserver);
+        mPartial = firstPage.getCount() >= CatalogStartup.FIRST_PAGE_SIZE;
+        return firstPage;
+    }
+
+    /**
+     * Returns whether or not the list only holds the first page so far, with more to load.
+     */
+    boolean isPartial() {
+        return mPartial;
+    }
+
+    /**
+     * Load the whole list if only the first page is loaded so far.
+     */
+    void loadRest() {
+        if (mPartial) {
+            mPartial = false;
+            forceLoad();
+        }
+    }
+}
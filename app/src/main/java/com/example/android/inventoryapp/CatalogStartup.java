@@ -0,0 +1,257 @@
+package com.example.android.inventoryapp;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.os.AsyncTask;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.example.android.inventoryapp.data.InventoryMetrics;
+import com.example.android.inventoryapp.data.MaintenanceJobService;
+import com.example.android.inventoryapp.data.Product;
+import com.example.android.inventoryapp.data.ProductContract.ProductEntry;
+import com.example.android.inventoryapp.data.ProductContract.ProductQuery;
+import com.example.android.inventoryapp.data.StartupSnapshot;
+
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Cold-start pipeline of the {@link CatalogActivity}.
+ *
+ * Started before the activity inflates its layout, it reads the {@link StartupSnapshot} and
+ * then opens the database by fetching the first screen of products, both on a background
+ * thread. The snapshot is handed to the {@link Listener} if it arrives before the catalog
+ * loader has finished. The first page goes to the loader itself ({@link CatalogLoader}), which
+ * shows it as its first result rather than querying the same rows again, so opening the
+ * catalog costs a single query. Once the loader has delivered, the snapshot is refreshed for
+ * the next start.
+ */
+class CatalogStartup {
+
+    public static final String LOG_TAG = CatalogStartup.class.getSimpleName();
+
+    /** Metric names reported to {@link InventoryMetrics} */
+    static final String METRIC_TIME_TO_FIRST_CONTENT = "startup.time_to_first_content_ms";
+    static final String METRIC_TIME_TO_FULL_CONTENT = "startup.time_to_full_content_ms";
+    static final String METRIC_FIRST_CONTENT_PREFIX = "startup.first_content.";
+
+    /** Where the content handed to the {@link Listener} came from */
+    static final String SOURCE_SNAPSHOT = "snapshot";
+    static final String SOURCE_LOADER = "loader";
+
+    /** Most products of the first page */
+    static final int FIRST_PAGE_SIZE = StartupSnapshot.MAX_ROWS;
+
+    /**
+     * Receives early content on the main thread. The listener owns the cursor it is given.
+     */
+    interface Listener {
+        void onStartupContent(Cursor cursor, String source);
+    }
+
+    private final Context mContext;
+    private final ProductQuery mQuery;
+    private final long mStartTime;
+    private Listener mListener;
+    private PrefetchTask mPrefetchTask;
+
+    /** Whether or not the catalog loader delivered its first result */
+    private boolean mLoaderDelivered;
+    private boolean mFirstContentRecorded;
+
+    /** The rows last read from or written to the snapshot file */
+    private List<Product> mSnapshotRows;
+
+    /** The first page until the loader takes it, guarded by this */
+    private Cursor mFirstPage;
+    private boolean mCancelled;
+
+    /**
+     * Create the pipeline for the list of the given query, the one the catalog loader runs.
+     */
+    CatalogStartup(Context context, ProductQuery query) {
+        mContext = context.getApplicationContext();
+        mQuery = query;
+        mStartTime = SystemClock.elapsedRealtime();
+    }
+
+    /**
+     * Start reading the snapshot and the first page of products in the background.
+     */
+    void start(Listener listener) {
+        mListener = listener;
+        mPrefetchTask = new PrefetchTask();
+        mPrefetchTask.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+    }
+
+    /**
+     * Stop delivering content, e.g. because the activity is destroyed.
+     */
+    void cancel() {
+        mListener = null;
+        if (mPrefetchTask != null) {
+            mPrefetchTask.cancel(false);
+        }
+        synchronized (this) {
+            mCancelled = true;
+            if (mFirstPage != null) {
+                mFirstPage.close();
+                mFirstPage = null;
+            }
+        }
+    }
+
+    /**
+     * Returns the first page of products of the given query, or null if the page was read for
+     * another query, couldn't be read or was taken already. Waits for it while it is still
+     * being read, so this must not be called on the main thread. The caller owns the cursor.
+     */
+    Cursor takeFirstPage(ProductQuery query) {
+        if (mPrefetchTask == null || !mQuery.toUri().equals(query.toUri())) {
+            return null;
+        }
+        try {
+            mPrefetchTask.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException e) {
+            Log.w(LOG_TAG, "Reading the first page failed", e);
+            return null;
+        } catch (CancellationException e) {
+            return null;
+        }
+        synchronized (this) {
+            Cursor cursor = mFirstPage;
+            mFirstPage = null;
+            return cursor;
+        }
+    }
+
+    /**
+     * Returns whether or not the catalog loader delivered its first result. Until then, any
+     * cursor shown in the list came from the startup pipeline and is owned by the activity.
+     */
+    boolean isLoaderDelivered() {
+        return mLoaderDelivered;
+    }
+
+    /**
+     * Called on the main thread with every result of the catalog loader.
+     */
+    void onLoaderDelivered(Cursor cursor) {
+        if (!mLoaderDelivered) {
+            mLoaderDelivered = true;
+            recordFirstContent(SOURCE_LOADER);
+            InventoryMetrics.setGauge(METRIC_TIME_TO_FULL_CONTENT,
+                    SystemClock.elapsedRealtime() - mStartTime);
+        }
+        if (cursor == null) {
+            return;
+        }
+
+        // Keep the snapshot in sync with the top of the catalog, writing it only if it changed
+        List<Product> rows = StartupSnapshot.firstRows(cursor);
+        if (!rows.equals(mSnapshotRows)) {
+            mSnapshotRows = rows;
+            new SaveTask(mContext, rows).executeOnExecutor(AsyncTask.SERIAL_EXECUTOR);
+        }
+    }
+
+    /**
+     * Hand early content to the listener, unless the real content is already there.
+     */
+    private void deliver(Cursor cursor, String source) {
+        if (cursor == null) {
+            return;
+        }
+        if (mLoaderDelivered || mListener == null) {
+            cursor.close();
+            return;
+        }
+        recordFirstContent(source);
+        mListener.onStartupContent(cursor, source);
+    }
+
+    private void recordFirstContent(String source) {
+        if (mFirstContentRecorded) {
+            return;
+        }
+        mFirstContentRecorded = true;
+        long elapsed = SystemClock.elapsedRealtime() - mStartTime;
+        InventoryMetrics.setGauge(METRIC_TIME_TO_FIRST_CONTENT, elapsed);
+        InventoryMetrics.increment(METRIC_FIRST_CONTENT_PREFIX + source);
+        Log.v(LOG_TAG, "First content from " + source + " after " + elapsed + " ms");
+    }
+
+    /**
+     * Reads the snapshot, then opens the database with a query for the first page of products.
+     */
+    private class PrefetchTask extends AsyncTask<Void, Cursor, Void> {
+
+        @Override
+        protected Void doInBackground(Void... params) {
+            List<Product> snapshotRows = StartupSnapshot.read(mContext);
+            if (!snapshotRows.isEmpty()) {
+                publishProgress(StartupSnapshot.toCursor(snapshotRows));
+            }
+            if (isCancelled()) {
+                return null;
+            }
+
+            // The first page of the same sort and filters as the list, or the list would show
+            // other products until the loader has finished
+            Cursor cursor = mContext.getContentResolver().query(
+                    mQuery.toUri().buildUpon()
+                            .appendQueryParameter(ProductEntry.QUERY_LIMIT,
+                                    String.valueOf(StartupSnapshot.MAX_ROWS))
+                            .build(),
+                    Product.COLUMNS, null, null, null);
+            if (cursor != null) {
+                // Fill the cursor window here rather than on the main thread
+                cursor.getCount();
+                // Kept for the loader, unless the activity is gone already
+                synchronized (CatalogStartup.this) {
+                    if (mCancelled) {
+                        cursor.close();
+                    } else {
+                        mFirstPage = cursor;
+                    }
+                }
+            }
+
+            // Make sure the database maintenance is scheduled, now that the first page is in
+            MaintenanceJobService.schedule(mContext);
+            return null;
+        }
+
+        @Override
+        protected void onProgressUpdate(Cursor... cursors) {
+            if (mSnapshotRows == null) {
+                mSnapshotRows = StartupSnapshot.firstRows(cursors[0]);
+            }
+            deliver(cursors[0], SOURCE_SNAPSHOT);
+        }
+    }
+
+    /**
+     * Writes the snapshot file off the main thread.
+     */
+    private static class SaveTask extends AsyncTask<Void, Void, Void> {
+        private final Context mContext;
+        private final List<Product> mRows;
+
+        SaveTask(Context context, List<Product> rows) {
+            mContext = context;
+            mRows = rows;
+        }
+
+        @Override
+        protected Void doInBackground(Void... params) {
+            StartupSnapshot.write(mContext, mRows);
+            return null;
+        }
+    }
+}
@@ -26,7 +26,11 @@ import android.widget.EditText;
 import android.widget.ImageView;
 import android.widget.Toast;
 
+import com.example.android.inventoryapp.data.Product;
+import com.example.android.inventoryapp.data.ProductMapper;
 import com.example.android.inventoryapp.data.ProductContract.ProductEntry;
+import com.example.android.inventoryapp.data.ProductWriter;
+import com.example.android.inventoryapp.data.UpdateResult;
 
 import java.io.File;
 
@@ -38,6 +42,11 @@ public class EditorActivity extends AppCompatActivity implements
 
     public static final String LOG_TAG = EditorActivity.class.getSimpleName();
 
+    /**
+     * Optional intent extra holding the {@link Product} snapshot the caller already shows,
+     * so the editor can render it before its own query finishes.
+     */
+    public static final String EXTRA_PRODUCT = "com.example.android.inventoryapp.extra.PRODUCT";
 
     /**
      * Identifier for the product data loader
@@ -63,6 +72,11 @@ public class EditorActivity extends AppCompatActivity implements
      * EditText field to enter the product's weight
      */
     private EditText mPriceEditText;
+
+    /**
+     * EditText field to enter the stock level at which the product is reordered
+     */
+    private EditText mReorderThresholdEditText;
     //TODO set up Picture picker
 
     /**
@@ -75,6 +89,11 @@ public class EditorActivity extends AppCompatActivity implements
      */
     private Uri pictureUri;
 
+    /**
+     * Snapshot of the product currently shown in the editor (null if nothing is shown yet)
+     */
+    private Product mDisplayedProduct;
+
     /**
      * Boolean flag that keeps track of whether the product has been edited (true) or not (false)
      */
@@ -124,6 +143,7 @@ public class EditorActivity extends AppCompatActivity implements
         mNameEditText = (EditText) findViewById(R.id.edit_product_name);
         mStockEditText = (EditText) findViewById(R.id.edit_product_stock);
         mPriceEditText = (EditText) findViewById(R.id.edit_product_price);
+        mReorderThresholdEditText = (EditText) findViewById(R.id.edit_product_reorder_threshold);
         mPictureEditImage = (ImageView) findViewById(R.id.edit_product_picture);
 
         // Setup OnTouchListeners on all the input fields, so we can determine if the user
@@ -132,7 +152,15 @@ public class EditorActivity extends AppCompatActivity implements
         mNameEditText.setOnTouchListener(mTouchListener);
         mStockEditText.setOnTouchListener(mTouchListener);
         mPriceEditText.setOnTouchListener(mTouchListener);
+        mReorderThresholdEditText.setOnTouchListener(mTouchListener);
         mPictureEditImage.setOnTouchListener(mTouchListener);
+
+        // If the catalog handed over the product it was showing, render it in the first frame.
+        // The loader still runs and only replaces it if the database holds a newer version.
+        Product snapshot = intent.getParcelableExtra(EXTRA_PRODUCT);
+        if (mCurrentProductUri != null && snapshot != null) {
+            displayProduct(snapshot);
+        }
     }
 
     /**
@@ -144,6 +172,7 @@ public class EditorActivity extends AppCompatActivity implements
         String nameString = mNameEditText.getText().toString().trim();
         String stockString = mStockEditText.getText().toString().trim();
         String priceString = mPriceEditText.getText().toString().trim();
+        String thresholdString = mReorderThresholdEditText.getText().toString().trim();
 
         String pictureString = "";
         if (pictureUri != null) {
@@ -154,7 +183,8 @@ public class EditorActivity extends AppCompatActivity implements
         // Check if this is supposed to be a new product and all the fields are blank
         if (mCurrentProductUri == null &&
                 TextUtils.isEmpty(nameString) && TextUtils.isEmpty(stockString) &&
-                TextUtils.isEmpty(priceString) && pictureUri == null) {
+                TextUtils.isEmpty(priceString) && TextUtils.isEmpty(thresholdString) &&
+                pictureUri == null) {
             //New product saved without changes. Don't create a database entry
             return;
         }
@@ -162,21 +192,37 @@ public class EditorActivity extends AppCompatActivity implements
         if (TextUtils.isEmpty(nameString)) {
             nameString = getString(R.string.needs_name);
         }
-        int zero = 0;
-        if (TextUtils.isEmpty(stockString)) {
-            stockString = new Integer(0).toString();
-        }
-        if (TextUtils.isEmpty(priceString)) {
-            priceString = new Integer(0).toString();
-        }
+        int stock = parseIntOrZero(stockString);
+        int price = parseIntOrZero(priceString);
+        int threshold = parseIntOrZero(thresholdString);
 
         // Create a ContentValues object where column names are the keys,
         // and product attributes from the editor are the values.
+        // For an existing product only the columns that differ from the loaded product are
+        // written, so an unchanged product doesn't cost a write or a change notification.
         ContentValues values = new ContentValues();
-        values.put(ProductEntry.COLUMN_PRODUCT_NAME, nameString);
-        values.put(ProductEntry.COLUMN_PRODUCT_STOCK, stockString);
-        values.put(ProductEntry.COLUMN_PRODUCT_PRICE, priceString);
-        values.put(ProductEntry.COLUMN_PRODUCT_PICTURE, pictureString);
+        Product loaded = mDisplayedProduct;
+        if (loaded == null || !nameString.equals(loaded.getName())) {
+            values.put(ProductEntry.COLUMN_PRODUCT_NAME, nameString);
+        }
+        if (loaded == null || stock != loaded.getStock()) {
+            values.put(ProductEntry.COLUMN_PRODUCT_STOCK, stock);
+        }
+        if (loaded == null || price != loaded.getPrice()) {
+            values.put(ProductEntry.COLUMN_PRODUCT_PRICE, price);
+        }
+        if (loaded == null || !pictureString.equals(loaded.getPicture())) {
+            values.put(ProductEntry.COLUMN_PRODUCT_PICTURE, pictureString);
+        }
+        if (loaded == null || threshold != loaded.getReorderThreshold()) {
+            values.put(ProductEntry.COLUMN_PRODUCT_REORDER_THRESHOLD, threshold);
+        }
+
+        if (mCurrentProductUri != null && values.size() == 0) {
+            // Existing product saved without changes. Don't touch the database
+            Log.v(LOG_TAG, "saveProduct nothing changed, skipping the update");
+            return;
+        }
 
         // Determine if this is a new or existing product by checking if mCurrentProductUri is null or not
         if (mCurrentProductUri == null) {
@@ -195,17 +241,30 @@ public class EditorActivity extends AppCompatActivity implements
                         Toast.LENGTH_SHORT).show();
             }
         } else {
-            // Otherwise this is an EXISTING product, so update the product with content URI: mCurrentProductUri
-            // and pass in the new ContentValues. Pass in null for the selection and selection args
-            // because mCurrentProductUri will already identify the correct row in the database that
-            // we want to modify.
-            int rowsAffected = getContentResolver().update(mCurrentProductUri, values, null, null);
+            // Otherwise this is an EXISTING product. If we know which version of the product the
+            // changes are based on, write them only on top of that version and merge them with
+            // whatever was changed elsewhere in the meantime (e.g. a sale from the catalog).
+            boolean updated;
+            boolean merged = false;
+            if (loaded != null) {
+                UpdateResult result = ProductWriter.updateMerging(getContentResolver(), loaded, values);
+                updated = result.isUpdated();
+                merged = result.isMerged();
+            } else {
+                // Pass in null for the selection and selection args because mCurrentProductUri
+                // will already identify the correct row in the database that we want to modify.
+                updated = getContentResolver().update(mCurrentProductUri, values, null, null) != 0;
+            }
 
             // Show a toast message depending on whether or not the update was successful.
-            if (rowsAffected == 0) {
+            if (!updated) {
                 // If no rows were affected, then there was an error with the update.
                 Toast.makeText(this, getString(R.string.editor_update_product_failed),
                         Toast.LENGTH_SHORT).show();
+            } else if (merged) {
+                // The update went through on top of a change made elsewhere
+                Toast.makeText(this, getString(R.string.editor_update_product_merged),
+                        Toast.LENGTH_SHORT).show();
             } else {
                 // Otherwise, the update was successful and we can display a toast.
                 Toast.makeText(this, getString(R.string.editor_update_product_successful),
@@ -214,6 +273,21 @@ public class EditorActivity extends AppCompatActivity implements
         }
     }
 
+    /**
+     * Returns the number in the given editor text, or 0 if there is no valid number.
+     */
+    private static int parseIntOrZero(String text) {
+        if (TextUtils.isEmpty(text)) {
+            return 0;
+        }
+        try {
+            return Integer.parseInt(text);
+        } catch (NumberFormatException e) {
+            Log.e(LOG_TAG, "Not a number: " + text, e);
+            return 0;
+        }
+    }
+
     @Override
     public boolean onCreateOptionsMenu(Menu menu) {
         // Inflate the menu options from the res/menu/menu_editor.xml file.
@@ -308,6 +382,15 @@ public class EditorActivity extends AppCompatActivity implements
             pictureUri = selectedPicture;
             Log.v(LOG_TAG, "file path from OnActivityResult pictureUri: " + pictureUri);
 
+            // Keep access to the picture across restarts. The maintenance job releases it
+            // again once no product refers to the picture anymore.
+            try {
+                getContentResolver().takePersistableUriPermission(selectedPicture,
+                        Intent.FLAG_GRANT_READ_URI_PERMISSION);
+            } catch (SecurityException e) {
+                Log.w(LOG_TAG, "Picture access can't be persisted: " + selectedPicture);
+            }
+
             mPictureEditImage.setImageURI(pictureUri);
         }
     }
@@ -420,7 +503,9 @@ public class EditorActivity extends AppCompatActivity implements
                 ProductEntry.COLUMN_PRODUCT_NAME,
                 ProductEntry.COLUMN_PRODUCT_STOCK,
                 ProductEntry.COLUMN_PRODUCT_PRICE,
-                ProductEntry.COLUMN_PRODUCT_PICTURE};
+                ProductEntry.COLUMN_PRODUCT_PICTURE,
+                ProductEntry.COLUMN_PRODUCT_VERSION,
+                ProductEntry.COLUMN_PRODUCT_REORDER_THRESHOLD};
 
         // This loader will execute the ContentProvider's query method on a background thread
         return new CursorLoader(this,   // Parent activity context
@@ -441,35 +526,45 @@ public class EditorActivity extends AppCompatActivity implements
         // Proceed with moving to the first row of the cursor and reading data from it
         // (This should be the only row in the cursor)
         if (cursor.moveToFirst()) {
-            // Find the columns of product attributes that we're interested in
-            int nameColumnIndex = cursor.getColumnIndex(ProductEntry.COLUMN_PRODUCT_NAME);
-            int stockColumnIndex = cursor.getColumnIndex(ProductEntry.COLUMN_PRODUCT_STOCK);
-            int priceColumnIndex = cursor.getColumnIndex(ProductEntry.COLUMN_PRODUCT_PRICE);
-            int pictureColumnIndex = cursor.getColumnIndex(ProductEntry.COLUMN_PRODUCT_PICTURE);
-
-            // Extract out the value from the Cursor for the given column index
-            String name = cursor.getString(nameColumnIndex);
-            int stock = cursor.getInt(stockColumnIndex);
-            int price = cursor.getInt(priceColumnIndex);
-            String picture = cursor.getString(pictureColumnIndex);
-            // Uri pictureUri = Uri.parse(picture);
-            pictureUri = Uri.parse(picture);
-            Log.v(LOG_TAG, "onLoadFinished picture: " + picture);
-
-            // Update the views on the screen with the values from the database
-            mNameEditText.setText(name);
-            mStockEditText.setText(Integer.toString(stock));
-            mPriceEditText.setText(Integer.toString(price));
-            mPictureEditImage.setImageURI(pictureUri);
-            Log.v(LOG_TAG, "onLoadFinished picture: " + picture);
-            Log.v(LOG_TAG, "onLoadFinished pictureURI: " + pictureUri);
+            Product product = ProductMapper.forCursor(cursor).read(cursor);
 
+            // Nothing to do if we already show this version of the product
+            if (mDisplayedProduct != null
+                    && mDisplayedProduct.getVersion() == product.getVersion()) {
+                return;
+            }
 
-            //hide Sell Button, if stock is zero
-            Button sellButton = (Button) findViewById(R.id.stock_decrease);
-            if (stock == 0) {
-                sellButton.setVisibility(View.GONE);
+            // Don't throw away what the user typed in the meantime
+            if (mProductHasChanged) {
+                Log.v(LOG_TAG, "onLoadFinished newer version " + product.getVersion()
+                        + " arrived while editing, keeping the user's changes");
+                return;
             }
+            displayProduct(product);
+        }
+    }
+
+    /**
+     * Update the views on the screen with the values of the given product.
+     */
+    private void displayProduct(Product product) {
+        mDisplayedProduct = product;
+
+        pictureUri = Uri.parse(product.getPicture());
+        Log.v(LOG_TAG, "displayProduct picture: " + product.getPicture());
+
+        mNameEditText.setText(product.getName());
+        mStockEditText.setText(Integer.toString(product.getStock()));
+        mPriceEditText.setText(Integer.toString(product.getPrice()));
+        mReorderThresholdEditText.setText(Integer.toString(product.getReorderThreshold()));
+        mPictureEditImage.setImageURI(pictureUri);
+
+        //hide Sell Button, if stock is zero
+        Button sellButton = (Button) findViewById(R.id.stock_decrease);
+        if (product.getStock() == 0) {
+            sellButton.setVisibility(View.GONE);
+        } else {
+            sellButton.setVisibility(View.VISIBLE);
         }
     }
 
@@ -479,6 +574,7 @@ public class EditorActivity extends AppCompatActivity implements
         mNameEditText.setText("");
         mStockEditText.setText("");
         mPriceEditText.setText("");
+        mReorderThresholdEditText.setText("");
         //TODO fis the picture impression
         File pictureFile = new File(ProductEntry.NO_IMAGE);
         if (pictureFile.exists()) {
@@ -1,10 +1,9 @@
 package com.example.android.inventoryapp;
 
-import android.content.ContentUris;
-import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
 import android.net.Uri;
+import android.os.AsyncTask;
 import android.text.TextUtils;
 import android.util.Log;
 import android.view.LayoutInflater;
@@ -13,19 +12,37 @@ import android.view.ViewGroup;
 import android.widget.Button;
 import android.widget.CursorAdapter;
 import android.widget.ImageView;
+import android.widget.SectionIndexer;
 import android.widget.TextView;
 import android.widget.Toast;
 
+import com.example.android.inventoryapp.data.Product;
+import com.example.android.inventoryapp.data.ProductMapper;
 import com.example.android.inventoryapp.data.ProductContract.ProductEntry;
+import com.example.android.inventoryapp.data.ProductContract.ProductSectionEntry;
+import com.example.android.inventoryapp.data.ProductWriter;
+
+import java.util.Arrays;
 
 /**
  * {@link ProductCursorAdapter} is an adapter for a list or grid view
  * that uses a {@link Cursor} of product data as its data source. This adapter knows
  * how to create list items for each row of product data in the {@link Cursor}.
+ *
+ * While the list is sorted by name, the adapter also indexes it by first letter for the fast
+ * scroller. The sections come from the provider (see {@link ProductSectionEntry}), so jumping
+ * to a letter is a lookup rather than a walk through the cursor.
  */
-public class ProductCursorAdapter extends CursorAdapter {
+public class ProductCursorAdapter extends CursorAdapter implements SectionIndexer {
     public static final String LOG_TAG = ProductCursorAdapter.class.getSimpleName();
 
+    /** Reads the rows of the current cursor, null while there is none */
+    private ProductMapper mMapper;
+
+    /** Labels of the sections, and the position of the first product of each */
+    private String[] mSections = new String[0];
+    private int[] mSectionOffsets = new int[0];
+
     /**
      * Constructs a new {@link ProductCursorAdapter}.
      *
@@ -34,6 +51,24 @@ public class ProductCursorAdapter extends CursorAdapter {
      */
     public ProductCursorAdapter(Context context, Cursor c) {
         super(context, c, 0 /* flags */);
+        mMapper = c == null ? null : ProductMapper.forCursor(c);
+    }
+
+    /**
+     * Look up the column positions of the new cursor once, rather than for every row bound.
+     */
+    @Override
+    public Cursor swapCursor(Cursor newCursor) {
+        mMapper = newCursor == null ? null : ProductMapper.forCursor(newCursor);
+        return super.swapCursor(newCursor);
+    }
+
+    /**
+     * Returns the product at the given position of the list, or null if there is none.
+     */
+    public Product getProduct(int position) {
+        Cursor cursor = (Cursor) getItem(position);
+        return cursor == null ? null : mMapper.read(cursor);
     }
 
     /**
@@ -66,23 +101,23 @@ public class ProductCursorAdapter extends CursorAdapter {
 
         // Find individual views that we want to modify in the list item layout
         TextView nameTextView = (TextView) view.findViewById(R.id.name);
-        final TextView stockTextView = (TextView) view.findViewById(R.id.stock);
+        TextView stockTextView = (TextView) view.findViewById(R.id.stock);
         TextView priceTextView = (TextView) view.findViewById(R.id.price);
         ImageView pictureImageView = (ImageView) view.findViewById(R.id.product_picture);
 
-        // Find the columns of product attributes that we're interested in
-        int rowIdColumnIndex = cursor.getColumnIndex(ProductEntry._ID);
-        int nameColumnIndex = cursor.getColumnIndex(ProductEntry.COLUMN_PRODUCT_NAME);
-        int stockColumnIndex = cursor.getColumnIndex(ProductEntry.COLUMN_PRODUCT_STOCK);
-        int priceColumnIndex = cursor.getColumnIndex(ProductEntry.COLUMN_PRODUCT_PRICE);
-        int pictureColumnIndex = cursor.getColumnIndex(ProductEntry.COLUMN_PRODUCT_PICTURE);
-
-        // Read the product attributes from the Cursor for the current product
-        final int rowId = cursor.getInt(rowIdColumnIndex);
-        String productName = cursor.getString(nameColumnIndex);
-        int productStock = cursor.getInt(stockColumnIndex);
-        int productPrice = cursor.getInt(priceColumnIndex);
-        String productPictureString = cursor.getString(pictureColumnIndex);
+        // Read the product attributes from the Cursor for the current product. A view that
+        // already shows exactly this row, e.g. after a write to another product reloaded the
+        // list, keeps its snapshot and is left as it is.
+        Product shown = (Product) view.getTag();
+        final Product product = mMapper.reuse(shown, cursor);
+        if (product == shown) {
+            return;
+        }
+        view.setTag(product);
+        String productName = product.getName();
+        int productStock = product.getStock();
+        int productPrice = product.getPrice();
+        String productPictureString = product.getPicture();
         //if there is no image, provide image blank
         if (TextUtils.isEmpty(productPictureString)) {
             productPictureString = ProductEntry.NO_IMAGE;
@@ -106,28 +141,93 @@ public class ProductCursorAdapter extends CursorAdapter {
         sellButton.setOnClickListener(new View.OnClickListener() {
             @Override
             public void onClick(View view) {
-                int currentStock = Integer.parseInt(stockTextView.getText().toString());
-                //reduce stock by one
-                currentStock -= 1;
-                //display in view
-                stockTextView.setText(Integer.toString(currentStock));
-                //save in database
-                ContentValues values = new ContentValues();
-                values.put(ProductEntry.COLUMN_PRODUCT_STOCK, currentStock);
-                Uri mCurrentProductUri = ContentUris.withAppendedId(ProductEntry.CONTENT_URI, rowId);
-                //get the affected rows back to check for errors
-                int rowsAffected = context.getContentResolver().update(mCurrentProductUri, values, null, null);
-                // Show a toast message depending on whether or not the update was successful.
-                if (rowsAffected == 0) {
-                    // If no rows were affected, then there was an error with the update.
-                    Toast.makeText(context.getApplicationContext(), "error with sell button update",
-                            Toast.LENGTH_SHORT).show();
-                } else {
-                    // Otherwise, the update was successful and we can display a toast.
-                    Toast.makeText(context.getApplicationContext(), "sale updated",
-                            Toast.LENGTH_SHORT).show();
-                }
+                // Sell one item of the stock the database holds right now, which may differ
+                // from the row this view was bound to if the product was changed elsewhere.
+                // The sale is recorded along with the stock change, for the sales reports.
+                // Stock held for orders being prepared isn't sold, the sale fails instead.
+                // The write may wait for other writes, so it runs off the main thread.
+                new SellTask(context.getApplicationContext(), product.getId())
+                        .executeOnExecutor(AsyncTask.SERIAL_EXECUTOR);
             }
         });
     }
+
+    /**
+     * Sells one item of a product off the main thread, and shows the result in a toast back
+     * on it. Only keeps the application context, so the activity isn't held while it runs.
+     */
+    private static class SellTask extends AsyncTask<Void, Void, Uri> {
+        private final Context mContext;
+        private final long mProductId;
+
+        SellTask(Context context, long productId) {
+            mContext = context;
+            mProductId = productId;
+        }
+
+        @Override
+        protected Uri doInBackground(Void... params) {
+            return ProductWriter.sell(mContext.getContentResolver(), mProductId, 1);
+        }
+
+        @Override
+        protected void onPostExecute(Uri sale) {
+            // Show a toast message depending on whether or not the update was successful.
+            if (sale == null) {
+                // If no rows were affected, then there was an error with the update.
+                Toast.makeText(mContext, "error with sell button update",
+                        Toast.LENGTH_SHORT).show();
+            } else {
+                // Otherwise, the update was successful and we can display a toast.
+                // The list shows the new stock as soon as the loader reloads.
+                Toast.makeText(mContext, "sale updated", Toast.LENGTH_SHORT).show();
+            }
+        }
+    }
+
+    /**
+     * Use the sections in the given cursor of {@link ProductSectionEntry} rows, or none if
+     * it is null. The cursor is only read, not kept.
+     */
+    public void setSections(Cursor sections) {
+        int count = sections == null ? 0 : sections.getCount();
+        mSections = new String[count];
+        mSectionOffsets = new int[count];
+        if (sections != null) {
+            int letterIndex = sections.getColumnIndexOrThrow(ProductSectionEntry.COLUMN_LETTER);
+            int offsetIndex = sections.getColumnIndexOrThrow(ProductSectionEntry.COLUMN_OFFSET);
+            sections.moveToPosition(-1);
+            for (int i = 0; sections.moveToNext(); i++) {
+                mSections[i] = sections.getString(letterIndex);
+                mSectionOffsets[i] = sections.getInt(offsetIndex);
+            }
+        }
+        // Makes the list view fetch the new sections for its fast scroller
+        notifyDataSetChanged();
+    }
+
+    @Override
+    public Object[] getSections() {
+        return mSections;
+    }
+
+    @Override
+    public int getPositionForSection(int sectionIndex) {
+        if (mSectionOffsets.length == 0) {
+            return 0;
+        }
+        int section = Math.max(0, Math.min(sectionIndex, mSectionOffsets.length - 1));
+        // The sections may be a moment ahead of or behind the products after a write
+        return Math.min(mSectionOffsets[section], Math.max(0, getCount() - 1));
+    }
+
+    @Override
+    public int getSectionForPosition(int position) {
+        if (mSectionOffsets.length == 0) {
+            return 0;
+        }
+        int section = Arrays.binarySearch(mSectionOffsets, position);
+        // Not a first position, so it's in the section before the insertion point
+        return section >= 0 ? section : Math.max(0, -section - 2);
+    }
 }
@@ -0,0 +1,122 @@
+package com.example.android.inventoryapp;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.Intent;
+import android.database.Cursor;
+import android.net.Uri;
+
+import com.example.android.inventoryapp.data.ProductContract.ProductEntry;
+import com.example.android.inventoryapp.data.ProductContract.ReorderEntry;
+
+/**
+ * Groups every pending entry of the reorder queue into a single purchase order e-mail.
+ */
+public final class PurchaseOrder {
+
+    /** Selection for the entries of the reorder queue that are not on a purchase order yet */
+    private static final String PENDING_SELECTION =
+            ReorderEntry.TABLE_NAME + "." + ReorderEntry.COLUMN_STATUS + "=?";
+    private static final String[] PENDING_SELECTION_ARGS = { ReorderEntry.STATUS_PENDING };
+
+    private final String mSubject;
+    private final String mMessage;
+    private final int mItemCount;
+
+    /** Highest queue entry id on this order. Entries queued later have higher ids. */
+    private final long mLastEntryId;
+
+    private PurchaseOrder(String subject, String message, int itemCount, long lastEntryId) {
+        mSubject = subject;
+        mMessage = message;
+        mItemCount = itemCount;
+        mLastEntryId = lastEntryId;
+    }
+
+    /**
+     * Compose a purchase order for every pending entry of the reorder queue.
+     * Returns null if nothing needs to be reordered.
+     */
+    public static PurchaseOrder fromPendingQueue(Context context) {
+        Cursor cursor = context.getContentResolver().query(ReorderEntry.CONTENT_URI,
+                ReorderEntry.DEFAULT_PROJECTION, PENDING_SELECTION, PENDING_SELECTION_ARGS, null);
+        if (cursor == null) {
+            return null;
+        }
+        try {
+            if (cursor.getCount() == 0) {
+                return null;
+            }
+            int idColumnIndex = cursor.getColumnIndex(ReorderEntry._ID);
+            int nameColumnIndex = cursor.getColumnIndex(ProductEntry.COLUMN_PRODUCT_NAME);
+            int stockColumnIndex = cursor.getColumnIndex(ProductEntry.COLUMN_PRODUCT_STOCK);
+            int thresholdColumnIndex =
+                    cursor.getColumnIndex(ProductEntry.COLUMN_PRODUCT_REORDER_THRESHOLD);
+
+            //prepare the message text, one line per product
+            StringBuilder message = new StringBuilder();
+            long lastEntryId = 0;
+            message.append(context.getString(R.string.order_greetings));
+            message.append("\n\n").append(context.getString(R.string.order_batch_body)).append("\n");
+            while (cursor.moveToNext()) {
+                lastEntryId = Math.max(lastEntryId, cursor.getLong(idColumnIndex));
+                message.append("\n").append(context.getString(R.string.order_batch_line,
+                        cursor.getString(nameColumnIndex),
+                        cursor.getInt(stockColumnIndex),
+                        cursor.getInt(thresholdColumnIndex)));
+            }
+            message.append("\n\n").append(context.getString(R.string.order_address)).append("\n");
+
+            String subject = context.getResources().getQuantityString(
+                    R.plurals.order_batch_subject, cursor.getCount(), cursor.getCount());
+            return new PurchaseOrder(subject, message.toString(), cursor.getCount(), lastEntryId);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    public int getItemCount() {
+        return mItemCount;
+    }
+
+    /**
+     * Returns the highest queue entry id on this order, which is all
+     * {@link #markAsOrdered(ContentResolver, long)} needs to mark it later.
+     */
+    public long getLastEntryId() {
+        return mLastEntryId;
+    }
+
+    /**
+     * Returns the e-mail Intent for this purchase order.
+     */
+    public Intent toEmailIntent() {
+        Intent intent = new Intent(Intent.ACTION_SENDTO);
+        intent.setData(Uri.parse("mailto:"));
+        intent.putExtra(Intent.EXTRA_SUBJECT, mSubject);
+        intent.putExtra(Intent.EXTRA_TEXT, mMessage);
+        return intent;
+    }
+
+    /**
+     * Mark the queue entries on this purchase order as ordered, so they won't go on the next
+     * one. Entries queued after the order was composed stay pending.
+     * Returns the number of entries marked.
+     */
+    public int markAsOrdered(ContentResolver resolver) {
+        return markAsOrdered(resolver, mLastEntryId);
+    }
+
+    /**
+     * Mark the queue entries of the purchase order with the given last entry id (see
+     * {@link #getLastEntryId()}) as ordered. Returns the number of entries marked.
+     */
+    public static int markAsOrdered(ContentResolver resolver, long lastEntryId) {
+        ContentValues values = new ContentValues();
+        values.put(ReorderEntry.COLUMN_STATUS, ReorderEntry.STATUS_ORDERED);
+        return resolver.update(ReorderEntry.CONTENT_URI, values,
+                ReorderEntry.COLUMN_STATUS + "=? AND " + ReorderEntry._ID + "<=?",
+                new String[] { ReorderEntry.STATUS_PENDING, String.valueOf(lastEntryId) });
+    }
+}
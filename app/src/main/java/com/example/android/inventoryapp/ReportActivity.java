@@ -0,0 +1,162 @@
+package com.example.android.inventoryapp;
+
+import android.app.LoaderManager;
+import android.content.CursorLoader;
+import android.content.Loader;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Bundle;
+import android.support.v7.app.AppCompatActivity;
+import android.view.Menu;
+import android.view.MenuItem;
+import android.view.View;
+import android.widget.ListView;
+import android.widget.SimpleCursorAdapter;
+import android.widget.TextView;
+
+import com.example.android.inventoryapp.data.ProductContract.ProductEntry;
+import com.example.android.inventoryapp.data.ProductContract.SalesStatsEntry;
+
+/**
+ * Shows the best selling products and the products in stock that sell the least, over the
+ * last 7 or 30 days. Both lists update as soon as something is sold.
+ */
+public class ReportActivity extends AppCompatActivity implements
+        LoaderManager.LoaderCallbacks<Cursor> {
+
+    public static final String LOG_TAG = ReportActivity.class.getSimpleName();
+
+    /** Identifiers for the two ranking loaders */
+    private static final int TOP_SELLERS_LOADER = 0;
+    private static final int SLOW_MOVERS_LOADER = 1;
+
+    /** Key of the selected window in the saved instance state */
+    private static final String STATE_WINDOW_DAYS = "window_days";
+
+    /** Number of products shown in each list */
+    private static final int RANKING_SIZE = 10;
+
+    /** The window the products are ranked by, 7 or 30 days */
+    private int mWindowDays = 7;
+
+    private SimpleCursorAdapter mTopSellersAdapter;
+    private SimpleCursorAdapter mSlowMoversAdapter;
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.activity_report);
+
+        if (savedInstanceState != null) {
+            mWindowDays = savedInstanceState.getInt(STATE_WINDOW_DAYS, mWindowDays);
+        }
+        setTitle(getString(R.string.report_activity_title, mWindowDays));
+
+        mTopSellersAdapter = createAdapter();
+        ListView topSellersList = (ListView) findViewById(R.id.top_sellers_list);
+        topSellersList.setEmptyView(findViewById(R.id.top_sellers_empty));
+        topSellersList.setAdapter(mTopSellersAdapter);
+
+        mSlowMoversAdapter = createAdapter();
+        ListView slowMoversList = (ListView) findViewById(R.id.slow_movers_list);
+        slowMoversList.setEmptyView(findViewById(R.id.slow_movers_empty));
+        slowMoversList.setAdapter(mSlowMoversAdapter);
+
+        getLoaderManager().initLoader(TOP_SELLERS_LOADER, null, this);
+        getLoaderManager().initLoader(SLOW_MOVERS_LOADER, null, this);
+    }
+
+    @Override
+    protected void onSaveInstanceState(Bundle outState) {
+        super.onSaveInstanceState(outState);
+        outState.putInt(STATE_WINDOW_DAYS, mWindowDays);
+    }
+
+    /**
+     * Returns an adapter that shows the name of the product and how many were sold in the
+     * selected window.
+     */
+    private SimpleCursorAdapter createAdapter() {
+        SimpleCursorAdapter adapter = new SimpleCursorAdapter(this, R.layout.report_item, null,
+                new String[] { ProductEntry.COLUMN_PRODUCT_NAME, SalesStatsEntry.COLUMN_SOLD_7_DAYS },
+                new int[] { R.id.name, R.id.sold }, 0);
+        adapter.setViewBinder(new SimpleCursorAdapter.ViewBinder() {
+            @Override
+            public boolean setViewValue(View view, Cursor cursor, int columnIndex) {
+                if (view.getId() != R.id.sold) {
+                    return false;
+                }
+                int sold = cursor.getInt(cursor.getColumnIndexOrThrow(getCounterColumn()));
+                ((TextView) view).setText(getResources().getQuantityString(
+                        R.plurals.report_sold, sold, sold));
+                return true;
+            }
+        });
+        return adapter;
+    }
+
+    private String getCounterColumn() {
+        return mWindowDays == 7 ? SalesStatsEntry.COLUMN_SOLD_7_DAYS
+                : SalesStatsEntry.COLUMN_SOLD_30_DAYS;
+    }
+
+    @Override
+    public boolean onCreateOptionsMenu(Menu menu) {
+        // Inflate the menu options from the res/menu/menu_report.xml file.
+        getMenuInflater().inflate(R.menu.menu_report, menu);
+        menu.findItem(mWindowDays == 7 ? R.id.action_window_7_days : R.id.action_window_30_days)
+                .setChecked(true);
+        return true;
+    }
+
+    @Override
+    public boolean onOptionsItemSelected(MenuItem item) {
+        switch (item.getItemId()) {
+            case R.id.action_window_7_days:
+                selectWindow(item, 7);
+                return true;
+            case R.id.action_window_30_days:
+                selectWindow(item, 30);
+                return true;
+        }
+        return super.onOptionsItemSelected(item);
+    }
+
+    /**
+     * Rank the products by the given window from now on.
+     */
+    private void selectWindow(MenuItem item, int windowDays) {
+        item.setChecked(true);
+        if (windowDays == mWindowDays) {
+            return;
+        }
+        mWindowDays = windowDays;
+        setTitle(getString(R.string.report_activity_title, mWindowDays));
+        getLoaderManager().restartLoader(TOP_SELLERS_LOADER, null, this);
+        getLoaderManager().restartLoader(SLOW_MOVERS_LOADER, null, this);
+    }
+
+    @Override
+    public Loader<Cursor> onCreateLoader(int id, Bundle bundle) {
+        Uri rankingUri = id == TOP_SELLERS_LOADER
+                ? SalesStatsEntry.TOP_SELLERS_URI : SalesStatsEntry.SLOW_MOVERS_URI;
+        // The provider returns the products already ranked, at most RANKING_SIZE of them
+        return new CursorLoader(this,
+                SalesStatsEntry.buildRankingUri(rankingUri, mWindowDays, RANKING_SIZE),
+                null, null, null, null);
+    }
+
+    @Override
+    public void onLoadFinished(Loader<Cursor> loader, Cursor cursor) {
+        getAdapter(loader).swapCursor(cursor);
+    }
+
+    @Override
+    public void onLoaderReset(Loader<Cursor> loader) {
+        getAdapter(loader).swapCursor(null);
+    }
+
+    private SimpleCursorAdapter getAdapter(Loader<Cursor> loader) {
+        return loader.getId() == TOP_SELLERS_LOADER ? mTopSellersAdapter : mSlowMoversAdapter;
+    }
+}
@@ -0,0 +1,376 @@
+package com.example.android.inventoryapp.data;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.example.android.inventoryapp.data.ProductContract.ProductEntry;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+/**
+ * Compact binary snapshot of the products table, for shipping a prebuilt catalog.
+ *
+ * The file is a fixed header followed by one fixed-width array per column, ordered by product
+ * id, and a heap with the UTF-8 bytes of every name and picture:
+ *
+ * <pre>
+ *   header     magic, format version, row count, heap length, CRC32 of everything after it
+ *   ids        long[rows]
+ *   stock      int[rows]
+ *   price      int[rows]
+ *   threshold  int[rows]
+ *   names      int[rows + 1]   offset of every name in the heap, and the end of the last one
+ *   pictures   int[rows + 1]   the same for the pictures
+ *   heap       byte[heap length]
+ * </pre>
+ *
+ * A {@link Writer} produces the file. Opening it memory-maps the file: every value can be read
+ * straight from the mapping by position (or by id, with a binary search of the ids), and
+ * {@link #loadInto(SQLiteDatabase)} bulk-loads all of it into the products table without
+ * parsing anything.
+ */
+public final class CatalogSnapshot {
+
+    public static final String LOG_TAG = CatalogSnapshot.class.getSimpleName();
+
+    /** First bytes of every snapshot, "INVS" */
+    private static final int MAGIC = 0x494e5653;
+    private static final int FORMAT_VERSION = 1;
+
+    /** magic, version, rows, heap length, checksum, reserved */
+    private static final int HEADER_SIZE = 6 * 4;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final ByteBuffer mBuffer;
+    private final int mRows;
+    private final int mStockOffset;
+    private final int mPriceOffset;
+    private final int mThresholdOffset;
+    private final int mNamesOffset;
+    private final int mPicturesOffset;
+    private final int mHeapOffset;
+
+    private CatalogSnapshot(ByteBuffer buffer) throws IOException {
+        mBuffer = buffer;
+        if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+            throw new IOException("Not a catalog snapshot");
+        }
+        int formatVersion = buffer.getInt(4);
+        if (formatVersion != FORMAT_VERSION) {
+            throw new IOException("Unsupported snapshot format " + formatVersion);
+        }
+        mRows = buffer.getInt(8);
+        int heapLength = buffer.getInt(12);
+        // 8 bytes of id and 12 of stock, price and threshold per row, two string offsets per
+        // row plus the two end offsets
+        long expectedSize = HEADER_SIZE + 28L * mRows + 8 + heapLength;
+        if (mRows < 0 || heapLength < 0 || expectedSize != buffer.capacity()) {
+            throw new IOException("Snapshot size doesn't match its header");
+        }
+        mStockOffset = HEADER_SIZE + 8 * mRows;
+        mPriceOffset = mStockOffset + 4 * mRows;
+        mThresholdOffset = mPriceOffset + 4 * mRows;
+        mNamesOffset = mThresholdOffset + 4 * mRows;
+        mPicturesOffset = mNamesOffset + 4 * (mRows + 1);
+        mHeapOffset = mPicturesOffset + 4 * (mRows + 1);
+    }
+
+    /**
+     * Memory-map the snapshot file. Only the header is checked, call {@link #verify()} before
+     * trusting the rest of it.
+     */
+    public static CatalogSnapshot open(File file) throws IOException {
+        FileInputStream in = new FileInputStream(file);
+        try {
+            return open(in.getChannel(), 0, file.length());
+        } finally {
+            // The mapping stays valid after the channel is closed
+            in.close();
+        }
+    }
+
+    /**
+     * Memory-map a snapshot stored at the given position of a file, e.g. an uncompressed asset.
+     */
+    public static CatalogSnapshot open(FileChannel channel, long position, long length)
+            throws IOException {
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+        return new CatalogSnapshot(buffer);
+    }
+
+    /**
+     * Compare the checksum in the header with the contents, and check every string offset.
+     * Throws an IOException if the snapshot is damaged.
+     */
+    public void verify() throws IOException {
+        ByteBuffer body = mBuffer.duplicate();
+        body.position(HEADER_SIZE);
+        CRC32 crc = new CRC32();
+        byte[] chunk = new byte[64 * 1024];
+        while (body.hasRemaining()) {
+            int length = Math.min(chunk.length, body.remaining());
+            body.get(chunk, 0, length);
+            crc.update(chunk, 0, length);
+        }
+        if ((int) crc.getValue() != mBuffer.getInt(16)) {
+            throw new IOException("Snapshot checksum mismatch");
+        }
+        int heapLength = mBuffer.capacity() - mHeapOffset;
+        checkStringOffsets(mNamesOffset, heapLength);
+        checkStringOffsets(mPicturesOffset, heapLength);
+        long previousId = Long.MIN_VALUE;
+        for (int i = 0; i < mRows; i++) {
+            long id = getId(i);
+            if (id <= previousId) {
+                throw new IOException("Snapshot ids out of order at row " + i);
+            }
+            previousId = id;
+        }
+    }
+
+    private void checkStringOffsets(int indexOffset, int heapLength) throws IOException {
+        int previous = 0;
+        for (int i = 0; i <= mRows; i++) {
+            int offset = mBuffer.getInt(indexOffset + 4 * i);
+            if (offset < previous || offset > heapLength) {
+                throw new IOException("Corrupt string offset at row " + i);
+            }
+            previous = offset;
+        }
+    }
+
+    /** Returns the number of products in the snapshot. */
+    public int size() {
+        return mRows;
+    }
+
+    public long getId(int position) {
+        checkPosition(position);
+        return mBuffer.getLong(HEADER_SIZE + 8 * position);
+    }
+
+    public int getStock(int position) {
+        checkPosition(position);
+        return mBuffer.getInt(mStockOffset + 4 * position);
+    }
+
+    public int getPrice(int position) {
+        checkPosition(position);
+        return mBuffer.getInt(mPriceOffset + 4 * position);
+    }
+
+    public int getReorderThreshold(int position) {
+        checkPosition(position);
+        return mBuffer.getInt(mThresholdOffset + 4 * position);
+    }
+
+    public String getName(int position) {
+        checkPosition(position);
+        return getString(mNamesOffset, position);
+    }
+
+    public String getPicture(int position) {
+        checkPosition(position);
+        return getString(mPicturesOffset, position);
+    }
+
+    /**
+     * Returns the position of the product with the given id, or a negative number if the
+     * snapshot doesn't contain it.
+     */
+    public int findPosition(long id) {
+        int low = 0;
+        int high = mRows - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            long middleId = mBuffer.getLong(HEADER_SIZE + 8 * middle);
+            if (middleId < id) {
+                low = middle + 1;
+            } else if (middleId > id) {
+                high = middle - 1;
+            } else {
+                return middle;
+            }
+        }
+        return -(low + 1);
+    }
+
+    /**
+     * Returns the product at the given position, at the version a newly loaded row starts at.
+     */
+    public Product getProduct(int position) {
+        return new Product(getId(position), getName(position), getStock(position),
+                getPrice(position), getPicture(position), 0, getReorderThreshold(position));
+    }
+
+    /**
+     * Insert every product of the snapshot into the products table of the given database,
+     * in a single transaction. The snapshot is verified first.
+     */
+    public void loadInto(SQLiteDatabase db) throws IOException {
+        verify();
+        long start = SystemClock.elapsedRealtime();
+        SQLiteStatement insert = db.compileStatement("INSERT INTO " + ProductEntry.TABLE_NAME
+                + " (" + ProductEntry._ID + ", "
+                + ProductEntry.COLUMN_PRODUCT_NAME + ", "
+                + ProductEntry.COLUMN_PRODUCT_NAME_KEY + ", "
+                + ProductEntry.COLUMN_PRODUCT_STOCK + ", "
+                + ProductEntry.COLUMN_PRODUCT_PRICE + ", "
+                + ProductEntry.COLUMN_PRODUCT_PICTURE + ", "
+                + ProductEntry.COLUMN_PRODUCT_REORDER_THRESHOLD
+                + ") VALUES (?, ?, ?, ?, ?, ?, ?)");
+        db.beginTransaction();
+        try {
+            for (int i = 0; i < mRows; i++) {
+                String name = getName(i);
+                insert.bindLong(1, getId(i));
+                insert.bindString(2, name);
+                insert.bindString(3, ProductEntry.normalizeName(name));
+                insert.bindLong(4, getStock(i));
+                insert.bindLong(5, getPrice(i));
+                insert.bindString(6, getPicture(i));
+                insert.bindLong(7, getReorderThreshold(i));
+                insert.executeInsert();
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            insert.close();
+        }
+        long elapsed = SystemClock.elapsedRealtime() - start;
+        InventoryMetrics.setGauge("catalog_snapshot.load_ms", elapsed);
+        Log.i(LOG_TAG, "Loaded " + mRows + " products in " + elapsed + " ms");
+    }
+
+    private String getString(int indexOffset, int position) {
+        int start = mBuffer.getInt(indexOffset + 4 * position);
+        int end = mBuffer.getInt(indexOffset + 4 * (position + 1));
+        byte[] bytes = new byte[end - start];
+        ByteBuffer heap = mBuffer.duplicate();
+        heap.position(mHeapOffset + start);
+        heap.get(bytes);
+        return new String(bytes, UTF_8);
+    }
+
+    private void checkPosition(int position) {
+        if (position < 0 || position >= mRows) {
+            throw new IndexOutOfBoundsException("Position " + position + " of " + mRows);
+        }
+    }
+
+    /**
+     * Collects products, in ascending id order, and writes them as a snapshot.
+     */
+    public static final class Writer {
+
+        private long[] mIds = new long[64];
+        private int[] mStock = new int[64];
+        private int[] mPrice = new int[64];
+        private int[] mThreshold = new int[64];
+        private int[] mNameOffsets = new int[65];
+        private int[] mPictureOffsets = new int[65];
+        private final ByteArrayOutputStream mNameHeap = new ByteArrayOutputStream();
+        private final ByteArrayOutputStream mPictureHeap = new ByteArrayOutputStream();
+        private int mRows;
+
+        /**
+         * Add a product. Products must be added in ascending order of their ids.
+         */
+        public Writer add(long id, String name, int stock, int price, String picture,
+                          int reorderThreshold) {
+            if (mRows > 0 && id <= mIds[mRows - 1]) {
+                throw new IllegalArgumentException("Products must be added in ascending id order");
+            }
+            if (name == null || picture == null) {
+                throw new IllegalArgumentException("Product requires a name and a picture");
+            }
+            ensureCapacity(mRows + 1);
+            mIds[mRows] = id;
+            mStock[mRows] = stock;
+            mPrice[mRows] = price;
+            mThreshold[mRows] = reorderThreshold;
+            byte[] nameBytes = name.getBytes(UTF_8);
+            mNameHeap.write(nameBytes, 0, nameBytes.length);
+            mNameOffsets[mRows + 1] = mNameHeap.size();
+            byte[] pictureBytes = picture.getBytes(UTF_8);
+            mPictureHeap.write(pictureBytes, 0, pictureBytes.length);
+            mPictureOffsets[mRows + 1] = mPictureHeap.size();
+            mRows++;
+            return this;
+        }
+
+        /** Add a product snapshot. */
+        public Writer add(Product product) {
+            return add(product.getId(), product.getName(), product.getStock(),
+                    product.getPrice(), product.getPicture(), product.getReorderThreshold());
+        }
+
+        /**
+         * Write the snapshot to the stream, which is not closed.
+         */
+        public void writeTo(OutputStream out) throws IOException {
+            // The picture strings follow the names in the heap
+            int namesLength = mNameHeap.size();
+            int heapLength = namesLength + mPictureHeap.size();
+            ByteBuffer body = ByteBuffer.allocate(8 * mRows + 12 * mRows + 8 * (mRows + 1)
+                    + heapLength);
+            for (int i = 0; i < mRows; i++) {
+                body.putLong(mIds[i]);
+            }
+            putInts(body, mStock, mRows);
+            putInts(body, mPrice, mRows);
+            putInts(body, mThreshold, mRows);
+            putInts(body, mNameOffsets, mRows + 1);
+            for (int i = 0; i <= mRows; i++) {
+                body.putInt(namesLength + mPictureOffsets[i]);
+            }
+            body.put(mNameHeap.toByteArray());
+            body.put(mPictureHeap.toByteArray());
+
+            CRC32 crc = new CRC32();
+            crc.update(body.array(), 0, body.capacity());
+
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC);
+            header.putInt(FORMAT_VERSION);
+            header.putInt(mRows);
+            header.putInt(heapLength);
+            header.putInt((int) crc.getValue());
+            header.putInt(0);
+            out.write(header.array());
+            out.write(body.array());
+        }
+
+        private static void putInts(ByteBuffer buffer, int[] values, int count) {
+            for (int i = 0; i < count; i++) {
+                buffer.putInt(values[i]);
+            }
+        }
+
+        private void ensureCapacity(int rows) {
+            if (rows <= mIds.length) {
+                return;
+            }
+            int capacity = Math.max(rows, mIds.length * 2);
+            mIds = Arrays.copyOf(mIds, capacity);
+            mStock = Arrays.copyOf(mStock, capacity);
+            mPrice = Arrays.copyOf(mPrice, capacity);
+            mThreshold = Arrays.copyOf(mThreshold, capacity);
+            mNameOffsets = Arrays.copyOf(mNameOffsets, capacity + 1);
+            mPictureOffsets = Arrays.copyOf(mPictureOffsets, capacity + 1);
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package com.example.android.inventoryapp.data;
+
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.example.android.inventoryapp.data.ProductContract.ProductEntry;
+
+/**
+ * The version of the whole catalog (see {@link ProductEntry#CATALOG_VERSION_URI}), a counter
+ * in a table of a single row that only ever grows.
+ *
+ * Triggers count it up with every insert and delete of a product, and with every update of its
+ * product data ({@link RowVersion#DATA_COLUMNS}), whatever the product. A restore replaces the database, counter included, with one that may be
+ * older, so the provider moves the restored counter past the one it replaced
+ * ({@link #advancePast}). A reader that saw a version before therefore never sees it again for
+ * other data.
+ */
+final class CatalogVersion {
+
+    static final String TABLE_NAME = "catalog_version";
+    static final String COLUMN_VERSION = "version";
+
+    private CatalogVersion() {}
+
+    /**
+     * Returns the version of the catalog.
+     */
+    static long read(SQLiteDatabase db) {
+        return DatabaseUtils.longForQuery(db, "SELECT " + COLUMN_VERSION + " FROM " + TABLE_NAME,
+                null);
+    }
+
+    /**
+     * Set the version of the catalog to one more than the greater of its own and the given one.
+     */
+    static void advancePast(SQLiteDatabase db, long version) {
+        db.execSQL("UPDATE " + TABLE_NAME + " SET " + COLUMN_VERSION + " = MAX("
+                + COLUMN_VERSION + ", ?) + 1", new Object[] { version });
+    }
+}
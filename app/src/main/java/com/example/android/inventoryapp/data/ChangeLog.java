@@ -0,0 +1,120 @@
+package com.example.android.inventoryapp.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.example.android.inventoryapp.data.ProductContract.ProductEntry;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The log of local product changes that still have to be pushed to the {@link SyncServer}.
+ *
+ * Triggers add a row for every insert, update of product data and delete of a product, with
+ * a sequence number that only ever grows (the table is AUTOINCREMENT, so numbers aren't reused
+ * after rows are pruned). Products are identified by their sync id, which stays the same on
+ * every store, and remember the server version they were last synced at. The store keeps the
+ * last sequence number pushed and the cursor of the last pull in {@link #STATE_TABLE}.
+ */
+final class ChangeLog {
+
+    static final String TABLE_NAME = "change_log";
+    static final String COLUMN_SEQ = "seq";
+    static final String COLUMN_DELETED = "deleted";
+
+    /** Column of the log and of the products table: the id of the product on every store */
+    static final String COLUMN_SYNC_ID = "sync_id";
+
+    /**
+     * Column of the log and of the products table: the server version the product was last
+     * synced at, 0 if it never was. Logged with a delete, as the row is gone by then.
+     */
+    static final String COLUMN_BASE_VERSION = "base_version";
+
+    /** SQL expression of a new sync id */
+    static final String NEW_SYNC_ID = "lower(hex(randomblob(16)))";
+
+    /** Key/value table of the sync progress */
+    static final String STATE_TABLE = "sync_state";
+    static final String COLUMN_STATE_NAME = "name";
+    static final String COLUMN_STATE_VALUE = "value";
+
+    /** Sequence number of the last change pushed */
+    static final String STATE_PUSHED_SEQ = "pushed_seq";
+
+    /** Cursor after the last change pulled */
+    static final String STATE_REMOTE_CURSOR = "remote_cursor";
+
+    private ChangeLog() {}
+
+    /**
+     * Returns the changed products in the order they last changed, at most {@code limit} of
+     * them, with the current data of each and the sequence number of its last change. Only
+     * changes after {@code afterSeq} are read.
+     */
+    static List<SyncRecord> readChanges(SQLiteDatabase db, long afterSeq, int limit) {
+        String syncId = TABLE_NAME + "." + COLUMN_SYNC_ID;
+        Cursor cursor = db.rawQuery("SELECT " + TABLE_NAME + "." + COLUMN_SEQ + ", " + syncId + ", "
+                + TABLE_NAME + "." + COLUMN_DELETED + ", "
+                + TABLE_NAME + "." + COLUMN_BASE_VERSION + ", "
+                + ProductEntry.TABLE_NAME + "." + ProductEntry._ID + ", "
+                + ProductEntry.TABLE_NAME + "." + COLUMN_BASE_VERSION + ", "
+                + ProductEntry.COLUMN_PRODUCT_NAME + ", " + ProductEntry.COLUMN_PRODUCT_STOCK + ", "
+                + ProductEntry.COLUMN_PRODUCT_PRICE + ", " + ProductEntry.COLUMN_PRODUCT_PICTURE + ", "
+                + ProductEntry.COLUMN_PRODUCT_REORDER_THRESHOLD
+                + " FROM " + TABLE_NAME + " LEFT JOIN " + ProductEntry.TABLE_NAME + " ON "
+                + ProductEntry.TABLE_NAME + "." + COLUMN_SYNC_ID + " = " + syncId
+                // Only the last change of every product matters, its current data is sent
+                + " WHERE " + TABLE_NAME + "." + COLUMN_SEQ + " IN (SELECT MAX(" + COLUMN_SEQ
+                + ") FROM " + TABLE_NAME + " WHERE " + COLUMN_SEQ + " > ? GROUP BY "
+                + COLUMN_SYNC_ID + ") ORDER BY " + TABLE_NAME + "." + COLUMN_SEQ + " LIMIT ?",
+                new String[] { String.valueOf(afterSeq), String.valueOf(limit) });
+        List<SyncRecord> changes = new ArrayList<>(cursor.getCount());
+        try {
+            while (cursor.moveToNext()) {
+                long seq = cursor.getLong(0);
+                // A product that is gone is pushed as deleted at its last synced version
+                if (cursor.getInt(2) != 0 || cursor.isNull(4)) {
+                    changes.add(SyncRecord.deleted(cursor.getString(1), cursor.getInt(3), seq));
+                } else {
+                    changes.add(new SyncRecord(cursor.getString(1), cursor.getInt(5),
+                            cursor.getString(6), cursor.getInt(7), cursor.getInt(8),
+                            cursor.getString(9), cursor.getInt(10), seq));
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+        return changes;
+    }
+
+    /**
+     * Drop every logged change of the product, it holds the server's data now.
+     */
+    static void forget(SQLiteDatabase db, String syncId) {
+        db.delete(TABLE_NAME, COLUMN_SYNC_ID + "=?", new String[] { syncId });
+    }
+
+    /**
+     * Drop the changes up to and including the given sequence number, they were pushed.
+     */
+    static void prune(SQLiteDatabase db, long seq) {
+        db.delete(TABLE_NAME, COLUMN_SEQ + "<=?", new String[] { String.valueOf(seq) });
+    }
+
+    static long getState(SQLiteDatabase db, String name) {
+        return DatabaseUtils.longForQuery(db, "SELECT IFNULL((SELECT " + COLUMN_STATE_VALUE
+                + " FROM " + STATE_TABLE + " WHERE " + COLUMN_STATE_NAME + "=?), 0)",
+                new String[] { name });
+    }
+
+    static void putState(SQLiteDatabase db, String name, long value) {
+        ContentValues values = new ContentValues();
+        values.put(COLUMN_STATE_NAME, name);
+        values.put(COLUMN_STATE_VALUE, value);
+        db.insertWithOnConflict(STATE_TABLE, null, values, SQLiteDatabase.CONFLICT_REPLACE);
+    }
+}
@@ -0,0 +1,229 @@
+package com.example.android.inventoryapp.data;
+
+import android.content.ContentResolver;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Sends the change notifications of the {@link ProductProvider}, coalescing them while a batch
+ * is open.
+ *
+ * Batches belong to the thread that opened them. Outside of a batch every change is sent
+ * right away, even while another thread has a batch open. Between {@link #beginBatch()} and
+ * the matching {@link #endBatch()} the changed URIs are only collected, and sent once, without
+ * duplicates, when the outermost batch of the thread ends. A URI below one that is already
+ * collected is dropped, since notifying "products" reaches the observers of "products/3" as
+ * well.
+ *
+ * So observers don't go stale during a long batch, the collected URIs are also sent once the
+ * oldest of them waited {@link #MAX_LATENCY_MILLIS}. The batch usually is a transaction that
+ * isn't committed yet at that point, so observers that query right away may still see the
+ * data from before it. Every URI sent early is therefore sent again when the batch ends.
+ */
+final class ChangeNotifier {
+
+    /** Longest time a change waits in an open batch before it is sent anyway */
+    static final long MAX_LATENCY_MILLIS = 500;
+
+    /** The open batch of one thread */
+    private static final class Batch {
+
+        /** Number of nested batches open */
+        int depth;
+
+        /** URIs changed in the batch and not sent yet, in the order they changed */
+        final Set<Uri> pending = new LinkedHashSet<>();
+
+        /** URIs sent before the end of the batch, to be sent again when it ends */
+        final Set<Uri> sentEarly = new LinkedHashSet<>();
+
+        /** Time the oldest pending URI changed, in {@link SystemClock#uptimeMillis()} */
+        long oldestPendingAt;
+    }
+
+    private final ContentResolver mResolver;
+
+    /** Sends the collected changes of batches that are still open after the maximum latency */
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final Runnable mFlushRunnable = new Runnable() {
+        @Override
+        public void run() {
+            flushOverdue();
+        }
+    };
+
+    /** The open batch of the current thread, if any */
+    private final ThreadLocal<Batch> mBatch = new ThreadLocal<>();
+
+    /** The open batches of all threads, guarded by this */
+    private final Set<Batch> mOpenBatches = new HashSet<>();
+
+    ChangeNotifier(ContentResolver resolver) {
+        mResolver = resolver;
+    }
+
+    /**
+     * Open a batch on the current thread. Batches nest, notifications are held back until
+     * every batch the thread opened ended.
+     */
+    synchronized void beginBatch() {
+        Batch batch = mBatch.get();
+        if (batch == null) {
+            batch = new Batch();
+            mBatch.set(batch);
+            mOpenBatches.add(batch);
+        }
+        batch.depth++;
+    }
+
+    /**
+     * Close a batch opened by {@link #beginBatch()} on the current thread. Closing the
+     * outermost one sends the changes collected since it was opened, and those that were
+     * already sent early.
+     */
+    void endBatch() {
+        List<Uri> uris;
+        synchronized (this) {
+            Batch batch = mBatch.get();
+            if (batch == null) {
+                throw new IllegalStateException("No batch to end");
+            }
+            batch.depth--;
+            if (batch.depth > 0) {
+                return;
+            }
+            mBatch.remove();
+            mOpenBatches.remove(batch);
+            for (Uri uri : batch.pending) {
+                add(batch.sentEarly, uri);
+            }
+            uris = new ArrayList<>(batch.sentEarly);
+        }
+        send(uris);
+    }
+
+    /**
+     * Notify the observers of the given URI, now or at the end of the open batch of the
+     * current thread.
+     */
+    void notifyChange(Uri uri) {
+        List<Uri> overdue;
+        synchronized (this) {
+            Batch batch = mBatch.get();
+            if (batch == null) {
+                overdue = null;
+            } else {
+                if (batch.pending.isEmpty()) {
+                    batch.oldestPendingAt = SystemClock.uptimeMillis();
+                    mHandler.postDelayed(mFlushRunnable, MAX_LATENCY_MILLIS);
+                }
+                add(batch.pending, uri);
+                // Checked here as well, a busy batch may keep the main thread from flushing
+                if (SystemClock.uptimeMillis() - batch.oldestPendingAt < MAX_LATENCY_MILLIS) {
+                    return;
+                }
+                overdue = sendEarly(batch);
+            }
+        }
+        if (overdue == null) {
+            InventoryMetrics.increment("notifications.sent");
+            mResolver.notifyChange(uri, null);
+        } else {
+            send(overdue);
+        }
+    }
+
+    /**
+     * Send the pending changes of every batch whose oldest change waited the maximum latency.
+     * Batches whose changes are younger are checked again once theirs did.
+     */
+    private void flushOverdue() {
+        List<Uri> uris = new ArrayList<>();
+        synchronized (this) {
+            long now = SystemClock.uptimeMillis();
+            long nextCheck = Long.MAX_VALUE;
+            for (Batch batch : mOpenBatches) {
+                if (batch.pending.isEmpty()) {
+                    continue;
+                }
+                long due = batch.oldestPendingAt + MAX_LATENCY_MILLIS;
+                if (due <= now) {
+                    uris.addAll(sendEarly(batch));
+                } else {
+                    nextCheck = Math.min(nextCheck, due);
+                }
+            }
+            mHandler.removeCallbacks(mFlushRunnable);
+            if (nextCheck != Long.MAX_VALUE) {
+                mHandler.postAtTime(mFlushRunnable, nextCheck);
+            }
+        }
+        send(uris);
+    }
+
+    /**
+     * Take the pending changes out of the batch to send them now, and remember them to send
+     * them again when the batch ends. Must be called holding the lock.
+     */
+    private static List<Uri> sendEarly(Batch batch) {
+        List<Uri> uris = new ArrayList<>(batch.pending);
+        for (Uri uri : batch.pending) {
+            add(batch.sentEarly, uri);
+        }
+        batch.pending.clear();
+        return uris;
+    }
+
+    /**
+     * Add the URI to the given ones, unless one of its ancestors is already there.
+     * Descendants of the URI are dropped.
+     */
+    private static void add(Set<Uri> uris, Uri uri) {
+        for (Iterator<Uri> others = uris.iterator(); others.hasNext(); ) {
+            Uri other = others.next();
+            if (other.equals(uri) || isAncestor(other, uri)) {
+                return;
+            }
+            if (isAncestor(uri, other)) {
+                others.remove();
+            }
+        }
+        uris.add(uri);
+    }
+
+    /**
+     * Returns whether notifying {@code ancestor} also reaches the observers of {@code uri}.
+     */
+    private static boolean isAncestor(Uri ancestor, Uri uri) {
+        if (!ancestor.getAuthority().equals(uri.getAuthority())) {
+            return false;
+        }
+        List<String> ancestorSegments = ancestor.getPathSegments();
+        List<String> segments = uri.getPathSegments();
+        return segments.size() > ancestorSegments.size()
+                && segments.subList(0, ancestorSegments.size()).equals(ancestorSegments);
+    }
+
+    /**
+     * Send the collected notifications of a batch.
+     */
+    private void send(List<Uri> uris) {
+        if (uris.isEmpty()) {
+            return;
+        }
+        InventoryMetrics.increment("notifications.batches_flushed");
+        for (Uri uri : uris) {
+            InventoryMetrics.increment("notifications.sent");
+            mResolver.notifyChange(uri, null);
+        }
+    }
+}
@@ -0,0 +1,464 @@
+package com.example.android.inventoryapp.data;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Hot backup and restore of the inventory database.
+ *
+ * A backup is a compressed logical dump: the schema and every row, followed by a CRC32 of
+ * everything before it. It is read on its own read-only connection inside a single read
+ * transaction. With write-ahead logging that transaction sees one consistent snapshot of the
+ * database and never holds a lock that writers wait for, so the app keeps working while a
+ * backup of any size streams out. Rows are read in pages by rowid, so memory use doesn't grow
+ * with the size of the catalog.
+ *
+ * A restore builds a complete database in a temporary file next to the real one and verifies
+ * the checksum before anything else happens. Only then {@link #install} renames it over the
+ * real database, which either fully happens or not at all.
+ */
+final class DatabaseBackup {
+
+    public static final String LOG_TAG = DatabaseBackup.class.getSimpleName();
+
+    /** Metric names reported to {@link InventoryMetrics} */
+    static final String METRIC_BACKUP_MS = "backup.duration_ms";
+    static final String METRIC_BACKUP_ROWS = "backup.rows";
+    static final String METRIC_RESTORE_MS = "restore.duration_ms";
+
+    /** First bytes of every backup, "INVB" */
+    private static final int MAGIC = 0x494e5642;
+    private static final int FORMAT_VERSION = 1;
+
+    /** Record tags */
+    private static final byte RECORD_TABLE = 1;
+    private static final byte RECORD_ROW = 2;
+    private static final byte RECORD_SCHEMA = 3;
+    private static final byte RECORD_END = 4;
+
+    /** Value types, the same as the Cursor.FIELD_TYPE_* constants */
+    private static final byte TYPE_NULL = 0;
+    private static final byte TYPE_INTEGER = 1;
+    private static final byte TYPE_FLOAT = 2;
+    private static final byte TYPE_STRING = 3;
+    private static final byte TYPE_BLOB = 4;
+
+    /** Rows read per page of a table */
+    private static final int PAGE_SIZE = 1000;
+
+    /** Number of restored rows between two progress log lines */
+    private static final int LOG_EVERY_ROWS = 100000;
+
+    /** Table SQLite keeps the AUTOINCREMENT counters in, restored as rows only */
+    private static final String SEQUENCE_TABLE = "sqlite_sequence";
+
+    private static final String ROWID = "rowid";
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private DatabaseBackup() {}
+
+    /**
+     * Summary of a finished backup.
+     */
+    static final class Result {
+        final long rows;
+        final long checksum;
+
+        Result(long rows, long checksum) {
+            this.rows = rows;
+            this.checksum = checksum;
+        }
+    }
+
+    /**
+     * Write a consistent snapshot of the given database file to the stream.
+     * The stream is finished but not closed. This can take a long time and must not be called
+     * on the main thread.
+     */
+    static Result backup(File database, OutputStream out) throws IOException {
+        long start = SystemClock.elapsedRealtime();
+        SQLiteDatabase db = SQLiteDatabase.openDatabase(database.getPath(), null,
+                SQLiteDatabase.OPEN_READONLY | SQLiteDatabase.NO_LOCALIZED_COLLATORS);
+        try {
+            // SAVEPOINT outside of a transaction starts a deferred one: the first read below
+            // fixes the snapshot, and no write lock is ever taken.
+            db.execSQL("SAVEPOINT backup");
+            try {
+                GZIPOutputStream gzip = new GZIPOutputStream(new BufferedOutputStream(out), 8192);
+                CRC32 crc = new CRC32();
+                DataOutputStream data = new DataOutputStream(new CheckedOutputStream(gzip, crc));
+
+                data.writeInt(MAGIC);
+                data.writeInt(FORMAT_VERSION);
+                data.writeInt(db.getVersion());
+
+                long rows = 0;
+                List<String> deferredSchema = new ArrayList<>();
+                Cursor objects = db.rawQuery("SELECT type, name, sql FROM sqlite_master"
+                        + " ORDER BY rowid", null);
+                try {
+                    while (objects.moveToNext()) {
+                        String type = objects.getString(0);
+                        String name = objects.getString(1);
+                        String sql = objects.getString(2);
+                        if ("table".equals(type)) {
+                            if (SEQUENCE_TABLE.equals(name) || isUserTable(name)) {
+                                rows += writeTable(db, data, name, sql);
+                            }
+                        } else if (sql != null && !name.startsWith("sqlite_")) {
+                            // Indexes, triggers and views are created after every row is
+                            // back, so triggers don't fire during a restore
+                            deferredSchema.add(sql);
+                        }
+                    }
+                } finally {
+                    objects.close();
+                }
+                for (String sql : deferredSchema) {
+                    data.writeByte(RECORD_SCHEMA);
+                    data.writeUTF(sql);
+                }
+                data.writeByte(RECORD_END);
+                data.flush();
+
+                // The checksum itself is not part of what it covers
+                long checksum = crc.getValue();
+                new DataOutputStream(gzip).writeLong(checksum);
+                gzip.finish();
+                gzip.flush();
+
+                long elapsed = SystemClock.elapsedRealtime() - start;
+                InventoryMetrics.setGauge(METRIC_BACKUP_MS, elapsed);
+                InventoryMetrics.setGauge(METRIC_BACKUP_ROWS, rows);
+                Log.i(LOG_TAG, "Backed up " + rows + " rows in " + elapsed + " ms");
+                return new Result(rows, checksum);
+            } finally {
+                db.execSQL("RELEASE backup");
+            }
+        } finally {
+            db.close();
+        }
+    }
+
+    /**
+     * Build a database from the backup in the stream, in a temporary file next to the given
+     * database file, and return that file. Nothing is installed: the temporary file is deleted
+     * and an IOException thrown if the backup is damaged or its checksum doesn't match.
+     * A backup of a newer schema than {@code maxVersion} is rejected the same way.
+     */
+    static File restoreToTemporaryFile(InputStream in, File database, int maxVersion)
+            throws IOException {
+        long start = SystemClock.elapsedRealtime();
+        File restored = new File(database.getPath() + ".restore");
+        SQLiteDatabase.deleteDatabase(restored);
+
+        boolean success = false;
+        SQLiteDatabase db = SQLiteDatabase.openDatabase(restored.getPath(), null,
+                SQLiteDatabase.CREATE_IF_NECESSARY | SQLiteDatabase.NO_LOCALIZED_COLLATORS);
+        try {
+            BufferedInputStream gzip = new BufferedInputStream(new GZIPInputStream(in), 8192);
+            CRC32 crc = new CRC32();
+            DataInputStream data = new DataInputStream(new CheckedInputStream(gzip, crc));
+
+            if (data.readInt() != MAGIC) {
+                throw new IOException("Not an inventory backup");
+            }
+            int formatVersion = data.readInt();
+            if (formatVersion != FORMAT_VERSION) {
+                throw new IOException("Unsupported backup format " + formatVersion);
+            }
+            int schemaVersion = data.readInt();
+            if (schemaVersion > maxVersion) {
+                throw new IOException("Backup of database version " + schemaVersion
+                        + " is newer than this app (" + maxVersion + ")");
+            }
+
+            // Must be chosen before the first table exists, see ProductDbHelper#onConfigure
+            db.execSQL("PRAGMA auto_vacuum = INCREMENTAL");
+            db.beginTransaction();
+            try {
+                long rows = readRecords(db, data);
+
+                long expected = crc.getValue();
+                long actual = new DataInputStream(gzip).readLong();
+                if (actual != expected) {
+                    throw new IOException("Backup checksum mismatch");
+                }
+                db.setVersion(schemaVersion);
+                db.setTransactionSuccessful();
+                Log.i(LOG_TAG, "Restored " + rows + " rows in "
+                        + (SystemClock.elapsedRealtime() - start) + " ms");
+            } finally {
+                db.endTransaction();
+            }
+            success = true;
+        } finally {
+            db.close();
+            if (!success) {
+                SQLiteDatabase.deleteDatabase(restored);
+            }
+        }
+        InventoryMetrics.setGauge(METRIC_RESTORE_MS, SystemClock.elapsedRealtime() - start);
+        return restored;
+    }
+
+    /**
+     * Replace the database with a file built by {@link #restoreToTemporaryFile}.
+     * Every connection to the database must be closed.
+     */
+    static void install(File restored, File database) throws IOException {
+        // The log and shared memory files belong to the old database
+        new File(database.getPath() + "-wal").delete();
+        new File(database.getPath() + "-shm").delete();
+        new File(database.getPath() + "-journal").delete();
+        if (!restored.renameTo(database)) {
+            throw new IOException("Could not replace " + database);
+        }
+    }
+
+    /**
+     * Write the schema and every row of a table, and return the number of rows.
+     */
+    private static long writeTable(SQLiteDatabase db, DataOutputStream data, String table,
+                                   String sql) throws IOException {
+        List<String> columns = getColumns(db, table);
+        boolean hasRowidAlias = hasRowidAlias(db, table);
+
+        data.writeByte(RECORD_TABLE);
+        data.writeUTF(table);
+        // sqlite_sequence is created by SQLite itself, only its rows are restored
+        data.writeUTF(SEQUENCE_TABLE.equals(table) ? "" : sql);
+        // Without an INTEGER PRIMARY KEY the rowid is written as well, so ids stay the same
+        data.writeInt(hasRowidAlias ? columns.size() : columns.size() + 1);
+        if (!hasRowidAlias) {
+            data.writeUTF(ROWID);
+        }
+        for (String column : columns) {
+            data.writeUTF(column);
+        }
+
+        // Page by rowid instead of one huge cursor: refilling a cursor window far into a table
+        // steps through every row before it again.
+        String pageSql = "SELECT " + ROWID + ", * FROM \"" + table + "\" WHERE " + ROWID
+                + " > ? ORDER BY " + ROWID + " LIMIT " + PAGE_SIZE;
+        int firstValue = hasRowidAlias ? 1 : 0;
+        long rows = 0;
+        long lastRowid = Long.MIN_VALUE;
+        while (true) {
+            Cursor page = db.rawQuery(pageSql, new String[] { String.valueOf(lastRowid) });
+            try {
+                if (page.getCount() == 0) {
+                    return rows;
+                }
+                while (page.moveToNext()) {
+                    lastRowid = page.getLong(0);
+                    data.writeByte(RECORD_ROW);
+                    for (int i = firstValue; i < page.getColumnCount(); i++) {
+                        writeValue(data, page, i);
+                    }
+                    rows++;
+                }
+            } finally {
+                page.close();
+            }
+        }
+    }
+
+    private static void writeValue(DataOutputStream data, Cursor cursor, int index)
+            throws IOException {
+        switch (cursor.getType(index)) {
+            case Cursor.FIELD_TYPE_NULL:
+                data.writeByte(TYPE_NULL);
+                break;
+            case Cursor.FIELD_TYPE_INTEGER:
+                data.writeByte(TYPE_INTEGER);
+                data.writeLong(cursor.getLong(index));
+                break;
+            case Cursor.FIELD_TYPE_FLOAT:
+                data.writeByte(TYPE_FLOAT);
+                data.writeDouble(cursor.getDouble(index));
+                break;
+            case Cursor.FIELD_TYPE_STRING:
+                data.writeByte(TYPE_STRING);
+                writeBytes(data, cursor.getString(index).getBytes(UTF_8));
+                break;
+            case Cursor.FIELD_TYPE_BLOB:
+                data.writeByte(TYPE_BLOB);
+                writeBytes(data, cursor.getBlob(index));
+                break;
+        }
+    }
+
+    private static void writeBytes(DataOutputStream data, byte[] bytes) throws IOException {
+        data.writeInt(bytes.length);
+        data.write(bytes);
+    }
+
+    /**
+     * Replay the records of a backup into the database, and return the number of rows.
+     */
+    private static long readRecords(SQLiteDatabase db, DataInputStream data) throws IOException {
+        long rows = 0;
+        SQLiteStatement insert = null;
+        int columnCount = 0;
+        try {
+            while (true) {
+                byte record = data.readByte();
+                switch (record) {
+                    case RECORD_TABLE:
+                        if (insert != null) {
+                            insert.close();
+                        }
+                        String table = data.readUTF();
+                        String sql = data.readUTF();
+                        if (!sql.isEmpty()) {
+                            db.execSQL(sql);
+                        } else if (SEQUENCE_TABLE.equals(table)) {
+                            // The tables restored before it already added their own rows, which
+                            // hold their largest id rather than the saved counter. SQLite would
+                            // read those and hand out the ids of deleted rows again.
+                            db.execSQL("DELETE FROM " + SEQUENCE_TABLE);
+                        }
+                        columnCount = data.readInt();
+                        StringBuilder columns = new StringBuilder();
+                        StringBuilder placeholders = new StringBuilder();
+                        for (int i = 0; i < columnCount; i++) {
+                            if (i > 0) {
+                                columns.append(", ");
+                                placeholders.append(", ");
+                            }
+                            columns.append('"').append(data.readUTF()).append('"');
+                            placeholders.append('?');
+                        }
+                        insert = db.compileStatement("INSERT INTO \"" + table + "\" (" + columns
+                                + ") VALUES (" + placeholders + ")");
+                        break;
+                    case RECORD_ROW:
+                        if (insert == null) {
+                            throw new IOException("Row before the first table");
+                        }
+                        insert.clearBindings();
+                        for (int i = 1; i <= columnCount; i++) {
+                            readValue(data, insert, i);
+                        }
+                        insert.executeInsert();
+                        if (++rows % LOG_EVERY_ROWS == 0) {
+                            Log.d(LOG_TAG, "Restored " + rows + " rows");
+                        }
+                        break;
+                    case RECORD_SCHEMA:
+                        db.execSQL(data.readUTF());
+                        break;
+                    case RECORD_END:
+                        return rows;
+                    default:
+                        throw new IOException("Unknown record " + record);
+                }
+            }
+        } finally {
+            if (insert != null) {
+                insert.close();
+            }
+        }
+    }
+
+    private static void readValue(DataInputStream data, SQLiteStatement insert, int index)
+            throws IOException {
+        byte type = data.readByte();
+        switch (type) {
+            case TYPE_NULL:
+                insert.bindNull(index);
+                break;
+            case TYPE_INTEGER:
+                insert.bindLong(index, data.readLong());
+                break;
+            case TYPE_FLOAT:
+                insert.bindDouble(index, data.readDouble());
+                break;
+            case TYPE_STRING:
+                insert.bindString(index, new String(readBytes(data), UTF_8));
+                break;
+            case TYPE_BLOB:
+                insert.bindBlob(index, readBytes(data));
+                break;
+            default:
+                throw new IOException("Unknown value type " + type);
+        }
+    }
+
+    private static byte[] readBytes(DataInputStream data) throws IOException {
+        int length = data.readInt();
+        if (length < 0) {
+            throw new IOException("Negative length " + length);
+        }
+        byte[] bytes = new byte[length];
+        data.readFully(bytes);
+        return bytes;
+    }
+
+    /**
+     * Returns whether or not the table belongs to the app, as opposed to SQLite
+     * (sqlite_*) or the Android framework (android_metadata).
+     */
+    private static boolean isUserTable(String name) {
+        return !name.startsWith("sqlite_") && !"android_metadata".equals(name);
+    }
+
+    private static List<String> getColumns(SQLiteDatabase db, String table) {
+        List<String> columns = new ArrayList<>();
+        Cursor cursor = db.rawQuery("PRAGMA table_info(\"" + table + "\")", null);
+        try {
+            int nameIndex = cursor.getColumnIndexOrThrow("name");
+            while (cursor.moveToNext()) {
+                columns.add(cursor.getString(nameIndex));
+            }
+        } finally {
+            cursor.close();
+        }
+        return columns;
+    }
+
+    /**
+     * Returns whether or not the table has a single INTEGER PRIMARY KEY column, which is the
+     * rowid under another name.
+     */
+    private static boolean hasRowidAlias(SQLiteDatabase db, String table) {
+        int keyColumns = 0;
+        boolean integerKey = false;
+        Cursor cursor = db.rawQuery("PRAGMA table_info(\"" + table + "\")", null);
+        try {
+            int typeIndex = cursor.getColumnIndexOrThrow("type");
+            int pkIndex = cursor.getColumnIndexOrThrow("pk");
+            while (cursor.moveToNext()) {
+                if (cursor.getInt(pkIndex) > 0) {
+                    keyColumns++;
+                    integerKey = "INTEGER".equalsIgnoreCase(cursor.getString(typeIndex));
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+        return keyColumns == 1 && integerKey;
+    }
+}
@@ -0,0 +1,270 @@
+package com.example.android.inventoryapp.data;
+
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Schedules database work in two lanes, so the UI doesn't wait behind long jobs.
+ *
+ * The interactive lane is for the reads of the UI and writes of single products. It runs on
+ * the caller's thread, between {@link #beginInteractive(boolean)} and {@link #endInteractive()}.
+ * Reads never wait, as the write-ahead log lets them run next to a writer. Writes only wait
+ * for the bulk chunk that is running, if any, and for at most {@link #MAX_INTERACTIVE_WAIT_MS},
+ * so a long chunk can't stall the UI until it stops responding. After that the write goes
+ * ahead and only waits for the transaction of the chunk that holds the database, which is why
+ * bulk work keeps its transactions short.
+ *
+ * The bulk lane is for imports, backfills, maintenance and sync. Its work is split into chunks,
+ * each between {@link #beginBulkChunk()} and {@link #endBulkChunk()}, and only one chunk runs at
+ * a time. Before it starts, a chunk waits while interactive work is running or waiting, though
+ * for at most {@link #MAX_BULK_WAIT_MS}, so a busy UI can't stall a job forever. Long jobs can
+ * also be handed to the background thread of the lane with {@link #executeBulk(Runnable)}.
+ *
+ * A chunk that replaces the database itself runs exclusively, between
+ * {@link #beginExclusive()} and {@link #endExclusive()}: it waits for all running interactive
+ * work, reads included, and all new interactive work waits for it.
+ *
+ * The time each lane spends waiting is recorded in {@link InventoryMetrics}: the number of
+ * runs, the number of waits, the total and the longest wait in milliseconds, under
+ * "executor.interactive." and "executor.bulk.".
+ */
+final class DatabaseExecutor {
+
+    public static final String LOG_TAG = DatabaseExecutor.class.getSimpleName();
+
+    /** Longest time a bulk chunk waits for interactive work before it runs anyway */
+    static final long MAX_BULK_WAIT_MS = 250;
+
+    /**
+     * Longest time an interactive write waits for the running bulk chunk before it runs
+     * anyway. An exclusive chunk is always waited for, the database may be closed until it ends.
+     */
+    static final long MAX_INTERACTIVE_WAIT_MS = 500;
+
+    private static final String LANE_INTERACTIVE = "interactive";
+    private static final String LANE_BULK = "bulk";
+
+    private final Object mLock = new Object();
+
+    /** Interactive work running or waiting, guarded by mLock */
+    private int mInteractive;
+
+    /** Interactive work running, guarded by mLock */
+    private int mInteractiveRunning;
+
+    /** Thread running the current bulk chunk, or null, guarded by mLock */
+    private Thread mBulkOwner;
+
+    /** Whether or not the current bulk chunk runs exclusively, guarded by mLock */
+    private boolean mExclusive;
+
+    /** Longest wait so far per lane, guarded by mLock */
+    private long mMaxInteractiveWait;
+    private long mMaxBulkWait;
+
+    /** Runs the long jobs handed to the bulk lane, one after the other */
+    private final ExecutorService mBulkThread = Executors.newSingleThreadExecutor(
+            new ThreadFactory() {
+                @Override
+                public Thread newThread(final Runnable runnable) {
+                    return new Thread(new Runnable() {
+                        @Override
+                        public void run() {
+                            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                            runnable.run();
+                        }
+                    }, "database-bulk");
+                }
+            });
+
+    /**
+     * Enter the interactive lane. A write waits for the running bulk chunk to finish, or for
+     * {@link #MAX_INTERACTIVE_WAIT_MS}, a read goes ahead right away. Both wait for an
+     * exclusive chunk without a deadline. Every call must be followed by
+     * {@link #endInteractive()}.
+     */
+    void beginInteractive(boolean write) {
+        long start = SystemClock.elapsedRealtime();
+        synchronized (mLock) {
+            mInteractive++;
+            // The bulk chunk itself may write through the interactive entry points
+            Thread current = Thread.currentThread();
+            boolean interrupted = false;
+            long deadline = start + MAX_INTERACTIVE_WAIT_MS;
+            while (mBulkOwner != null && mBulkOwner != current && (write || mExclusive)) {
+                long remaining = deadline - SystemClock.elapsedRealtime();
+                if (!mExclusive && remaining <= 0) {
+                    // Don't stall the UI, the chunk has had its turn
+                    break;
+                }
+                try {
+                    mLock.wait(mExclusive ? 0 : remaining);
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                    // The database may be closed until an exclusive chunk ends, so that one
+                    // is always waited for
+                    if (!mExclusive) {
+                        break;
+                    }
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+            mInteractiveRunning++;
+            long wait = SystemClock.elapsedRealtime() - start;
+            mMaxInteractiveWait = Math.max(mMaxInteractiveWait, wait);
+            recordWait(LANE_INTERACTIVE, wait, mMaxInteractiveWait);
+        }
+    }
+
+    /**
+     * Leave the interactive lane, letting bulk work continue once no interactive work is left.
+     */
+    void endInteractive() {
+        synchronized (mLock) {
+            mInteractive--;
+            mInteractiveRunning--;
+            if (mInteractiveRunning == 0) {
+                mLock.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Start a chunk of bulk work, once no other chunk is running and no interactive work is
+     * running or waiting, or {@link #MAX_BULK_WAIT_MS} have passed. Every call must be followed
+     * by {@link #endBulkChunk()}.
+     */
+    void beginBulkChunk() {
+        long start = SystemClock.elapsedRealtime();
+        synchronized (mLock) {
+            if (mBulkOwner == Thread.currentThread()) {
+                throw new IllegalStateException("Bulk chunks cannot be nested");
+            }
+            long deadline = start + MAX_BULK_WAIT_MS;
+            while (mBulkOwner != null || mInteractive > 0) {
+                long remaining = deadline - SystemClock.elapsedRealtime();
+                if (mBulkOwner == null && remaining <= 0) {
+                    // Don't starve the job, the interactive work has had its head start
+                    break;
+                }
+                try {
+                    // Another chunk always ends, so that is waited for without a deadline
+                    mLock.wait(mBulkOwner != null ? 0 : remaining);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    if (mBulkOwner == null) {
+                        break;
+                    }
+                }
+            }
+            mBulkOwner = Thread.currentThread();
+            long wait = SystemClock.elapsedRealtime() - start;
+            mMaxBulkWait = Math.max(mMaxBulkWait, wait);
+            recordWait(LANE_BULK, wait, mMaxBulkWait);
+        }
+    }
+
+    /**
+     * Finish the running chunk of bulk work, letting waiting interactive writes go ahead.
+     */
+    void endBulkChunk() {
+        synchronized (mLock) {
+            mBulkOwner = null;
+            mExclusive = false;
+            mLock.notifyAll();
+        }
+    }
+
+    /**
+     * Start a chunk of bulk work that runs alone, e.g. to close and replace the database. Once
+     * the running chunk is finished, all new interactive work waits until
+     * {@link #endExclusive()}, and this waits for the interactive work that is already running,
+     * without a deadline. Keep the chunk short, reads wait for it too.
+     */
+    void beginExclusive() {
+        long start = SystemClock.elapsedRealtime();
+        synchronized (mLock) {
+            Thread current = Thread.currentThread();
+            if (mBulkOwner == current) {
+                throw new IllegalStateException("Bulk chunks cannot be nested");
+            }
+            boolean interrupted = false;
+            while (mBulkOwner != null) {
+                try {
+                    mLock.wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            mBulkOwner = current;
+            mExclusive = true;
+            // Includes writes a chunk stopped waiting for, which may still be running
+            while (mInteractiveRunning > 0) {
+                try {
+                    mLock.wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+            long wait = SystemClock.elapsedRealtime() - start;
+            mMaxBulkWait = Math.max(mMaxBulkWait, wait);
+            recordWait(LANE_BULK, wait, mMaxBulkWait);
+        }
+    }
+
+    /**
+     * Finish the exclusive chunk, letting all waiting work go ahead.
+     */
+    void endExclusive() {
+        endBulkChunk();
+    }
+
+    /**
+     * End the running chunk and start the next one, giving any waiting interactive work its
+     * turn in between.
+     */
+    void yieldBulkChunk() {
+        endBulkChunk();
+        beginBulkChunk();
+    }
+
+    /**
+     * Run a long job on the background thread of the bulk lane, after the jobs handed to it
+     * before. The job still splits its work into chunks itself.
+     */
+    void executeBulk(final Runnable job) {
+        final long submitted = SystemClock.elapsedRealtime();
+        mBulkThread.execute(new Runnable() {
+            @Override
+            public void run() {
+                InventoryMetrics.add("executor.bulk.queue_ms",
+                        SystemClock.elapsedRealtime() - submitted);
+                try {
+                    job.run();
+                } catch (RuntimeException e) {
+                    // Keep the thread for the jobs queued after this one
+                    Log.e(LOG_TAG, "Bulk job failed", e);
+                }
+            }
+        });
+    }
+
+    private static void recordWait(String lane, long wait, long maxWait) {
+        InventoryMetrics.increment("executor." + lane + ".runs");
+        if (wait > 0) {
+            InventoryMetrics.increment("executor." + lane + ".waits");
+            InventoryMetrics.add("executor." + lane + ".wait_ms", wait);
+            InventoryMetrics.setGauge("executor." + lane + ".max_wait_ms", maxWait);
+        }
+    }
+}
@@ -0,0 +1,201 @@
+package com.example.android.inventoryapp.data;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.UriPermission;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+import android.os.Bundle;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.example.android.inventoryapp.data.ProductContract.ProductEntry;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Housekeeping jobs for the inventory database.
+ *
+ * The jobs are normally run by {@link MaintenanceJobService} while the device is idle and
+ * charging. They can also be run right away with {@link ProductContract#METHOD_RUN_MAINTENANCE}.
+ */
+final class DatabaseMaintenance {
+
+    public static final String LOG_TAG = DatabaseMaintenance.class.getSimpleName();
+
+    /** Names of the jobs, used as keys of the timings Bundle and in the metric names */
+    static final String JOB_RESERVATION_SWEEP = "reservation_sweep";
+    static final String JOB_SALES_WINDOWS = "sales_windows";
+    static final String JOB_VACUUM = "vacuum";
+    static final String JOB_ANALYZE = "analyze";
+    static final String JOB_PICTURE_CLEANUP = "picture_cleanup";
+    static final String JOB_CHECKPOINT = "checkpoint";
+    static final String JOB_INTEGRITY_CHECK = "integrity_check";
+
+    /** Key of the Bundle entry that tells whether or not the integrity check passed */
+    static final String RESULT_INTEGRITY_OK = "integrity_ok";
+
+    /** auto_vacuum value of a database set up for incremental vacuum */
+    private static final int AUTO_VACUUM_INCREMENTAL = 2;
+
+    private DatabaseMaintenance() {}
+
+    /**
+     * Run every maintenance job and return how long each took, in milliseconds, along with
+     * whether or not the integrity check passed ({@link #RESULT_INTEGRITY_OK}).
+     * This can take a while and must not be called on the main thread. It must be called in a
+     * chunk of the bulk lane of the executor, interactive work gets its turn between the jobs.
+     */
+    static Bundle runAll(Context context, SQLiteDatabase db, DatabaseExecutor executor) {
+        Bundle result = new Bundle();
+
+        long start = SystemClock.elapsedRealtime();
+        // Before the vacuum, which gives back the pages of the released holds
+        Reservations.sweepExpired(db, executor, System.currentTimeMillis());
+        recordTiming(result, JOB_RESERVATION_SWEEP, start);
+        executor.yieldBulkChunk();
+        start = SystemClock.elapsedRealtime();
+
+        // So the rankings of a day without sales don't have to write when they are read
+        SalesStats.advanceWindows(db, System.currentTimeMillis());
+        recordTiming(result, JOB_SALES_WINDOWS, start);
+        executor.yieldBulkChunk();
+        start = SystemClock.elapsedRealtime();
+
+        vacuum(db);
+        recordTiming(result, JOB_VACUUM, start);
+        executor.yieldBulkChunk();
+        start = SystemClock.elapsedRealtime();
+
+        db.execSQL("ANALYZE");
+        recordTiming(result, JOB_ANALYZE, start);
+        executor.yieldBulkChunk();
+        start = SystemClock.elapsedRealtime();
+
+        releaseOrphanedPictures(context, db);
+        recordTiming(result, JOB_PICTURE_CLEANUP, start);
+        executor.yieldBulkChunk();
+        start = SystemClock.elapsedRealtime();
+
+        checkpoint(db);
+        recordTiming(result, JOB_CHECKPOINT, start);
+        executor.yieldBulkChunk();
+        start = SystemClock.elapsedRealtime();
+
+        boolean integrityOk = checkIntegrity(db);
+        recordTiming(result, JOB_INTEGRITY_CHECK, start);
+        result.putBoolean(RESULT_INTEGRITY_OK, integrityOk);
+
+        InventoryMetrics.increment("maintenance.runs");
+        return result;
+    }
+
+    /**
+     * Give the pages freed by deletes back to the file system. A database created before
+     * incremental vacuum was enabled is converted once with a full VACUUM.
+     */
+    private static void vacuum(SQLiteDatabase db) {
+        if (longForQuery(db, "PRAGMA auto_vacuum") != AUTO_VACUUM_INCREMENTAL) {
+            Log.i(LOG_TAG, "Converting database to incremental vacuum");
+            db.execSQL("PRAGMA auto_vacuum = INCREMENTAL");
+            db.execSQL("VACUUM");
+            return;
+        }
+        // incremental_vacuum returns one row per freed page, so step through all of them
+        Cursor cursor = db.rawQuery("PRAGMA incremental_vacuum", null);
+        try {
+            while (cursor.moveToNext()) {
+                // Each step frees a page
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Copy the write-ahead log back into the database file and start it over from the
+     * beginning. TRUNCATE would also empty the file, but needs SQLite 3.8.8, which not every
+     * device of the minimum API level ships, and older versions quietly run a passive
+     * checkpoint instead. RESTART works on all of them, and as the framework sets a journal
+     * size limit, the next write cuts the log down to that size anyway.
+     */
+    private static void checkpoint(SQLiteDatabase db) {
+        Cursor cursor = db.rawQuery("PRAGMA wal_checkpoint(RESTART)", null);
+        try {
+            if (cursor.moveToFirst() && cursor.getInt(0) != 0) {
+                Log.w(LOG_TAG, "Checkpoint could not complete, the database was busy");
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Returns whether or not the database passes a quick integrity check.
+     */
+    private static boolean checkIntegrity(SQLiteDatabase db) {
+        Cursor cursor = db.rawQuery("PRAGMA quick_check", null);
+        try {
+            boolean ok = cursor.moveToFirst() && "ok".equals(cursor.getString(0));
+            if (!ok) {
+                Log.e(LOG_TAG, "Integrity check failed: "
+                        + (cursor.getCount() > 0 ? cursor.getString(0) : "no result"));
+                InventoryMetrics.increment("maintenance.integrity_failures");
+            }
+            return ok;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Release the persisted read permissions of pictures that no product refers to anymore.
+     * The app keeps no copies or thumbnails of pictures, so these grants are the only thing
+     * a deleted or changed product leaves behind.
+     */
+    private static void releaseOrphanedPictures(Context context, SQLiteDatabase db) {
+        ContentResolver resolver = context.getContentResolver();
+        Set<String> pictures = new HashSet<>();
+        Cursor cursor = db.query(true, ProductEntry.TABLE_NAME,
+                new String[] { ProductEntry.COLUMN_PRODUCT_PICTURE }, null, null, null, null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                pictures.add(cursor.getString(0));
+            }
+        } finally {
+            cursor.close();
+        }
+
+        int released = 0;
+        for (UriPermission permission : resolver.getPersistedUriPermissions()) {
+            Uri uri = permission.getUri();
+            if (!pictures.contains(uri.toString())) {
+                resolver.releasePersistableUriPermission(uri,
+                        Intent.FLAG_GRANT_READ_URI_PERMISSION);
+                released++;
+            }
+        }
+        if (released > 0) {
+            Log.i(LOG_TAG, "Released " + released + " orphaned picture permissions");
+        }
+    }
+
+    private static long recordTiming(Bundle result, String job, long start) {
+        long now = SystemClock.elapsedRealtime();
+        result.putLong(job, now - start);
+        InventoryMetrics.setGauge("maintenance." + job + "_ms", now - start);
+        return now;
+    }
+
+    private static long longForQuery(SQLiteDatabase db, String sql) {
+        Cursor cursor = db.rawQuery(sql, null);
+        try {
+            return cursor.moveToFirst() ? cursor.getLong(0) : 0;
+        } finally {
+            cursor.close();
+        }
+    }
+}
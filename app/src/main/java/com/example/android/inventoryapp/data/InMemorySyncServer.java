@@ -0,0 +1,53 @@
+package com.example.android.inventoryapp.data;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A {@link SyncServer} that runs in the process and keeps everything in memory, standing in for
+ * the central service in tests and benchmarks. It follows the same rules: a change is accepted
+ * if it is based on the version the server holds (or the server doesn't know the product),
+ * and every accepted change is appended to the log that pulls page through.
+ */
+final class InMemorySyncServer implements SyncServer {
+
+    /** The current version of every product, deleted ones included */
+    private final Map<String, SyncRecord> mCurrent = new HashMap<>();
+
+    /** Every accepted change, the cursor of a pull is an index into it */
+    private final List<SyncRecord> mLog = new ArrayList<>();
+
+    @Override
+    public synchronized byte[] push(byte[] request) throws IOException {
+        List<SyncCodec.PushResult> results = new ArrayList<>();
+        for (SyncRecord record : SyncCodec.decodePush(request)) {
+            SyncRecord current = mCurrent.get(record.syncId);
+            if (current != null && current.version != record.version) {
+                results.add(new SyncCodec.PushResult(false, 0, current));
+                continue;
+            }
+            SyncRecord accepted = record.withVersion(current == null ? 1 : current.version + 1);
+            mCurrent.put(accepted.syncId, accepted);
+            mLog.add(accepted);
+            results.add(new SyncCodec.PushResult(true, accepted.version, null));
+        }
+        return SyncCodec.encodePushResults(results);
+    }
+
+    @Override
+    public synchronized byte[] pull(byte[] request) throws IOException {
+        long[] cursorAndLimit = SyncCodec.decodePullRequest(request);
+        int from = (int) Math.min(cursorAndLimit[0], mLog.size());
+        int to = (int) Math.min(from + cursorAndLimit[1], mLog.size());
+        return SyncCodec.encodePullResponse(new SyncCodec.PullResponse(to, to < mLog.size(),
+                new ArrayList<>(mLog.subList(from, to))));
+    }
+
+    /** Returns the current version of the product, or null if the server never saw it */
+    synchronized SyncRecord get(String syncId) {
+        return mCurrent.get(syncId);
+    }
+}
@@ -0,0 +1,687 @@
+package com.example.android.inventoryapp.data;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.database.Cursor;
+import android.net.Uri;
+import android.util.JsonWriter;
+import android.util.Log;
+
+import com.example.android.inventoryapp.data.ProductContract.ProductEntry;
+import com.example.android.inventoryapp.data.ProductContract.ProductQuery;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.ProtocolException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.Charset;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A small HTTP/1.1 server that lets back-office terminals on the same network read the
+ * catalog. It only answers GET requests, reads everything through the content resolver and
+ * answers in JSON:
+ *
+ *   GET /products        a page of products: the parameters of a {@link ProductQuery},
+ *                        and {@link #PARAM_PAGE} (from 1) and {@link #PARAM_PAGE_SIZE}
+ *   GET /products/<id>   a single product
+ *   GET /export          every product, one JSON object per line, streamed as it is read
+ *
+ * Every answer carries the catalog version ({@link ProductEntry#CATALOG_VERSION_URI}) as its
+ * ETag. A terminal that polls with If-None-Match gets a bodyless 304 Not Modified, without a
+ * single product being read, for as long as nothing in the catalog changed. The version is read
+ * before the products, so a change in between makes the next poll read them again rather than
+ * miss the change.
+ *
+ * Connections are kept alive between requests and served by a small pool of threads.
+ */
+public final class InventoryHttpServer {
+
+    public static final String LOG_TAG = InventoryHttpServer.class.getSimpleName();
+
+    /** Query parameter of GET /products: the page to return, the first one is 1 */
+    public static final String PARAM_PAGE = "page";
+
+    /** Query parameter of GET /products: the number of products per page */
+    public static final String PARAM_PAGE_SIZE = "page_size";
+
+    public static final int DEFAULT_PAGE_SIZE = 50;
+    public static final int MAX_PAGE_SIZE = 500;
+
+    /** Connections waiting to be accepted, further ones are refused */
+    private static final int BACKLOG = 50;
+
+    /** Connections served at the same time, further ones wait for a free thread */
+    private static final int WORKER_THREADS = 4;
+
+    /** How long an idle kept-alive connection stays open */
+    private static final int IDLE_TIMEOUT_MS = 15 * 1000;
+
+    private static final int MAX_LINE_LENGTH = 8 * 1024;
+    private static final int MAX_HEADERS = 100;
+
+    /** Bytes of the export collected into one chunk */
+    private static final int CHUNK_SIZE = 8 * 1024;
+
+    /** Content length of a streamed body: chunked, or up to the end of the connection */
+    private static final long STREAMED = -1;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+
+    private static final Pattern PRODUCT_PATH = Pattern.compile("/products/(\\d{1,18})");
+
+    /** The parameters of GET /products that are passed on as a {@link ProductQuery} */
+    private static final String[] QUERY_PARAMETERS = {
+            ProductEntry.QUERY_SORT, ProductEntry.QUERY_DESCENDING, ProductEntry.QUERY_IN_STOCK,
+            ProductEntry.QUERY_MIN_PRICE, ProductEntry.QUERY_MAX_PRICE,
+            ProductEntry.QUERY_NAME_PREFIX };
+
+    private final ContentResolver mResolver;
+    private final InetAddress mAddress;
+    private final int mPort;
+
+    /** Open connections, closed when the server stops */
+    private final Set<Socket> mConnections =
+            Collections.newSetFromMap(new ConcurrentHashMap<Socket, Boolean>());
+
+    private ServerSocket mServerSocket;
+    private ExecutorService mWorkers;
+
+    /**
+     * Create a server on the given port of the given address, 0 picks a free port. The catalog
+     * is readable without signing in, so the address should be the one on the local network
+     * only, never one that is reachable from outside of it.
+     */
+    public InventoryHttpServer(ContentResolver resolver, InetAddress address, int port) {
+        mResolver = resolver;
+        mAddress = address;
+        mPort = port;
+    }
+
+    /**
+     * Start listening. This binds the socket and should not be called on the main thread.
+     */
+    public synchronized void start() throws IOException {
+        if (mServerSocket != null) {
+            throw new IllegalStateException("The server is already running");
+        }
+        final ServerSocket serverSocket = new ServerSocket(mPort, BACKLOG, mAddress);
+        final ExecutorService workers = Executors.newFixedThreadPool(WORKER_THREADS);
+        mServerSocket = serverSocket;
+        mWorkers = workers;
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                accept(serverSocket, workers);
+            }
+        }, "http-accept").start();
+        Log.i(LOG_TAG, "Serving the catalog on " + mAddress.getHostAddress() + ":"
+                + serverSocket.getLocalPort());
+    }
+
+    /**
+     * Stop listening and close every open connection. Requests in progress are cut off.
+     */
+    public synchronized void stop() {
+        if (mServerSocket == null) {
+            return;
+        }
+        closeQuietly(mServerSocket);
+        mWorkers.shutdownNow();
+        for (Socket socket : mConnections) {
+            closeQuietly(socket);
+        }
+        mServerSocket = null;
+        mWorkers = null;
+    }
+
+    public synchronized boolean isRunning() {
+        return mServerSocket != null;
+    }
+
+    /**
+     * Returns the port the server listens on, or -1 if it isn't running.
+     */
+    public synchronized int getPort() {
+        return mServerSocket == null ? -1 : mServerSocket.getLocalPort();
+    }
+
+    private void accept(ServerSocket serverSocket, ExecutorService workers) {
+        while (true) {
+            final Socket socket;
+            try {
+                socket = serverSocket.accept();
+            } catch (IOException e) {
+                if (!serverSocket.isClosed()) {
+                    Log.e(LOG_TAG, "Cannot accept connections", e);
+                }
+                return;
+            }
+            mConnections.add(socket);
+            try {
+                workers.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        serve(socket);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                // The server was stopped in the meantime
+                mConnections.remove(socket);
+                closeQuietly(socket);
+            }
+        }
+    }
+
+    /**
+     * Answer the requests of one connection until the client closes it, asks for it to be
+     * closed, or leaves it idle for too long.
+     */
+    private void serve(Socket socket) {
+        try {
+            socket.setSoTimeout(IDLE_TIMEOUT_MS);
+            socket.setTcpNoDelay(true);
+            InputStream in = new BufferedInputStream(socket.getInputStream());
+            OutputStream out = new BufferedOutputStream(socket.getOutputStream(), CHUNK_SIZE);
+            try {
+                Request request;
+                while ((request = Request.read(in)) != null) {
+                    boolean keepAlive = handle(request, out);
+                    out.flush();
+                    if (!keepAlive) {
+                        break;
+                    }
+                }
+            } catch (ProtocolException e) {
+                sendText(out, 400, "Bad Request", e.getMessage(), false);
+                out.flush();
+            }
+        } catch (SocketTimeoutException e) {
+            // An idle connection, the client can open a new one
+        } catch (IOException e) {
+            Log.d(LOG_TAG, "Connection closed", e);
+        } finally {
+            mConnections.remove(socket);
+            closeQuietly(socket);
+        }
+    }
+
+    /**
+     * Answer one request. Returns whether or not the connection stays open for the next one.
+     */
+    private boolean handle(Request request, OutputStream out) throws IOException {
+        InventoryMetrics.increment("http.requests");
+        // Requests are read up to the end of their headers, a body would be read as the next
+        // request. None of ours has one, so the connection is closed after answering it.
+        boolean keepAlive = request.keepAlive() && !request.hasBody();
+        if (!"GET".equals(request.method)) {
+            sendText(out, 405, "Method Not Allowed", "Only GET is supported", false);
+            return false;
+        }
+
+        Uri uri = Uri.parse(request.target);
+        String path = uri.getPath();
+        Matcher productPath = PRODUCT_PATH.matcher(path == null ? "" : path);
+        boolean list = "/products".equals(path);
+        boolean export = "/export".equals(path);
+        if (!list && !export && !productPath.matches()) {
+            sendText(out, 404, "Not Found", "No such resource: " + path, keepAlive);
+            return keepAlive;
+        }
+
+        String etag = "\"" + readCatalogVersion() + "\"";
+        if (request.matches(etag)) {
+            InventoryMetrics.increment("http.not_modified");
+            writeHead(out, 304, "Not Modified", etag, null, 0, keepAlive);
+            return keepAlive;
+        }
+
+        try {
+            if (list) {
+                sendJson(out, etag, writeList(uri), keepAlive);
+            } else if (export) {
+                return export(request, out, etag);
+            } else {
+                byte[] product = writeProduct(Long.parseLong(productPath.group(1)));
+                if (product == null) {
+                    sendText(out, 404, "Not Found", "No such product: " + path, keepAlive);
+                } else {
+                    sendJson(out, etag, product, keepAlive);
+                }
+            }
+        } catch (IllegalArgumentException e) {
+            // The provider turned the query down
+            sendText(out, 400, "Bad Request", e.getMessage(), keepAlive);
+        }
+        return keepAlive;
+    }
+
+    private long readCatalogVersion() {
+        Cursor cursor = mResolver.query(ProductEntry.CATALOG_VERSION_URI, null, null, null, null);
+        if (cursor == null) {
+            throw new IllegalStateException("Cannot read the catalog version");
+        }
+        try {
+            return cursor.moveToFirst() ? cursor.getLong(0) : 0;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Read a page of the products and write it as a JSON object with the page, whether or not
+     * there are more pages, and the products.
+     */
+    private byte[] writeList(Uri uri) throws IOException {
+        int page = parseParameter(uri, PARAM_PAGE, 1, Integer.MAX_VALUE, 1);
+        int pageSize = parseParameter(uri, PARAM_PAGE_SIZE, 1, MAX_PAGE_SIZE, DEFAULT_PAGE_SIZE);
+        long offset = (long) (page - 1) * pageSize;
+        if (offset > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("No such page: " + page);
+        }
+
+        // Every sort ends with the id, so pages neither overlap nor skip products. One extra
+        // product tells whether there is another page.
+        Uri.Builder query = ProductEntry.CONTENT_URI.buildUpon();
+        for (String parameter : QUERY_PARAMETERS) {
+            String value = uri.getQueryParameter(parameter);
+            if (value != null) {
+                query.appendQueryParameter(parameter, value);
+            }
+        }
+        Uri pageUri = ProductQuery.fromUri(query.build()).toUri().buildUpon()
+                .appendQueryParameter(ProductEntry.QUERY_LIMIT, String.valueOf(pageSize + 1))
+                .appendQueryParameter(ProductEntry.QUERY_OFFSET, String.valueOf(offset))
+                .build();
+
+        Cursor cursor = mResolver.query(pageUri, Product.COLUMNS, null, null, null);
+        if (cursor == null) {
+            throw new IllegalStateException("Cannot read the products");
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        JsonWriter json = new JsonWriter(new OutputStreamWriter(bytes, UTF_8));
+        try {
+            ProductMapper mapper = ProductMapper.forCursor(cursor);
+            json.beginObject();
+            json.name("page").value(page);
+            json.name("page_size").value(pageSize);
+            json.name("has_more").value(cursor.getCount() > pageSize);
+            json.name("products").beginArray();
+            for (int i = 0; i < pageSize && cursor.moveToNext(); i++) {
+                writeProduct(json, mapper.read(cursor));
+            }
+            json.endArray();
+            json.endObject();
+        } finally {
+            cursor.close();
+        }
+        json.close();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Read a single product and write it as a JSON object, or return null if there is none.
+     */
+    private byte[] writeProduct(long id) throws IOException {
+        Cursor cursor = mResolver.query(ContentUris.withAppendedId(ProductEntry.CONTENT_URI, id),
+                Product.COLUMNS, null, null, null);
+        if (cursor == null) {
+            throw new IllegalStateException("Cannot read the product");
+        }
+        Product product;
+        try {
+            product = cursor.moveToFirst() ? Product.fromCursor(cursor) : null;
+        } finally {
+            cursor.close();
+        }
+        if (product == null) {
+            return null;
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        JsonWriter json = new JsonWriter(new OutputStreamWriter(bytes, UTF_8));
+        writeProduct(json, product);
+        json.close();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Stream every product as a line of JSON while the cursor reads them, in chunks, so the
+     * memory used stays the same however large the catalog is. Returns whether or not the
+     * connection stays open.
+     */
+    private boolean export(Request request, OutputStream out, String etag) throws IOException {
+        Uri uri = ProductEntry.CONTENT_URI.buildUpon()
+                .appendQueryParameter(ProductEntry.QUERY_SORT, ProductEntry.SORT_ADDED)
+                .build();
+        Cursor cursor = mResolver.query(uri, Product.COLUMNS, null, null, null);
+        if (cursor == null) {
+            throw new IllegalStateException("Cannot read the products");
+        }
+        // HTTP/1.0 clients don't know chunks, their body ends with the connection
+        boolean chunked = request.http11;
+        boolean keepAlive = chunked && request.keepAlive() && !request.hasBody();
+        int exported = 0;
+        try {
+            writeHead(out, 200, "OK", etag, "application/x-ndjson; charset=utf-8", STREAMED,
+                    keepAlive, chunked);
+            ChunkedOutputStream chunks = chunked ? new ChunkedOutputStream(out) : null;
+            Writer writer = new OutputStreamWriter(new BufferedOutputStream(
+                    chunked ? chunks : new NonClosingOutputStream(out), CHUNK_SIZE), UTF_8);
+            // Lenient, to write one top-level object after another
+            JsonWriter json = new JsonWriter(writer);
+            json.setLenient(true);
+            ProductMapper mapper = ProductMapper.forCursor(cursor);
+            Product product = null;
+            while (cursor.moveToNext()) {
+                product = mapper.reuse(product, cursor);
+                writeProduct(json, product);
+                json.flush();
+                writer.write('\n');
+                exported++;
+            }
+            writer.close();
+            if (chunked) {
+                chunks.finish();
+            }
+        } catch (RuntimeException e) {
+            // The answer is already on its way, all we can do is cut it off
+            Log.e(LOG_TAG, "Export failed after " + exported + " products", e);
+            return false;
+        } finally {
+            cursor.close();
+        }
+        InventoryMetrics.add("http.exported", exported);
+        return keepAlive;
+    }
+
+    private static void writeProduct(JsonWriter json, Product product) throws IOException {
+        // The picture is a content URI on this device, and of no use anywhere else
+        json.beginObject();
+        json.name("id").value(product.getId());
+        json.name("name").value(product.getName());
+        json.name("stock").value(product.getStock());
+        json.name("price").value(product.getPrice());
+        json.name("reorder_threshold").value(product.getReorderThreshold());
+        json.name("version").value(product.getVersion());
+        json.endObject();
+    }
+
+    private static int parseParameter(Uri uri, String name, int min, int max, int defaultValue) {
+        String value = uri.getQueryParameter(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            int number = Integer.parseInt(value);
+            if (number < min || number > max) {
+                throw new IllegalArgumentException(name + " must be between " + min + " and "
+                        + max + ": " + value);
+            }
+            return number;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid " + name + ": " + value, e);
+        }
+    }
+
+    private static void sendJson(OutputStream out, String etag, byte[] body, boolean keepAlive)
+            throws IOException {
+        writeHead(out, 200, "OK", etag, "application/json; charset=utf-8", body.length,
+                keepAlive);
+        out.write(body);
+    }
+
+    private static void sendText(OutputStream out, int status, String reason, String message,
+                                 boolean keepAlive) throws IOException {
+        byte[] body = (message == null ? reason : message).getBytes(UTF_8);
+        writeHead(out, status, reason, null, "text/plain; charset=utf-8", body.length, keepAlive);
+        out.write(body);
+    }
+
+    private static void writeHead(OutputStream out, int status, String reason, String etag,
+                                  String contentType, long contentLength, boolean keepAlive)
+            throws IOException {
+        writeHead(out, status, reason, etag, contentType, contentLength, keepAlive, false);
+    }
+
+    private static void writeHead(OutputStream out, int status, String reason, String etag,
+                                  String contentType, long contentLength, boolean keepAlive,
+                                  boolean chunked) throws IOException {
+        StringBuilder head = new StringBuilder(256);
+        head.append("HTTP/1.1 ").append(status).append(' ').append(reason).append("\r\n");
+        if (etag != null) {
+            // Clients may keep the answer, but have to ask whether it is still current
+            head.append("ETag: ").append(etag).append("\r\n");
+            head.append("Cache-Control: no-cache\r\n");
+        }
+        if (contentType != null) {
+            head.append("Content-Type: ").append(contentType).append("\r\n");
+        }
+        if (chunked) {
+            head.append("Transfer-Encoding: chunked\r\n");
+        } else if (contentLength != STREAMED && status != 304) {
+            head.append("Content-Length: ").append(contentLength).append("\r\n");
+        }
+        head.append("Connection: ").append(keepAlive ? "keep-alive" : "close").append("\r\n");
+        head.append("\r\n");
+        out.write(head.toString().getBytes(ISO_8859_1));
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            // Nothing left to do with it
+        }
+    }
+
+    /**
+     * The request line and headers of a request.
+     */
+    private static final class Request {
+
+        final String method;
+        final String target;
+        final boolean http11;
+
+        /** Headers by their lower case name, repeated ones joined with commas */
+        final Map<String, String> headers;
+
+        private Request(String method, String target, boolean http11,
+                        Map<String, String> headers) {
+            this.method = method;
+            this.target = target;
+            this.http11 = http11;
+            this.headers = headers;
+        }
+
+        /**
+         * Read the next request, or return null if the client closed the connection.
+         */
+        static Request read(InputStream in) throws IOException {
+            String line = readLine(in);
+            // Empty lines before a request are allowed (RFC 7230, section 3.5)
+            while (line != null && line.isEmpty()) {
+                line = readLine(in);
+            }
+            if (line == null) {
+                return null;
+            }
+            String[] parts = line.split(" ");
+            if (parts.length != 3 || !parts[2].startsWith("HTTP/1.")) {
+                throw new ProtocolException("Invalid request line: " + line);
+            }
+
+            Map<String, String> headers = new HashMap<>();
+            while (true) {
+                String header = readLine(in);
+                if (header == null) {
+                    throw new ProtocolException("Incomplete request: " + line);
+                }
+                if (header.isEmpty()) {
+                    break;
+                }
+                int colon = header.indexOf(':');
+                if (colon <= 0 || headers.size() >= MAX_HEADERS) {
+                    throw new ProtocolException("Invalid header: " + header);
+                }
+                String name = header.substring(0, colon).trim().toLowerCase(Locale.US);
+                String value = header.substring(colon + 1).trim();
+                String previous = headers.get(name);
+                headers.put(name, previous == null ? value : previous + ", " + value);
+            }
+            return new Request(parts[0], parts[1], !"HTTP/1.0".equals(parts[2]), headers);
+        }
+
+        /**
+         * Read a line up to CRLF (or a bare LF), or return null at the end of the stream.
+         */
+        private static String readLine(InputStream in) throws IOException {
+            ByteArrayOutputStream line = new ByteArrayOutputStream(128);
+            int b;
+            while ((b = in.read()) != '\n') {
+                if (b == -1) {
+                    if (line.size() == 0) {
+                        return null;
+                    }
+                    throw new ProtocolException("Incomplete line");
+                }
+                if (line.size() == MAX_LINE_LENGTH) {
+                    throw new ProtocolException("Line too long");
+                }
+                line.write(b);
+            }
+            String text = new String(line.toByteArray(), ISO_8859_1);
+            return text.endsWith("\r") ? text.substring(0, text.length() - 1) : text;
+        }
+
+        boolean keepAlive() {
+            String connection = headers.get("connection");
+            return http11 ? !"close".equalsIgnoreCase(connection)
+                    : "keep-alive".equalsIgnoreCase(connection);
+        }
+
+        boolean hasBody() {
+            String length = headers.get("content-length");
+            return headers.containsKey("transfer-encoding")
+                    || (length != null && !"0".equals(length));
+        }
+
+        /**
+         * Returns whether or not the If-None-Match header holds the given entity tag.
+         */
+        boolean matches(String etag) {
+            String ifNoneMatch = headers.get("if-none-match");
+            if (ifNoneMatch == null) {
+                return false;
+            }
+            for (String tag : ifNoneMatch.split(",")) {
+                tag = tag.trim();
+                // A GET compares weakly (RFC 7232, section 3.2)
+                if (tag.startsWith("W/")) {
+                    tag = tag.substring(2);
+                }
+                if (tag.equals("*") || tag.equals(etag)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Sends everything written to it as one chunk of a chunked body.
+     */
+    private static final class ChunkedOutputStream extends OutputStream {
+
+        private final OutputStream mOut;
+
+        ChunkedOutputStream(OutputStream out) {
+            mOut = out;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] { (byte) b }, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] buffer, int offset, int count) throws IOException {
+            if (count == 0) {
+                // An empty chunk would end the body
+                return;
+            }
+            mOut.write((Integer.toHexString(count) + "\r\n").getBytes(ISO_8859_1));
+            mOut.write(buffer, offset, count);
+            mOut.write('\r');
+            mOut.write('\n');
+        }
+
+        @Override
+        public void flush() throws IOException {
+            mOut.flush();
+        }
+
+        @Override
+        public void close() {
+            // The connection stays open, the body ends with finish()
+        }
+
+        /** Write the last chunk that ends the body */
+        void finish() throws IOException {
+            mOut.write("0\r\n\r\n".getBytes(ISO_8859_1));
+        }
+    }
+
+    /**
+     * Passes everything on but leaves the connection open when closed.
+     */
+    private static final class NonClosingOutputStream extends OutputStream {
+
+        private final OutputStream mOut;
+
+        NonClosingOutputStream(OutputStream out) {
+            mOut = out;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            mOut.write(b);
+        }
+
+        @Override
+        public void write(byte[] buffer, int offset, int count) throws IOException {
+            mOut.write(buffer, offset, count);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            mOut.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            mOut.flush();
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package com.example.android.inventoryapp.data;
+
+import android.app.Service;
+import android.content.Context;
+import android.content.Intent;
+import android.net.wifi.WifiManager;
+import android.os.IBinder;
+import android.util.Log;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Keeps the {@link InventoryHttpServer} running while the user has it switched on, so terminals
+ * on the same network can read the stock levels. It is off unless started. The server only
+ * listens on the address of the device on the Wi-Fi network, so the catalog can't be read over
+ * the mobile network, and doesn't start while the device isn't connected to Wi-Fi.
+ */
+public class InventoryHttpService extends Service {
+
+    public static final String LOG_TAG = InventoryHttpService.class.getSimpleName();
+
+    /** Port the terminals connect to */
+    public static final int PORT = 8080;
+
+    private static volatile boolean sRunning;
+
+    private InventoryHttpServer mServer;
+
+    /** Starts and stops the server off the main thread, in the order they were asked for */
+    private ExecutorService mControl;
+
+    /**
+     * Switch the server on or off.
+     */
+    public static void setEnabled(Context context, boolean enabled) {
+        Intent intent = new Intent(context, InventoryHttpService.class);
+        if (enabled) {
+            context.startService(intent);
+        } else {
+            context.stopService(intent);
+        }
+    }
+
+    /**
+     * Returns whether or not the server is switched on.
+     */
+    public static boolean isEnabled() {
+        return sRunning;
+    }
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        sRunning = true;
+        final InetAddress address = getWifiAddress();
+        mServer = new InventoryHttpServer(getContentResolver(), address, PORT);
+        mControl = Executors.newSingleThreadExecutor();
+        mControl.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (address == null) {
+                    Log.w(LOG_TAG, "Not connected to Wi-Fi, the server isn't started");
+                    stopSelf();
+                    return;
+                }
+                try {
+                    mServer.start();
+                } catch (IOException e) {
+                    Log.e(LOG_TAG, "Cannot listen on port " + PORT, e);
+                    stopSelf();
+                }
+            }
+        });
+    }
+
+    @Override
+    public int onStartCommand(Intent intent, int flags, int startId) {
+        // Come back with the server if the process is killed while it is switched on
+        return START_STICKY;
+    }
+
+    @Override
+    public void onDestroy() {
+        sRunning = false;
+        final InventoryHttpServer server = mServer;
+        mControl.execute(new Runnable() {
+            @Override
+            public void run() {
+                server.stop();
+            }
+        });
+        mControl.shutdown();
+        super.onDestroy();
+    }
+
+    @Override
+    public IBinder onBind(Intent intent) {
+        return null;
+    }
+
+    /**
+     * Returns the address of the device on the Wi-Fi network, or null if it isn't connected
+     * to one.
+     */
+    private InetAddress getWifiAddress() {
+        WifiManager wifi = (WifiManager) getApplicationContext()
+                .getSystemService(Context.WIFI_SERVICE);
+        int address = wifi.getConnectionInfo().getIpAddress();
+        if (address == 0) {
+            return null;
+        }
+        // The IPv4 address comes in little-endian byte order
+        byte[] bytes = { (byte) address, (byte) (address >> 8), (byte) (address >> 16),
+                (byte) (address >> 24) };
+        try {
+            return InetAddress.getByAddress(bytes);
+        } catch (UnknownHostException e) {
+            // Only thrown for an address of the wrong length
+            return null;
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package com.example.android.inventoryapp.data;
+
+import android.os.Bundle;
+import android.util.Log;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Process-wide counters and gauges for the data layer.
+ *
+ * Values are keyed by a dotted name such as "product_cache.hit". They can be logged with
+ * {@link #dump()} or read by other components through {@link ProductProvider#call}.
+ */
+public final class InventoryMetrics {
+
+    public static final String LOG_TAG = InventoryMetrics.class.getSimpleName();
+
+    private static final Map<String, Long> sCounters = new TreeMap<>();
+    private static final Map<String, Double> sGauges = new TreeMap<>();
+
+    private InventoryMetrics() {}
+
+    /** Add one to the named counter. */
+    public static void increment(String name) {
+        add(name, 1);
+    }
+
+    /** Add the given amount to the named counter. */
+    public static synchronized void add(String name, long amount) {
+        Long current = sCounters.get(name);
+        sCounters.put(name, current == null ? amount : current + amount);
+    }
+
+    /** Set the named gauge to the given value. */
+    public static synchronized void setGauge(String name, double value) {
+        sGauges.put(name, value);
+    }
+
+    public static synchronized long getCount(String name) {
+        Long current = sCounters.get(name);
+        return current == null ? 0 : current;
+    }
+
+    public static synchronized double getGauge(String name) {
+        Double current = sGauges.get(name);
+        return current == null ? 0 : current;
+    }
+
+    /** Returns every counter and gauge, counters as longs and gauges as doubles. */
+    public static synchronized Bundle toBundle() {
+        Bundle bundle = new Bundle();
+        for (Map.Entry<String, Long> counter : sCounters.entrySet()) {
+            bundle.putLong(counter.getKey(), counter.getValue());
+        }
+        for (Map.Entry<String, Double> gauge : sGauges.entrySet()) {
+            bundle.putDouble(gauge.getKey(), gauge.getValue());
+        }
+        return bundle;
+    }
+
+    /** Write every counter and gauge to the log. */
+    public static synchronized void dump() {
+        for (Map.Entry<String, Long> counter : sCounters.entrySet()) {
+            Log.i(LOG_TAG, counter.getKey() + " = " + counter.getValue());
+        }
+        for (Map.Entry<String, Double> gauge : sGauges.entrySet()) {
+            Log.i(LOG_TAG, gauge.getKey() + " = " + gauge.getValue());
+        }
+    }
+
+    /** Clear every counter and gauge. */
+    public static synchronized void reset() {
+        sCounters.clear();
+        sGauges.clear();
+    }
+}
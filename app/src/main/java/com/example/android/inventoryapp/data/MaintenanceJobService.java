@@ -0,0 +1,76 @@
+package com.example.android.inventoryapp.data;
+
+import android.app.job.JobInfo;
+import android.app.job.JobParameters;
+import android.app.job.JobScheduler;
+import android.app.job.JobService;
+import android.content.ComponentName;
+import android.content.Context;
+import android.os.Bundle;
+import android.util.Log;
+
+/**
+ * Runs the {@link DatabaseMaintenance} jobs about once a day, while the device is idle and
+ * charging so the work never competes with the user.
+ */
+public class MaintenanceJobService extends JobService {
+
+    public static final String LOG_TAG = MaintenanceJobService.class.getSimpleName();
+
+    /** Identifier of the maintenance job within the app */
+    private static final int JOB_ID = 1;
+
+    /** How often the maintenance runs */
+    private static final long INTERVAL_MS = 24 * 60 * 60 * 1000L;
+
+    private Thread mWorker;
+
+    /**
+     * Schedule the maintenance job, unless it is already scheduled.
+     * This talks to the system service and should not be called on the main thread.
+     */
+    public static void schedule(Context context) {
+        JobScheduler scheduler = (JobScheduler) context.getSystemService(Context.JOB_SCHEDULER_SERVICE);
+        for (JobInfo job : scheduler.getAllPendingJobs()) {
+            if (job.getId() == JOB_ID) {
+                return;
+            }
+        }
+        JobInfo job = new JobInfo.Builder(JOB_ID, new ComponentName(context, MaintenanceJobService.class))
+                .setRequiresDeviceIdle(true)
+                .setRequiresCharging(true)
+                .setPeriodic(INTERVAL_MS)
+                .setPersisted(true)
+                .build();
+        scheduler.schedule(job);
+    }
+
+    @Override
+    public boolean onStartJob(final JobParameters params) {
+        // Job callbacks run on the main thread, so do the work on a thread of its own
+        mWorker = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                boolean failed = false;
+                try {
+                    Bundle timings = getContentResolver().call(ProductContract.BASE_CONTENT_URI,
+                            ProductContract.METHOD_RUN_MAINTENANCE, null, null);
+                    Log.i(LOG_TAG, "Maintenance finished: " + timings);
+                } catch (RuntimeException e) {
+                    Log.e(LOG_TAG, "Maintenance failed", e);
+                    failed = true;
+                }
+                jobFinished(params, failed);
+            }
+        }, LOG_TAG);
+        mWorker.start();
+        return true;
+    }
+
+    @Override
+    public boolean onStopJob(JobParameters params) {
+        // The device is no longer idle or charging. The current job finishes, as the database
+        // statements can't be interrupted, and the next run happens as scheduled.
+        return false;
+    }
+}
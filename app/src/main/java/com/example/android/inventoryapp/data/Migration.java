@@ -0,0 +1,66 @@
+package com.example.android.inventoryapp.data;
+
+import android.database.sqlite.SQLiteDatabase;
+
+/**
+ * One step of the database schema, from the version before {@link #getVersion()} to it.
+ *
+ * A migration is split in two parts. {@link #applySchema} runs inside the upgrade of the
+ * database and must be cheap, i.e. must not touch every row: adding columns, tables, triggers.
+ * Work that is proportional to the size of a table goes into an optional backfill, which
+ * {@link MigrationRunner} runs later in the background in short chunks, each in its own
+ * transaction, so the app stays usable while it is in progress.
+ */
+abstract class Migration {
+
+    /** Returned by {@link #backfillChunk} once there are no rows left to backfill */
+    static final long NO_MORE_ROWS = -1;
+
+    private final int mVersion;
+    private final String mName;
+
+    /**
+     * @param version database version this migration upgrades to
+     * @param name    unique name of the migration, under which backfill progress is persisted
+     */
+    Migration(int version, String name) {
+        mVersion = version;
+        mName = name;
+    }
+
+    int getVersion() {
+        return mVersion;
+    }
+
+    String getName() {
+        return mName;
+    }
+
+    /**
+     * Apply the cheap schema changes. Runs within the database upgrade transaction.
+     */
+    abstract void applySchema(SQLiteDatabase db);
+
+    /**
+     * Returns whether or not this migration has rows to backfill after {@link #applySchema}.
+     */
+    boolean hasBackfill() {
+        return false;
+    }
+
+    /**
+     * Backfill at most {@code chunkSize} rows whose key is greater than {@code afterKey},
+     * in ascending key order. Runs within a transaction of its own.
+     *
+     * @return the key of the last row backfilled, or {@link #NO_MORE_ROWS} if there were none
+     */
+    long backfillChunk(SQLiteDatabase db, long afterKey, int chunkSize) {
+        return NO_MORE_ROWS;
+    }
+
+    /**
+     * Called once, in the transaction of the last chunk, after every row was backfilled.
+     */
+    void finishBackfill(SQLiteDatabase db) {
+    }
+}
@@ -0,0 +1,203 @@
+package com.example.android.inventoryapp.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Applies {@link Migration}s to the database and runs their backfills.
+ *
+ * Schema changes are applied synchronously during the database upgrade. Every migration with
+ * a backfill gets a row in the migration progress table, holding the key of the last row it
+ * backfilled. {@link #runBackfills} works through them in chunks and commits the progress with
+ * each chunk, so a backfill that is interrupted (e.g. the process is killed) resumes where it
+ * stopped the next time the app runs.
+ */
+final class MigrationRunner {
+
+    public static final String LOG_TAG = MigrationRunner.class.getSimpleName();
+
+    /** Table holding the progress of backfills */
+    static final String TABLE_NAME = "migration_progress";
+    static final String COLUMN_NAME = "name";
+    static final String COLUMN_LAST_KEY = "last_key";
+    static final String COLUMN_DONE = "done";
+
+    /** Rows backfilled per transaction. Small enough to keep every write lock short. */
+    static final int CHUNK_SIZE = 500;
+
+    private final Migration[] mMigrations;
+
+    MigrationRunner(Migration[] migrations) {
+        mMigrations = migrations;
+    }
+
+    /**
+     * Apply the schema changes of every migration between the two versions, and register
+     * their backfills. Called from {@link ProductDbHelper#onUpgrade}.
+     */
+    void applySchemaChanges(SQLiteDatabase db, int oldVersion, int newVersion) {
+        createProgressTable(db);
+        for (Migration migration : mMigrations) {
+            if (migration.getVersion() <= oldVersion || migration.getVersion() > newVersion) {
+                continue;
+            }
+            Log.i(LOG_TAG, "Applying schema of " + migration.getName());
+            migration.applySchema(db);
+            if (migration.hasBackfill()) {
+                ContentValues values = new ContentValues();
+                values.put(COLUMN_NAME, migration.getName());
+                values.put(COLUMN_LAST_KEY, 0);
+                values.put(COLUMN_DONE, 0);
+                db.insertWithOnConflict(TABLE_NAME, null, values, SQLiteDatabase.CONFLICT_IGNORE);
+            }
+        }
+    }
+
+    /**
+     * Returns whether or not any backfill still has to run.
+     */
+    boolean hasPendingBackfills(SQLiteDatabase db) {
+        return !getPendingBackfills(db).isEmpty();
+    }
+
+    /**
+     * Returns whether or not the backfill of the named migration still has to run or finish.
+     */
+    static boolean isBackfillPending(SQLiteDatabase db, String name) {
+        return DatabaseUtils.longForQuery(db, "SELECT COUNT(*) FROM " + TABLE_NAME + " WHERE "
+                + COLUMN_NAME + "=? AND " + COLUMN_DONE + "=0", new String[] { name }) != 0;
+    }
+
+    /**
+     * Run every pending backfill to completion right away, in the caller's transaction. Only
+     * for a database that was just created: its tables are empty, so every backfill only has
+     * to finish.
+     */
+    void finishBackfills(SQLiteDatabase db) {
+        for (String name : getPendingBackfills(db)) {
+            Migration migration = findMigration(name);
+            if (migration != null) {
+                runBackfill(db, migration, null);
+            } else {
+                markDone(db, name);
+            }
+        }
+    }
+
+    /**
+     * Run every pending backfill to completion, one chunk per transaction. Every chunk is a
+     * chunk of the bulk lane of the executor, so interactive work goes first between chunks.
+     * This can take a long time and must not be called on the main thread.
+     */
+    void runBackfills(SQLiteDatabase db, DatabaseExecutor executor) {
+        for (String name : getPendingBackfills(db)) {
+            Migration migration = findMigration(name);
+            if (migration == null) {
+                Log.w(LOG_TAG, "No migration named " + name + ", dropping its backfill");
+                markDone(db, name);
+                continue;
+            }
+            runBackfill(db, migration, executor);
+        }
+    }
+
+    /**
+     * Run the backfill to completion, every chunk in the bulk lane of the executor if there is
+     * one.
+     */
+    private void runBackfill(SQLiteDatabase db, Migration migration, DatabaseExecutor executor) {
+        long start = SystemClock.elapsedRealtime();
+        long lastKey = getLastKey(db, migration.getName());
+        int chunks = 0;
+        Log.i(LOG_TAG, "Backfilling " + migration.getName() + " after key " + lastKey);
+        while (true) {
+            boolean done;
+            if (executor != null) {
+                executor.beginBulkChunk();
+            }
+            db.beginTransaction();
+            try {
+                long chunkLastKey = migration.backfillChunk(db, lastKey, CHUNK_SIZE);
+                done = chunkLastKey == Migration.NO_MORE_ROWS;
+                if (done) {
+                    migration.finishBackfill(db);
+                    markDone(db, migration.getName());
+                } else {
+                    lastKey = chunkLastKey;
+                    ContentValues values = new ContentValues();
+                    values.put(COLUMN_LAST_KEY, lastKey);
+                    db.update(TABLE_NAME, values, COLUMN_NAME + "=?",
+                            new String[] { migration.getName() });
+                }
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+                if (executor != null) {
+                    executor.endBulkChunk();
+                }
+            }
+            if (done) {
+                break;
+            }
+            chunks++;
+        }
+        long elapsed = SystemClock.elapsedRealtime() - start;
+        InventoryMetrics.add("migration." + migration.getName() + ".chunks", chunks);
+        InventoryMetrics.setGauge("migration." + migration.getName() + ".backfill_ms", elapsed);
+        Log.i(LOG_TAG, "Backfilled " + migration.getName() + " in " + chunks + " chunks, "
+                + elapsed + " ms");
+    }
+
+    private Migration findMigration(String name) {
+        for (Migration migration : mMigrations) {
+            if (migration.getName().equals(name)) {
+                return migration;
+            }
+        }
+        return null;
+    }
+
+    private static void createProgressTable(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE IF NOT EXISTS " + TABLE_NAME + " ("
+                + COLUMN_NAME + " TEXT PRIMARY KEY, "
+                + COLUMN_LAST_KEY + " INTEGER NOT NULL DEFAULT 0, "
+                + COLUMN_DONE + " INTEGER NOT NULL DEFAULT 0);");
+    }
+
+    private static List<String> getPendingBackfills(SQLiteDatabase db) {
+        List<String> names = new ArrayList<>();
+        Cursor cursor = db.query(TABLE_NAME, new String[] { COLUMN_NAME }, COLUMN_DONE + "=0",
+                null, null, null, "rowid");
+        try {
+            while (cursor.moveToNext()) {
+                names.add(cursor.getString(0));
+            }
+        } finally {
+            cursor.close();
+        }
+        return names;
+    }
+
+    private static long getLastKey(SQLiteDatabase db, String name) {
+        Cursor cursor = db.query(TABLE_NAME, new String[] { COLUMN_LAST_KEY }, COLUMN_NAME + "=?",
+                new String[] { name }, null, null, null);
+        try {
+            return cursor.moveToFirst() ? cursor.getLong(0) : 0;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static void markDone(SQLiteDatabase db, String name) {
+        ContentValues values = new ContentValues();
+        values.put(COLUMN_DONE, 1);
+        db.update(TABLE_NAME, values, COLUMN_NAME + "=?", new String[] { name });
+    }
+}
@@ -0,0 +1,186 @@
+package com.example.android.inventoryapp.data;
+
+import android.database.Cursor;
+import android.os.Parcel;
+import android.os.Parcelable;
+
+import com.example.android.inventoryapp.data.ProductContract.ProductEntry;
+
+/**
+ * Immutable snapshot of a single row of the products table.
+ *
+ * Snapshots are {@link Parcelable}, so a screen that already shows a product can hand it to
+ * the next screen, which can then compare {@link #getVersion()} to find out whether it is stale.
+ */
+public final class Product implements Parcelable {
+
+    /** The columns a {@link Product} holds, in the order used by {@link #getValue(String)}. */
+    public static final String[] COLUMNS = {
+            ProductEntry._ID,
+            ProductEntry.COLUMN_PRODUCT_NAME,
+            ProductEntry.COLUMN_PRODUCT_STOCK,
+            ProductEntry.COLUMN_PRODUCT_PRICE,
+            ProductEntry.COLUMN_PRODUCT_PICTURE,
+            ProductEntry.COLUMN_PRODUCT_VERSION,
+            ProductEntry.COLUMN_PRODUCT_REORDER_THRESHOLD};
+
+    private final long mId;
+    private final String mName;
+    private final int mStock;
+    private final int mPrice;
+    private final String mPicture;
+    private final int mVersion;
+    private final int mReorderThreshold;
+
+    public Product(long id, String name, int stock, int price, String picture, int version,
+                   int reorderThreshold) {
+        mId = id;
+        mName = name;
+        mStock = stock;
+        mPrice = price;
+        mPicture = picture;
+        mVersion = version;
+        mReorderThreshold = reorderThreshold;
+    }
+
+    /**
+     * Read the row the cursor is positioned on. The cursor must contain all of {@link #COLUMNS}.
+     * To read more than one row of a cursor, create a {@link ProductMapper} for it once instead.
+     */
+    public static Product fromCursor(Cursor cursor) {
+        return ProductMapper.forCursor(cursor).read(cursor);
+    }
+
+    public long getId() {
+        return mId;
+    }
+
+    public String getName() {
+        return mName;
+    }
+
+    public int getStock() {
+        return mStock;
+    }
+
+    public int getPrice() {
+        return mPrice;
+    }
+
+    public String getPicture() {
+        return mPicture;
+    }
+
+    public int getVersion() {
+        return mVersion;
+    }
+
+    public int getReorderThreshold() {
+        return mReorderThreshold;
+    }
+
+    /**
+     * Returns the value of the given column, or null if the column is not part of a snapshot.
+     */
+    public Object getValue(String column) {
+        if (ProductEntry._ID.equals(column)) {
+            return mId;
+        } else if (ProductEntry.COLUMN_PRODUCT_NAME.equals(column)) {
+            return mName;
+        } else if (ProductEntry.COLUMN_PRODUCT_STOCK.equals(column)) {
+            return mStock;
+        } else if (ProductEntry.COLUMN_PRODUCT_PRICE.equals(column)) {
+            return mPrice;
+        } else if (ProductEntry.COLUMN_PRODUCT_PICTURE.equals(column)) {
+            return mPicture;
+        } else if (ProductEntry.COLUMN_PRODUCT_VERSION.equals(column)) {
+            return mVersion;
+        } else if (ProductEntry.COLUMN_PRODUCT_REORDER_THRESHOLD.equals(column)) {
+            return mReorderThreshold;
+        }
+        return null;
+    }
+
+    /**
+     * Returns whether or not a snapshot can answer a query for the given projection.
+     * A null projection means all columns of the table, which a snapshot holds.
+     */
+    public static boolean hasColumns(String[] projection) {
+        if (projection == null) {
+            return true;
+        }
+        for (String column : projection) {
+            boolean known = false;
+            for (String snapshotColumn : COLUMNS) {
+                if (snapshotColumn.equals(column)) {
+                    known = true;
+                    break;
+                }
+            }
+            if (!known) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof Product)) {
+            return false;
+        }
+        Product other = (Product) o;
+        return mId == other.mId
+                && mStock == other.mStock
+                && mPrice == other.mPrice
+                && mVersion == other.mVersion
+                && mReorderThreshold == other.mReorderThreshold
+                && (mName == null ? other.mName == null : mName.equals(other.mName))
+                && (mPicture == null ? other.mPicture == null : mPicture.equals(other.mPicture));
+    }
+
+    @Override
+    public int hashCode() {
+        int result = (int) (mId ^ (mId >>> 32));
+        result = 31 * result + mVersion;
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return "Product{id=" + mId + ", name=" + mName + ", stock=" + mStock
+                + ", price=" + mPrice + ", version=" + mVersion + "}";
+    }
+
+    @Override
+    public int describeContents() {
+        return 0;
+    }
+
+    @Override
+    public void writeToParcel(Parcel dest, int flags) {
+        dest.writeLong(mId);
+        dest.writeString(mName);
+        dest.writeInt(mStock);
+        dest.writeInt(mPrice);
+        dest.writeString(mPicture);
+        dest.writeInt(mVersion);
+        dest.writeInt(mReorderThreshold);
+    }
+
+    public static final Parcelable.Creator<Product> CREATOR = new Parcelable.Creator<Product>() {
+        @Override
+        public Product createFromParcel(Parcel in) {
+            return new Product(in.readLong(), in.readString(), in.readInt(), in.readInt(),
+                    in.readString(), in.readInt(), in.readInt());
+        }
+
+        @Override
+        public Product[] newArray(int size) {
+            return new Product[size];
+        }
+    };
+}
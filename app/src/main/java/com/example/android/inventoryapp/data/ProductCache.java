@@ -0,0 +1,181 @@
+package com.example.android.inventoryapp.data;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.util.LongSparseArray;
+
+/**
+ * Size-bounded, least recently used cache of {@link Product} snapshots keyed by row id.
+ *
+ * The cache sits in front of single product queries in {@link ProductProvider}. Every write
+ * path of the provider invalidates the rows it touched, so a cached snapshot is never older
+ * than the last write that went through the provider.
+ */
+class ProductCache {
+
+    /** Metric names reported to {@link InventoryMetrics} */
+    static final String METRIC_HIT = "product_cache.hit";
+    static final String METRIC_MISS = "product_cache.miss";
+    static final String METRIC_HIT_RATIO = "product_cache.hit_ratio";
+
+    /** Doubly linked list node, so the least recently used entry can be dropped in O(1) */
+    private static final class Node {
+        final long id;
+        Product product;
+        Node newer;
+        Node older;
+
+        Node(long id, Product product) {
+            this.id = id;
+            this.product = product;
+        }
+    }
+
+    private final int mMaxSize;
+    private final LongSparseArray<Node> mNodes;
+
+    /** Most and least recently used entries */
+    private Node mNewest;
+    private Node mOldest;
+
+    /**
+     * Bumped on every invalidation. A load that started before an invalidation must not
+     * put its (possibly stale) result into the cache.
+     */
+    private long mGeneration;
+
+    private long mHits;
+    private long mMisses;
+
+    ProductCache(int maxSize) {
+        mMaxSize = maxSize;
+        mNodes = new LongSparseArray<>(maxSize);
+    }
+
+    /**
+     * Returns the cached snapshot for the given id, or null if it is not cached.
+     */
+    synchronized Product get(long id) {
+        Node node = mNodes.get(id);
+        if (node == null) {
+            mMisses++;
+            InventoryMetrics.increment(METRIC_MISS);
+            reportHitRatio();
+            return null;
+        }
+        mHits++;
+        InventoryMetrics.increment(METRIC_HIT);
+        reportHitRatio();
+        moveToNewest(node);
+        return node.product;
+    }
+
+    /**
+     * Returns a token to pass to {@link #put(Product, long)} once the row has been read.
+     */
+    synchronized long beginLoad() {
+        return mGeneration;
+    }
+
+    /**
+     * Cache the given snapshot, unless an invalidation happened since {@link #beginLoad()}
+     * returned the given token.
+     */
+    synchronized void put(Product product, long loadToken) {
+        if (loadToken != mGeneration) {
+            return;
+        }
+        Node node = mNodes.get(product.getId());
+        if (node != null) {
+            node.product = product;
+            moveToNewest(node);
+            return;
+        }
+        node = new Node(product.getId(), product);
+        mNodes.put(node.id, node);
+        linkAsNewest(node);
+        if (mNodes.size() > mMaxSize) {
+            Node eldest = mOldest;
+            unlink(eldest);
+            mNodes.remove(eldest.id);
+        }
+    }
+
+    /** Drop the snapshot of a single row. */
+    synchronized void invalidate(long id) {
+        mGeneration++;
+        Node node = mNodes.get(id);
+        if (node != null) {
+            unlink(node);
+            mNodes.remove(id);
+        }
+    }
+
+    /** Drop every snapshot, used when a write could have touched any row. */
+    synchronized void invalidateAll() {
+        mGeneration++;
+        mNodes.clear();
+        mNewest = null;
+        mOldest = null;
+    }
+
+    /** Returns the share of lookups that were served from the cache so far. */
+    synchronized double getHitRatio() {
+        long lookups = mHits + mMisses;
+        return lookups == 0 ? 0 : (double) mHits / lookups;
+    }
+
+    /**
+     * Build a cursor for the given projection out of a snapshot.
+     * A null projection returns every column the snapshot holds.
+     */
+    static Cursor toCursor(Product product, String[] projection) {
+        String[] columns = projection == null ? Product.COLUMNS : projection;
+        MatrixCursor cursor = new MatrixCursor(columns, 1);
+        Object[] row = new Object[columns.length];
+        for (int i = 0; i < columns.length; i++) {
+            row[i] = product.getValue(columns[i]);
+        }
+        cursor.addRow(row);
+        return cursor;
+    }
+
+    private void reportHitRatio() {
+        InventoryMetrics.setGauge(METRIC_HIT_RATIO, getHitRatio());
+    }
+
+    private void moveToNewest(Node node) {
+        if (node == mNewest) {
+            return;
+        }
+        unlink(node);
+        linkAsNewest(node);
+    }
+
+    private void linkAsNewest(Node node) {
+        node.older = mNewest;
+        node.newer = null;
+        if (mNewest != null) {
+            mNewest.newer = node;
+        }
+        mNewest = node;
+        if (mOldest == null) {
+            mOldest = node;
+        }
+    }
+
+    private void unlink(Node node) {
+        if (node.newer != null) {
+            node.newer.older = node.older;
+        } else {
+            mNewest = node.older;
+        }
+        if (node.older != null) {
+            node.older.newer = node.newer;
+        } else {
+            mOldest = node.newer;
+        }
+        node.newer = null;
+        node.older = null;
+    }
+}
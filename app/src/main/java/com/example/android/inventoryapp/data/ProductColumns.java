@@ -0,0 +1,318 @@
+package com.example.android.inventoryapp.data;
+
+import android.content.ContentResolver;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+import android.os.Bundle;
+import android.os.ParcelFileDescriptor;
+
+import com.example.android.inventoryapp.data.ProductContract.ProductEntry;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * Id, stock and price of every product as packed primitive arrays, ordered by id.
+ *
+ * Made for consumers that need the whole catalog at once, e.g. a point of sale integration:
+ * reading it with {@link #read(ContentResolver)} costs one {@link ContentResolver#call} and no
+ * {@link Cursor} at all. Names and pictures are not part of it, fetch them only for the
+ * products that are actually shown with {@link #queryDetails(ContentResolver, long[])}.
+ *
+ * A small catalog comes back in the Bundle of the call. A catalog too large for a single
+ * Binder transaction is streamed instead, through a pipe opened on
+ * {@link ProductEntry#COLUMNS_URI}.
+ */
+public final class ProductColumns {
+
+    /**
+     * Largest catalog returned in the Bundle of the call itself. At 16 bytes a product this
+     * stays well below the 1 MB limit of a Binder transaction.
+     */
+    static final int MAX_BUNDLE_ROWS = 16384;
+
+    /** Rows read from the database per query */
+    private static final int PAGE_SIZE = 10000;
+
+    /** Keys of the call result */
+    static final String KEY_IDS = "ids";
+    static final String KEY_STOCK = "stock";
+    static final String KEY_PRICE = "price";
+    static final String KEY_STREAM_URI = "stream_uri";
+
+    /** Most product ids {@link #queryDetails} looks up in one query (SQLite's variable limit) */
+    public static final int MAX_DETAILS_IDS = 999;
+
+    private static final String PAGE_SQL = "SELECT " + ProductEntry._ID + ", "
+            + ProductEntry.COLUMN_PRODUCT_STOCK + ", " + ProductEntry.COLUMN_PRODUCT_PRICE
+            + " FROM " + ProductEntry.TABLE_NAME + " WHERE " + ProductEntry._ID + " > ?"
+            + " ORDER BY " + ProductEntry._ID + " LIMIT " + PAGE_SIZE;
+
+    private long[] mIds;
+    private int[] mStock;
+    private int[] mPrice;
+    private int mCount;
+
+    private ProductColumns(int capacity) {
+        mIds = new long[capacity];
+        mStock = new int[capacity];
+        mPrice = new int[capacity];
+    }
+
+    /** Returns the number of products. */
+    public int size() {
+        return mCount;
+    }
+
+    public long getId(int position) {
+        checkPosition(position);
+        return mIds[position];
+    }
+
+    public int getStock(int position) {
+        checkPosition(position);
+        return mStock[position];
+    }
+
+    public int getPrice(int position) {
+        checkPosition(position);
+        return mPrice[position];
+    }
+
+    /** Returns a copy of the ids, in the same order as the stock and price values. */
+    public long[] getIds() {
+        return Arrays.copyOf(mIds, mCount);
+    }
+
+    public int[] getStock() {
+        return Arrays.copyOf(mStock, mCount);
+    }
+
+    public int[] getPrice() {
+        return Arrays.copyOf(mPrice, mCount);
+    }
+
+    /**
+     * Read the id, stock and price of every product. This does I/O and must not be called on
+     * the main thread.
+     */
+    public static ProductColumns read(ContentResolver resolver) throws IOException {
+        Bundle result = resolver.call(ProductContract.BASE_CONTENT_URI,
+                ProductContract.METHOD_READ_COLUMNS, null, null);
+        if (result == null) {
+            throw new IOException("Provider returned no columns");
+        }
+        Uri streamUri = result.getParcelable(KEY_STREAM_URI);
+        if (streamUri == null) {
+            return fromBundle(result);
+        }
+        ParcelFileDescriptor fd = resolver.openFileDescriptor(streamUri, "r");
+        if (fd == null) {
+            throw new FileNotFoundException("No stream for " + streamUri);
+        }
+        InputStream in = new ParcelFileDescriptor.AutoCloseInputStream(fd);
+        try {
+            return readFrom(in);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Query the name and picture of the given products, at most {@link #MAX_DETAILS_IDS}.
+     * The cursor has the {@link ProductEntry#_ID}, {@link ProductEntry#COLUMN_PRODUCT_NAME}
+     * and {@link ProductEntry#COLUMN_PRODUCT_PICTURE} columns, in no particular order.
+     */
+    public static Cursor queryDetails(ContentResolver resolver, long[] ids) {
+        if (ids.length > MAX_DETAILS_IDS) {
+            throw new IllegalArgumentException("At most " + MAX_DETAILS_IDS + " ids per query");
+        }
+        String[] selectionArgs = new String[ids.length];
+        StringBuilder selection = new StringBuilder(ProductEntry._ID).append(" IN (");
+        for (int i = 0; i < ids.length; i++) {
+            selection.append(i == 0 ? "?" : ", ?");
+            selectionArgs[i] = String.valueOf(ids[i]);
+        }
+        selection.append(')');
+        String[] projection = { ProductEntry._ID, ProductEntry.COLUMN_PRODUCT_NAME,
+                ProductEntry.COLUMN_PRODUCT_PICTURE };
+        return resolver.query(ProductEntry.CONTENT_URI, projection, selection.toString(),
+                selectionArgs, null);
+    }
+
+    /**
+     * Answer a {@link ProductContract#METHOD_READ_COLUMNS} call on the given database file:
+     * the columns themselves if the catalog is small enough, the URI to stream them from
+     * otherwise. The count and every page are read from the same snapshot.
+     */
+    static Bundle call(File database) {
+        SQLiteDatabase db = openSnapshot(database);
+        try {
+            Bundle result = new Bundle();
+            if (DatabaseUtils.queryNumEntries(db, ProductEntry.TABLE_NAME) > MAX_BUNDLE_ROWS) {
+                result.putParcelable(KEY_STREAM_URI, ProductEntry.COLUMNS_URI);
+                InventoryMetrics.increment("bulk_read.streamed");
+                return result;
+            }
+            ProductColumns columns = query(db);
+            result.putLongArray(KEY_IDS, columns.getIds());
+            result.putIntArray(KEY_STOCK, columns.getStock());
+            result.putIntArray(KEY_PRICE, columns.getPrice());
+            InventoryMetrics.add("bulk_read.rows", columns.size());
+            return result;
+        } finally {
+            closeSnapshot(db);
+        }
+    }
+
+    /**
+     * Stream the columns of the given database file to the given output, one page of rows at
+     * a time, so the provider never holds more than a page however large the catalog is.
+     * Every page is read from the same snapshot, so a product written in the meantime is
+     * neither missed nor sent twice. Each page is preceded by its number of rows, an empty
+     * page ends the stream.
+     */
+    static void writeTo(File database, OutputStream out) throws IOException {
+        SQLiteDatabase db = openSnapshot(database);
+        try {
+            DataOutputStream data = new DataOutputStream(new BufferedOutputStream(out));
+            ProductColumns page = new ProductColumns(PAGE_SIZE);
+            long lastId = 0;
+            long rows = 0;
+            do {
+                page.mCount = 0;
+                lastId = page.appendPage(db, lastId);
+                data.writeInt(page.mCount);
+                for (int i = 0; i < page.mCount; i++) {
+                    data.writeLong(page.mIds[i]);
+                    data.writeInt(page.mStock[i]);
+                    data.writeInt(page.mPrice[i]);
+                }
+                rows += page.mCount;
+            } while (page.mCount > 0);
+            data.flush();
+            InventoryMetrics.add("bulk_read.rows", rows);
+        } finally {
+            closeSnapshot(db);
+        }
+    }
+
+    /**
+     * Open a read-only connection of its own on the database file, in a read transaction, as
+     * {@link DatabaseBackup} does. The connections of the provider are pooled, so a transaction
+     * begun on them could be on another connection than the next query, and would take the
+     * write lock. Close it with {@link #closeSnapshot(SQLiteDatabase)}.
+     */
+    private static SQLiteDatabase openSnapshot(File database) {
+        SQLiteDatabase db = SQLiteDatabase.openDatabase(database.getPath(), null,
+                SQLiteDatabase.OPEN_READONLY | SQLiteDatabase.NO_LOCALIZED_COLLATORS);
+        try {
+            // SAVEPOINT outside of a transaction starts a deferred one: the first read fixes
+            // the snapshot, and no write lock is ever taken.
+            db.execSQL("SAVEPOINT product_columns");
+        } catch (RuntimeException e) {
+            db.close();
+            throw e;
+        }
+        return db;
+    }
+
+    private static void closeSnapshot(SQLiteDatabase db) {
+        try {
+            db.execSQL("RELEASE product_columns");
+        } finally {
+            db.close();
+        }
+    }
+
+    /** Read every row of the products table, one page at a time. */
+    private static ProductColumns query(SQLiteDatabase db) {
+        ProductColumns columns = new ProductColumns(PAGE_SIZE);
+        long lastId = 0;
+        int countBefore;
+        do {
+            countBefore = columns.mCount;
+            lastId = columns.appendPage(db, lastId);
+        } while (columns.mCount - countBefore == PAGE_SIZE);
+        return columns;
+    }
+
+    /**
+     * Append the page of rows after the given id, and return the last id read.
+     */
+    private long appendPage(SQLiteDatabase db, long afterId) {
+        Cursor cursor = db.rawQuery(PAGE_SQL, new String[] { String.valueOf(afterId) });
+        try {
+            ensureCapacity(mCount + cursor.getCount());
+            long lastId = afterId;
+            while (cursor.moveToNext()) {
+                lastId = cursor.getLong(0);
+                mIds[mCount] = lastId;
+                mStock[mCount] = cursor.getInt(1);
+                mPrice[mCount] = cursor.getInt(2);
+                mCount++;
+            }
+            return lastId;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static ProductColumns fromBundle(Bundle bundle) throws IOException {
+        long[] ids = bundle.getLongArray(KEY_IDS);
+        int[] stock = bundle.getIntArray(KEY_STOCK);
+        int[] price = bundle.getIntArray(KEY_PRICE);
+        if (ids == null || stock == null || price == null
+                || stock.length != ids.length || price.length != ids.length) {
+            throw new IOException("Malformed columns");
+        }
+        ProductColumns columns = new ProductColumns(0);
+        columns.mIds = ids;
+        columns.mStock = stock;
+        columns.mPrice = price;
+        columns.mCount = ids.length;
+        return columns;
+    }
+
+    private static ProductColumns readFrom(InputStream in) throws IOException {
+        DataInputStream data = new DataInputStream(new BufferedInputStream(in));
+        ProductColumns columns = new ProductColumns(PAGE_SIZE);
+        int pageSize;
+        while ((pageSize = data.readInt()) > 0) {
+            columns.ensureCapacity(columns.mCount + pageSize);
+            for (int i = 0; i < pageSize; i++) {
+                columns.mIds[columns.mCount] = data.readLong();
+                columns.mStock[columns.mCount] = data.readInt();
+                columns.mPrice[columns.mCount] = data.readInt();
+                columns.mCount++;
+            }
+        }
+        return columns;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity <= mIds.length) {
+            return;
+        }
+        int newCapacity = Math.max(capacity, mIds.length * 2);
+        mIds = Arrays.copyOf(mIds, newCapacity);
+        mStock = Arrays.copyOf(mStock, newCapacity);
+        mPrice = Arrays.copyOf(mPrice, newCapacity);
+    }
+
+    private void checkPosition(int position) {
+        if (position < 0 || position >= mCount) {
+            throw new IndexOutOfBoundsException("Position " + position + " of " + mCount);
+        }
+    }
+}
@@ -1,9 +1,12 @@
 package com.example.android.inventoryapp.data;
 
 import android.content.ContentResolver;
+import android.content.ContentUris;
 import android.net.Uri;
 import android.provider.BaseColumns;
 
+import java.util.Locale;
+
 /**
  * Created by JRStrele on 3/12/2016.
  */
@@ -22,6 +25,21 @@ public class ProductContract {
      */
     public static final String CONTENT_AUTHORITY = "com.example.android.inventoryapp";
 
+    /**
+     * Permission other apps need to read the products, e.g. a point of sale or a widget.
+     * Only granted to apps signed with the same key as this one.
+     */
+    public static final String PERMISSION_READ =
+            "com.example.android.inventoryapp.permission.READ_INVENTORY";
+
+    /**
+     * Permission other apps need to change the products, make reservations, and run the
+     * methods of {@link android.content.ContentResolver#call} that write, back up or restore.
+     * Only granted to apps signed with the same key as this one.
+     */
+    public static final String PERMISSION_WRITE =
+            "com.example.android.inventoryapp.permission.WRITE_INVENTORY";
+
     /**
      * Use CONTENT_AUTHORITY to create the base of all URI's which apps will use to contact
      * the content provider.
@@ -36,6 +54,192 @@ public class ProductContract {
      */
     public static final String PATH_PRODUCTS = "products";
 
+    /**
+     * Path for the queue of products that need to be reordered.
+     */
+    public static final String PATH_REORDER_QUEUE = "reorder_queue";
+
+    /**
+     * Path under {@link #PATH_PRODUCTS} of the stream of packed product columns
+     * (see {@link ProductColumns}).
+     */
+    public static final String PATH_COLUMNS = "columns";
+
+    /**
+     * Path under {@link #PATH_PRODUCTS} of the alphabetical sections of the product list
+     * (see {@link ProductSectionEntry}).
+     */
+    public static final String PATH_SECTIONS = "sections";
+
+    /**
+     * Path under {@link #PATH_PRODUCTS} of the version of the whole catalog
+     * (see {@link ProductEntry#CATALOG_VERSION_URI}).
+     */
+    public static final String PATH_CATALOG_VERSION = "catalog_version";
+
+    /**
+     * Possible path (appended to base content URI for possible URI's)
+     * content://com.example.android.products/sales/ is a valid path for the sale events.
+     */
+    public static final String PATH_SALES = "sales";
+
+    /** Paths under {@link #PATH_SALES} of the hourly and daily sales rollups */
+    public static final String PATH_SALES_HOURLY = "hourly";
+    public static final String PATH_SALES_DAILY = "daily";
+
+    /** Paths under {@link #PATH_SALES} of the sales rankings */
+    public static final String PATH_TOP_SELLERS = "top_sellers";
+    public static final String PATH_SLOW_MOVERS = "slow_movers";
+
+    /**
+     * Path of the stockrooms, and under a product of the stock it has in each of them
+     * (see {@link ProductLocationEntry}).
+     */
+    public static final String PATH_LOCATIONS = "locations";
+
+    /**
+     * Path of the transfers of stock between locations (see {@link TransferEntry}).
+     */
+    public static final String PATH_TRANSFERS = "transfers";
+
+    /**
+     * Method name for {@link android.content.ContentResolver#call} that returns the data layer
+     * metrics (see {@link InventoryMetrics}) as a Bundle.
+     */
+    public static final String METHOD_GET_METRICS = "get_metrics";
+
+    /**
+     * Method name for {@link android.content.ContentResolver#call} that runs every database
+     * maintenance job right away (see {@link DatabaseMaintenance}) and returns the timing of
+     * each job in milliseconds, and whether the integrity check passed, as a Bundle.
+     */
+    public static final String METHOD_RUN_MAINTENANCE = "run_maintenance";
+
+    /**
+     * Method name for {@link android.content.ContentResolver#call} that returns the id, stock
+     * and price of every product as packed arrays. Use {@link ProductColumns#read} rather than
+     * calling it directly.
+     */
+    public static final String METHOD_READ_COLUMNS = "read_columns";
+
+    /**
+     * Method name for {@link android.content.ContentResolver#call} that writes a compressed,
+     * checksummed snapshot of the database to the {@link android.os.ParcelFileDescriptor} in
+     * the {@link #EXTRA_FILE_DESCRIPTOR} extra. Writes go on while the backup runs. Returns the
+     * number of rows ({@link #RESULT_ROWS}) and the checksum ({@link #RESULT_CHECKSUM}).
+     */
+    public static final String METHOD_BACKUP = "backup";
+
+    /**
+     * Method name for {@link android.content.ContentResolver#call} that replaces the database
+     * with the backup read from the {@link android.os.ParcelFileDescriptor} in the
+     * {@link #EXTRA_FILE_DESCRIPTOR} extra. The backup is verified before anything is replaced,
+     * a damaged backup leaves the database untouched.
+     */
+    public static final String METHOD_RESTORE = "restore";
+
+    /**
+     * Method name for {@link android.content.ContentResolver#call} that inserts or updates
+     * products by their natural key, the normalized name (see
+     * {@link ProductEntry#normalizeName(String)}). Each of the ContentValues in the
+     * {@link #EXTRA_VALUES} extra updates the product with its name, or inserts a new product
+     * if there is none. A row that matches its product already writes nothing, so importing
+     * the same file twice changes nothing the second time. All rows are written in one
+     * transaction, an invalid row fails the whole call. Returns the number of rows inserted
+     * ({@link #RESULT_INSERTED}), updated ({@link #RESULT_UPDATED}) and left unchanged
+     * ({@link #RESULT_UNCHANGED}). Use {@link ProductWriter#upsert} rather than calling it
+     * directly.
+     */
+    public static final String METHOD_UPSERT = "upsert";
+
+    /** Extra of {@link #METHOD_UPSERT}: the rows, as an array of ContentValues */
+    public static final String EXTRA_VALUES = "values";
+
+    /** Results of {@link #METHOD_UPSERT}: the number of rows inserted, updated and unchanged */
+    public static final String RESULT_INSERTED = "inserted";
+    public static final String RESULT_UPDATED = "updated";
+    public static final String RESULT_UNCHANGED = "unchanged";
+
+    /**
+     * Method name for {@link android.content.ContentResolver#call} that changes the price or
+     * the stock, or both, of every product selected by a {@link ProductQuery}, in one UPDATE
+     * statement. The argument is the URI of the query ({@link ProductQuery#toUri()}), or null
+     * for every product. The extras hold at most one price change,
+     * {@link #EXTRA_PRICE_PERCENT} or {@link #EXTRA_PRICE_CHANGE}, and at most one stock
+     * change, {@link #EXTRA_STOCK} or {@link #EXTRA_STOCK_CHANGE}. If any product would end up
+     * with an invalid price (see {@link ProductEntry#isValidPrice(int)}), a negative stock or
+     * less stock than its reservations hold, nothing is changed and an
+     * IllegalArgumentException is thrown. Returns the number of
+     * products that changed ({@link #RESULT_ROWS}). Use the adjust methods of
+     * {@link ProductWriter} rather than calling it directly.
+     */
+    public static final String METHOD_ADJUST_PRODUCTS = "adjust_products";
+
+    /** Extra of {@link #METHOD_ADJUST_PRODUCTS}: change prices by this percentage, a double */
+    public static final String EXTRA_PRICE_PERCENT = "price_percent";
+
+    /** Extra of {@link #METHOD_ADJUST_PRODUCTS}: add this amount to the prices, an int */
+    public static final String EXTRA_PRICE_CHANGE = "price_change";
+
+    /** Extra of {@link #METHOD_ADJUST_PRODUCTS}: set the stocks to this amount, an int */
+    public static final String EXTRA_STOCK = "stock";
+
+    /** Extra of {@link #METHOD_ADJUST_PRODUCTS}: add this amount to the stocks, an int */
+    public static final String EXTRA_STOCK_CHANGE = "stock_change";
+
+    /**
+     * Method of {@link android.content.ContentResolver#call}: hold stock of a product for an
+     * order being prepared. Takes the {@link #EXTRA_PRODUCT_ID}, {@link #EXTRA_QUANTITY} and
+     * {@link #EXTRA_TTL_MILLIS} extras and returns the {@link #RESULT_RESERVATION_ID}, -1 if
+     * not enough of the stock is available. See {@link ReservationEntry}.
+     */
+    public static final String METHOD_RESERVE = "reserve";
+
+    /**
+     * Method of {@link android.content.ContentResolver#call}: sell the stock held by the
+     * reservation whose id is the arg, and record the sale. Returns the number of reservations
+     * committed ({@link #RESULT_ROWS}), 0 if it expired or is gone.
+     */
+    public static final String METHOD_COMMIT_RESERVATION = "commit_reservation";
+
+    /**
+     * Method of {@link android.content.ContentResolver#call}: give back the stock held by the
+     * reservation whose id is the arg. Returns the number of reservations released
+     * ({@link #RESULT_ROWS}).
+     */
+    public static final String METHOD_RELEASE_RESERVATION = "release_reservation";
+
+    /**
+     * Method of {@link android.content.ContentResolver#call}: release every expired
+     * reservation. Returns the number released ({@link #RESULT_ROWS}).
+     */
+    public static final String METHOD_SWEEP_RESERVATIONS = "sweep_reservations";
+
+    /** Extra of {@link #METHOD_RESERVE}: the product to hold, a long */
+    public static final String EXTRA_PRODUCT_ID = "product_id";
+
+    /** Extra of {@link #METHOD_RESERVE}: the number of items to hold, an int above 0 */
+    public static final String EXTRA_QUANTITY = "quantity";
+
+    /** Extra of {@link #METHOD_RESERVE}: how long to hold them, in milliseconds, a long */
+    public static final String EXTRA_TTL_MILLIS = "ttl_millis";
+
+    /** Result of {@link #METHOD_RESERVE}: the id of the reservation, or -1 */
+    public static final String RESULT_RESERVATION_ID = "reservation_id";
+
+    /** Extra of {@link #METHOD_BACKUP} and {@link #METHOD_RESTORE}: the file to write or read */
+    public static final String EXTRA_FILE_DESCRIPTOR = "file_descriptor";
+
+    /**
+     * Result of {@link #METHOD_BACKUP}: the number of rows. Result of
+     * {@link #METHOD_ADJUST_PRODUCTS}: the number of products changed. Result of the
+     * reservation methods: the number of reservations committed, released or swept.
+     */
+    public static final String RESULT_ROWS = "rows";
+
+    /** Result of {@link #METHOD_BACKUP}: the CRC32 of the backup */
+    public static final String RESULT_CHECKSUM = "checksum";
+
     /**
      * Inner class that defines constant values for the products database table.
      * Each entry in the table represents a single product.
@@ -57,6 +261,40 @@ public class ProductContract {
         public static final String CONTENT_ITEM_TYPE =
                 ContentResolver.CURSOR_ITEM_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_PRODUCTS;
 
+        /**
+         * The content URI of the stream of packed id, stock and price columns of every product,
+         * opened with {@link ContentResolver#openFileDescriptor} (see {@link ProductColumns}).
+         */
+        public static final Uri COLUMNS_URI = Uri.withAppendedPath(CONTENT_URI, PATH_COLUMNS);
+
+        /**
+         * The MIME type of the {@link #COLUMNS_URI}.
+         */
+        public static final String COLUMNS_TYPE = "application/octet-stream";
+
+        /**
+         * The content URI of the version of the whole catalog: a single row with the
+         * {@link #COLUMN_CATALOG_VERSION}. The version grows with every insert and delete of a
+         * product, every change of its data and every restore, so a reader that saw the same version before has
+         * nothing new to read.
+         */
+        public static final Uri CATALOG_VERSION_URI =
+                Uri.withAppendedPath(CONTENT_URI, PATH_CATALOG_VERSION);
+
+        /**
+         * The MIME type of the {@link #CATALOG_VERSION_URI}.
+         */
+        public static final String CATALOG_VERSION_TYPE =
+                ContentResolver.CURSOR_ITEM_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/"
+                        + PATH_CATALOG_VERSION;
+
+        /**
+         * Only column of the {@link #CATALOG_VERSION_URI}.
+         *
+         * Type: INTEGER
+         */
+        public static final String COLUMN_CATALOG_VERSION = "catalog_version";
+
         /** Name of database table for products */
         public final static String TABLE_NAME = "products";
 
@@ -75,7 +313,8 @@ public class ProductContract {
         public final static String COLUMN_PRODUCT_NAME ="name";
 
         /**
-         * Quantity of the product.
+         * Quantity of the product, the total of its stock over all locations (see
+         * {@link ProductLocationEntry}). Writing it changes the stock of the default location.
          *
          * Type: INTEGER
          */
@@ -95,6 +334,88 @@ public class ProductContract {
          */
         public final static String COLUMN_PRODUCT_PICTURE = "picture";
 
+        /**
+         * Version of the row. Starts at 0 and is incremented by the provider on every change of
+         * the product data, so two snapshots of the same product with the same version hold the same data.
+         * Clients never write it.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_PRODUCT_VERSION = "version";
+
+        /**
+         * Stock level at which the product needs to be reordered. As soon as the stock drops to
+         * or below it, the product is put on the reorder queue (see {@link ReorderEntry}).
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_PRODUCT_REORDER_THRESHOLD = "reorder_threshold";
+
+        /**
+         * Normalized name of the product (see {@link #normalizeName(String)}), the natural key
+         * used to look products up by name. Maintained by the provider, clients never write it.
+         *
+         * Type: TEXT
+         */
+        public final static String COLUMN_PRODUCT_NAME_KEY = "name_key";
+
+        /**
+         * Stock held by active reservations (see {@link ReservationEntry}), the available stock
+         * is {@link #COLUMN_PRODUCT_STOCK} minus this. Maintained by the database, clients
+         * never write it.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_PRODUCT_RESERVED = "reserved";
+
+        /**
+         * Query parameter for a query of {@link #CONTENT_URI}: the maximum number of rows to
+         * return, e.g. to fetch only the first screen of a list.
+         */
+        public static final String QUERY_LIMIT = "limit";
+
+        /**
+         * Query parameter for a query of {@link #CONTENT_URI} with a {@link #QUERY_LIMIT}: the
+         * number of rows to skip first, to page through a list in a stable order.
+         */
+        public static final String QUERY_OFFSET = "offset";
+
+        /**
+         * Query parameters of a sorted and filtered query of {@link #CONTENT_URI}. Build them
+         * with a {@link ProductQuery} rather than by hand, it only lets through the combinations
+         * the provider can answer from an index.
+         */
+        public static final String QUERY_SORT = "sort";
+        public static final String QUERY_DESCENDING = "descending";
+        public static final String QUERY_IN_STOCK = "in_stock";
+        public static final String QUERY_MIN_PRICE = "min_price";
+        public static final String QUERY_MAX_PRICE = "max_price";
+        public static final String QUERY_NAME_PREFIX = "name_prefix";
+
+        /** Values of {@link #QUERY_SORT}: the order the products were added in, the default */
+        public static final String SORT_ADDED = "added";
+
+        /** Values of {@link #QUERY_SORT}: by normalized name, by price, by stock */
+        public static final String SORT_NAME = "name";
+        public static final String SORT_PRICE = "price";
+        public static final String SORT_STOCK = "stock";
+
+        /**
+         * Query parameter for an update of a single product: the update only succeeds if the
+         * row still has this {@link #COLUMN_PRODUCT_VERSION}, otherwise 0 rows are updated.
+         */
+        public static final String QUERY_EXPECTED_VERSION = "expected_version";
+
+        /**
+         * Returns the content URI of a single product that only accepts an update while the
+         * product is still at the given version.
+         */
+        public static Uri buildVersionedUri(long id, int version) {
+            return ContentUris.withAppendedId(CONTENT_URI, id).buildUpon()
+                    .appendQueryParameter(QUERY_EXPECTED_VERSION, String.valueOf(version))
+                    .build();
+        }
+
         /**
          * Default file location for no-image
          */
@@ -102,6 +423,14 @@ public class ProductContract {
         public static final String NO_IMAGE = "content://com.android.providers.media.documents/document/image%3A34837";
 
 
+        /**
+         * Returns the normalized form of a product name: without leading or trailing white space
+         * and in lower case, so "Blue Pen " and "blue pen" are the same product.
+         */
+        public static String normalizeName(String name) {
+            return name.trim().toLowerCase(Locale.ROOT);
+        }
+
         /**
          * Returns whether or not the given price is equal or bigger than 0
          */
@@ -113,5 +442,764 @@ public class ProductContract {
         }
     }
 
-}
+    /**
+     * A sorted and filtered query of the products, which is encoded in the query parameters of
+     * the {@link ProductEntry#CONTENT_URI} (see {@link #toUri()}).
+     *
+     * Every query is answered by walking one index, so it never reads more rows than it returns
+     * and never sorts. That's why a range filter only goes together with the sort on the same
+     * column: a name prefix with {@link ProductEntry#SORT_NAME}, a price range with
+     * {@link ProductEntry#SORT_PRICE}. In-stock-only goes with every sort. Without a sort, the
+     * sort follows the range filter, or is {@link ProductEntry#SORT_ADDED} without one.
+     * {@link Builder#build()} and {@link #fromUri(Uri)} throw an IllegalArgumentException for
+     * any other combination.
+     */
+    public static final class ProductQuery {
+
+        private final String mSort;
+        private final boolean mDescending;
+        private final boolean mInStockOnly;
+        private final Integer mMinPrice;
+        private final Integer mMaxPrice;
+        private final String mNamePrefix;
 
+        private ProductQuery(Builder builder, String sort) {
+            mSort = sort;
+            mDescending = builder.mDescending;
+            mInStockOnly = builder.mInStockOnly;
+            mMinPrice = builder.mMinPrice;
+            mMaxPrice = builder.mMaxPrice;
+            mNamePrefix = builder.mNamePrefix;
+        }
+
+        /** Returns the sort key, one of the {@link ProductEntry} SORT_ constants */
+        public String getSort() {
+            return mSort;
+        }
+
+        public boolean isDescending() {
+            return mDescending;
+        }
+
+        public boolean isInStockOnly() {
+            return mInStockOnly;
+        }
+
+        /** Returns the lowest price to return, or null if there is none */
+        public Integer getMinPrice() {
+            return mMinPrice;
+        }
+
+        /** Returns the highest price to return, or null if there is none */
+        public Integer getMaxPrice() {
+            return mMaxPrice;
+        }
+
+        /** Returns the normalized prefix of the names to return, or null if there is none */
+        public String getNamePrefix() {
+            return mNamePrefix;
+        }
+
+        /**
+         * Returns the content URI of the products of this query.
+         */
+        public Uri toUri() {
+            Uri.Builder builder = ProductEntry.CONTENT_URI.buildUpon()
+                    .appendQueryParameter(ProductEntry.QUERY_SORT, mSort);
+            if (mDescending) {
+                builder.appendQueryParameter(ProductEntry.QUERY_DESCENDING, "1");
+            }
+            if (mInStockOnly) {
+                builder.appendQueryParameter(ProductEntry.QUERY_IN_STOCK, "1");
+            }
+            if (mMinPrice != null) {
+                builder.appendQueryParameter(ProductEntry.QUERY_MIN_PRICE, String.valueOf(mMinPrice));
+            }
+            if (mMaxPrice != null) {
+                builder.appendQueryParameter(ProductEntry.QUERY_MAX_PRICE, String.valueOf(mMaxPrice));
+            }
+            if (mNamePrefix != null) {
+                builder.appendQueryParameter(ProductEntry.QUERY_NAME_PREFIX, mNamePrefix);
+            }
+            return builder.build();
+        }
+
+        /**
+         * Returns the content URI of the alphabetical sections of the products of this query.
+         * Only a query sorted by name has sections.
+         */
+        public Uri toSectionsUri() {
+            return ProductSectionEntry.CONTENT_URI.buildUpon()
+                    .encodedQuery(toUri().getEncodedQuery())
+                    .build();
+        }
+
+        /**
+         * Returns a builder holding this query, to change some of it.
+         */
+        public Builder buildUpon() {
+            return new Builder()
+                    .setSort(mSort, mDescending)
+                    .setInStockOnly(mInStockOnly)
+                    .setPriceRange(mMinPrice, mMaxPrice)
+                    .setNamePrefix(mNamePrefix);
+        }
+
+        /**
+         * Returns whether or not the URI has any of the query parameters of a ProductQuery.
+         */
+        public static boolean isProductQuery(Uri uri) {
+            for (String parameter : new String[] { ProductEntry.QUERY_SORT,
+                    ProductEntry.QUERY_DESCENDING, ProductEntry.QUERY_IN_STOCK,
+                    ProductEntry.QUERY_MIN_PRICE, ProductEntry.QUERY_MAX_PRICE,
+                    ProductEntry.QUERY_NAME_PREFIX }) {
+                if (uri.getQueryParameter(parameter) != null) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Reads the query from the parameters of the URI. Throws an IllegalArgumentException if
+         * they are invalid or not a supported combination.
+         */
+        public static ProductQuery fromUri(Uri uri) {
+            return new Builder()
+                    .setSort(uri.getQueryParameter(ProductEntry.QUERY_SORT),
+                            "1".equals(uri.getQueryParameter(ProductEntry.QUERY_DESCENDING)))
+                    .setInStockOnly("1".equals(uri.getQueryParameter(ProductEntry.QUERY_IN_STOCK)))
+                    .setPriceRange(parsePrice(uri, ProductEntry.QUERY_MIN_PRICE),
+                            parsePrice(uri, ProductEntry.QUERY_MAX_PRICE))
+                    .setNamePrefix(uri.getQueryParameter(ProductEntry.QUERY_NAME_PREFIX))
+                    .build();
+        }
+
+        private static Integer parsePrice(Uri uri, String parameter) {
+            String price = uri.getQueryParameter(parameter);
+            if (price == null) {
+                return null;
+            }
+            try {
+                return Integer.valueOf(price);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid " + parameter + " in " + uri, e);
+            }
+        }
+
+        /**
+         * Builds a {@link ProductQuery}. Nothing is checked until {@link #build()}.
+         */
+        public static final class Builder {
+
+            private String mSort;
+            private boolean mDescending;
+            private boolean mInStockOnly;
+            private Integer mMinPrice;
+            private Integer mMaxPrice;
+            private String mNamePrefix;
+
+            /**
+             * Sort by the given key, or by the one the filters need if it is null.
+             */
+            public Builder setSort(String sort, boolean descending) {
+                mSort = sort;
+                mDescending = descending;
+                return this;
+            }
+
+            public Builder setInStockOnly(boolean inStockOnly) {
+                mInStockOnly = inStockOnly;
+                return this;
+            }
+
+            /**
+             * Only return products with a price in [minPrice, maxPrice]. Either bound may be null.
+             */
+            public Builder setPriceRange(Integer minPrice, Integer maxPrice) {
+                mMinPrice = minPrice;
+                mMaxPrice = maxPrice;
+                return this;
+            }
+
+            /**
+             * Only return products whose name starts with the given prefix, in any case.
+             * An empty prefix, or null, returns every name.
+             */
+            public Builder setNamePrefix(String namePrefix) {
+                mNamePrefix = namePrefix == null ? null : ProductEntry.normalizeName(namePrefix);
+                if (mNamePrefix != null && mNamePrefix.isEmpty()) {
+                    mNamePrefix = null;
+                }
+                return this;
+            }
+
+            /**
+             * Returns the query, or throws an IllegalArgumentException if it is invalid or
+             * cannot be answered from an index.
+             */
+            public ProductQuery build() {
+                boolean priceRange = mMinPrice != null || mMaxPrice != null;
+                if ((mMinPrice != null && mMinPrice < 0) || (mMaxPrice != null && mMaxPrice < 0)
+                        || (mMinPrice != null && mMaxPrice != null && mMinPrice > mMaxPrice)) {
+                    throw new IllegalArgumentException("Invalid price range " + mMinPrice
+                            + " to " + mMaxPrice);
+                }
+                if (priceRange && mNamePrefix != null) {
+                    throw new IllegalArgumentException(
+                            "A price range and a name prefix cannot be combined");
+                }
+
+                String sort = mSort;
+                if (sort == null) {
+                    sort = mNamePrefix != null ? ProductEntry.SORT_NAME
+                            : priceRange ? ProductEntry.SORT_PRICE : ProductEntry.SORT_ADDED;
+                }
+                if (!ProductEntry.SORT_ADDED.equals(sort) && !ProductEntry.SORT_NAME.equals(sort)
+                        && !ProductEntry.SORT_PRICE.equals(sort)
+                        && !ProductEntry.SORT_STOCK.equals(sort)) {
+                    throw new IllegalArgumentException("Unknown sort " + sort);
+                }
+                if (mNamePrefix != null && !ProductEntry.SORT_NAME.equals(sort)) {
+                    throw new IllegalArgumentException("A name prefix requires the sort by name");
+                }
+                if (priceRange && !ProductEntry.SORT_PRICE.equals(sort)) {
+                    throw new IllegalArgumentException("A price range requires the sort by price");
+                }
+                return new ProductQuery(this, sort);
+            }
+        }
+    }
+
+    /**
+     * Inner class that defines constant values for the alphabetical sections of the product
+     * list sorted by name, which back the fast scroller of the catalog.
+     *
+     * Each row is one first letter of the normalized names, with the number of products whose
+     * name starts with it and the position of the first of them in the list. Build the URI with
+     * {@link ProductQuery#toSectionsUri()}, so the sections match the list of the same query.
+     * They are counted by one grouped query over the name index, and kept by the provider
+     * until the next write of a product.
+     */
+    public static final class ProductSectionEntry implements BaseColumns {
+
+        /** The content URI of the sections of every product sorted by name */
+        public static final Uri CONTENT_URI = Uri.withAppendedPath(ProductEntry.CONTENT_URI, PATH_SECTIONS);
+
+        /**
+         * The MIME type of the {@link #CONTENT_URI} for a list of sections.
+         */
+        public static final String CONTENT_LIST_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/product_sections";
+
+        /**
+         * Index of the section, starting at 0.
+         *
+         * Type: INTEGER
+         */
+        public final static String _ID = BaseColumns._ID;
+
+        /**
+         * First letter of the names in the section, in upper case. Products whose name hasn't
+         * been normalized yet are in a section of their own, labeled {@link #UNKNOWN_LETTER}.
+         *
+         * Type: TEXT
+         */
+        public final static String COLUMN_LETTER = "letter";
+
+        /**
+         * Number of products in the section.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_COUNT = "count";
+
+        /**
+         * Position of the first product of the section in the list.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_OFFSET = "offset";
+
+        /** Label of the section of products without a normalized name */
+        public static final String UNKNOWN_LETTER = "#";
+    }
+
+    /**
+     * Inner class that defines constant values for the reorder queue table.
+     * Each entry is a product whose stock dropped to or below its reorder threshold. Entries are
+     * added and removed by the database itself whenever the stock or threshold of a product
+     * changes, so finding what to reorder never needs a scan of the products table.
+     */
+    public static final class ReorderEntry implements BaseColumns {
+
+        /** The content URI to access the reorder queue in the provider */
+        public static final Uri CONTENT_URI = Uri.withAppendedPath(BASE_CONTENT_URI, PATH_REORDER_QUEUE);
+
+        /**
+         * The MIME type of the {@link #CONTENT_URI} for the reorder queue.
+         */
+        public static final String CONTENT_LIST_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_REORDER_QUEUE;
+
+        /** Name of database table for the reorder queue */
+        public final static String TABLE_NAME = "reorder_queue";
+
+        /**
+         * Unique ID number for the queue entry (only for use in the database table).
+         *
+         * Type: INTEGER
+         */
+        public final static String _ID = BaseColumns._ID;
+
+        /**
+         * ID of the product to reorder, unique within the queue.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_PRODUCT_ID = "product_id";
+
+        /**
+         * Either {@link #STATUS_PENDING} or {@link #STATUS_ORDERED}.
+         *
+         * Type: TEXT
+         */
+        public final static String COLUMN_STATUS = "status";
+
+        /**
+         * Time the product was put on the queue, in milliseconds since the epoch.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_QUEUED_AT = "queued_at";
+
+        /** The product still needs to go on a purchase order */
+        public static final String STATUS_PENDING = "pending";
+
+        /** The product is on a purchase order, it leaves the queue once the stock is back up */
+        public static final String STATUS_ORDERED = "ordered";
+
+        /**
+         * Queries of the {@link #CONTENT_URI} can also ask for the name, stock and reorder
+         * threshold of the queued product, using the {@link ProductEntry} column names.
+         */
+        public static final String[] DEFAULT_PROJECTION = {
+                _ID,
+                COLUMN_PRODUCT_ID,
+                COLUMN_STATUS,
+                COLUMN_QUEUED_AT,
+                ProductEntry.COLUMN_PRODUCT_NAME,
+                ProductEntry.COLUMN_PRODUCT_STOCK,
+                ProductEntry.COLUMN_PRODUCT_REORDER_THRESHOLD};
+    }
+
+    /**
+     * Inner class that defines constant values for the sales table.
+     * Each entry is a single sale of a product. Inserting a sale takes the sold quantity out of
+     * the product's stock in the same transaction, and fails if there isn't enough stock at the
+     * {@link ProductLocationEntry#DEFAULT_LOCATION}.
+     * Sales are never updated or deleted.
+     */
+    public static final class SaleEntry implements BaseColumns {
+
+        /** The content URI to access the sales in the provider */
+        public static final Uri CONTENT_URI = Uri.withAppendedPath(BASE_CONTENT_URI, PATH_SALES);
+
+        /**
+         * The MIME type of the {@link #CONTENT_URI} for a list of sales.
+         */
+        public static final String CONTENT_LIST_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_SALES;
+
+        /** Name of database table for sales */
+        public final static String TABLE_NAME = "sales";
+
+        /**
+         * Unique ID number for the sale (only for use in the database table).
+         *
+         * Type: INTEGER
+         */
+        public final static String _ID = BaseColumns._ID;
+
+        /**
+         * ID of the sold product.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_PRODUCT_ID = "product_id";
+
+        /**
+         * Number of items sold, above 0.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_QUANTITY = "quantity";
+
+        /**
+         * Price of a single item at the time of the sale. Filled in by the provider.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_UNIT_PRICE = "unit_price";
+
+        /**
+         * Time of the sale, in milliseconds since the epoch. Defaults to the time of the insert.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_SOLD_AT = "sold_at";
+    }
+
+    /**
+     * Inner class that defines constant values for the reservations table.
+     * Each entry holds stock of a product for an order that is being prepared, until it is
+     * committed (sold), released or expires. Held stock can't be reserved again or sold with a
+     * {@link SaleEntry}. Reservations are made and ended with the reservation methods of
+     * {@link android.content.ContentResolver#call}, use those of {@link ProductWriter}.
+     */
+    public static final class ReservationEntry implements BaseColumns {
+
+        /** Name of database table for reservations */
+        public final static String TABLE_NAME = "reservations";
+
+        /**
+         * Unique ID number for the reservation (only for use in the database table).
+         *
+         * Type: INTEGER
+         */
+        public final static String _ID = BaseColumns._ID;
+
+        /**
+         * ID of the held product.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_PRODUCT_ID = "product_id";
+
+        /**
+         * Number of items held, above 0.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_QUANTITY = "quantity";
+
+        /**
+         * Time the hold expires, in milliseconds since the epoch.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_EXPIRES_AT = "expires_at";
+
+        /**
+         * Time the hold was committed, in milliseconds since the epoch. A committed
+         * reservation is turned into a sale and removed right away.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_COMMITTED_AT = "committed_at";
+    }
+
+    /**
+     * Inner class that defines constant values for the stock of products per location.
+     * Each entry is the stock of one product in one stockroom. The stock of a product is the
+     * total over its locations, kept up to date by the database, so lists of products never
+     * need to read this table. Stock that is sold, or edited on the product itself, is taken
+     * from or added to the {@link #DEFAULT_LOCATION}; other locations only change by setting
+     * their stock or with a {@link TransferEntry}.
+     */
+    public static final class ProductLocationEntry implements BaseColumns {
+
+        /**
+         * The content URI of the locations: one row per location with the number of products
+         * kept there and their total stock, ordered by name.
+         */
+        public static final Uri CONTENT_URI = Uri.withAppendedPath(BASE_CONTENT_URI, PATH_LOCATIONS);
+
+        /**
+         * The MIME type of the {@link #CONTENT_URI} and of the stock of a location or a product.
+         */
+        public static final String CONTENT_LIST_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_LOCATIONS;
+
+        /**
+         * The MIME type of the stock of a product in a single location.
+         */
+        public static final String CONTENT_ITEM_TYPE =
+                ContentResolver.CURSOR_ITEM_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_LOCATIONS;
+
+        /** Name of database table for the stock per location */
+        public final static String TABLE_NAME = "product_locations";
+
+        /** Location of stock that isn't anywhere else, e.g. stock entered before locations */
+        public static final String DEFAULT_LOCATION = "main";
+
+        /**
+         * Unique ID number for the entry (only for use in lists).
+         *
+         * Type: INTEGER
+         */
+        public final static String _ID = BaseColumns._ID;
+
+        /**
+         * ID of the product.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_PRODUCT_ID = "product_id";
+
+        /**
+         * Name of the location.
+         *
+         * Type: TEXT
+         */
+        public final static String COLUMN_LOCATION = "location";
+
+        /**
+         * Stock of the product at the location, never below 0. The only column that can be
+         * updated, on the URI of {@link #buildProductLocationUri}.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_STOCK = "stock";
+
+        /**
+         * Number of products at the location, only in the rows of the {@link #CONTENT_URI}.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_PRODUCT_COUNT = "product_count";
+
+        /**
+         * Returns the URI of the stock kept at the given location, one row per product with its
+         * {@link ProductEntry#COLUMN_PRODUCT_NAME}.
+         */
+        public static Uri buildLocationUri(String location) {
+            return CONTENT_URI.buildUpon().appendPath(location).build();
+        }
+
+        /**
+         * Returns the URI of the stock of the given product, one row per location.
+         */
+        public static Uri buildProductLocationsUri(long productId) {
+            return ContentUris.withAppendedId(ProductEntry.CONTENT_URI, productId).buildUpon()
+                    .appendPath(PATH_LOCATIONS).build();
+        }
+
+        /**
+         * Returns the URI of the stock of the given product at the given location. Updating
+         * its {@link #COLUMN_STOCK} sets the stock there, adding the location if the product
+         * has none there yet. Deleting it removes the location and its stock from the product.
+         */
+        public static Uri buildProductLocationUri(long productId, String location) {
+            return buildProductLocationsUri(productId).buildUpon().appendPath(location).build();
+        }
+    }
+
+    /**
+     * Inner class that defines constant values for the transfers of stock between locations.
+     * Inserting a transfer moves the stock in one transaction: either both locations change
+     * or, if the source doesn't have the quantity, neither does and null is returned. The
+     * total stock of the product stays the same. Transfers are never updated or deleted.
+     */
+    public static final class TransferEntry implements BaseColumns {
+
+        /** The content URI to access the transfers in the provider */
+        public static final Uri CONTENT_URI = Uri.withAppendedPath(BASE_CONTENT_URI, PATH_TRANSFERS);
+
+        /**
+         * The MIME type of the {@link #CONTENT_URI} for a list of transfers.
+         */
+        public static final String CONTENT_LIST_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_TRANSFERS;
+
+        /** Name of database table for transfers */
+        public final static String TABLE_NAME = "stock_transfers";
+
+        /**
+         * Unique ID number for the transfer (only for use in the database table).
+         *
+         * Type: INTEGER
+         */
+        public final static String _ID = BaseColumns._ID;
+
+        /**
+         * ID of the moved product.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_PRODUCT_ID = "product_id";
+
+        /**
+         * Locations the stock is moved from and to, two different ones.
+         *
+         * Type: TEXT
+         */
+        public final static String COLUMN_FROM_LOCATION = "from_location";
+        public final static String COLUMN_TO_LOCATION = "to_location";
+
+        /**
+         * Number of items moved, above 0.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_QUANTITY = "quantity";
+
+        /**
+         * Time of the transfer, in milliseconds since the epoch. Defaults to the time of the
+         * insert.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_TRANSFERRED_AT = "transferred_at";
+    }
+
+    /**
+     * Inner class that defines constant values for the sales rollup tables.
+     * The database adds every sale to the hourly and the daily bucket it falls into, so a sales
+     * chart reads one row per product and bucket however many sales there were.
+     *
+     * Queries of {@link #HOURLY_URI} and {@link #DAILY_URI} take the time range as the
+     * {@link #QUERY_FROM} and {@link #QUERY_TO} parameters. With a {@link #QUERY_PRODUCT_ID}
+     * they return the buckets of that product, otherwise the totals of all products per bucket.
+     * Buckets are returned oldest first, and buckets without sales are left out.
+     */
+    public static final class SalesRollupEntry implements BaseColumns {
+
+        /** The content URI of the hourly rollup */
+        public static final Uri HOURLY_URI = Uri.withAppendedPath(SaleEntry.CONTENT_URI, PATH_SALES_HOURLY);
+
+        /** The content URI of the daily rollup */
+        public static final Uri DAILY_URI = Uri.withAppendedPath(SaleEntry.CONTENT_URI, PATH_SALES_DAILY);
+
+        /**
+         * The MIME type of a list of rollup buckets.
+         */
+        public static final String CONTENT_LIST_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/sales_rollup";
+
+        /** Names of the rollup tables */
+        public final static String TABLE_HOURLY = "sales_hourly";
+        public final static String TABLE_DAILY = "sales_daily";
+
+        /** Length of the buckets in milliseconds. Days are UTC days. */
+        public static final long HOUR_MILLIS = 60 * 60 * 1000L;
+        public static final long DAY_MILLIS = 24 * HOUR_MILLIS;
+
+        /**
+         * ID of the product, not present in the totals of all products.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_PRODUCT_ID = "product_id";
+
+        /**
+         * Start of the bucket, in milliseconds since the epoch.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_BUCKET_START = "bucket_start";
+
+        /**
+         * Number of items sold in the bucket.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_QUANTITY = "quantity";
+
+        /**
+         * Sum of quantity times unit price of the sales in the bucket.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_REVENUE = "revenue";
+
+        /** Query parameters: first millisecond of the range, and the first one after it */
+        public static final String QUERY_FROM = "from";
+        public static final String QUERY_TO = "to";
+
+        /** Query parameter: only return the buckets of this product */
+        public static final String QUERY_PRODUCT_ID = "product_id";
+
+        /**
+         * Returns the URI of the buckets of the given rollup in the range [from, to), for every
+         * product together or, if productId is not negative, for just that product.
+         */
+        public static Uri buildRangeUri(Uri rollupUri, long from, long to, long productId) {
+            Uri.Builder builder = rollupUri.buildUpon()
+                    .appendQueryParameter(QUERY_FROM, String.valueOf(from))
+                    .appendQueryParameter(QUERY_TO, String.valueOf(to));
+            if (productId >= 0) {
+                builder.appendQueryParameter(QUERY_PRODUCT_ID, String.valueOf(productId));
+            }
+            return builder.build();
+        }
+    }
+
+    /**
+     * Inner class that defines constant values for the per-product sales counters.
+     * Every product has the number of items sold in the last 7 and the last 30 days, where the
+     * current UTC day counts as the last day. The database adds every sale as it happens, and
+     * the provider takes out the days that left a window when the day changes, so the counters
+     * never need a scan of the sales.
+     *
+     * The rankings are indexed on the counters: reading the top of either list reads as many
+     * rows as it returns. Both URIs take the window as the {@link #QUERY_WINDOW_DAYS}
+     * parameter and the number of products as the {@link #QUERY_LIMIT} parameter.
+     */
+    public static final class SalesStatsEntry implements BaseColumns {
+
+        /** The best selling products first, only products that sold anything in the window */
+        public static final Uri TOP_SELLERS_URI = Uri.withAppendedPath(SaleEntry.CONTENT_URI, PATH_TOP_SELLERS);
+
+        /** The products in stock that sell the least first */
+        public static final Uri SLOW_MOVERS_URI = Uri.withAppendedPath(SaleEntry.CONTENT_URI, PATH_SLOW_MOVERS);
+
+        /**
+         * The MIME type of a ranking.
+         */
+        public static final String CONTENT_LIST_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/sales_ranking";
+
+        /** Name of database table for the sales counters */
+        public final static String TABLE_NAME = "product_sales_stats";
+
+        /**
+         * ID of the product. Rankings also return it as {@link #_ID}.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_PRODUCT_ID = "product_id";
+
+        /**
+         * Items sold in the last 7 days.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_SOLD_7_DAYS = "sold_7d";
+
+        /**
+         * Items sold in the last 30 days.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_SOLD_30_DAYS = "sold_30d";
+
+        /** Query parameter: the window to rank by, 7 or 30 days. Defaults to 7. */
+        public static final String QUERY_WINDOW_DAYS = "window_days";
+
+        /** Query parameter: the number of products to return. Defaults to {@link #DEFAULT_LIMIT}. */
+        public static final String QUERY_LIMIT = ProductEntry.QUERY_LIMIT;
+
+        public static final int DEFAULT_LIMIT = 20;
+
+        /**
+         * Returns the URI of the first products of the given ranking by the given window.
+         */
+        public static Uri buildRankingUri(Uri rankingUri, int windowDays, int limit) {
+            return rankingUri.buildUpon()
+                    .appendQueryParameter(QUERY_WINDOW_DAYS, String.valueOf(windowDays))
+                    .appendQueryParameter(QUERY_LIMIT, String.valueOf(limit))
+                    .build();
+        }
+    }
+}
@@ -1,10 +1,17 @@
 package com.example.android.inventoryapp.data;
 
 import android.content.Context;
+import android.content.res.AssetFileDescriptor;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.util.Log;
 
 import com.example.android.inventoryapp.data.ProductContract.ProductEntry;
+import com.example.android.inventoryapp.data.ProductContract.ProductQuery;
+
+import java.io.FileInputStream;
+import java.io.IOException;
 
 
 /**
@@ -15,12 +22,26 @@ public class ProductDbHelper extends SQLiteOpenHelper {
     public static final String LOG_TAG = ProductDbHelper.class.getSimpleName();
 
     /** Name of the database file */
-    private static final String DATABASE_NAME = "inventory.db";
+    static final String DATABASE_NAME = "inventory.db";
 
     /**
      * Database version. If you change the database schema, you must increment the database version.
      */
-    private static final int DATABASE_VERSION = 1;
+    static final int DATABASE_VERSION = 14;
+
+    /**
+     * Optional asset with the catalog a new database starts with (see {@link CatalogSnapshot}).
+     * It is stored uncompressed, so it can be memory-mapped straight from the APK.
+     */
+    static final String CATALOG_ASSET = "catalog.snapshot";
+
+    private final Context mContext;
+
+    /** Applies the schema changes and backfills of {@link ProductMigrations} */
+    private final MigrationRunner mMigrationRunner = new MigrationRunner(ProductMigrations.ALL);
+
+    /** Set once the name key of every product is filled in and indexed */
+    private volatile boolean mNameKeyReady;
 
     /**
      * Constructs a new instance of {@link ProductDbHelper}.
@@ -28,11 +49,36 @@ public class ProductDbHelper extends SQLiteOpenHelper {
      * @param context of the app
      */
     public ProductDbHelper(Context context) {
-        super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        this(context, DATABASE_NAME);
+    }
+
+    /**
+     * Constructs a helper of a database with another name, e.g. the second store of a sync
+     * test.
+     */
+    ProductDbHelper(Context context, String name) {
+        super(context, name, null, DATABASE_VERSION);
+        mContext = context.getApplicationContext();
+        // Readers don't block the writer and vice versa. The log is checkpointed by the
+        // maintenance job (see {@link DatabaseMaintenance}).
+        setWriteAheadLoggingEnabled(true);
+    }
+
+    /**
+     * Called before the database is created or upgraded. A new database is set up for
+     * incremental vacuum here, as that can only be chosen before the first table is created.
+     * Existing databases are converted by {@link DatabaseMaintenance}.
+     */
+    @Override
+    public void onConfigure(SQLiteDatabase db) {
+        super.onConfigure(db);
+        db.execSQL("PRAGMA auto_vacuum = INCREMENTAL");
     }
 
     /**
      * This is called when the database is created for the first time.
+     * It creates the version 1 schema and then upgrades it, so a new database always ends up
+     * with exactly the same schema as an upgraded one.
      */
     @Override
     public void onCreate(SQLiteDatabase db) {
@@ -47,13 +93,80 @@ public class ProductDbHelper extends SQLiteOpenHelper {
 
         // Execute the SQL statement
         db.execSQL(SQL_CREATE_PRODUCTS_TABLE);
+
+        // Bring the new database up to the current version. There are no rows to backfill
+        // yet, so the backfills finish right away, e.g. the name key gets its indexes.
+        onUpgrade(db, 1, DATABASE_VERSION);
+        mMigrationRunner.finishBackfills(db);
+
+        loadCatalogAsset(db);
+    }
+
+    /**
+     * Fill a new database with the prebuilt catalog shipped in {@link #CATALOG_ASSET}, if the
+     * app has one. A missing or damaged asset leaves the catalog empty.
+     */
+    private void loadCatalogAsset(SQLiteDatabase db) {
+        AssetFileDescriptor asset;
+        try {
+            asset = mContext.getAssets().openFd(CATALOG_ASSET);
+        } catch (IOException e) {
+            // No prebuilt catalog
+            return;
+        }
+        try {
+            FileInputStream in = asset.createInputStream();
+            try {
+                CatalogSnapshot snapshot = CatalogSnapshot.open(in.getChannel(),
+                        asset.getStartOffset(), asset.getLength());
+                // The snapshot is verified before the first row is inserted, so a damaged
+                // asset never fails the creation of the database
+                snapshot.loadInto(db);
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Prebuilt catalog not loaded", e);
+        }
     }
 
     /**
      * This is called when the database needs to be upgraded.
+     * Only the cheap schema changes happen here. Backfills of existing rows are registered and
+     * run later in the background by {@link #runPendingBackfills}.
      */
     @Override
     public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-        // The database is still at version 1, so there's nothing to do be done here.
+        mMigrationRunner.applySchemaChanges(db, oldVersion, newVersion);
+    }
+
+    /**
+     * Run the backfills of migrations that are not finished yet, resuming any that were
+     * interrupted, in chunks of the bulk lane of the given executor. This can take a long time
+     * and must not be called on the main thread.
+     */
+    void runPendingBackfills(DatabaseExecutor executor) {
+        mMigrationRunner.runBackfills(getWritableDatabase(), executor);
+    }
+
+    /**
+     * Returns whether or not every product has its name key and the name key is indexed,
+     * i.e. the backfill of {@link ProductMigrations#NAME_KEY} is done. Until then queries
+     * by name cannot use the index (see {@link ProductQueryPlan#of(ProductQuery, boolean)}).
+     */
+    boolean isNameKeyReady() {
+        if (!mNameKeyReady) {
+            mNameKeyReady = !MigrationRunner.isBackfillPending(getReadableDatabase(),
+                    ProductMigrations.NAME_KEY);
+        }
+        return mNameKeyReady;
+    }
+
+    /**
+     * Returns whether or not the database has an index of the given name.
+     */
+    static boolean hasIndex(SQLiteDatabase db, String name) {
+        return DatabaseUtils.longForQuery(db, "SELECT COUNT(*) FROM sqlite_master"
+                + " WHERE type = 'index' AND name = ?", new String[] { name }) != 0;
     }
 }
@@ -0,0 +1,149 @@
+package com.example.android.inventoryapp.data;
+
+import android.content.ContentValues;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import com.example.android.inventoryapp.data.ProductContract.ProductEntry;
+import com.example.android.inventoryapp.data.ProductContract.ProductLocationEntry;
+import com.example.android.inventoryapp.data.ProductContract.TransferEntry;
+
+/**
+ * The stock of products per location.
+ *
+ * {@link ProductEntry#COLUMN_PRODUCT_STOCK} stays the total over the locations of a product,
+ * materialized by the triggers of migration 10, so the product list never joins or sums the
+ * locations. A change at a location sets the total to the sum of the product's locations, and
+ * a change of the total (a sale, an edit of the product) goes to the default location. Both
+ * directions only write when the two disagree, so they don't set each other off again.
+ *
+ * A transfer doesn't change the total. It counts up the {@link #COLUMN_TRANSFER_COUNT} of both
+ * locations, which the triggers take as the sign to leave the product alone, so the product
+ * keeps its version and isn't queued for reorder halfway through the transfer.
+ *
+ * Products that had stock before migration 10 keep it outside of any location until the
+ * backfill or the first write to one of their locations puts it in the default location, see
+ * {@link #materializeDefault}.
+ */
+final class ProductLocations {
+
+    /** Number of transfers in and out of the location, only used to tell transfers apart */
+    static final String COLUMN_TRANSFER_COUNT = "transfer_count";
+
+    private ProductLocations() {}
+
+    /**
+     * SQL expression of the stock of the product with the given id (an SQL expression too)
+     * over all of its locations.
+     */
+    static String totalStock(String productId) {
+        return "(SELECT IFNULL(SUM(" + ProductLocationEntry.COLUMN_STOCK + "), 0) FROM "
+                + ProductLocationEntry.TABLE_NAME + " WHERE "
+                + ProductLocationEntry.COLUMN_PRODUCT_ID + " = " + productId + ")";
+    }
+
+    /**
+     * Put the stock of the product that isn't at any location into the default location.
+     * This must be done before the first write to a location of a product, otherwise that
+     * write would set the total to the stock of the locations alone.
+     */
+    static void materializeDefault(SQLiteDatabase db, long productId) {
+        String total = totalStock(ProductEntry.TABLE_NAME + "." + ProductEntry._ID);
+        SQLiteStatement statement = db.compileStatement("INSERT OR IGNORE INTO "
+                + ProductLocationEntry.TABLE_NAME + " (" + ProductLocationEntry.COLUMN_PRODUCT_ID
+                + ", " + ProductLocationEntry.COLUMN_LOCATION + ", "
+                + ProductLocationEntry.COLUMN_STOCK + ") SELECT " + ProductEntry._ID + ", ?, "
+                + ProductEntry.COLUMN_PRODUCT_STOCK + " - " + total + " FROM "
+                + ProductEntry.TABLE_NAME + " WHERE " + ProductEntry._ID + " = ? AND "
+                + ProductEntry.COLUMN_PRODUCT_STOCK + " != " + total);
+        try {
+            statement.bindString(1, ProductLocationEntry.DEFAULT_LOCATION);
+            statement.bindLong(2, productId);
+            statement.executeInsert();
+        } finally {
+            statement.close();
+        }
+    }
+
+    /**
+     * Set the stock of the product at the location, adding the location to the product if it
+     * isn't there yet. Returns false if there is no such product.
+     */
+    static boolean setStock(SQLiteDatabase db, long productId, String location, int stock) {
+        materializeDefault(db, productId);
+        addLocation(db, productId, location);
+        ContentValues values = new ContentValues();
+        values.put(ProductLocationEntry.COLUMN_STOCK, stock);
+        return db.update(ProductLocationEntry.TABLE_NAME, values, atLocation(),
+                new String[] { String.valueOf(productId), location }) != 0;
+    }
+
+    /**
+     * Remove the location, and the stock there, from the product. Returns whether or not the
+     * product was kept there.
+     */
+    static boolean remove(SQLiteDatabase db, long productId, String location) {
+        materializeDefault(db, productId);
+        return db.delete(ProductLocationEntry.TABLE_NAME, atLocation(),
+                new String[] { String.valueOf(productId), location }) != 0;
+    }
+
+    /**
+     * Move the quantity of the product from one location to another and record the transfer.
+     * Returns the id of the transfer, or -1 if the source doesn't have that much stock of the
+     * product. This must be called in a transaction, which is left unchanged on -1.
+     */
+    static long transfer(SQLiteDatabase db, long productId, String from, String to,
+                         int quantity, long transferredAt) {
+        materializeDefault(db, productId);
+        // Taking the stock out is conditional, so two transfers can't take the same items
+        SQLiteStatement takeOut = db.compileStatement("UPDATE " + ProductLocationEntry.TABLE_NAME
+                + " SET " + ProductLocationEntry.COLUMN_STOCK + " = "
+                + ProductLocationEntry.COLUMN_STOCK + " - ?, " + COLUMN_TRANSFER_COUNT + " = "
+                + COLUMN_TRANSFER_COUNT + " + 1 WHERE " + atLocation() + " AND "
+                + ProductLocationEntry.COLUMN_STOCK + " >= ?");
+        try {
+            takeOut.bindLong(1, quantity);
+            takeOut.bindLong(2, productId);
+            takeOut.bindString(3, from);
+            takeOut.bindLong(4, quantity);
+            if (takeOut.executeUpdateDelete() == 0) {
+                return -1;
+            }
+        } finally {
+            takeOut.close();
+        }
+
+        addLocation(db, productId, to);
+        db.execSQL("UPDATE " + ProductLocationEntry.TABLE_NAME + " SET "
+                + ProductLocationEntry.COLUMN_STOCK + " = " + ProductLocationEntry.COLUMN_STOCK
+                + " + ?, " + COLUMN_TRANSFER_COUNT + " = " + COLUMN_TRANSFER_COUNT + " + 1 WHERE "
+                + atLocation(), new Object[] { quantity, productId, to });
+
+        ContentValues transfer = new ContentValues();
+        transfer.put(TransferEntry.COLUMN_PRODUCT_ID, productId);
+        transfer.put(TransferEntry.COLUMN_FROM_LOCATION, from);
+        transfer.put(TransferEntry.COLUMN_TO_LOCATION, to);
+        transfer.put(TransferEntry.COLUMN_QUANTITY, quantity);
+        transfer.put(TransferEntry.COLUMN_TRANSFERRED_AT, transferredAt);
+        return db.insertOrThrow(TransferEntry.TABLE_NAME, null, transfer);
+    }
+
+    /**
+     * Add the location to the product with no stock, unless it is there already or there is no
+     * such product.
+     */
+    private static void addLocation(SQLiteDatabase db, long productId, String location) {
+        db.execSQL("INSERT OR IGNORE INTO " + ProductLocationEntry.TABLE_NAME + " ("
+                + ProductLocationEntry.COLUMN_PRODUCT_ID + ", "
+                + ProductLocationEntry.COLUMN_LOCATION + ") SELECT " + ProductEntry._ID
+                + ", ? FROM " + ProductEntry.TABLE_NAME + " WHERE " + ProductEntry._ID + " = ?",
+                new Object[] { location, productId });
+    }
+
+    /** Selection of one location of one product */
+    private static String atLocation() {
+        return ProductLocationEntry.COLUMN_PRODUCT_ID + " = ? AND "
+                + ProductLocationEntry.COLUMN_LOCATION + " = ?";
+    }
+}
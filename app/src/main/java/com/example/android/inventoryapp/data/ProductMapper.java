@@ -0,0 +1,96 @@
+package com.example.android.inventoryapp.data;
+
+import android.database.Cursor;
+import android.text.TextUtils;
+
+import com.example.android.inventoryapp.data.ProductContract.ProductEntry;
+
+/**
+ * Reads {@link Product} rows from a cursor. The positions of the columns are looked up once,
+ * when the mapper is created for a cursor, rather than by name for every row and field.
+ *
+ * A mapper belongs to the cursor it was created for (or any cursor with the same columns in
+ * the same positions). Besides whole snapshots it reads single fields, so a list can bind a
+ * row without creating a snapshot for it.
+ */
+public final class ProductMapper {
+
+    private final int mIdIndex;
+    private final int mNameIndex;
+    private final int mStockIndex;
+    private final int mPriceIndex;
+    private final int mPictureIndex;
+    private final int mVersionIndex;
+    private final int mReorderThresholdIndex;
+
+    private ProductMapper(Cursor cursor) {
+        mIdIndex = cursor.getColumnIndexOrThrow(ProductEntry._ID);
+        mNameIndex = cursor.getColumnIndexOrThrow(ProductEntry.COLUMN_PRODUCT_NAME);
+        mStockIndex = cursor.getColumnIndexOrThrow(ProductEntry.COLUMN_PRODUCT_STOCK);
+        mPriceIndex = cursor.getColumnIndexOrThrow(ProductEntry.COLUMN_PRODUCT_PRICE);
+        mPictureIndex = cursor.getColumnIndexOrThrow(ProductEntry.COLUMN_PRODUCT_PICTURE);
+        mVersionIndex = cursor.getColumnIndexOrThrow(ProductEntry.COLUMN_PRODUCT_VERSION);
+        mReorderThresholdIndex =
+                cursor.getColumnIndexOrThrow(ProductEntry.COLUMN_PRODUCT_REORDER_THRESHOLD);
+    }
+
+    /**
+     * Returns a mapper for the given cursor, which must contain all of {@link Product#COLUMNS}.
+     */
+    public static ProductMapper forCursor(Cursor cursor) {
+        return new ProductMapper(cursor);
+    }
+
+    /**
+     * Read the row the cursor is positioned on.
+     */
+    public Product read(Cursor cursor) {
+        return new Product(
+                cursor.getLong(mIdIndex),
+                cursor.getString(mNameIndex),
+                cursor.getInt(mStockIndex),
+                cursor.getInt(mPriceIndex),
+                cursor.getString(mPictureIndex),
+                cursor.getInt(mVersionIndex),
+                cursor.getInt(mReorderThresholdIndex));
+    }
+
+    /**
+     * Returns the given snapshot if it still holds the row the cursor is positioned on, or a
+     * new snapshot of the row. Every field is compared: the id and version alone can match a
+     * different row, e.g. after a restore brought back an older copy of the database, in which
+     * versions start over.
+     */
+    public Product reuse(Product product, Cursor cursor) {
+        if (product != null && product.getId() == cursor.getLong(mIdIndex)
+                && product.getVersion() == cursor.getInt(mVersionIndex)
+                && product.getStock() == cursor.getInt(mStockIndex)
+                && product.getPrice() == cursor.getInt(mPriceIndex)
+                && product.getReorderThreshold() == cursor.getInt(mReorderThresholdIndex)
+                && TextUtils.equals(product.getName(), cursor.getString(mNameIndex))
+                && TextUtils.equals(product.getPicture(), cursor.getString(mPictureIndex))) {
+            return product;
+        }
+        return read(cursor);
+    }
+
+    public long getId(Cursor cursor) {
+        return cursor.getLong(mIdIndex);
+    }
+
+    public String getName(Cursor cursor) {
+        return cursor.getString(mNameIndex);
+    }
+
+    public int getStock(Cursor cursor) {
+        return cursor.getInt(mStockIndex);
+    }
+
+    public int getPrice(Cursor cursor) {
+        return cursor.getInt(mPriceIndex);
+    }
+
+    public String getPicture(Cursor cursor) {
+        return cursor.getString(mPictureIndex);
+    }
+}
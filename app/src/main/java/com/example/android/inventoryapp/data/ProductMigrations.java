@@ -0,0 +1,779 @@
+package com.example.android.inventoryapp.data;
+
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.text.TextUtils;
+
+import com.example.android.inventoryapp.data.ProductContract.ProductEntry;
+import com.example.android.inventoryapp.data.ProductContract.ProductLocationEntry;
+import com.example.android.inventoryapp.data.ProductContract.ReorderEntry;
+import com.example.android.inventoryapp.data.ProductContract.ReservationEntry;
+import com.example.android.inventoryapp.data.ProductContract.SaleEntry;
+import com.example.android.inventoryapp.data.ProductContract.SalesRollupEntry;
+import com.example.android.inventoryapp.data.ProductContract.SalesStatsEntry;
+import com.example.android.inventoryapp.data.ProductContract.TransferEntry;
+
+/**
+ * Every {@link Migration} of the inventory database, in version order.
+ * To change the schema, add a migration to the end of {@link #ALL} and increment
+ * {@link ProductDbHelper}'s database version to its version.
+ */
+final class ProductMigrations {
+
+    /** SQL expression for the current time in milliseconds since the epoch */
+    static final String NOW_MILLIS = "CAST(strftime('%s', 'now') AS INTEGER) * 1000";
+
+    /** Name of the migration that adds and backfills the normalized name */
+    static final String NAME_KEY = "name_key";
+
+    private ProductMigrations() {}
+
+    static final Migration[] ALL = {
+            /**
+             * Version 2 adds the row version, which the database increments on every update.
+             */
+            new Migration(2, "row_version") {
+                @Override
+                void applySchema(SQLiteDatabase db) {
+                    db.execSQL("ALTER TABLE " + ProductEntry.TABLE_NAME + " ADD COLUMN "
+                            + ProductEntry.COLUMN_PRODUCT_VERSION + " INTEGER NOT NULL DEFAULT 0");
+
+                    // Bump the version of every updated row, unless the update already changed it.
+                    // The nested update does not fire the trigger again, as recursive triggers are off.
+                    db.execSQL("CREATE TRIGGER products_bump_version AFTER UPDATE ON "
+                            + ProductEntry.TABLE_NAME + " FOR EACH ROW"
+                            + " WHEN NEW." + ProductEntry.COLUMN_PRODUCT_VERSION
+                            + " = OLD." + ProductEntry.COLUMN_PRODUCT_VERSION
+                            + " BEGIN UPDATE " + ProductEntry.TABLE_NAME
+                            + " SET " + ProductEntry.COLUMN_PRODUCT_VERSION
+                            + " = OLD." + ProductEntry.COLUMN_PRODUCT_VERSION + " + 1"
+                            + " WHERE " + ProductEntry._ID + " = NEW." + ProductEntry._ID + "; END");
+                }
+            },
+
+            /**
+             * Version 3 adds reorder thresholds and the reorder queue, which triggers keep up to date:
+             * a product is queued as soon as its stock drops to or below its threshold, and leaves the
+             * queue once its stock is back above it (or the product is deleted).
+             */
+            new Migration(3, "reorder_queue") {
+                @Override
+                void applySchema(SQLiteDatabase db) {
+                    db.execSQL("ALTER TABLE " + ProductEntry.TABLE_NAME + " ADD COLUMN "
+                            + ProductEntry.COLUMN_PRODUCT_REORDER_THRESHOLD + " INTEGER NOT NULL DEFAULT 0");
+
+                    db.execSQL("CREATE TABLE " + ReorderEntry.TABLE_NAME + " ("
+                            + ReorderEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+                            + ReorderEntry.COLUMN_PRODUCT_ID + " INTEGER NOT NULL UNIQUE, "
+                            + ReorderEntry.COLUMN_STATUS + " TEXT NOT NULL DEFAULT '"
+                            + ReorderEntry.STATUS_PENDING + "', "
+                            + ReorderEntry.COLUMN_QUEUED_AT + " INTEGER NOT NULL);");
+                    db.execSQL("CREATE INDEX reorder_queue_status ON " + ReorderEntry.TABLE_NAME
+                            + " (" + ReorderEntry.COLUMN_STATUS + ", " + ReorderEntry.COLUMN_QUEUED_AT + ")");
+
+                    String enqueue = "INSERT OR IGNORE INTO " + ReorderEntry.TABLE_NAME + " ("
+                            + ReorderEntry.COLUMN_PRODUCT_ID + ", " + ReorderEntry.COLUMN_QUEUED_AT + ")"
+                            + " VALUES (NEW." + ProductEntry._ID + ", " + NOW_MILLIS + ");";
+                    String belowThreshold = "NEW." + ProductEntry.COLUMN_PRODUCT_STOCK
+                            + " <= NEW." + ProductEntry.COLUMN_PRODUCT_REORDER_THRESHOLD;
+                    String stockColumns = ProductEntry.COLUMN_PRODUCT_STOCK + ", "
+                            + ProductEntry.COLUMN_PRODUCT_REORDER_THRESHOLD;
+
+                    db.execSQL("CREATE TRIGGER reorder_on_insert AFTER INSERT ON " + ProductEntry.TABLE_NAME
+                            + " FOR EACH ROW WHEN " + belowThreshold + " BEGIN " + enqueue + " END");
+                    db.execSQL("CREATE TRIGGER reorder_on_update AFTER UPDATE OF " + stockColumns
+                            + " ON " + ProductEntry.TABLE_NAME
+                            + " FOR EACH ROW WHEN " + belowThreshold + " BEGIN " + enqueue + " END");
+                    db.execSQL("CREATE TRIGGER reorder_on_restock AFTER UPDATE OF " + stockColumns
+                            + " ON " + ProductEntry.TABLE_NAME
+                            + " FOR EACH ROW WHEN NOT (" + belowThreshold + ") BEGIN DELETE FROM "
+                            + ReorderEntry.TABLE_NAME + " WHERE " + ReorderEntry.COLUMN_PRODUCT_ID
+                            + " = NEW." + ProductEntry._ID + "; END");
+                    db.execSQL("CREATE TRIGGER reorder_on_delete AFTER DELETE ON " + ProductEntry.TABLE_NAME
+                            + " FOR EACH ROW BEGIN DELETE FROM " + ReorderEntry.TABLE_NAME
+                            + " WHERE " + ReorderEntry.COLUMN_PRODUCT_ID + " = OLD." + ProductEntry._ID
+                            + "; END");
+
+                    // Queue the existing products that are already at or below the default threshold
+                    db.execSQL("INSERT INTO " + ReorderEntry.TABLE_NAME + " ("
+                            + ReorderEntry.COLUMN_PRODUCT_ID + ", " + ReorderEntry.COLUMN_QUEUED_AT + ")"
+                            + " SELECT " + ProductEntry._ID + ", " + NOW_MILLIS + " FROM " + ProductEntry.TABLE_NAME
+                            + " WHERE " + ProductEntry.COLUMN_PRODUCT_STOCK
+                            + " <= " + ProductEntry.COLUMN_PRODUCT_REORDER_THRESHOLD);
+                }
+            },
+
+            /**
+             * Version 4 adds the normalized name, the natural key of a product. The column is
+             * added right away and filled for existing products in the background, after which
+             * it gets its index. Until then it is NULL for products not backfilled yet.
+             * The row version trigger is narrowed to the product data columns.
+             */
+            new Migration(4, NAME_KEY) {
+                @Override
+                void applySchema(SQLiteDatabase db) {
+                    db.execSQL("ALTER TABLE " + ProductEntry.TABLE_NAME + " ADD COLUMN "
+                            + ProductEntry.COLUMN_PRODUCT_NAME_KEY + " TEXT");
+
+                    // Only changes of product data bump the row version, so the backfill (and
+                    // any other bookkeeping column) doesn't make every open editor conflict.
+                    db.execSQL("DROP TRIGGER IF EXISTS products_bump_version");
+                    db.execSQL("CREATE TRIGGER products_bump_version AFTER UPDATE OF "
+                            + ProductEntry.COLUMN_PRODUCT_NAME + ", "
+                            + ProductEntry.COLUMN_PRODUCT_STOCK + ", "
+                            + ProductEntry.COLUMN_PRODUCT_PRICE + ", "
+                            + ProductEntry.COLUMN_PRODUCT_PICTURE + ", "
+                            + ProductEntry.COLUMN_PRODUCT_REORDER_THRESHOLD
+                            + " ON " + ProductEntry.TABLE_NAME + " FOR EACH ROW"
+                            + " WHEN NEW." + ProductEntry.COLUMN_PRODUCT_VERSION
+                            + " = OLD." + ProductEntry.COLUMN_PRODUCT_VERSION
+                            + " BEGIN UPDATE " + ProductEntry.TABLE_NAME
+                            + " SET " + ProductEntry.COLUMN_PRODUCT_VERSION
+                            + " = OLD." + ProductEntry.COLUMN_PRODUCT_VERSION + " + 1"
+                            + " WHERE " + ProductEntry._ID + " = NEW." + ProductEntry._ID + "; END");
+                }
+
+                @Override
+                boolean hasBackfill() {
+                    return true;
+                }
+
+                @Override
+                long backfillChunk(SQLiteDatabase db, long afterKey, int chunkSize) {
+                    Cursor cursor = db.query(ProductEntry.TABLE_NAME,
+                            new String[] { ProductEntry._ID, ProductEntry.COLUMN_PRODUCT_NAME },
+                            ProductEntry._ID + ">?", new String[] { String.valueOf(afterKey) },
+                            null, null, ProductEntry._ID, String.valueOf(chunkSize));
+                    SQLiteStatement update = db.compileStatement("UPDATE " + ProductEntry.TABLE_NAME
+                            + " SET " + ProductEntry.COLUMN_PRODUCT_NAME_KEY + "=? WHERE "
+                            + ProductEntry._ID + "=?");
+                    long lastKey = NO_MORE_ROWS;
+                    try {
+                        while (cursor.moveToNext()) {
+                            lastKey = cursor.getLong(0);
+                            update.bindString(1, ProductEntry.normalizeName(cursor.getString(1)));
+                            update.bindLong(2, lastKey);
+                            update.executeUpdateDelete();
+                        }
+                    } finally {
+                        cursor.close();
+                        update.close();
+                    }
+                    return lastKey;
+                }
+
+                @Override
+                void finishBackfill(SQLiteDatabase db) {
+                    // Both name indexes of version 7, which leaves them to this step if the
+                    // backfill is still running when it is applied
+                    createIndex(db, ProductQueryPlan.INDEX_NAME,
+                            ProductEntry.COLUMN_PRODUCT_NAME_KEY, false);
+                    createIndex(db, ProductQueryPlan.INDEX_IN_STOCK_NAME,
+                            ProductEntry.COLUMN_PRODUCT_NAME_KEY, true);
+                }
+            },
+
+            /**
+             * Version 5 adds the sales table and its hourly and daily rollups. A trigger adds every
+             * new sale to both rollups in the same transaction, so they never need a rebuild.
+             */
+            new Migration(5, "sales") {
+                @Override
+                void applySchema(SQLiteDatabase db) {
+                    db.execSQL("CREATE TABLE " + SaleEntry.TABLE_NAME + " ("
+                            + SaleEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+                            + SaleEntry.COLUMN_PRODUCT_ID + " INTEGER NOT NULL, "
+                            + SaleEntry.COLUMN_QUANTITY + " INTEGER NOT NULL, "
+                            + SaleEntry.COLUMN_UNIT_PRICE + " INTEGER NOT NULL, "
+                            + SaleEntry.COLUMN_SOLD_AT + " INTEGER NOT NULL);");
+                    db.execSQL("CREATE INDEX sales_product ON " + SaleEntry.TABLE_NAME
+                            + " (" + SaleEntry.COLUMN_PRODUCT_ID + ", " + SaleEntry.COLUMN_SOLD_AT + ")");
+
+                    createRollup(db, SalesRollupEntry.TABLE_HOURLY, SalesRollupEntry.HOUR_MILLIS);
+                    createRollup(db, SalesRollupEntry.TABLE_DAILY, SalesRollupEntry.DAY_MILLIS);
+                }
+
+                /**
+                 * Create a rollup table with buckets of the given length, and the trigger that
+                 * adds every new sale to its bucket.
+                 */
+                private void createRollup(SQLiteDatabase db, String table, long bucketMillis) {
+                    db.execSQL("CREATE TABLE " + table + " ("
+                            + SalesRollupEntry.COLUMN_PRODUCT_ID + " INTEGER NOT NULL, "
+                            + SalesRollupEntry.COLUMN_BUCKET_START + " INTEGER NOT NULL, "
+                            + SalesRollupEntry.COLUMN_QUANTITY + " INTEGER NOT NULL DEFAULT 0, "
+                            + SalesRollupEntry.COLUMN_REVENUE + " INTEGER NOT NULL DEFAULT 0, "
+                            + "PRIMARY KEY (" + SalesRollupEntry.COLUMN_PRODUCT_ID + ", "
+                            + SalesRollupEntry.COLUMN_BUCKET_START + "));");
+                    // The totals of all products are read by bucket
+                    db.execSQL("CREATE INDEX " + table + "_bucket ON " + table
+                            + " (" + SalesRollupEntry.COLUMN_BUCKET_START + ")");
+
+                    String bucket = "NEW." + SaleEntry.COLUMN_SOLD_AT + " - NEW."
+                            + SaleEntry.COLUMN_SOLD_AT + " % " + bucketMillis;
+                    String matchesBucket = " WHERE " + SalesRollupEntry.COLUMN_PRODUCT_ID
+                            + " = NEW." + SaleEntry.COLUMN_PRODUCT_ID
+                            + " AND " + SalesRollupEntry.COLUMN_BUCKET_START + " = " + bucket;
+                    db.execSQL("CREATE TRIGGER " + table + "_on_sale AFTER INSERT ON "
+                            + SaleEntry.TABLE_NAME + " FOR EACH ROW BEGIN "
+                            + "INSERT OR IGNORE INTO " + table + " ("
+                            + SalesRollupEntry.COLUMN_PRODUCT_ID + ", "
+                            + SalesRollupEntry.COLUMN_BUCKET_START + ") VALUES (NEW."
+                            + SaleEntry.COLUMN_PRODUCT_ID + ", " + bucket + "); "
+                            + "UPDATE " + table + " SET "
+                            + SalesRollupEntry.COLUMN_QUANTITY + " = "
+                            + SalesRollupEntry.COLUMN_QUANTITY + " + NEW." + SaleEntry.COLUMN_QUANTITY + ", "
+                            + SalesRollupEntry.COLUMN_REVENUE + " = "
+                            + SalesRollupEntry.COLUMN_REVENUE + " + NEW." + SaleEntry.COLUMN_QUANTITY
+                            + " * NEW." + SaleEntry.COLUMN_UNIT_PRICE
+                            + matchesBucket + "; END");
+                }
+            },
+
+            /**
+             * Version 6 adds the per-product sales counters of the last 7 and 30 days, indexed
+             * for ranking. Triggers give every new product its row and add every new sale.
+             * Existing products get their rows, counted from the daily rollup, in the background.
+             */
+            new Migration(6, "sales_stats") {
+                @Override
+                void applySchema(SQLiteDatabase db) {
+                    db.execSQL("CREATE TABLE " + SalesStatsEntry.TABLE_NAME + " ("
+                            + SalesStatsEntry.COLUMN_PRODUCT_ID + " INTEGER PRIMARY KEY, "
+                            + SalesStatsEntry.COLUMN_SOLD_7_DAYS + " INTEGER NOT NULL DEFAULT 0, "
+                            + SalesStatsEntry.COLUMN_SOLD_30_DAYS + " INTEGER NOT NULL DEFAULT 0);");
+                    // Ranking in either direction is a walk along one of these indexes
+                    db.execSQL("CREATE INDEX product_sales_stats_7d ON " + SalesStatsEntry.TABLE_NAME
+                            + " (" + SalesStatsEntry.COLUMN_SOLD_7_DAYS + ", "
+                            + SalesStatsEntry.COLUMN_PRODUCT_ID + ")");
+                    db.execSQL("CREATE INDEX product_sales_stats_30d ON " + SalesStatsEntry.TABLE_NAME
+                            + " (" + SalesStatsEntry.COLUMN_SOLD_30_DAYS + ", "
+                            + SalesStatsEntry.COLUMN_PRODUCT_ID + ")");
+
+                    db.execSQL("CREATE TABLE " + SalesStats.WINDOW_TABLE + " ("
+                            + SalesStats.COLUMN_END_DAY + " INTEGER NOT NULL);");
+                    db.execSQL("INSERT INTO " + SalesStats.WINDOW_TABLE + " VALUES (("
+                            + NOW_MILLIS + ") - (" + NOW_MILLIS + ") % " + SalesRollupEntry.DAY_MILLIS + ")");
+
+                    db.execSQL("CREATE TRIGGER sales_stats_on_product_insert AFTER INSERT ON "
+                            + ProductEntry.TABLE_NAME + " FOR EACH ROW BEGIN INSERT OR IGNORE INTO "
+                            + SalesStatsEntry.TABLE_NAME + " (" + SalesStatsEntry.COLUMN_PRODUCT_ID
+                            + ") VALUES (NEW." + ProductEntry._ID + "); END");
+                    db.execSQL("CREATE TRIGGER sales_stats_on_product_delete AFTER DELETE ON "
+                            + ProductEntry.TABLE_NAME + " FOR EACH ROW BEGIN DELETE FROM "
+                            + SalesStatsEntry.TABLE_NAME + " WHERE " + SalesStatsEntry.COLUMN_PRODUCT_ID
+                            + " = OLD." + ProductEntry._ID + "; END");
+
+                    // A sale counts in a window if its day is after the window's first day
+                    String saleDay = "(NEW." + SaleEntry.COLUMN_SOLD_AT + " - NEW."
+                            + SaleEntry.COLUMN_SOLD_AT + " % " + SalesRollupEntry.DAY_MILLIS + ")";
+                    String endDay = "(SELECT " + SalesStats.COLUMN_END_DAY + " FROM "
+                            + SalesStats.WINDOW_TABLE + ")";
+                    db.execSQL("CREATE TRIGGER sales_stats_on_sale AFTER INSERT ON "
+                            + SaleEntry.TABLE_NAME + " FOR EACH ROW BEGIN UPDATE "
+                            + SalesStatsEntry.TABLE_NAME + " SET "
+                            + addIfInWindow(SalesStatsEntry.COLUMN_SOLD_7_DAYS, saleDay, endDay,
+                                    SalesStats.SHORT_WINDOW_DAYS) + ", "
+                            + addIfInWindow(SalesStatsEntry.COLUMN_SOLD_30_DAYS, saleDay, endDay,
+                                    SalesStats.LONG_WINDOW_DAYS)
+                            + " WHERE " + SalesStatsEntry.COLUMN_PRODUCT_ID + " = NEW."
+                            + SaleEntry.COLUMN_PRODUCT_ID + "; END");
+                }
+
+                private String addIfInWindow(String counter, String saleDay, String endDay,
+                                             int windowDays) {
+                    return counter + " = " + counter + " + CASE WHEN " + saleDay + " > " + endDay
+                            + " - " + windowDays * SalesRollupEntry.DAY_MILLIS + " THEN NEW."
+                            + SaleEntry.COLUMN_QUANTITY + " ELSE 0 END";
+                }
+
+                @Override
+                boolean hasBackfill() {
+                    return true;
+                }
+
+                @Override
+                long backfillChunk(SQLiteDatabase db, long afterKey, int chunkSize) {
+                    Cursor cursor = db.rawQuery("SELECT MAX(" + ProductEntry._ID + ") FROM (SELECT "
+                            + ProductEntry._ID + " FROM " + ProductEntry.TABLE_NAME + " WHERE "
+                            + ProductEntry._ID + " > ? ORDER BY " + ProductEntry._ID + " LIMIT "
+                            + chunkSize + ")", new String[] { String.valueOf(afterKey) });
+                    long lastKey;
+                    try {
+                        if (!cursor.moveToFirst() || cursor.isNull(0)) {
+                            return NO_MORE_ROWS;
+                        }
+                        lastKey = cursor.getLong(0);
+                    } finally {
+                        cursor.close();
+                    }
+
+                    // Products inserted since the upgrade already have their row from the trigger
+                    String productId = ProductEntry.TABLE_NAME + "." + ProductEntry._ID;
+                    String endDay = "(SELECT " + SalesStats.COLUMN_END_DAY + " FROM "
+                            + SalesStats.WINDOW_TABLE + ")";
+                    db.execSQL("INSERT OR IGNORE INTO " + SalesStatsEntry.TABLE_NAME + " ("
+                            + SalesStatsEntry.COLUMN_PRODUCT_ID + ", "
+                            + SalesStatsEntry.COLUMN_SOLD_7_DAYS + ", "
+                            + SalesStatsEntry.COLUMN_SOLD_30_DAYS + ") SELECT " + productId + ", "
+                            + SalesStats.sumSince(productId, endDay + " - "
+                                    + SalesStats.SHORT_WINDOW_DAYS * SalesRollupEntry.DAY_MILLIS) + ", "
+                            + SalesStats.sumSince(productId, endDay + " - "
+                                    + SalesStats.LONG_WINDOW_DAYS * SalesRollupEntry.DAY_MILLIS)
+                            + " FROM " + ProductEntry.TABLE_NAME + " WHERE " + productId
+                            + " > ? AND " + productId + " <= ?", new Object[] { afterKey, lastKey });
+                    return lastKey;
+                }
+            },
+
+            /**
+             * Version 7 adds the indexes behind the sorted and filtered product queries (see
+             * {@link ProductQueryPlan}). They are created right away rather than after a
+             * backfill, as the queries name them: building them is one sort of a column per
+             * index, not a rewrite of the table. The exception are the indexes of the name key,
+             * which would leave out the rows the backfill of version 4 hasn't reached yet. If
+             * that is still running they are left to its last step, and name queries work
+             * without them until then.
+             */
+            new Migration(7, "query_indexes") {
+                @Override
+                void applySchema(SQLiteDatabase db) {
+                    // Version 4 creates the plain one once its backfill is done
+                    if (ProductDbHelper.hasIndex(db, ProductQueryPlan.INDEX_NAME)) {
+                        createIndex(db, ProductQueryPlan.INDEX_IN_STOCK_NAME,
+                                ProductEntry.COLUMN_PRODUCT_NAME_KEY, true);
+                    }
+                    createIndex(db, ProductQueryPlan.INDEX_PRICE,
+                            ProductEntry.COLUMN_PRODUCT_PRICE, false);
+                    createIndex(db, ProductQueryPlan.INDEX_STOCK,
+                            ProductEntry.COLUMN_PRODUCT_STOCK, false);
+                    createIndex(db, ProductQueryPlan.INDEX_IN_STOCK_ADDED, ProductEntry._ID, true);
+                    createIndex(db, ProductQueryPlan.INDEX_IN_STOCK_PRICE,
+                            ProductEntry.COLUMN_PRODUCT_PRICE, true);
+                }
+            },
+
+            /**
+             * Version 8 adds the {@link ChangeLog} of local changes to sync. Every product gets
+             * a sync id, its id on every store, and the server version it was last synced at.
+             * Triggers log every insert, change of product data and delete. Existing products
+             * get their sync id and a logged change in the background, so the first sync
+             * pushes them all.
+             */
+            new Migration(8, "change_log") {
+                @Override
+                void applySchema(SQLiteDatabase db) {
+                    String products = ProductEntry.TABLE_NAME;
+                    String syncId = ChangeLog.COLUMN_SYNC_ID;
+                    String baseVersion = ChangeLog.COLUMN_BASE_VERSION;
+                    db.execSQL("ALTER TABLE " + products + " ADD COLUMN " + syncId + " TEXT");
+                    db.execSQL("ALTER TABLE " + products + " ADD COLUMN " + baseVersion
+                            + " INTEGER NOT NULL DEFAULT 0");
+                    // Pulled changes find their product by it. NULLs don't collide.
+                    db.execSQL("CREATE UNIQUE INDEX products_sync_id ON " + products
+                            + " (" + syncId + ")");
+
+                    db.execSQL("CREATE TABLE " + ChangeLog.TABLE_NAME + " ("
+                            + ChangeLog.COLUMN_SEQ + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+                            + syncId + " TEXT NOT NULL, "
+                            + ChangeLog.COLUMN_DELETED + " INTEGER NOT NULL DEFAULT 0, "
+                            + baseVersion + " INTEGER NOT NULL DEFAULT 0);");
+                    db.execSQL("CREATE INDEX change_log_sync_id ON " + ChangeLog.TABLE_NAME
+                            + " (" + syncId + ")");
+                    db.execSQL("CREATE TABLE " + ChangeLog.STATE_TABLE + " ("
+                            + ChangeLog.COLUMN_STATE_NAME + " TEXT PRIMARY KEY, "
+                            + ChangeLog.COLUMN_STATE_VALUE + " INTEGER NOT NULL);");
+
+                    // A new product gets a sync id unless it brings one, as pulled products do.
+                    // Setting it isn't an update of product data, so it isn't logged again.
+                    db.execSQL("CREATE TRIGGER change_log_on_insert AFTER INSERT ON " + products
+                            + " FOR EACH ROW BEGIN UPDATE " + products + " SET " + syncId + " = "
+                            + ChangeLog.NEW_SYNC_ID + " WHERE " + ProductEntry._ID + " = NEW."
+                            + ProductEntry._ID + " AND " + syncId + " IS NULL; INSERT INTO "
+                            + ChangeLog.TABLE_NAME + " (" + syncId + ") SELECT " + syncId
+                            + " FROM " + products + " WHERE " + ProductEntry._ID + " = NEW."
+                            + ProductEntry._ID + "; END");
+                    // The same columns as bump the row version. Products without a sync id
+                    // yet are logged by the backfill.
+                    db.execSQL("CREATE TRIGGER change_log_on_update AFTER UPDATE OF "
+                            + ProductEntry.COLUMN_PRODUCT_NAME + ", "
+                            + ProductEntry.COLUMN_PRODUCT_STOCK + ", "
+                            + ProductEntry.COLUMN_PRODUCT_PRICE + ", "
+                            + ProductEntry.COLUMN_PRODUCT_PICTURE + ", "
+                            + ProductEntry.COLUMN_PRODUCT_REORDER_THRESHOLD
+                            + " ON " + products + " FOR EACH ROW WHEN NEW." + syncId
+                            + " IS NOT NULL BEGIN INSERT INTO " + ChangeLog.TABLE_NAME + " ("
+                            + syncId + ") VALUES (NEW." + syncId + "); END");
+                    db.execSQL("CREATE TRIGGER change_log_on_delete AFTER DELETE ON " + products
+                            + " FOR EACH ROW WHEN OLD." + syncId + " IS NOT NULL BEGIN INSERT INTO "
+                            + ChangeLog.TABLE_NAME + " (" + syncId + ", " + ChangeLog.COLUMN_DELETED
+                            + ", " + baseVersion + ") VALUES (OLD." + syncId + ", 1, OLD."
+                            + baseVersion + "); END");
+                }
+
+                @Override
+                boolean hasBackfill() {
+                    return true;
+                }
+
+                @Override
+                long backfillChunk(SQLiteDatabase db, long afterKey, int chunkSize) {
+                    Cursor cursor = db.query(ProductEntry.TABLE_NAME,
+                            new String[] { ProductEntry._ID }, ProductEntry._ID + ">?",
+                            new String[] { String.valueOf(afterKey) }, null, null,
+                            ProductEntry._ID, String.valueOf(chunkSize));
+                    // Products inserted since the upgrade already have a sync id and a change
+                    SQLiteStatement assign = db.compileStatement("UPDATE " + ProductEntry.TABLE_NAME
+                            + " SET " + ChangeLog.COLUMN_SYNC_ID + " = " + ChangeLog.NEW_SYNC_ID
+                            + " WHERE " + ProductEntry._ID + "=? AND " + ChangeLog.COLUMN_SYNC_ID
+                            + " IS NULL");
+                    SQLiteStatement log = db.compileStatement("INSERT INTO " + ChangeLog.TABLE_NAME
+                            + " (" + ChangeLog.COLUMN_SYNC_ID + ") SELECT " + ChangeLog.COLUMN_SYNC_ID
+                            + " FROM " + ProductEntry.TABLE_NAME + " WHERE " + ProductEntry._ID + "=?");
+                    long lastKey = NO_MORE_ROWS;
+                    try {
+                        while (cursor.moveToNext()) {
+                            lastKey = cursor.getLong(0);
+                            assign.bindLong(1, lastKey);
+                            if (assign.executeUpdateDelete() != 0) {
+                                log.bindLong(1, lastKey);
+                                log.executeInsert();
+                            }
+                        }
+                    } finally {
+                        cursor.close();
+                        assign.close();
+                        log.close();
+                    }
+                    return lastKey;
+                }
+            },
+
+            /**
+             * Version 9 adds reservations, holds on stock for orders being prepared. Every
+             * product keeps the sum of its holds, which triggers update as holds are made,
+             * released and committed. A committed hold is sold: it is taken out of the stock,
+             * recorded as a sale and removed. Expired holds are found by their index.
+             */
+            new Migration(9, "reservations") {
+                @Override
+                void applySchema(SQLiteDatabase db) {
+                    String products = ProductEntry.TABLE_NAME;
+                    String reserved = ProductEntry.COLUMN_PRODUCT_RESERVED;
+                    String reservations = ReservationEntry.TABLE_NAME;
+                    String productId = ReservationEntry.COLUMN_PRODUCT_ID;
+                    String quantity = ReservationEntry.COLUMN_QUANTITY;
+                    String committedAt = ReservationEntry.COLUMN_COMMITTED_AT;
+                    db.execSQL("ALTER TABLE " + products + " ADD COLUMN " + reserved
+                            + " INTEGER NOT NULL DEFAULT 0");
+
+                    db.execSQL("CREATE TABLE " + reservations + " ("
+                            + ReservationEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+                            + productId + " INTEGER NOT NULL, "
+                            + quantity + " INTEGER NOT NULL CHECK (" + quantity + " > 0), "
+                            + ReservationEntry.COLUMN_EXPIRES_AT + " INTEGER NOT NULL, "
+                            + committedAt + " INTEGER);");
+                    // The sweep walks the holds in the order they expire
+                    db.execSQL("CREATE INDEX reservations_expires_at ON " + reservations
+                            + " (" + ReservationEntry.COLUMN_EXPIRES_AT + ")");
+                    // The holds of one product, expired ones first
+                    db.execSQL("CREATE INDEX reservations_product ON " + reservations
+                            + " (" + productId + ", " + ReservationEntry.COLUMN_EXPIRES_AT + ")");
+
+                    String holdsOf = " WHERE " + ProductEntry._ID + " = ";
+                    db.execSQL("CREATE TRIGGER reservations_on_insert AFTER INSERT ON "
+                            + reservations + " FOR EACH ROW BEGIN UPDATE " + products + " SET "
+                            + reserved + " = " + reserved + " + NEW." + quantity
+                            + holdsOf + "NEW." + productId + "; END");
+                    // A committed hold is gone from the sum by the time it is removed
+                    db.execSQL("CREATE TRIGGER reservations_on_delete AFTER DELETE ON "
+                            + reservations + " FOR EACH ROW WHEN OLD." + committedAt
+                            + " IS NULL BEGIN UPDATE " + products + " SET " + reserved + " = "
+                            + reserved + " - OLD." + quantity + holdsOf + "OLD." + productId
+                            + "; END");
+                    // The sale goes through the triggers of the sales table like any other
+                    db.execSQL("CREATE TRIGGER reservations_on_commit AFTER UPDATE OF "
+                            + committedAt + " ON " + reservations + " FOR EACH ROW WHEN OLD."
+                            + committedAt + " IS NULL AND NEW." + committedAt + " IS NOT NULL"
+                            + " BEGIN INSERT INTO " + SaleEntry.TABLE_NAME + " ("
+                            + SaleEntry.COLUMN_PRODUCT_ID + ", " + SaleEntry.COLUMN_QUANTITY + ", "
+                            + SaleEntry.COLUMN_UNIT_PRICE + ", " + SaleEntry.COLUMN_SOLD_AT
+                            + ") SELECT NEW." + productId + ", NEW." + quantity + ", "
+                            + ProductEntry.COLUMN_PRODUCT_PRICE + ", NEW." + committedAt
+                            + " FROM " + products + holdsOf + "NEW." + productId + "; UPDATE "
+                            + products + " SET " + ProductEntry.COLUMN_PRODUCT_STOCK + " = "
+                            + ProductEntry.COLUMN_PRODUCT_STOCK + " - NEW." + quantity + ", "
+                            + reserved + " = " + reserved + " - NEW." + quantity + holdsOf
+                            + "NEW." + productId + "; DELETE FROM " + reservations + " WHERE "
+                            + ReservationEntry._ID + " = NEW." + ReservationEntry._ID + "; END");
+                    db.execSQL("CREATE TRIGGER reservations_on_product_delete AFTER DELETE ON "
+                            + products + " FOR EACH ROW BEGIN DELETE FROM " + reservations
+                            + " WHERE " + productId + " = OLD." + ProductEntry._ID + "; END");
+                }
+            },
+
+            /**
+             * Version 10 adds the stock per location. The stock of a product becomes the total
+             * over its locations, which triggers keep up to date both ways: a change at a
+             * location sets the total, a change of the total goes to the default location.
+             * Transfers between locations leave the total alone. The backfill puts the stock
+             * of existing products into their default location, see {@link ProductLocations}.
+             */
+            new Migration(10, "product_locations") {
+                @Override
+                void applySchema(SQLiteDatabase db) {
+                    String products = ProductEntry.TABLE_NAME;
+                    String stock = ProductEntry.COLUMN_PRODUCT_STOCK;
+                    String locations = ProductLocationEntry.TABLE_NAME;
+                    String productId = ProductLocationEntry.COLUMN_PRODUCT_ID;
+                    String location = ProductLocationEntry.COLUMN_LOCATION;
+                    String locationStock = ProductLocationEntry.COLUMN_STOCK;
+                    String transferCount = ProductLocations.COLUMN_TRANSFER_COUNT;
+                    String defaultLocation = DatabaseUtils.sqlEscapeString(
+                            ProductLocationEntry.DEFAULT_LOCATION);
+
+                    // The primary key finds the locations of a product, the index the products
+                    // at a location
+                    db.execSQL("CREATE TABLE " + locations + " ("
+                            + productId + " INTEGER NOT NULL, "
+                            + location + " TEXT NOT NULL, "
+                            + locationStock + " INTEGER NOT NULL DEFAULT 0 CHECK ("
+                            + locationStock + " >= 0), "
+                            + transferCount + " INTEGER NOT NULL DEFAULT 0, "
+                            + "PRIMARY KEY (" + productId + ", " + location + "));");
+                    db.execSQL("CREATE INDEX product_locations_location ON " + locations
+                            + " (" + location + ", " + productId + ")");
+
+                    db.execSQL("CREATE TABLE " + TransferEntry.TABLE_NAME + " ("
+                            + TransferEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+                            + TransferEntry.COLUMN_PRODUCT_ID + " INTEGER NOT NULL, "
+                            + TransferEntry.COLUMN_FROM_LOCATION + " TEXT NOT NULL, "
+                            + TransferEntry.COLUMN_TO_LOCATION + " TEXT NOT NULL, "
+                            + TransferEntry.COLUMN_QUANTITY + " INTEGER NOT NULL CHECK ("
+                            + TransferEntry.COLUMN_QUANTITY + " > 0), "
+                            + TransferEntry.COLUMN_TRANSFERRED_AT + " INTEGER NOT NULL);");
+                    db.execSQL("CREATE INDEX stock_transfers_product ON "
+                            + TransferEntry.TABLE_NAME + " (" + TransferEntry.COLUMN_PRODUCT_ID
+                            + ", " + TransferEntry.COLUMN_TRANSFERRED_AT + ")");
+
+                    // A change at a location sets the total of the product
+                    db.execSQL("CREATE TRIGGER product_locations_on_insert AFTER INSERT ON "
+                            + locations + " FOR EACH ROW WHEN NEW." + locationStock + " != 0"
+                            + setTotal("NEW"));
+                    // A transfer counts up the locations it moves stock between
+                    db.execSQL("CREATE TRIGGER product_locations_on_update AFTER UPDATE OF "
+                            + locationStock + " ON " + locations + " FOR EACH ROW WHEN NEW."
+                            + locationStock + " != OLD." + locationStock + " AND NEW."
+                            + transferCount + " = OLD." + transferCount + setTotal("NEW"));
+                    db.execSQL("CREATE TRIGGER product_locations_on_delete AFTER DELETE ON "
+                            + locations + " FOR EACH ROW WHEN OLD." + locationStock + " != 0"
+                            + setTotal("OLD"));
+
+                    // A change of the total goes to the default location, which is added if the
+                    // product isn't kept there yet. The check of the location rolls back any
+                    // change that would need more stock there than it has.
+                    String total = ProductLocations.totalStock("NEW." + ProductEntry._ID);
+                    db.execSQL("CREATE TRIGGER product_locations_on_product_update AFTER UPDATE OF "
+                            + stock + " ON " + products + " FOR EACH ROW WHEN NEW." + stock + " != "
+                            + total + " BEGIN INSERT OR IGNORE INTO " + locations + " (" + productId
+                            + ", " + location + ") VALUES (NEW." + ProductEntry._ID + ", "
+                            + defaultLocation + "); UPDATE " + locations + " SET " + locationStock
+                            + " = " + locationStock + " + NEW." + stock + " - " + total + " WHERE "
+                            + productId + " = NEW." + ProductEntry._ID + " AND " + location + " = "
+                            + defaultLocation + "; END");
+                    db.execSQL("CREATE TRIGGER product_locations_on_product_insert AFTER INSERT ON "
+                            + products + " FOR EACH ROW WHEN NEW." + stock + " > 0 BEGIN INSERT INTO "
+                            + locations + " (" + productId + ", " + location + ", " + locationStock
+                            + ") VALUES (NEW." + ProductEntry._ID + ", " + defaultLocation
+                            + ", NEW." + stock + "); END");
+                    db.execSQL("CREATE TRIGGER product_locations_on_product_delete AFTER DELETE ON "
+                            + products + " FOR EACH ROW BEGIN DELETE FROM " + locations + " WHERE "
+                            + productId + " = OLD." + ProductEntry._ID + "; END");
+                }
+
+                /**
+                 * Returns the body of a trigger that sets the total stock of the product of the
+                 * NEW or OLD location row. Only writing it when it differs keeps the update
+                 * trigger of the products from firing back.
+                 */
+                private String setTotal(String row) {
+                    String productId = row + "." + ProductLocationEntry.COLUMN_PRODUCT_ID;
+                    String total = ProductLocations.totalStock(productId);
+                    return " BEGIN UPDATE " + ProductEntry.TABLE_NAME + " SET "
+                            + ProductEntry.COLUMN_PRODUCT_STOCK + " = " + total + " WHERE "
+                            + ProductEntry._ID + " = " + productId + " AND "
+                            + ProductEntry.COLUMN_PRODUCT_STOCK + " != " + total + "; END";
+                }
+
+                @Override
+                boolean hasBackfill() {
+                    return true;
+                }
+
+                @Override
+                long backfillChunk(SQLiteDatabase db, long afterKey, int chunkSize) {
+                    Cursor cursor = db.query(ProductEntry.TABLE_NAME,
+                            new String[] { ProductEntry._ID }, ProductEntry._ID + ">?",
+                            new String[] { String.valueOf(afterKey) }, null, null,
+                            ProductEntry._ID, String.valueOf(chunkSize));
+                    // Products that were written since the upgrade are already in place
+                    long lastKey = NO_MORE_ROWS;
+                    try {
+                        while (cursor.moveToNext()) {
+                            lastKey = cursor.getLong(0);
+                            ProductLocations.materializeDefault(db, lastKey);
+                        }
+                    } finally {
+                        cursor.close();
+                    }
+                    return lastKey;
+                }
+            },
+
+            /**
+             * Version 11 adds the catalog version, a counter triggers count up with every write
+             * of a product (see {@link CatalogVersion}). It starts where the version read from
+             * the change log before left off, so it never goes back for a reader.
+             */
+            new Migration(11, "catalog_version") {
+                @Override
+                void applySchema(SQLiteDatabase db) {
+                    String table = CatalogVersion.TABLE_NAME;
+                    String version = CatalogVersion.COLUMN_VERSION;
+                    db.execSQL("CREATE TABLE " + table + " (" + version + " INTEGER NOT NULL);");
+                    db.execSQL("INSERT INTO " + table + " (" + version + ") SELECT IFNULL("
+                            + "(SELECT seq FROM sqlite_sequence WHERE name = "
+                            + DatabaseUtils.sqlEscapeString(ChangeLog.TABLE_NAME) + "), 0)");
+
+                    String bump = " ON " + ProductEntry.TABLE_NAME + " FOR EACH ROW BEGIN UPDATE "
+                            + table + " SET " + version + " = " + version + " + 1; END";
+                    db.execSQL("CREATE TRIGGER catalog_version_on_insert AFTER INSERT" + bump);
+                    db.execSQL("CREATE TRIGGER catalog_version_on_update AFTER UPDATE" + bump);
+                    db.execSQL("CREATE TRIGGER catalog_version_on_delete AFTER DELETE" + bump);
+                }
+            },
+
+            /**
+             * Version 12 keeps the stock of a product from being lowered below the stock its
+             * reservations hold, by the editor, adjustments or a location alike, so committing
+             * a hold never takes more than there is. Only changes that make the available stock
+             * smaller are refused, so products that are already short can still release holds.
+             */
+            new Migration(12, "reserved_stock") {
+                @Override
+                void applySchema(SQLiteDatabase db) {
+                    String stock = ProductEntry.COLUMN_PRODUCT_STOCK;
+                    String reserved = ProductEntry.COLUMN_PRODUCT_RESERVED;
+                    db.execSQL("CREATE TRIGGER products_stock_covers_reserved BEFORE UPDATE OF "
+                            + stock + ", " + reserved + " ON " + ProductEntry.TABLE_NAME
+                            + " FOR EACH ROW WHEN NEW." + stock + " < NEW." + reserved
+                            + " AND NEW." + stock + " - NEW." + reserved + " < OLD." + stock
+                            + " - OLD." + reserved + " BEGIN SELECT RAISE(ABORT, "
+                            + "'Stock cannot be less than the reserved stock'); END");
+                }
+            },
+
+            /**
+             * Version 13 drops the trigger that bumps the row version. It could only do so with
+             * a second UPDATE of the row, which fired every other update trigger of the products
+             * again. Statements that write product data now count the version up themselves
+             * (see {@link RowVersion}), and so do the triggers that write the stock: the commit
+             * of a hold and the total of the locations.
+             */
+            new Migration(13, "row_version_in_statements") {
+                @Override
+                void applySchema(SQLiteDatabase db) {
+                    String products = ProductEntry.TABLE_NAME;
+                    String stock = ProductEntry.COLUMN_PRODUCT_STOCK;
+                    String reserved = ProductEntry.COLUMN_PRODUCT_RESERVED;
+                    String reservations = ReservationEntry.TABLE_NAME;
+                    String productId = ReservationEntry.COLUMN_PRODUCT_ID;
+                    String quantity = ReservationEntry.COLUMN_QUANTITY;
+                    String committedAt = ReservationEntry.COLUMN_COMMITTED_AT;
+                    String locations = ProductLocationEntry.TABLE_NAME;
+                    String locationStock = ProductLocationEntry.COLUMN_STOCK;
+                    String transferCount = ProductLocations.COLUMN_TRANSFER_COUNT;
+
+                    db.execSQL("DROP TRIGGER IF EXISTS products_bump_version");
+
+                    // As in version 9, with the version counted up along with the stock
+                    String holdsOf = " WHERE " + ProductEntry._ID + " = ";
+                    db.execSQL("DROP TRIGGER IF EXISTS reservations_on_commit");
+                    db.execSQL("CREATE TRIGGER reservations_on_commit AFTER UPDATE OF "
+                            + committedAt + " ON " + reservations + " FOR EACH ROW WHEN OLD."
+                            + committedAt + " IS NULL AND NEW." + committedAt + " IS NOT NULL"
+                            + " BEGIN INSERT INTO " + SaleEntry.TABLE_NAME + " ("
+                            + SaleEntry.COLUMN_PRODUCT_ID + ", " + SaleEntry.COLUMN_QUANTITY + ", "
+                            + SaleEntry.COLUMN_UNIT_PRICE + ", " + SaleEntry.COLUMN_SOLD_AT
+                            + ") SELECT NEW." + productId + ", NEW." + quantity + ", "
+                            + ProductEntry.COLUMN_PRODUCT_PRICE + ", NEW." + committedAt
+                            + " FROM " + products + holdsOf + "NEW." + productId + "; UPDATE "
+                            + products + " SET " + stock + " = " + stock + " - NEW." + quantity
+                            + ", " + reserved + " = " + reserved + " - NEW." + quantity + ", "
+                            + RowVersion.BUMP + holdsOf + "NEW." + productId + "; DELETE FROM "
+                            + reservations + " WHERE " + ReservationEntry._ID + " = NEW."
+                            + ReservationEntry._ID + "; END");
+
+                    // As in version 10, with the version counted up along with the total
+                    db.execSQL("DROP TRIGGER IF EXISTS product_locations_on_insert");
+                    db.execSQL("CREATE TRIGGER product_locations_on_insert AFTER INSERT ON "
+                            + locations + " FOR EACH ROW WHEN NEW." + locationStock + " != 0"
+                            + setTotal("NEW"));
+                    db.execSQL("DROP TRIGGER IF EXISTS product_locations_on_update");
+                    db.execSQL("CREATE TRIGGER product_locations_on_update AFTER UPDATE OF "
+                            + locationStock + " ON " + locations + " FOR EACH ROW WHEN NEW."
+                            + locationStock + " != OLD." + locationStock + " AND NEW."
+                            + transferCount + " = OLD." + transferCount + setTotal("NEW"));
+                    db.execSQL("DROP TRIGGER IF EXISTS product_locations_on_delete");
+                    db.execSQL("CREATE TRIGGER product_locations_on_delete AFTER DELETE ON "
+                            + locations + " FOR EACH ROW WHEN OLD." + locationStock + " != 0"
+                            + setTotal("OLD"));
+                }
+
+                /**
+                 * Returns the body of a trigger that sets the total stock of the product of the
+                 * NEW or OLD location row, and counts its version up, if the total differs.
+                 */
+                private String setTotal(String row) {
+                    String productId = row + "." + ProductLocationEntry.COLUMN_PRODUCT_ID;
+                    String total = ProductLocations.totalStock(productId);
+                    return " BEGIN UPDATE " + ProductEntry.TABLE_NAME + " SET "
+                            + ProductEntry.COLUMN_PRODUCT_STOCK + " = " + total + ", "
+                            + RowVersion.BUMP + " WHERE " + ProductEntry._ID + " = " + productId
+                            + " AND " + ProductEntry.COLUMN_PRODUCT_STOCK + " != " + total
+                            + "; END";
+                }
+            },
+
+            /**
+             * Version 14 only counts the catalog version up for updates of product data, the
+             * columns the catalog is read by. Bookkeeping such as the reserved stock, the name
+             * key or the sync state of a product leaves it alone.
+             */
+            new Migration(14, "catalog_version_of_data") {
+                @Override
+                void applySchema(SQLiteDatabase db) {
+                    String table = CatalogVersion.TABLE_NAME;
+                    String version = CatalogVersion.COLUMN_VERSION;
+                    db.execSQL("DROP TRIGGER IF EXISTS catalog_version_on_update");
+                    db.execSQL("CREATE TRIGGER catalog_version_on_update AFTER UPDATE OF "
+                            + TextUtils.join(", ", RowVersion.DATA_COLUMNS) + " ON "
+                            + ProductEntry.TABLE_NAME + " FOR EACH ROW BEGIN UPDATE " + table
+                            + " SET " + version + " = " + version + " + 1; END");
+                }
+            },
+    };
+
+    /**
+     * Create an index of the products by the given column, over the products in stock only
+     * if asked to (see {@link ProductQueryPlan}).
+     */
+    private static void createIndex(SQLiteDatabase db, String name, String column,
+                                    boolean inStockOnly) {
+        db.execSQL("CREATE INDEX IF NOT EXISTS " + name + " ON "
+                + ProductEntry.TABLE_NAME + " (" + column + ")"
+                + (inStockOnly ? " WHERE " + ProductQueryPlan.IN_STOCK : ""));
+    }
+}
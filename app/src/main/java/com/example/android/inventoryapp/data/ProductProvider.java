@@ -1,15 +1,47 @@
 package com.example.android.inventoryapp.data;
 
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentUris;
 import android.content.ContentValues;
+import android.content.OperationApplicationException;
 import android.content.UriMatcher;
+import android.content.pm.PackageManager;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.MatrixCursor;
+import android.database.sqlite.SQLiteConstraintException;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteQueryBuilder;
+import android.database.sqlite.SQLiteStatement;
 import android.net.Uri;
+import android.os.Binder;
+import android.os.Bundle;
+import android.os.ParcelFileDescriptor;
+import android.os.Parcelable;
+import android.os.Process;
 import android.util.Log;
 
 import com.example.android.inventoryapp.data.ProductContract.ProductEntry;
+import com.example.android.inventoryapp.data.ProductContract.ProductLocationEntry;
+import com.example.android.inventoryapp.data.ProductContract.ProductQuery;
+import com.example.android.inventoryapp.data.ProductContract.ProductSectionEntry;
+import com.example.android.inventoryapp.data.ProductContract.ReorderEntry;
+import com.example.android.inventoryapp.data.ProductContract.SaleEntry;
+import com.example.android.inventoryapp.data.ProductContract.SalesRollupEntry;
+import com.example.android.inventoryapp.data.ProductContract.SalesStatsEntry;
+import com.example.android.inventoryapp.data.ProductContract.TransferEntry;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 
 /**
@@ -26,6 +58,38 @@ public class ProductProvider extends ContentProvider {
     /** URI matcher code for the content URI for a single pet in the products table */
     private static final int PRODUCT_ID = 101;
 
+    /** URI matcher code for the content URI for the stream of packed product columns */
+    private static final int PRODUCT_COLUMNS = 102;
+
+    /** URI matcher code for the content URI for the alphabetical sections of the products */
+    private static final int PRODUCT_SECTIONS = 103;
+
+    /** URI matcher code for the version of the whole catalog */
+    private static final int CATALOG_VERSION = 104;
+
+    /** URI matcher codes for the stock of a product per location, and at one location */
+    private static final int PRODUCT_LOCATIONS = 105;
+    private static final int PRODUCT_LOCATION = 106;
+
+    /** URI matcher code for the content URI for the reorder queue */
+    private static final int REORDER_QUEUE = 200;
+
+    /** URI matcher codes for the content URIs for sales and their hourly and daily rollups */
+    private static final int SALES = 300;
+    private static final int SALES_HOURLY = 301;
+    private static final int SALES_DAILY = 302;
+
+    /** URI matcher codes for the content URIs for the sales rankings */
+    private static final int TOP_SELLERS = 303;
+    private static final int SLOW_MOVERS = 304;
+
+    /** URI matcher codes for the locations, and the stock kept at one of them */
+    private static final int LOCATIONS = 400;
+    private static final int LOCATION = 401;
+
+    /** URI matcher code for the transfers of stock between locations */
+    private static final int TRANSFERS = 500;
+
     /**
      * UriMatcher object to match a content URI to a corresponding code.
      * The input passed into the constructor represents the code to return for the root URI.
@@ -52,22 +116,197 @@ public class ProductProvider extends ContentProvider {
         // For example, "content://com.example.android.products/products/3" matches, but
         // "content://com.example.android.products/products" (without a number at the end) doesn't match.
         sUriMatcher.addURI(ProductContract.CONTENT_AUTHORITY, ProductContract.PATH_PRODUCTS + "/#", PRODUCT_ID);
+
+        // The content URI of the form "content://com.example.android.products/products/columns"
+        // maps to the stream of packed id, stock and price columns of every product.
+        sUriMatcher.addURI(ProductContract.CONTENT_AUTHORITY,
+                ProductContract.PATH_PRODUCTS + "/" + ProductContract.PATH_COLUMNS, PRODUCT_COLUMNS);
+
+        // The content URI of the form "content://com.example.android.products/products/sections"
+        // maps to the first letter sections of the products sorted by name.
+        sUriMatcher.addURI(ProductContract.CONTENT_AUTHORITY,
+                ProductContract.PATH_PRODUCTS + "/" + ProductContract.PATH_SECTIONS, PRODUCT_SECTIONS);
+
+        // The content URI of the form "content://com.example.android.products/products/catalog_version"
+        // maps to the version of the whole catalog.
+        sUriMatcher.addURI(ProductContract.CONTENT_AUTHORITY,
+                ProductContract.PATH_PRODUCTS + "/" + ProductContract.PATH_CATALOG_VERSION,
+                CATALOG_VERSION);
+
+        // The content URIs of the form "content://com.example.android.products/products/#/locations"
+        // and ".../products/#/locations/*" map to the stock of a product per location and at
+        // a single location.
+        sUriMatcher.addURI(ProductContract.CONTENT_AUTHORITY,
+                ProductContract.PATH_PRODUCTS + "/#/" + ProductContract.PATH_LOCATIONS,
+                PRODUCT_LOCATIONS);
+        sUriMatcher.addURI(ProductContract.CONTENT_AUTHORITY,
+                ProductContract.PATH_PRODUCTS + "/#/" + ProductContract.PATH_LOCATIONS + "/*",
+                PRODUCT_LOCATION);
+
+        // The content URI of the form "content://com.example.android.products/reorder_queue"
+        // maps to the queue of products that need to be reordered.
+        sUriMatcher.addURI(ProductContract.CONTENT_AUTHORITY, ProductContract.PATH_REORDER_QUEUE, REORDER_QUEUE);
+
+        // The content URIs of the form "content://com.example.android.products/sales",
+        // ".../sales/hourly" and ".../sales/daily" map to the sale events and their rollups.
+        sUriMatcher.addURI(ProductContract.CONTENT_AUTHORITY, ProductContract.PATH_SALES, SALES);
+        sUriMatcher.addURI(ProductContract.CONTENT_AUTHORITY,
+                ProductContract.PATH_SALES + "/" + ProductContract.PATH_SALES_HOURLY, SALES_HOURLY);
+        sUriMatcher.addURI(ProductContract.CONTENT_AUTHORITY,
+                ProductContract.PATH_SALES + "/" + ProductContract.PATH_SALES_DAILY, SALES_DAILY);
+        sUriMatcher.addURI(ProductContract.CONTENT_AUTHORITY,
+                ProductContract.PATH_SALES + "/" + ProductContract.PATH_TOP_SELLERS, TOP_SELLERS);
+        sUriMatcher.addURI(ProductContract.CONTENT_AUTHORITY,
+                ProductContract.PATH_SALES + "/" + ProductContract.PATH_SLOW_MOVERS, SLOW_MOVERS);
+
+        // The content URIs of the form "content://com.example.android.products/locations" and
+        // ".../locations/*" map to the locations and the stock kept at one of them.
+        sUriMatcher.addURI(ProductContract.CONTENT_AUTHORITY, ProductContract.PATH_LOCATIONS, LOCATIONS);
+        sUriMatcher.addURI(ProductContract.CONTENT_AUTHORITY,
+                ProductContract.PATH_LOCATIONS + "/*", LOCATION);
+
+        // The content URI of the form "content://com.example.android.products/transfers" maps
+        // to the transfers of stock between locations.
+        sUriMatcher.addURI(ProductContract.CONTENT_AUTHORITY, ProductContract.PATH_TRANSFERS, TRANSFERS);
     }
 
-    /** Database helper object */
-    private ProductDbHelper mDbHelper;
+    /**
+     * Tables and column mapping for queries of the reorder queue, which join every queue entry
+     * with the product it refers to.
+     */
+    private static final String REORDER_QUEUE_TABLES = ReorderEntry.TABLE_NAME + " INNER JOIN "
+            + ProductEntry.TABLE_NAME + " ON " + ReorderEntry.TABLE_NAME + "."
+            + ReorderEntry.COLUMN_PRODUCT_ID + " = " + ProductEntry.TABLE_NAME + "." + ProductEntry._ID;
+
+    private static final Map<String, String> sReorderQueueProjectionMap = new HashMap<>();
+
+    static {
+        for (String column : new String[] { ReorderEntry._ID, ReorderEntry.COLUMN_PRODUCT_ID,
+                ReorderEntry.COLUMN_STATUS, ReorderEntry.COLUMN_QUEUED_AT }) {
+            sReorderQueueProjectionMap.put(column, ReorderEntry.TABLE_NAME + "." + column);
+        }
+        for (String column : new String[] { ProductEntry.COLUMN_PRODUCT_NAME,
+                ProductEntry.COLUMN_PRODUCT_STOCK, ProductEntry.COLUMN_PRODUCT_PRICE,
+                ProductEntry.COLUMN_PRODUCT_REORDER_THRESHOLD }) {
+            sReorderQueueProjectionMap.put(column,
+                    ProductEntry.TABLE_NAME + "." + column + " AS " + column);
+        }
+    }
+
+    /**
+     * Tables and column mapping for queries of the stock at locations, which join every
+     * location of a product with the product, for its name.
+     */
+    private static final String LOCATION_STOCK_TABLES = ProductLocationEntry.TABLE_NAME
+            + " INNER JOIN " + ProductEntry.TABLE_NAME + " ON " + ProductLocationEntry.TABLE_NAME
+            + "." + ProductLocationEntry.COLUMN_PRODUCT_ID + " = " + ProductEntry.TABLE_NAME + "."
+            + ProductEntry._ID;
+
+    private static final Map<String, String> sLocationStockProjectionMap = new HashMap<>();
+
+    /** Column mapping for the locations, one row per location summed up over its products */
+    private static final Map<String, String> sLocationProjectionMap = new HashMap<>();
+
+    static {
+        String table = ProductLocationEntry.TABLE_NAME + ".";
+        sLocationStockProjectionMap.put(ProductLocationEntry._ID,
+                table + "rowid AS " + ProductLocationEntry._ID);
+        for (String column : new String[] { ProductLocationEntry.COLUMN_PRODUCT_ID,
+                ProductLocationEntry.COLUMN_LOCATION, ProductLocationEntry.COLUMN_STOCK }) {
+            sLocationStockProjectionMap.put(column, table + column + " AS " + column);
+        }
+        sLocationStockProjectionMap.put(ProductEntry.COLUMN_PRODUCT_NAME, ProductEntry.TABLE_NAME
+                + "." + ProductEntry.COLUMN_PRODUCT_NAME + " AS " + ProductEntry.COLUMN_PRODUCT_NAME);
+
+        sLocationProjectionMap.put(ProductLocationEntry._ID,
+                "MIN(rowid) AS " + ProductLocationEntry._ID);
+        sLocationProjectionMap.put(ProductLocationEntry.COLUMN_LOCATION,
+                ProductLocationEntry.COLUMN_LOCATION);
+        sLocationProjectionMap.put(ProductLocationEntry.COLUMN_PRODUCT_COUNT,
+                "COUNT(*) AS " + ProductLocationEntry.COLUMN_PRODUCT_COUNT);
+        sLocationProjectionMap.put(ProductLocationEntry.COLUMN_STOCK, "SUM("
+                + ProductLocationEntry.COLUMN_STOCK + ") AS " + ProductLocationEntry.COLUMN_STOCK);
+    }
+
+    /** Maximum number of product snapshots kept in {@link #mProductCache} */
+    private static final int PRODUCT_CACHE_SIZE = 256;
+
+    /** Number of rows {@link #bulkInsert} inserts per chunk of the bulk lane */
+    static final int BULK_INSERT_CHUNK_SIZE = 100;
+
+    /**
+     * Database helper object, replaced when a backup is restored. Only read in one of the lanes
+     * of {@link #mExecutor}, the restore swaps it in an exclusive chunk.
+     */
+    private volatile ProductDbHelper mDbHelper;
+
+    /** Read-through cache for single product queries */
+    private final ProductCache mProductCache = new ProductCache(PRODUCT_CACHE_SIZE);
+
+    /** Sections of the product list, counted once per write */
+    private final ProductSections mSections = new ProductSections();
+
+    /** Sends the change notifications, once per batch while one is open */
+    private ChangeNotifier mNotifier;
+
+    /** Lets the reads and single writes of the UI go ahead of imports, backfills and sync */
+    private final DatabaseExecutor mExecutor = new DatabaseExecutor();
 
     @Override
     public boolean onCreate() {
         mDbHelper = new ProductDbHelper(getContext());
+        mNotifier = new ChangeNotifier(getContext().getContentResolver());
+        startBackfills();
         return true;
     }
 
+    /**
+     * Opening the database applies pending schema changes, backfills of existing rows then
+     * continue in chunks. Both happen in the bulk lane, so startup never waits for them.
+     */
+    private void startBackfills() {
+        final ProductDbHelper dbHelper = mDbHelper;
+        mExecutor.executeBulk(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    dbHelper.runPendingBackfills(mExecutor);
+                    // Sections counted while the name key was pending are counted again
+                    mSections.invalidate();
+                } catch (RuntimeException e) {
+                    // Progress is kept, the backfill resumes the next time the app starts
+                    Log.e(LOG_TAG, "Backfill interrupted", e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Queries run in the interactive lane. The rows are read before leaving it, rather than
+     * when the caller first moves the cursor, so bulk work waits for the whole read.
+     */
     @Override
     public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs,
                         String sortOrder) {
+        int match = sUriMatcher.match(uri);
+        if (match == TOP_SELLERS || match == SLOW_MOVERS) {
+            advanceSalesWindows();
+        }
+        mExecutor.beginInteractive(false);
+        try {
+            Cursor cursor = queryDatabase(uri, projection, selection, selectionArgs, sortOrder);
+            cursor.getCount();
+            return cursor;
+        } finally {
+            mExecutor.endInteractive();
+        }
+    }
+
+    private Cursor queryDatabase(Uri uri, String[] projection, String selection,
+                                 String[] selectionArgs, String sortOrder) {
         // Get readable database
-        SQLiteDatabase database = mDbHelper.getReadableDatabase();
+        ProductDbHelper dbHelper = mDbHelper;
+        SQLiteDatabase database = dbHelper.getReadableDatabase();
 
         // This cursor will hold the result of the query
         Cursor cursor;
@@ -76,29 +315,126 @@ public class ProductProvider extends ContentProvider {
         int match = sUriMatcher.match(uri);
         switch (match) {
             case PRODUCTS:
+                // A typed query is translated into a walk of one index, see ProductQueryPlan
+                if (ProductQuery.isProductQuery(uri)) {
+                    cursor = queryProducts(database, uri, projection, selection, sortOrder,
+                            dbHelper.isNameKeyReady());
+                    break;
+                }
                 // For the PRODUCTS code, query the products table directly with the given
                 // projection, selection, selection arguments, and sort order. The cursor
                 // could contain multiple rows of the products table.
                 cursor = database.query(ProductEntry.TABLE_NAME, projection, selection, selectionArgs,
-                        null, null, sortOrder);
+                        null, null, sortOrder, parseLimit(uri));
                 break;
             case PRODUCT_ID:
                 // For the PRODUCT_ID code, extract out the ID from the URI.
                 // For an example URI such as "content://com.example.android.products/products/3",
                 // the selection will be "_id=?" and the selection argument will be a
                 // String array containing the actual ID of 3 in this case.
-                //
+                long id = ContentUris.parseId(uri);
+
+                // Serve the row from the cache if we can answer the projection from a snapshot.
+                if (Product.hasColumns(projection)) {
+                    cursor = queryProductThroughCache(database, id, projection);
+                    break;
+                }
+
                 // For every "?" in the selection, we need to have an element in the selection
                 // arguments that will fill in the "?". Since we have 1 question mark in the
                 // selection, we have 1 String in the selection arguments' String array.
                 selection = ProductEntry._ID + "=?";
-                selectionArgs = new String[] { String.valueOf(ContentUris.parseId(uri)) };
+                selectionArgs = new String[] { String.valueOf(id) };
 
                 // This will perform a query on the products table where the _id equals 3 to return a
                 // Cursor containing that row of the table.
                 cursor = database.query(ProductEntry.TABLE_NAME, projection, selection, selectionArgs,
                         null, null, sortOrder);
                 break;
+            case PRODUCT_SECTIONS:
+                // The sections take the same query parameters as the list they belong to
+                cursor = mSections.query(database, ProductQuery.fromUri(uri),
+                        dbHelper.isNameKeyReady());
+                break;
+            case CATALOG_VERSION:
+                // Counted up by every insert, change and delete of a product, and by restores
+                cursor = database.rawQuery("SELECT " + CatalogVersion.COLUMN_VERSION + " AS "
+                        + ProductEntry.COLUMN_CATALOG_VERSION + " FROM "
+                        + CatalogVersion.TABLE_NAME, null);
+                break;
+            case PRODUCT_LOCATIONS:
+                // The locations of the product, found by the primary key
+                SQLiteQueryBuilder builder = new SQLiteQueryBuilder();
+                builder.setTables(LOCATION_STOCK_TABLES);
+                builder.setProjectionMap(sLocationStockProjectionMap);
+                builder.appendWhere(ProductLocationEntry.TABLE_NAME + "."
+                        + ProductLocationEntry.COLUMN_PRODUCT_ID + " = " + parseProductId(uri));
+                if (sortOrder == null) {
+                    sortOrder = ProductLocationEntry.COLUMN_LOCATION;
+                }
+                cursor = builder.query(database, projection, selection, selectionArgs,
+                        null, null, sortOrder);
+                break;
+            case LOCATIONS:
+                // One row per location, grouped along the index on the location
+                builder = new SQLiteQueryBuilder();
+                builder.setTables(ProductLocationEntry.TABLE_NAME);
+                builder.setProjectionMap(sLocationProjectionMap);
+                if (sortOrder == null) {
+                    sortOrder = ProductLocationEntry.COLUMN_LOCATION;
+                }
+                cursor = builder.query(database, projection, selection, selectionArgs,
+                        ProductLocationEntry.COLUMN_LOCATION, null, sortOrder);
+                break;
+            case LOCATION:
+                // The products at the location, found by the index on the location
+                builder = new SQLiteQueryBuilder();
+                builder.setTables(LOCATION_STOCK_TABLES);
+                builder.setProjectionMap(sLocationStockProjectionMap);
+                builder.appendWhere(ProductLocationEntry.TABLE_NAME + "."
+                        + ProductLocationEntry.COLUMN_LOCATION + " = ");
+                builder.appendWhereEscapeString(uri.getLastPathSegment());
+                if (sortOrder == null) {
+                    sortOrder = ProductEntry.COLUMN_PRODUCT_NAME;
+                }
+                cursor = builder.query(database, projection, selection, selectionArgs,
+                        null, null, sortOrder);
+                break;
+            case TRANSFERS:
+                cursor = database.query(TransferEntry.TABLE_NAME, projection, selection,
+                        selectionArgs, null, null, sortOrder, parseLimit(uri));
+                break;
+            case REORDER_QUEUE:
+                // For the REORDER_QUEUE code, read the queue joined with the queued products.
+                // Entries are in the order they were queued unless the caller asks otherwise.
+                builder = new SQLiteQueryBuilder();
+                builder.setTables(REORDER_QUEUE_TABLES);
+                builder.setProjectionMap(sReorderQueueProjectionMap);
+                if (projection == null) {
+                    projection = ReorderEntry.DEFAULT_PROJECTION;
+                }
+                if (sortOrder == null) {
+                    sortOrder = ReorderEntry.TABLE_NAME + "." + ReorderEntry.COLUMN_QUEUED_AT;
+                }
+                cursor = builder.query(database, projection, selection, selectionArgs,
+                        null, null, sortOrder);
+                break;
+            case SALES:
+                cursor = database.query(SaleEntry.TABLE_NAME, projection, selection, selectionArgs,
+                        null, null, sortOrder, parseLimit(uri));
+                break;
+            case SALES_HOURLY:
+                cursor = queryRollup(database, SalesRollupEntry.TABLE_HOURLY, uri);
+                break;
+            case SALES_DAILY:
+                cursor = queryRollup(database, SalesRollupEntry.TABLE_DAILY, uri);
+                break;
+            case TOP_SELLERS:
+                cursor = queryRanking(uri, true);
+                break;
+            case SLOW_MOVERS:
+                cursor = queryRanking(uri, false);
+                break;
             default:
                 throw new IllegalArgumentException("Cannot query unknown URI " + uri);
         }
@@ -112,12 +448,206 @@ public class ProductProvider extends ContentProvider {
         return cursor;
     }
 
+    /**
+     * Run the {@link ProductQuery} in the parameters of the URI. It brings its own selection
+     * and order, so a raw selection or sort order is rejected rather than silently dropped.
+     */
+    private static Cursor queryProducts(SQLiteDatabase database, Uri uri, String[] projection,
+                                        String selection, String sortOrder,
+                                        boolean nameKeyReady) {
+        if (selection != null || sortOrder != null) {
+            throw new IllegalArgumentException(
+                    "A product query cannot have a selection or sort order: " + uri);
+        }
+        ProductQueryPlan plan = ProductQueryPlan.of(ProductQuery.fromUri(uri), nameKeyReady);
+        return database.query(plan.tables, projection, plan.selection, plan.selectionArgs,
+                null, null, plan.orderBy, parseLimit(uri));
+    }
+
+    /**
+     * Returns the {@link ProductEntry#QUERY_LIMIT} and {@link ProductEntry#QUERY_OFFSET} of the
+     * given URI as a LIMIT clause, or null if there is no limit. An offset needs a limit.
+     */
+    private static String parseLimit(Uri uri) {
+        String limit = uri.getQueryParameter(ProductEntry.QUERY_LIMIT);
+        String offset = uri.getQueryParameter(ProductEntry.QUERY_OFFSET);
+        if (limit == null) {
+            if (offset != null) {
+                throw new IllegalArgumentException("Offset without a limit in " + uri);
+            }
+            return null;
+        }
+        try {
+            if (Integer.parseInt(limit) < 0) {
+                throw new IllegalArgumentException("Negative limit in " + uri);
+            }
+            if (offset != null && Integer.parseInt(offset) < 0) {
+                throw new IllegalArgumentException("Negative offset in " + uri);
+            }
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid limit or offset in " + uri, e);
+        }
+        return offset == null ? limit : offset + "," + limit;
+    }
+
+    /**
+     * Read the buckets of a sales rollup table in the time range of the URI, for the product of
+     * the URI or, without one, summed up over all products. The cursor has the rollup columns
+     * and the bucket start as its {@link SalesRollupEntry#_ID}, so it can back a list.
+     */
+    private static Cursor queryRollup(SQLiteDatabase database, String table, Uri uri) {
+        long from = parseLongParameter(uri, SalesRollupEntry.QUERY_FROM, Long.MIN_VALUE);
+        long to = parseLongParameter(uri, SalesRollupEntry.QUERY_TO, Long.MAX_VALUE);
+        long productId = parseLongParameter(uri, SalesRollupEntry.QUERY_PRODUCT_ID, -1);
+        String inRange = SalesRollupEntry.COLUMN_BUCKET_START + " >= ? AND "
+                + SalesRollupEntry.COLUMN_BUCKET_START + " < ?";
+        String bucketAsId = SalesRollupEntry.COLUMN_BUCKET_START + " AS " + SalesRollupEntry._ID;
+
+        if (productId >= 0) {
+            String[] columns = { bucketAsId, SalesRollupEntry.COLUMN_PRODUCT_ID,
+                    SalesRollupEntry.COLUMN_BUCKET_START, SalesRollupEntry.COLUMN_QUANTITY,
+                    SalesRollupEntry.COLUMN_REVENUE };
+            return database.query(table, columns,
+                    SalesRollupEntry.COLUMN_PRODUCT_ID + " = ? AND " + inRange,
+                    new String[] { String.valueOf(productId), String.valueOf(from), String.valueOf(to) },
+                    null, null, SalesRollupEntry.COLUMN_BUCKET_START);
+        }
+        String[] columns = { bucketAsId, SalesRollupEntry.COLUMN_BUCKET_START,
+                "SUM(" + SalesRollupEntry.COLUMN_QUANTITY + ") AS " + SalesRollupEntry.COLUMN_QUANTITY,
+                "SUM(" + SalesRollupEntry.COLUMN_REVENUE + ") AS " + SalesRollupEntry.COLUMN_REVENUE };
+        return database.query(table, columns, inRange,
+                new String[] { String.valueOf(from), String.valueOf(to) },
+                SalesRollupEntry.COLUMN_BUCKET_START, null, SalesRollupEntry.COLUMN_BUCKET_START);
+    }
+
+    /**
+     * Tables and column mapping for the sales rankings. The counters drive the join (CROSS JOIN
+     * keeps SQLite from reordering it), so the ranking is read in index order and stops after
+     * the limit instead of sorting every product.
+     */
+    private static final String RANKING_TABLES = SalesStatsEntry.TABLE_NAME + " CROSS JOIN "
+            + ProductEntry.TABLE_NAME + " ON " + SalesStatsEntry.TABLE_NAME + "."
+            + SalesStatsEntry.COLUMN_PRODUCT_ID + " = " + ProductEntry.TABLE_NAME + "." + ProductEntry._ID;
+
+    private static final String[] RANKING_COLUMNS = {
+            SalesStatsEntry.TABLE_NAME + "." + SalesStatsEntry.COLUMN_PRODUCT_ID + " AS " + SalesStatsEntry._ID,
+            SalesStatsEntry.COLUMN_PRODUCT_ID,
+            ProductEntry.COLUMN_PRODUCT_NAME,
+            ProductEntry.COLUMN_PRODUCT_STOCK,
+            ProductEntry.COLUMN_PRODUCT_PRICE,
+            SalesStatsEntry.COLUMN_SOLD_7_DAYS,
+            SalesStatsEntry.COLUMN_SOLD_30_DAYS};
+
+    /**
+     * Move the sales windows to the current day, before a ranking is read. Sales and the
+     * maintenance job move them too, so this only writes on a day nothing was sold yet. The
+     * check is a read, and the move a write of its own in the interactive lane, so the query
+     * itself stays a read.
+     */
+    private void advanceSalesWindows() {
+        long now = System.currentTimeMillis();
+        boolean behind;
+        mExecutor.beginInteractive(false);
+        try {
+            behind = SalesStats.isBehind(mDbHelper.getReadableDatabase(), now);
+        } finally {
+            mExecutor.endInteractive();
+        }
+        if (!behind) {
+            return;
+        }
+        mExecutor.beginInteractive(true);
+        try {
+            SalesStats.advanceWindows(mDbHelper.getWritableDatabase(), now);
+        } finally {
+            mExecutor.endInteractive();
+        }
+    }
+
+    /**
+     * Read the first products of a sales ranking: the best sellers, or the products in stock
+     * that sell the least. The windows were moved to the current day before, see
+     * {@link #advanceSalesWindows()}.
+     */
+    private Cursor queryRanking(Uri uri, boolean topSellers) {
+        int windowDays = (int) parseLongParameter(uri, SalesStatsEntry.QUERY_WINDOW_DAYS,
+                SalesStats.SHORT_WINDOW_DAYS);
+        String counter = SalesStats.counterColumn(windowDays);
+        String limit = parseLimit(uri);
+        if (limit == null) {
+            limit = String.valueOf(SalesStatsEntry.DEFAULT_LIMIT);
+        }
+
+        String direction = topSellers ? " DESC" : " ASC";
+        String orderBy = SalesStatsEntry.TABLE_NAME + "." + counter + direction + ", "
+                + SalesStatsEntry.TABLE_NAME + "." + SalesStatsEntry.COLUMN_PRODUCT_ID + direction;
+        // Products that sold nothing aren't top sellers, and products that are out of stock
+        // aren't slow movers, there is nothing to move
+        String selection = topSellers
+                ? SalesStatsEntry.TABLE_NAME + "." + counter + " > 0"
+                : ProductEntry.TABLE_NAME + "." + ProductEntry.COLUMN_PRODUCT_STOCK + " > 0";
+        return mDbHelper.getReadableDatabase().query(RANKING_TABLES, RANKING_COLUMNS, selection,
+                null, null, null, orderBy, limit);
+    }
+
+    /**
+     * Returns the given query parameter of the URI as a number, or the default if it is absent.
+     */
+    private static long parseLongParameter(Uri uri, String name, long defaultValue) {
+        String value = uri.getQueryParameter(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid " + name + " in " + uri, e);
+        }
+    }
+
+    /**
+     * Return a cursor for a single product, reading the row from the database only if there is
+     * no snapshot of it in {@link #mProductCache}.
+     */
+    private Cursor queryProductThroughCache(SQLiteDatabase database, long id, String[] projection) {
+        Product product = mProductCache.get(id);
+        if (product == null) {
+            long loadToken = mProductCache.beginLoad();
+            Cursor cursor = database.query(ProductEntry.TABLE_NAME, Product.COLUMNS,
+                    ProductEntry._ID + "=?", new String[] { String.valueOf(id) }, null, null, null);
+            try {
+                if (!cursor.moveToFirst()) {
+                    // Nothing to cache, hand back an empty cursor with the requested columns.
+                    return new MatrixCursor(projection == null ? Product.COLUMNS : projection, 0);
+                }
+                product = ProductMapper.forCursor(cursor).read(cursor);
+            } finally {
+                cursor.close();
+            }
+            mProductCache.put(product, loadToken);
+        }
+        return ProductCache.toCursor(product, projection);
+    }
+
     @Override
     public Uri insert(Uri uri, ContentValues contentValues) {
+        mExecutor.beginInteractive(true);
+        try {
+            return insertDatabase(uri, contentValues);
+        } finally {
+            mExecutor.endInteractive();
+        }
+    }
+
+    private Uri insertDatabase(Uri uri, ContentValues contentValues) {
         final int match = sUriMatcher.match(uri);
         switch (match) {
             case PRODUCTS:
                 return insertProduct(uri, contentValues);
+            case SALES:
+                return insertSale(uri, contentValues);
+            case TRANSFERS:
+                return insertTransfer(uri, contentValues);
             default:
                 throw new IllegalArgumentException("Insertion is not supported for " + uri);
         }
@@ -152,6 +682,28 @@ public class ProductProvider extends ContentProvider {
             throw new IllegalArgumentException("Product requires a picture");
         }
 
+        // If a reorder threshold is given, check that it is not negative
+        if (values.containsKey(ProductEntry.COLUMN_PRODUCT_REORDER_THRESHOLD)) {
+            Integer threshold = values.getAsInteger(ProductEntry.COLUMN_PRODUCT_REORDER_THRESHOLD);
+            if (threshold == null || threshold < 0) {
+                throw new IllegalArgumentException("Product requires a valid reorder threshold");
+            }
+        }
+
+        // Derive the natural key from the name, clients never write it themselves
+        values = new ContentValues(values);
+        values.put(ProductEntry.COLUMN_PRODUCT_NAME_KEY, ProductEntry.normalizeName(name));
+
+        // New products always start at the default version
+        if (values.containsKey(ProductEntry.COLUMN_PRODUCT_VERSION)) {
+            throw new IllegalArgumentException("Product version cannot be written");
+        }
+
+        // Only reservations hold stock
+        if (values.containsKey(ProductEntry.COLUMN_PRODUCT_RESERVED)) {
+            throw new IllegalArgumentException("Reserved stock cannot be written");
+        }
+
         // Get writeable database
         SQLiteDatabase database = mDbHelper.getWritableDatabase();
 
@@ -164,15 +716,230 @@ public class ProductProvider extends ContentProvider {
         }
 
         // Notify all listeners that the data has changed for the pet content URI
-        getContext().getContentResolver().notifyChange(uri, null);
+        notifyProductsChanged(uri);
 
         // Return the new URI with the ID (of the newly inserted row) appended at the end
         return ContentUris.withAppendedId(uri, id);
     }
 
+    /**
+     * Record a sale and take the sold quantity out of the product's stock, in one transaction.
+     * Returns null, and records nothing, if the product doesn't exist or doesn't have enough
+     * stock.
+     */
+    private Uri insertSale(Uri uri, ContentValues values) {
+        Long productId = values.getAsLong(SaleEntry.COLUMN_PRODUCT_ID);
+        if (productId == null) {
+            throw new IllegalArgumentException("Sale requires a product");
+        }
+
+        Integer quantity = values.getAsInteger(SaleEntry.COLUMN_QUANTITY);
+        if (quantity == null || quantity <= 0) {
+            throw new IllegalArgumentException("Sale requires a quantity above 0");
+        }
+
+        // The price is the one of the product at the time of the sale
+        if (values.containsKey(SaleEntry.COLUMN_UNIT_PRICE)) {
+            throw new IllegalArgumentException("Sale unit price cannot be written");
+        }
+
+        values = new ContentValues(values);
+        if (!values.containsKey(SaleEntry.COLUMN_SOLD_AT)) {
+            values.put(SaleEntry.COLUMN_SOLD_AT, System.currentTimeMillis());
+        }
+        Long soldAt = values.getAsLong(SaleEntry.COLUMN_SOLD_AT);
+        if (soldAt == null || soldAt < 0) {
+            throw new IllegalArgumentException("Sale requires a valid time");
+        }
+
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        String[] productArgs = { String.valueOf(productId) };
+        long id;
+        database.beginTransaction();
+        try {
+            // The first sale of a day moves the ranking windows, so reading them doesn't have to
+            SalesStats.advanceWindows(database, System.currentTimeMillis());
+            // Stock held for orders being prepared can't be sold, unless the hold expired
+            Reservations.sweepProduct(database, productId, System.currentTimeMillis());
+            Cursor product = database.query(ProductEntry.TABLE_NAME,
+                    new String[] { Reservations.availableStock(), ProductEntry.COLUMN_PRODUCT_PRICE },
+                    ProductEntry._ID + "=?", productArgs, null, null, null);
+            try {
+                if (!product.moveToFirst()) {
+                    Log.w(LOG_TAG, "Sale of unknown product " + productId);
+                    return null;
+                }
+                if (product.getInt(0) < quantity) {
+                    Log.w(LOG_TAG, "Not enough available stock of product " + productId
+                            + " to sell " + quantity);
+                    return null;
+                }
+                values.put(SaleEntry.COLUMN_UNIT_PRICE, product.getInt(1));
+            } finally {
+                product.close();
+            }
+
+            try {
+                database.execSQL("UPDATE " + ProductEntry.TABLE_NAME + " SET "
+                        + ProductEntry.COLUMN_PRODUCT_STOCK + " = " + ProductEntry.COLUMN_PRODUCT_STOCK
+                        + " - ?, " + RowVersion.BUMP + " WHERE " + ProductEntry._ID + " = ?", new Object[] { quantity, productId });
+            } catch (SQLiteConstraintException e) {
+                // Sales are taken from the default location, the rest is in other stockrooms
+                Log.w(LOG_TAG, "Not enough stock of product " + productId + " at "
+                        + ProductLocationEntry.DEFAULT_LOCATION + " to sell " + quantity);
+                return null;
+            }
+            // The rollups are updated by triggers on the sales table
+            id = database.insert(SaleEntry.TABLE_NAME, null, values);
+            if (id == -1) {
+                Log.e(LOG_TAG, "Failed to insert row for " + uri);
+                return null;
+            }
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+
+        mProductCache.invalidate(productId);
+        InventoryMetrics.increment("sales.recorded");
+        notifyProductsChanged(ContentUris.withAppendedId(ProductEntry.CONTENT_URI, productId));
+        mNotifier.notifyChange(SaleEntry.CONTENT_URI);
+        return ContentUris.withAppendedId(uri, id);
+    }
+
+    /**
+     * Move stock of a product between two locations and record the transfer, in one
+     * transaction. Returns null, and moves nothing, if the product doesn't have enough stock
+     * at the source location.
+     */
+    private Uri insertTransfer(Uri uri, ContentValues values) {
+        Long productId = values.getAsLong(TransferEntry.COLUMN_PRODUCT_ID);
+        if (productId == null) {
+            throw new IllegalArgumentException("Transfer requires a product");
+        }
+
+        String from = values.getAsString(TransferEntry.COLUMN_FROM_LOCATION);
+        String to = values.getAsString(TransferEntry.COLUMN_TO_LOCATION);
+        if (from == null || from.isEmpty() || to == null || to.isEmpty()) {
+            throw new IllegalArgumentException("Transfer requires the locations to move between");
+        }
+        if (from.equals(to)) {
+            throw new IllegalArgumentException("Transfer requires two different locations");
+        }
+
+        Integer quantity = values.getAsInteger(TransferEntry.COLUMN_QUANTITY);
+        if (quantity == null || quantity <= 0) {
+            throw new IllegalArgumentException("Transfer requires a quantity above 0");
+        }
+
+        Long transferredAt = values.containsKey(TransferEntry.COLUMN_TRANSFERRED_AT)
+                ? values.getAsLong(TransferEntry.COLUMN_TRANSFERRED_AT)
+                : Long.valueOf(System.currentTimeMillis());
+        if (transferredAt == null || transferredAt < 0) {
+            throw new IllegalArgumentException("Transfer requires a valid time");
+        }
+
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        long id;
+        database.beginTransaction();
+        try {
+            id = ProductLocations.transfer(database, productId, from, to, quantity, transferredAt);
+            if (id != -1) {
+                database.setTransactionSuccessful();
+            }
+        } finally {
+            database.endTransaction();
+        }
+        if (id == -1) {
+            Log.w(LOG_TAG, "Not enough stock of product " + productId + " at " + from
+                    + " to move " + quantity);
+            InventoryMetrics.increment("transfers.refused");
+            return null;
+        }
+
+        // The total stock stays the same, only the locations changed
+        InventoryMetrics.increment("transfers.made");
+        mNotifier.notifyChange(ProductLocationEntry.buildProductLocationsUri(productId));
+        mNotifier.notifyChange(ProductLocationEntry.CONTENT_URI);
+        mNotifier.notifyChange(uri);
+        return ContentUris.withAppendedId(uri, id);
+    }
+
+    /**
+     * Insert all rows with one change notification per URI instead of one per row. The rows
+     * are inserted in chunks of {@link #BULK_INSERT_CHUNK_SIZE} rows of the bulk lane, so
+     * interactive writes can go between them. New products are inserted in one transaction
+     * per chunk: a row that fails rolls back the rows of its chunk, while the chunks before it
+     * stay inserted.
+     */
+    @Override
+    public int bulkInsert(Uri uri, ContentValues[] values) {
+        boolean products = sUriMatcher.match(uri) == PRODUCTS;
+        int rowsInserted = 0;
+        mExecutor.beginBulkChunk();
+        mNotifier.beginBatch();
+        try {
+            for (int start = 0; start < values.length; start += BULK_INSERT_CHUNK_SIZE) {
+                if (start > 0) {
+                    mExecutor.yieldBulkChunk();
+                }
+                int end = Math.min(start + BULK_INSERT_CHUNK_SIZE, values.length);
+                // The database may have been restored while other work had its turn
+                SQLiteDatabase database = mDbHelper.getWritableDatabase();
+                if (products) {
+                    database.beginTransaction();
+                }
+                try {
+                    for (int i = start; i < end; i++) {
+                        if (insert(uri, values[i]) != null) {
+                            rowsInserted++;
+                        }
+                    }
+                    if (products) {
+                        database.setTransactionSuccessful();
+                    }
+                } finally {
+                    if (products) {
+                        database.endTransaction();
+                    }
+                }
+            }
+            return rowsInserted;
+        } finally {
+            mNotifier.endBatch();
+            mExecutor.endBulkChunk();
+        }
+    }
+
+    /**
+     * Apply the operations with one change notification per URI instead of one per
+     * operation. Every operation still commits on its own, as without a batch, so a sale
+     * that fails for lack of stock doesn't undo the operations before it.
+     */
+    @Override
+    public ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+        mNotifier.beginBatch();
+        try {
+            return super.applyBatch(operations);
+        } finally {
+            mNotifier.endBatch();
+        }
+    }
+
     @Override
     public int update(Uri uri, ContentValues contentValues, String selection,
                       String[] selectionArgs) {
+        mExecutor.beginInteractive(true);
+        try {
+            return updateDatabase(uri, contentValues, selection, selectionArgs);
+        } finally {
+            mExecutor.endInteractive();
+        }
+    }
+
+    private int updateDatabase(Uri uri, ContentValues contentValues, String selection,
+                               String[] selectionArgs) {
         final int match = sUriMatcher.match(uri);
         switch (match) {
             case PRODUCTS:
@@ -183,7 +950,19 @@ public class ProductProvider extends ContentProvider {
                 // arguments will be a String array containing the actual ID.
                 selection = ProductEntry._ID + "=?";
                 selectionArgs = new String[] { String.valueOf(ContentUris.parseId(uri)) };
+
+                // If the caller expects a version, only update the row while it still has that
+                // version. A row that was changed in the meantime is left alone and 0 is returned.
+                String expectedVersion = uri.getQueryParameter(ProductEntry.QUERY_EXPECTED_VERSION);
+                if (expectedVersion != null) {
+                    selection += " AND " + ProductEntry.COLUMN_PRODUCT_VERSION + "=?";
+                    selectionArgs = new String[] { selectionArgs[0], expectedVersion };
+                }
                 return updateProduct(uri, contentValues, selection, selectionArgs);
+            case REORDER_QUEUE:
+                return updateReorderQueue(uri, contentValues, selection, selectionArgs);
+            case PRODUCT_LOCATION:
+                return updateProductLocation(uri, contentValues);
             default:
                 throw new IllegalArgumentException("Update is not supported for " + uri);
         }
@@ -195,6 +974,11 @@ public class ProductProvider extends ContentProvider {
      * Return the number of rows that were successfully updated.
      */
     private int updateProduct(Uri uri, ContentValues values, String selection, String[] selectionArgs) {
+        // Only reservations hold stock
+        if (values.containsKey(ProductEntry.COLUMN_PRODUCT_RESERVED)) {
+            throw new IllegalArgumentException("Reserved stock cannot be written");
+        }
+
         // If the {@link ProductEntry#COLUMN_PRODUCT_NAME} key is present,
         // check that the name value is not null.
         if (values.containsKey(ProductEntry.COLUMN_PRODUCT_NAME)) {
@@ -202,6 +986,9 @@ public class ProductProvider extends ContentProvider {
             if (name == null) {
                 throw new IllegalArgumentException("Product requires a name");
             }
+            // Keep the natural key in step with the name
+            values = new ContentValues(values);
+            values.put(ProductEntry.COLUMN_PRODUCT_NAME_KEY, ProductEntry.normalizeName(name));
         }
 
         // If the {@link ProductEntry#COLUMN_PRODUCT_STOCK} key is present,
@@ -232,6 +1019,21 @@ public class ProductProvider extends ContentProvider {
             }
         }
 
+        // If the {@link ProductEntry#COLUMN_PRODUCT_REORDER_THRESHOLD} key is present,
+        // check that the threshold is not negative.
+        if (values.containsKey(ProductEntry.COLUMN_PRODUCT_REORDER_THRESHOLD)) {
+            Integer threshold = values.getAsInteger(ProductEntry.COLUMN_PRODUCT_REORDER_THRESHOLD);
+            if (threshold == null || threshold < 0) {
+                throw new IllegalArgumentException("Product requires a valid reorder threshold");
+            }
+        }
+
+        // The {@link ProductEntry#COLUMN_PRODUCT_VERSION} is counted up by every write of
+        // product data, see RowVersion
+        if (values.containsKey(ProductEntry.COLUMN_PRODUCT_VERSION)) {
+            throw new IllegalArgumentException("Product version cannot be written");
+        }
+
 
         // If there are no values to update, then don't try to update the database
         if (values.size() == 0) {
@@ -242,20 +1044,171 @@ public class ProductProvider extends ContentProvider {
         SQLiteDatabase database = mDbHelper.getWritableDatabase();
 
         // Perform the update on the database and get the number of rows affected
-        int rowsUpdated = database.update(ProductEntry.TABLE_NAME, values, selection, selectionArgs);
+        int rowsUpdated;
+        database.beginTransaction();
+        try {
+            // Stock held by reservations can't be taken away, see Reservations
+            Integer stock = values.getAsInteger(ProductEntry.COLUMN_PRODUCT_STOCK);
+            if (stock != null && !coversReservedStock(database, String.valueOf(stock), selection,
+                    selectionArgs)) {
+                throw new IllegalArgumentException(
+                        "Product stock cannot be less than its reserved stock");
+            }
+            // Counts up the version of the rows if product data changes, see RowVersion
+            rowsUpdated = RowVersion.update(database, values, selection, selectionArgs);
+            database.setTransactionSuccessful();
+        } catch (SQLiteConstraintException e) {
+            // A change of the stock goes to the default location, which can't go below 0
+            throw new IllegalArgumentException(
+                    "Product stock cannot be less than its stock at other locations", e);
+        } finally {
+            database.endTransaction();
+        }
+
+        // Drop the cached snapshots of the rows we just changed
+        invalidateCache(uri, rowsUpdated);
 
         // If 1 or more rows were updated, then notify all listeners that the data at the
         // given URI has changed
         if (rowsUpdated != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+            notifyProductsChanged(uri);
         }
 
         // Return the number of rows updated
         return rowsUpdated;
     }
 
+    /**
+     * Returns whether or not the new stock, an SQL expression, covers the reserved stock of
+     * every product the selection selects, or at least isn't lower than the stock of a product
+     * that is short already, as the trigger of migration 12 checks. Expired holds count until
+     * they are swept, so those of the products that fall short are swept and the products
+     * checked again. Sweeping deletes holds and has their trigger write the reserved stock of
+     * the products, which is why it only happens when needed. The reserved stock isn't product
+     * data, so neither the version of a product nor the catalog version changes. This must be
+     * called in the transaction that writes the stock.
+     */
+    private static boolean coversReservedStock(SQLiteDatabase database, String newStock,
+                                               String selection, String[] selectionArgs) {
+        String shortOfStock = newStock + " < " + ProductEntry.COLUMN_PRODUCT_RESERVED + " AND "
+                + newStock + " < " + ProductEntry.COLUMN_PRODUCT_STOCK;
+        String where = selection == null ? shortOfStock : "(" + selection + ") AND " + shortOfStock;
+        if (DatabaseUtils.queryNumEntries(database, ProductEntry.TABLE_NAME, where,
+                selectionArgs) == 0) {
+            return true;
+        }
+        if (Reservations.sweepProducts(database, where, selectionArgs,
+                System.currentTimeMillis()) == 0) {
+            return false;
+        }
+        return DatabaseUtils.queryNumEntries(database, ProductEntry.TABLE_NAME, where,
+                selectionArgs) == 0;
+    }
+
+    /**
+     * Update entries of the reorder queue. Only the status can be changed, entries are added
+     * and removed by the database as the stock of the products changes.
+     */
+    private int updateReorderQueue(Uri uri, ContentValues values, String selection,
+                                   String[] selectionArgs) {
+        if (values.size() != 1 || !values.containsKey(ReorderEntry.COLUMN_STATUS)) {
+            throw new IllegalArgumentException("Only the reorder status can be updated");
+        }
+        String status = values.getAsString(ReorderEntry.COLUMN_STATUS);
+        if (!ReorderEntry.STATUS_PENDING.equals(status) && !ReorderEntry.STATUS_ORDERED.equals(status)) {
+            throw new IllegalArgumentException("Unknown reorder status " + status);
+        }
+
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        int rowsUpdated = database.update(ReorderEntry.TABLE_NAME, values, selection, selectionArgs);
+        if (rowsUpdated != 0) {
+            mNotifier.notifyChange(uri);
+        }
+        return rowsUpdated;
+    }
+
+    /**
+     * Set the stock of the product of the URI at the location of the URI, which sets its total
+     * stock as well. Only the stock can be updated. Returns 1, or 0 if there is no such product.
+     */
+    private int updateProductLocation(Uri uri, ContentValues values) {
+        if (values.size() != 1 || !values.containsKey(ProductLocationEntry.COLUMN_STOCK)) {
+            throw new IllegalArgumentException("Only the stock of a location can be updated");
+        }
+        Integer stock = values.getAsInteger(ProductLocationEntry.COLUMN_STOCK);
+        if (stock == null || stock < 0) {
+            throw new IllegalArgumentException("Location requires a stock of 0 or more");
+        }
+
+        long productId = parseProductId(uri);
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        boolean updated;
+        database.beginTransaction();
+        try {
+            // Expired holds don't keep the total from going down
+            Reservations.sweepProduct(database, productId, System.currentTimeMillis());
+            updated = ProductLocations.setStock(database, productId, uri.getLastPathSegment(), stock);
+            database.setTransactionSuccessful();
+        } catch (SQLiteConstraintException e) {
+            throw new IllegalArgumentException(
+                    "Location stock cannot take the product below its reserved stock", e);
+        } finally {
+            database.endTransaction();
+        }
+        if (!updated) {
+            return 0;
+        }
+        mProductCache.invalidate(productId);
+        notifyProductsChanged(ContentUris.withAppendedId(ProductEntry.CONTENT_URI, productId));
+        return 1;
+    }
+
+    /**
+     * Remove the location of the URI from the product of the URI, and its stock from the total
+     * stock. Returns 1, or 0 if the product wasn't kept there.
+     */
+    private int deleteProductLocation(Uri uri) {
+        long productId = parseProductId(uri);
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        boolean removed;
+        database.beginTransaction();
+        try {
+            // Expired holds don't keep the total from going down
+            Reservations.sweepProduct(database, productId, System.currentTimeMillis());
+            removed = ProductLocations.remove(database, productId, uri.getLastPathSegment());
+            database.setTransactionSuccessful();
+        } catch (SQLiteConstraintException e) {
+            throw new IllegalArgumentException(
+                    "Location stock cannot take the product below its reserved stock", e);
+        } finally {
+            database.endTransaction();
+        }
+        if (!removed) {
+            return 0;
+        }
+        mProductCache.invalidate(productId);
+        notifyProductsChanged(ContentUris.withAppendedId(ProductEntry.CONTENT_URI, productId));
+        return 1;
+    }
+
+    /**
+     * Returns the id of the product of a URI under "products/#".
+     */
+    private static long parseProductId(Uri uri) {
+        return Long.parseLong(uri.getPathSegments().get(1));
+    }
+
     @Override
     public int delete(Uri uri, String selection, String[] selectionArgs) {
+        mExecutor.beginInteractive(true);
+        try {
+            return deleteDatabase(uri, selection, selectionArgs);
+        } finally {
+            mExecutor.endInteractive();
+        }
+    }
+
+    private int deleteDatabase(Uri uri, String selection, String[] selectionArgs) {
         // Get writeable database
         SQLiteDatabase database = mDbHelper.getWritableDatabase();
 
@@ -274,20 +1227,654 @@ public class ProductProvider extends ContentProvider {
                 selectionArgs = new String[] { String.valueOf(ContentUris.parseId(uri)) };
                 rowsDeleted = database.delete(ProductEntry.TABLE_NAME, selection, selectionArgs);
                 break;
+            case PRODUCT_LOCATION:
+                return deleteProductLocation(uri);
             default:
                 throw new IllegalArgumentException("Deletion is not supported for " + uri);
         }
 
+        // Drop the cached snapshots of the rows we just deleted
+        invalidateCache(uri, rowsDeleted);
+
         // If 1 or more rows were deleted, then notify all listeners that the data at the
         // given URI has changed
         if (rowsDeleted != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+            notifyProductsChanged(uri);
         }
 
         // Return the number of rows deleted
         return rowsDeleted;
     }
 
+    /**
+     * Notify all listeners that products at the given URI changed. The reorder queue and the
+     * stock per location are kept up to date by the database as products change, so their
+     * listeners are notified as well. The sections of the product list are counted again on
+     * their next query.
+     */
+    private void notifyProductsChanged(Uri uri) {
+        mSections.invalidate();
+        mNotifier.notifyChange(uri);
+        mNotifier.notifyChange(ReorderEntry.CONTENT_URI);
+        mNotifier.notifyChange(ProductLocationEntry.CONTENT_URI);
+    }
+
+    /**
+     * Invalidate the product cache after a write to the given URI. A write to a single product
+     * only drops that product, any other write could have touched every row.
+     */
+    private void invalidateCache(Uri uri, int rowsChanged) {
+        if (rowsChanged == 0) {
+            return;
+        }
+        if (sUriMatcher.match(uri) == PRODUCT_ID) {
+            mProductCache.invalidate(ContentUris.parseId(uri));
+        } else {
+            mProductCache.invalidateAll();
+        }
+    }
+
+    @Override
+    public Bundle call(String method, String arg, Bundle extras) {
+        enforceCallPermission(method);
+        if (ProductContract.METHOD_GET_METRICS.equals(method)) {
+            return InventoryMetrics.toBundle();
+        }
+        if (ProductContract.METHOD_RUN_MAINTENANCE.equals(method)) {
+            mExecutor.beginBulkChunk();
+            try {
+                // Maintenance can rewrite any row (VACUUM), so cached snapshots are dropped
+                Bundle timings = DatabaseMaintenance.runAll(getContext(),
+                        mDbHelper.getWritableDatabase(), mExecutor);
+                mProductCache.invalidateAll();
+                return timings;
+            } finally {
+                mExecutor.endBulkChunk();
+            }
+        }
+        if (ProductContract.METHOD_READ_COLUMNS.equals(method)) {
+            mExecutor.beginInteractive(false);
+            try {
+                // Make sure the database exists and is upgraded before reading it on another
+                // connection
+                mDbHelper.getReadableDatabase();
+                return ProductColumns.call(
+                        getContext().getDatabasePath(ProductDbHelper.DATABASE_NAME));
+            } finally {
+                mExecutor.endInteractive();
+            }
+        }
+        if (ProductContract.METHOD_UPSERT.equals(method)) {
+            // Imports send their rows in many calls, every call is one chunk of the bulk lane
+            ContentValues[] rows = getUpsertValues(extras);
+            mExecutor.beginBulkChunk();
+            try {
+                return upsert(rows).toBundle();
+            } finally {
+                mExecutor.endBulkChunk();
+            }
+        }
+        if (ProductContract.METHOD_ADJUST_PRODUCTS.equals(method)) {
+            ProductQuery query = ProductQuery.fromUri(
+                    arg == null ? ProductEntry.CONTENT_URI : Uri.parse(arg));
+            Bundle result = new Bundle();
+            mExecutor.beginBulkChunk();
+            try {
+                result.putInt(ProductContract.RESULT_ROWS,
+                        adjustProducts(query, extras == null ? Bundle.EMPTY : extras));
+            } finally {
+                mExecutor.endBulkChunk();
+            }
+            return result;
+        }
+        if (ProductContract.METHOD_RESERVE.equals(method)) {
+            Bundle result = new Bundle();
+            result.putLong(ProductContract.RESULT_RESERVATION_ID,
+                    reserve(extras == null ? Bundle.EMPTY : extras));
+            return result;
+        }
+        if (ProductContract.METHOD_COMMIT_RESERVATION.equals(method)
+                || ProductContract.METHOD_RELEASE_RESERVATION.equals(method)) {
+            Bundle result = new Bundle();
+            result.putInt(ProductContract.RESULT_ROWS, endReservation(parseReservationId(arg),
+                    ProductContract.METHOD_COMMIT_RESERVATION.equals(method)) ? 1 : 0);
+            return result;
+        }
+        if (ProductContract.METHOD_SWEEP_RESERVATIONS.equals(method)) {
+            Bundle result = new Bundle();
+            result.putInt(ProductContract.RESULT_ROWS, sweepReservations());
+            return result;
+        }
+        if (ProductContract.METHOD_BACKUP.equals(method)) {
+            return backup(getFileDescriptor(extras));
+        }
+        if (ProductContract.METHOD_RESTORE.equals(method)) {
+            restore(getFileDescriptor(extras));
+            return null;
+        }
+        return super.call(method, arg, extras);
+    }
+
+    /**
+     * The provider is exported to the apps signed with the same key (see
+     * {@link ProductContract#PERMISSION_READ}). Android checks their queries, writes and
+     * opened files against the permissions in the manifest, but not their calls, so every
+     * method is checked here: the ones that only read need the read permission, all others
+     * the write permission. The app itself needs neither.
+     */
+    private void enforceCallPermission(String method) {
+        if (Binder.getCallingUid() == Process.myUid()) {
+            return;
+        }
+        boolean read = ProductContract.METHOD_GET_METRICS.equals(method)
+                || ProductContract.METHOD_READ_COLUMNS.equals(method)
+                || ProductContract.METHOD_BACKUP.equals(method);
+        String permission = read ? ProductContract.PERMISSION_READ
+                : ProductContract.PERMISSION_WRITE;
+        if (getContext().checkCallingPermission(permission) != PackageManager.PERMISSION_GRANTED) {
+            throw new SecurityException("Calling " + method + " requires " + permission);
+        }
+    }
+
+    /**
+     * Hold stock of the product in the extras, if enough of it is available. Returns the id of
+     * the reservation, or -1. The hold is one conditional insert, see {@link Reservations}.
+     */
+    private long reserve(Bundle extras) {
+        long productId = extras.getLong(ProductContract.EXTRA_PRODUCT_ID, -1);
+        int quantity = extras.getInt(ProductContract.EXTRA_QUANTITY);
+        long ttlMillis = extras.getLong(ProductContract.EXTRA_TTL_MILLIS);
+        if (productId < 0) {
+            throw new IllegalArgumentException("Reservation requires a product");
+        }
+        if (quantity <= 0) {
+            throw new IllegalArgumentException("Reservation requires a quantity above 0");
+        }
+        if (ttlMillis <= 0) {
+            throw new IllegalArgumentException("Reservation requires a time to live above 0");
+        }
+
+        long now = System.currentTimeMillis();
+        long id;
+        mExecutor.beginInteractive(true);
+        try {
+            SQLiteDatabase database = mDbHelper.getWritableDatabase();
+            database.beginTransaction();
+            try {
+                id = Reservations.reserve(database, productId, quantity, now + ttlMillis, now);
+                database.setTransactionSuccessful();
+            } finally {
+                database.endTransaction();
+            }
+        } finally {
+            mExecutor.endInteractive();
+        }
+
+        InventoryMetrics.increment(id == -1 ? "reservations.refused" : "reservations.made");
+        if (id != -1) {
+            // The available stock changed, though the product data and its version didn't
+            notifyProductsChanged(ContentUris.withAppendedId(ProductEntry.CONTENT_URI, productId));
+        }
+        return id;
+    }
+
+    /**
+     * Commit (sell) or release the reservation. Returns whether or not it was still active.
+     * Either is one conditional statement, see {@link Reservations}.
+     */
+    private boolean endReservation(long reservationId, boolean commit) {
+        long productId;
+        boolean ended;
+        mExecutor.beginInteractive(true);
+        try {
+            SQLiteDatabase database = mDbHelper.getWritableDatabase();
+            database.beginTransaction();
+            try {
+                productId = Reservations.getProductId(database, reservationId);
+                try {
+                    ended = productId != -1 && (commit
+                            ? Reservations.commit(database, reservationId,
+                                    System.currentTimeMillis())
+                            : Reservations.release(database, reservationId));
+                } catch (SQLiteConstraintException e) {
+                    // The sale is taken from the default location, which doesn't have enough
+                    Log.w(LOG_TAG, "Not enough stock at " + ProductLocationEntry.DEFAULT_LOCATION
+                            + " to commit reservation " + reservationId);
+                    ended = false;
+                }
+                database.setTransactionSuccessful();
+            } finally {
+                database.endTransaction();
+            }
+        } finally {
+            mExecutor.endInteractive();
+        }
+        if (!ended) {
+            return false;
+        }
+
+        Uri product = ContentUris.withAppendedId(ProductEntry.CONTENT_URI, productId);
+        if (commit) {
+            // The stock changed and the sale was recorded
+            mProductCache.invalidate(productId);
+            InventoryMetrics.increment("reservations.committed");
+            InventoryMetrics.increment("sales.recorded");
+            notifyProductsChanged(product);
+            mNotifier.notifyChange(SaleEntry.CONTENT_URI);
+        } else {
+            InventoryMetrics.increment("reservations.released");
+            notifyProductsChanged(product);
+        }
+        return true;
+    }
+
+    private static long parseReservationId(String arg) {
+        try {
+            return Long.parseLong(arg);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid reservation id " + arg, e);
+        }
+    }
+
+    /**
+     * Release every expired reservation in a chunk of the bulk lane, and return how many there
+     * were.
+     */
+    private int sweepReservations() {
+        int swept;
+        mExecutor.beginBulkChunk();
+        try {
+            swept = Reservations.sweepExpired(mDbHelper.getWritableDatabase(), mExecutor,
+                    System.currentTimeMillis());
+        } finally {
+            mExecutor.endBulkChunk();
+        }
+        if (swept != 0) {
+            notifyProductsChanged(ProductEntry.CONTENT_URI);
+        }
+        return swept;
+    }
+
+    /**
+     * Sync the products with the given server (see {@link SyncClient}). The provider of this
+     * process is reached through
+     * {@link android.content.ContentProviderClient#getLocalContentProvider()}. This talks to the server and must not be called on the main thread.
+     */
+    public SyncReport sync(SyncServer server) throws IOException {
+        SyncReport report = new SyncClient(mDbHelper.getWritableDatabase(), mExecutor).sync(server);
+        if (report.getPulled() != 0 || report.getConflicts() != 0) {
+            mProductCache.invalidateAll();
+            notifyProductsChanged(ProductEntry.CONTENT_URI);
+        }
+        return report;
+    }
+
+    /**
+     * Only the {@link ProductEntry#COLUMNS_URI} can be opened. The columns are written into a
+     * pipe on a background thread while the caller reads them.
+     */
+    @Override
+    public ParcelFileDescriptor openFile(Uri uri, String mode) throws FileNotFoundException {
+        if (sUriMatcher.match(uri) != PRODUCT_COLUMNS || !"r".equals(mode)) {
+            throw new FileNotFoundException("Cannot open " + uri + " in mode " + mode);
+        }
+        return openPipeHelper(uri, ProductEntry.COLUMNS_TYPE, null, null,
+                new PipeDataWriter<Void>() {
+                    @Override
+                    public void writeDataToPipe(ParcelFileDescriptor output, Uri uri,
+                                                String mimeType, Bundle opts, Void args) {
+                        FileOutputStream out = new FileOutputStream(output.getFileDescriptor());
+                        mExecutor.beginInteractive(false);
+                        try {
+                            mDbHelper.getReadableDatabase();
+                            ProductColumns.writeTo(
+                                    getContext().getDatabasePath(ProductDbHelper.DATABASE_NAME),
+                                    out);
+                        } catch (IOException e) {
+                            // The reader went away, or sees the stream end early
+                            Log.w(LOG_TAG, "Streaming product columns failed", e);
+                        } finally {
+                            mExecutor.endInteractive();
+                        }
+                    }
+                });
+    }
+
+    private static ContentValues[] getUpsertValues(Bundle extras) {
+        Parcelable[] rows = extras == null ? null
+                : extras.getParcelableArray(ProductContract.EXTRA_VALUES);
+        if (rows == null) {
+            throw new IllegalArgumentException("Upsert requires the rows to write");
+        }
+        ContentValues[] values = new ContentValues[rows.length];
+        for (int i = 0; i < rows.length; i++) {
+            values[i] = (ContentValues) rows[i];
+        }
+        return values;
+    }
+
+    /**
+     * Insert or update every row by the normalized name of the product, in one transaction.
+     * SQLite only has INSERT ... ON CONFLICT DO UPDATE from version 3.24, which older devices
+     * don't ship, so every row looks its product up through the name key index and is then
+     * inserted, updated with the columns that differ, or skipped if none do. Rows may only
+     * hold product data ({@link RowVersion#DATA_COLUMNS}), the id, version and sync state of a
+     * product are the provider's own. Any invalid row rolls back the whole call.
+     */
+    private UpsertResult upsert(ContentValues[] rows) {
+        ProductDbHelper dbHelper = mDbHelper;
+        SQLiteDatabase database = dbHelper.getWritableDatabase();
+        boolean nameKeyReady = dbHelper.isNameKeyReady();
+        List<Long> updatedIds = new ArrayList<>();
+        int inserted = 0;
+        int unchanged = 0;
+        mNotifier.beginBatch();
+        database.beginTransaction();
+        try {
+            for (ContentValues row : rows) {
+                String name = row.getAsString(ProductEntry.COLUMN_PRODUCT_NAME);
+                if (name == null) {
+                    throw new IllegalArgumentException("Upsert requires the name of every product");
+                }
+                Product current = queryProductByNameKey(database,
+                        ProductEntry.normalizeName(name), nameKeyReady);
+                if (current == null) {
+                    requireDataColumns(row);
+                    if (insertProduct(ProductEntry.CONTENT_URI, row) == null) {
+                        throw new IllegalStateException("Failed to insert " + name);
+                    }
+                    inserted++;
+                    continue;
+                }
+                ContentValues changes = changedValues(current, row);
+                if (changes.size() == 0) {
+                    unchanged++;
+                    continue;
+                }
+                updateProduct(ContentUris.withAppendedId(ProductEntry.CONTENT_URI, current.getId()),
+                        changes, ProductEntry._ID + "=?",
+                        new String[] { String.valueOf(current.getId()) });
+                updatedIds.add(current.getId());
+            }
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+            mNotifier.endBatch();
+        }
+        // A reader may have cached a product between its update and the commit
+        for (long id : updatedIds) {
+            mProductCache.invalidate(id);
+        }
+        InventoryMetrics.add("upsert.rows", rows.length);
+        return new UpsertResult(inserted, updatedIds.size(), unchanged);
+    }
+
+    /**
+     * Returns the oldest product with the given name key, or null if there is none. While the
+     * name key is being backfilled (see {@link ProductDbHelper#isNameKeyReady()}), products the
+     * backfill hasn't reached yet are matched by {@link ProductQueryPlan#PENDING_NAME_KEY}, so
+     * an import doesn't add them a second time.
+     */
+    static Product queryProductByNameKey(SQLiteDatabase database, String nameKey,
+                                         boolean nameKeyReady) {
+        String column = nameKeyReady ? ProductEntry.COLUMN_PRODUCT_NAME_KEY
+                : ProductQueryPlan.PENDING_NAME_KEY;
+        Cursor cursor = database.query(ProductEntry.TABLE_NAME, Product.COLUMNS,
+                column + "=?", new String[] { nameKey }, null, null, ProductEntry._ID, "1");
+        try {
+            return cursor.moveToFirst() ? ProductMapper.forCursor(cursor).read(cursor) : null;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Returns the columns of the row that don't already hold its value in the product.
+     * Imports often carry numbers as strings, so numeric columns are compared and returned as
+     * numbers. A value that isn't a number is returned as it is, for the update to refuse.
+     * Throws an IllegalArgumentException if the row holds a column that isn't product data.
+     */
+    static ContentValues changedValues(Product current, ContentValues row) {
+        requireDataColumns(row);
+        ContentValues changes = new ContentValues();
+        for (String column : row.keySet()) {
+            Object theirs = current.getValue(column);
+            if (theirs instanceof Integer) {
+                Integer ours = row.getAsInteger(column);
+                if (ours != null) {
+                    if (!ours.equals(theirs)) {
+                        changes.put(column, ours);
+                    }
+                    continue;
+                }
+            } else if (theirs instanceof Long) {
+                Long ours = row.getAsLong(column);
+                if (ours != null) {
+                    if (!ours.equals(theirs)) {
+                        changes.put(column, ours);
+                    }
+                    continue;
+                }
+            }
+            String ours = row.getAsString(column);
+            if (theirs == null || ours == null || !ours.equals(String.valueOf(theirs))) {
+                changes.put(column, ours);
+            }
+        }
+        return changes;
+    }
+
+    /**
+     * Throws an IllegalArgumentException if the row holds a column other than the
+     * {@link RowVersion#DATA_COLUMNS}, such as the id or the sync state of the product.
+     */
+    private static void requireDataColumns(ContentValues row) {
+        for (String column : row.keySet()) {
+            if (!RowVersion.isDataColumn(column)) {
+                throw new IllegalArgumentException("Upsert can't write column " + column);
+            }
+        }
+    }
+
+    /**
+     * Change the price and stock of every product the query selects with a single UPDATE, in
+     * a transaction that first checks no product would end up with an invalid price or stock,
+     * one that doesn't fit in an int, or with less stock than its reservations hold.
+     * Products the change leaves as they are aren't written, so their versions stay. Returns
+     * the number of products changed.
+     */
+    private int adjustProducts(ProductQuery query, Bundle extras) {
+        String price = ProductEntry.COLUMN_PRODUCT_PRICE;
+        String stock = ProductEntry.COLUMN_PRODUCT_STOCK;
+        String newPrice = adjustment(extras, price, ProductContract.EXTRA_PRICE_CHANGE, null);
+        String newStock = adjustment(extras, stock, ProductContract.EXTRA_STOCK_CHANGE,
+                ProductContract.EXTRA_STOCK);
+        if (extras.containsKey(ProductContract.EXTRA_PRICE_PERCENT)) {
+            if (newPrice != null) {
+                throw new IllegalArgumentException("Only one price change can be applied");
+            }
+            double percent = extras.getDouble(ProductContract.EXTRA_PRICE_PERCENT);
+            if (Double.isNaN(percent) || Double.isInfinite(percent)) {
+                throw new IllegalArgumentException("Invalid price percentage " + percent);
+            }
+            // Prices are whole amounts, round to the nearest one
+            newPrice = "CAST(ROUND(" + price + " * (100.0 + " + percent + ") / 100.0) AS INTEGER)";
+        }
+        if (newPrice == null && newStock == null) {
+            throw new IllegalArgumentException("Adjustment requires a price or stock change");
+        }
+        if (newPrice == null) {
+            newPrice = price;
+        }
+        if (newStock == null) {
+            newStock = stock;
+        }
+
+        ProductDbHelper dbHelper = mDbHelper;
+        ProductQueryPlan plan = ProductQueryPlan.of(query, dbHelper.isNameKeyReady());
+        String changed = "(" + price + " != " + newPrice + " OR " + stock + " != " + newStock + ")";
+        String where = plan.selection == null ? changed : plan.selection + " AND " + changed;
+
+        SQLiteDatabase database = dbHelper.getWritableDatabase();
+        int rowsUpdated;
+        database.beginTransaction();
+        try {
+            Cursor cursor = database.query(ProductEntry.TABLE_NAME,
+                    new String[] { "MIN(" + newPrice + ")", "MAX(" + newPrice + ")",
+                            "MIN(" + newStock + ")", "MAX(" + newStock + ")" },
+                    where, plan.selectionArgs, null, null, null);
+            try {
+                // Without any row to change all of them are NULL. SQLite computes in 64 bits,
+                // so read them as longs: an int would wrap a value that is too large around.
+                if (cursor.moveToFirst() && !cursor.isNull(0)) {
+                    long minPrice = cursor.getLong(0);
+                    long maxPrice = cursor.getLong(1);
+                    long minStock = cursor.getLong(2);
+                    long maxStock = cursor.getLong(3);
+                    if (maxPrice > Integer.MAX_VALUE || maxStock > Integer.MAX_VALUE) {
+                        throw new IllegalArgumentException(
+                                "Adjustment would make a price or stock too large");
+                    }
+                    if (minPrice < Integer.MIN_VALUE
+                            || !ProductEntry.isValidPrice((int) minPrice)) {
+                        throw new IllegalArgumentException("Adjustment would make a price invalid");
+                    }
+                    if (minStock < 0) {
+                        throw new IllegalArgumentException("Adjustment would make a stock negative");
+                    }
+                }
+            } finally {
+                cursor.close();
+            }
+            // Stock held by reservations can't be taken away, see Reservations
+            if (!coversReservedStock(database, "(" + newStock + ")", where, plan.selectionArgs)) {
+                throw new IllegalArgumentException("Adjustment would take stock that is reserved");
+            }
+
+            SQLiteStatement update = database.compileStatement("UPDATE " + ProductEntry.TABLE_NAME
+                    + " SET " + price + " = " + newPrice + ", " + stock + " = " + newStock
+                    + ", " + RowVersion.BUMP + " WHERE " + where);
+            try {
+                update.bindAllArgsAsStrings(plan.selectionArgs);
+                rowsUpdated = update.executeUpdateDelete();
+            } catch (SQLiteConstraintException e) {
+                // Stock changes go to the default location, which can't go below 0
+                throw new IllegalArgumentException(
+                        "Adjustment would take more stock than a default location has", e);
+            } finally {
+                update.close();
+            }
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+
+        if (rowsUpdated != 0) {
+            mProductCache.invalidateAll();
+            notifyProductsChanged(ProductEntry.CONTENT_URI);
+        }
+        InventoryMetrics.add("adjust.rows", rowsUpdated);
+        return rowsUpdated;
+    }
+
+    /**
+     * Returns the SQL of the new value of the column from the extra holding an amount to add
+     * or, if there is one, the extra holding the value to set. Returns null if neither is
+     * given. The amounts are ints, so they can be written into the SQL as they are.
+     */
+    private static String adjustment(Bundle extras, String column, String changeKey,
+                                     String setKey) {
+        boolean change = extras.containsKey(changeKey);
+        boolean set = setKey != null && extras.containsKey(setKey);
+        if (change && set) {
+            throw new IllegalArgumentException("Only one change of " + column + " can be applied");
+        }
+        if (change) {
+            return column + " + " + extras.getInt(changeKey);
+        }
+        if (set) {
+            return String.valueOf(extras.getInt(setKey));
+        }
+        return null;
+    }
+
+    private static ParcelFileDescriptor getFileDescriptor(Bundle extras) {
+        ParcelFileDescriptor fd = extras == null ? null
+                : (ParcelFileDescriptor) extras.getParcelable(ProductContract.EXTRA_FILE_DESCRIPTOR);
+        if (fd == null) {
+            throw new IllegalArgumentException("Backup and restore require a file descriptor");
+        }
+        return fd;
+    }
+
+    /**
+     * Write a snapshot of the database to the given file. The caller keeps ownership of it.
+     */
+    private Bundle backup(ParcelFileDescriptor fd) {
+        File database = getContext().getDatabasePath(ProductDbHelper.DATABASE_NAME);
+        // A read, so a restore doesn't replace the file halfway through
+        mExecutor.beginInteractive(false);
+        try {
+            // Make sure the database exists and is upgraded before reading it on another
+            // connection
+            mDbHelper.getReadableDatabase();
+            DatabaseBackup.Result result = DatabaseBackup.backup(database,
+                    new FileOutputStream(fd.getFileDescriptor()));
+            Bundle bundle = new Bundle();
+            bundle.putLong(ProductContract.RESULT_ROWS, result.rows);
+            bundle.putLong(ProductContract.RESULT_CHECKSUM, result.checksum);
+            return bundle;
+        } catch (IOException e) {
+            throw new IllegalStateException("Backup failed", e);
+        } finally {
+            mExecutor.endInteractive();
+        }
+    }
+
+    /**
+     * Replace the database with the backup in the given file. The backup is read and verified
+     * into a separate file first, outside of both lanes, so the database is only closed for
+     * the final rename. That runs as an exclusive chunk: it waits for the running queries and
+     * writes, and new ones wait for it, so none of them sees the closed helper. Cursors that
+     * were returned before keep the rows they read, and jobs of the bulk lane that run over
+     * many chunks (backfills, sync) fail at their next chunk and start over on the new database.
+     */
+    private void restore(ParcelFileDescriptor fd) {
+        File database = getContext().getDatabasePath(ProductDbHelper.DATABASE_NAME);
+        File restored;
+        try {
+            restored = DatabaseBackup.restoreToTemporaryFile(
+                    new FileInputStream(fd.getFileDescriptor()), database,
+                    ProductDbHelper.DATABASE_VERSION);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Not a valid backup", e);
+        }
+
+        mExecutor.beginExclusive();
+        try {
+            ProductDbHelper oldHelper = mDbHelper;
+            long catalogVersion = CatalogVersion.read(oldHelper.getReadableDatabase());
+            oldHelper.close();
+            try {
+                DatabaseBackup.install(restored, database);
+            } catch (IOException e) {
+                throw new IllegalStateException("Restore failed", e);
+            } finally {
+                // Either way the helper reopens whatever database is in place now
+                mDbHelper = new ProductDbHelper(getContext());
+                mProductCache.invalidateAll();
+            }
+            // The backup may be older than the catalog it replaced, readers must not see a
+            // version again they saw before
+            CatalogVersion.advancePast(mDbHelper.getWritableDatabase(), catalogVersion);
+        } finally {
+            mExecutor.endExclusive();
+        }
+        // A backup of an older version may have backfills to run
+        startBackfills();
+        notifyProductsChanged(ProductEntry.CONTENT_URI);
+    }
+
     @Override
     public String getType(Uri uri) {
         final int match = sUriMatcher.match(uri);
@@ -296,6 +1883,30 @@ public class ProductProvider extends ContentProvider {
                 return ProductEntry.CONTENT_LIST_TYPE;
             case PRODUCT_ID:
                 return ProductEntry.CONTENT_ITEM_TYPE;
+            case PRODUCT_COLUMNS:
+                return ProductEntry.COLUMNS_TYPE;
+            case PRODUCT_SECTIONS:
+                return ProductSectionEntry.CONTENT_LIST_TYPE;
+            case CATALOG_VERSION:
+                return ProductEntry.CATALOG_VERSION_TYPE;
+            case PRODUCT_LOCATIONS:
+            case LOCATIONS:
+            case LOCATION:
+                return ProductLocationEntry.CONTENT_LIST_TYPE;
+            case PRODUCT_LOCATION:
+                return ProductLocationEntry.CONTENT_ITEM_TYPE;
+            case REORDER_QUEUE:
+                return ReorderEntry.CONTENT_LIST_TYPE;
+            case SALES:
+                return SaleEntry.CONTENT_LIST_TYPE;
+            case SALES_HOURLY:
+            case SALES_DAILY:
+                return SalesRollupEntry.CONTENT_LIST_TYPE;
+            case TOP_SELLERS:
+            case SLOW_MOVERS:
+                return SalesStatsEntry.CONTENT_LIST_TYPE;
+            case TRANSFERS:
+                return TransferEntry.CONTENT_LIST_TYPE;
             default:
                 throw new IllegalStateException("Unknown URI " + uri + " with match " + match);
         }
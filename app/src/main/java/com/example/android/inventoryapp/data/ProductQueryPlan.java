@@ -0,0 +1,148 @@
+package com.example.android.inventoryapp.data;
+
+import android.text.TextUtils;
+
+import com.example.android.inventoryapp.data.ProductContract.ProductEntry;
+import com.example.android.inventoryapp.data.ProductContract.ProductQuery;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The SQL of a {@link ProductQuery}: the index to walk, the parameterized selection and the
+ * order. The index is named with INDEXED BY, so SQLite fails the query rather than falling
+ * back to a scan of the table if it ever cannot use it.
+ *
+ * The indexes are created by the "query_indexes" migration. Each sort key has one plain index
+ * and one partial index over the products in stock only, except the sort by stock, where
+ * in-stock-only is a range of the plain index. Every index ends in the row id, so ordering by
+ * the key and then by {@link ProductEntry#_ID} is the order of the index.
+ *
+ * The name key indexes only exist once the backfill of the name key is done, see
+ * {@link ProductMigrations#NAME_KEY}. Until then queries by name work out the key of rows
+ * the backfill hasn't reached from their name and scan the table.
+ */
+final class ProductQueryPlan {
+
+    /** Names of the indexes the plans walk */
+    static final String INDEX_NAME = "products_name_key";
+    static final String INDEX_PRICE = "products_price";
+    static final String INDEX_STOCK = "products_stock";
+    static final String INDEX_IN_STOCK_ADDED = "products_in_stock_added";
+    static final String INDEX_IN_STOCK_NAME = "products_in_stock_name_key";
+    static final String INDEX_IN_STOCK_PRICE = "products_in_stock_price";
+
+    /**
+     * Condition of the partial indexes. It must appear in the selection exactly like this,
+     * or SQLite doesn't know the index covers every row asked for.
+     */
+    static final String IN_STOCK = ProductEntry.COLUMN_PRODUCT_STOCK + " > 0";
+
+    /**
+     * The name key while its backfill is still running. SQLite's lower() only folds ASCII
+     * letters, unlike {@link ProductEntry#normalizeName}, which is close enough for the rows
+     * the backfill hasn't reached yet.
+     */
+    static final String PENDING_NAME_KEY = "IFNULL(" + ProductEntry.COLUMN_PRODUCT_NAME_KEY
+            + ", lower(trim(" + ProductEntry.COLUMN_PRODUCT_NAME + ")))";
+
+    /** FROM clause, the products table with the index to walk */
+    final String tables;
+
+    /** WHERE clause, null for every product */
+    final String selection;
+
+    final String[] selectionArgs;
+
+    /** ORDER BY clause */
+    final String orderBy;
+
+    /** The name key to group the products by, the column or {@link #PENDING_NAME_KEY} */
+    final String nameKey;
+
+    private ProductQueryPlan(String tables, String selection, String[] selectionArgs,
+                             String orderBy, String nameKey) {
+        this.tables = tables;
+        this.selection = selection;
+        this.selectionArgs = selectionArgs;
+        this.orderBy = orderBy;
+        this.nameKey = nameKey;
+    }
+
+    /**
+     * The plan of the query on a database whose name key is indexed.
+     */
+    static ProductQueryPlan of(ProductQuery query) {
+        return of(query, true);
+    }
+
+    /**
+     * The plan of the query, see {@link ProductDbHelper#isNameKeyReady()} for the second
+     * parameter.
+     */
+    static ProductQueryPlan of(ProductQuery query, boolean nameKeyReady) {
+        String sort = query.getSort();
+        boolean inStockOnly = query.isInStockOnly();
+        List<String> conditions = new ArrayList<>();
+        List<String> args = new ArrayList<>();
+        if (inStockOnly) {
+            conditions.add(IN_STOCK);
+        }
+
+        String nameKey = nameKeyReady ? ProductEntry.COLUMN_PRODUCT_NAME_KEY : PENDING_NAME_KEY;
+        String index;
+        String column;
+        if (ProductEntry.SORT_NAME.equals(sort)) {
+            if (nameKeyReady) {
+                index = inStockOnly ? INDEX_IN_STOCK_NAME : INDEX_NAME;
+            } else {
+                index = null;
+            }
+            column = nameKey;
+            String prefix = query.getNamePrefix();
+            if (prefix != null) {
+                // A range of the index rather than LIKE, which SQLite only runs on an index
+                // for a case sensitive LIKE
+                conditions.add(column + " >= ?");
+                args.add(prefix);
+                char last = prefix.charAt(prefix.length() - 1);
+                if (last != Character.MAX_VALUE) {
+                    conditions.add(column + " < ?");
+                    args.add(prefix.substring(0, prefix.length() - 1) + (char) (last + 1));
+                }
+            }
+        } else if (ProductEntry.SORT_PRICE.equals(sort)) {
+            index = inStockOnly ? INDEX_IN_STOCK_PRICE : INDEX_PRICE;
+            column = ProductEntry.COLUMN_PRODUCT_PRICE;
+            if (query.getMinPrice() != null) {
+                conditions.add(column + " >= ?");
+                args.add(String.valueOf(query.getMinPrice()));
+            }
+            if (query.getMaxPrice() != null) {
+                conditions.add(column + " <= ?");
+                args.add(String.valueOf(query.getMaxPrice()));
+            }
+        } else if (ProductEntry.SORT_STOCK.equals(sort)) {
+            index = INDEX_STOCK;
+            column = ProductEntry.COLUMN_PRODUCT_STOCK;
+        } else {
+            // Without a filter the table itself is in the order the products were added
+            index = inStockOnly ? INDEX_IN_STOCK_ADDED : null;
+            column = null;
+        }
+
+        String direction = query.isDescending() ? " DESC" : " ASC";
+        String orderBy = ProductEntry._ID + direction;
+        if (column != null) {
+            orderBy = column + direction + ", " + orderBy;
+        }
+        String tables = ProductEntry.TABLE_NAME;
+        if (index != null) {
+            tables += " INDEXED BY " + index;
+        }
+        return new ProductQueryPlan(tables,
+                conditions.isEmpty() ? null : TextUtils.join(" AND ", conditions),
+                args.toArray(new String[args.size()]),
+                orderBy, nameKey);
+    }
+}
@@ -0,0 +1,110 @@
+package com.example.android.inventoryapp.data;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.example.android.inventoryapp.data.ProductContract.ProductEntry;
+import com.example.android.inventoryapp.data.ProductContract.ProductQuery;
+import com.example.android.inventoryapp.data.ProductContract.ProductSectionEntry;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Counts and caches the alphabetical sections of the product list (see
+ * {@link ProductSectionEntry}).
+ *
+ * The sections of a query are counted once, by grouping the name index of its plan by the first
+ * letter, and served from memory until {@link #invalidate()} is called on the next write.
+ */
+final class ProductSections {
+
+    private static final String[] COLUMNS = { ProductSectionEntry._ID,
+            ProductSectionEntry.COLUMN_LETTER, ProductSectionEntry.COLUMN_COUNT,
+            ProductSectionEntry.COLUMN_OFFSET };
+
+    /** At most this many queries have their sections cached, there are few in practice */
+    private static final int MAX_CACHED_QUERIES = 8;
+
+    /** Sections by the URI of their query */
+    private final Map<String, List<Object[]>> mCache = new HashMap<>();
+
+    /**
+     * Incremented by every invalidation, so sections counted while a write happened aren't
+     * cached after it.
+     */
+    private int mGeneration;
+
+    /**
+     * Drop every cached section, the products changed.
+     */
+    synchronized void invalidate() {
+        mGeneration++;
+        mCache.clear();
+    }
+
+    /**
+     * Returns the sections of the given query, which must be sorted by name.
+     */
+    Cursor query(SQLiteDatabase db, ProductQuery query, boolean nameKeyReady) {
+        if (!ProductEntry.SORT_NAME.equals(query.getSort())) {
+            throw new IllegalArgumentException("Only a list sorted by name has sections");
+        }
+        String key = query.toUri().toString();
+        List<Object[]> sections;
+        int generation;
+        synchronized (this) {
+            sections = mCache.get(key);
+            generation = mGeneration;
+        }
+        if (sections == null) {
+            sections = count(db, query, nameKeyReady);
+            InventoryMetrics.increment("sections.counted");
+            synchronized (this) {
+                if (generation == mGeneration) {
+                    if (mCache.size() >= MAX_CACHED_QUERIES) {
+                        mCache.clear();
+                    }
+                    mCache.put(key, sections);
+                }
+            }
+        }
+
+        MatrixCursor cursor = new MatrixCursor(COLUMNS, sections.size());
+        for (Object[] section : sections) {
+            cursor.addRow(section);
+        }
+        return cursor;
+    }
+
+    /**
+     * Count the products per first letter, in the order of the list, and add up the offsets.
+     */
+    private static List<Object[]> count(SQLiteDatabase db, ProductQuery query,
+                                        boolean nameKeyReady) {
+        ProductQueryPlan plan = ProductQueryPlan.of(query, nameKeyReady);
+        String letter = "substr(" + plan.nameKey + ", 1, 1)";
+        // The first letter orders like the name key, so the groups are in the order of the list
+        Cursor cursor = db.query(plan.tables, new String[] { letter, "COUNT(*)" },
+                plan.selection, plan.selectionArgs, letter, null,
+                letter + (query.isDescending() ? " DESC" : " ASC"));
+        List<Object[]> sections = new ArrayList<>();
+        try {
+            int offset = 0;
+            while (cursor.moveToNext()) {
+                String label = cursor.isNull(0) ? ProductSectionEntry.UNKNOWN_LETTER
+                        : cursor.getString(0).toUpperCase(Locale.getDefault());
+                int count = cursor.getInt(1);
+                sections.add(new Object[] { sections.size(), label, count, offset });
+                offset += count;
+            }
+        } finally {
+            cursor.close();
+        }
+        return sections;
+    }
+}
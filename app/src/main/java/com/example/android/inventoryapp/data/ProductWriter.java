@@ -0,0 +1,312 @@
+package com.example.android.inventoryapp.data;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Bundle;
+import android.util.Log;
+
+import com.example.android.inventoryapp.data.ProductContract.ProductEntry;
+import com.example.android.inventoryapp.data.ProductContract.ProductLocationEntry;
+import com.example.android.inventoryapp.data.ProductContract.ProductQuery;
+import com.example.android.inventoryapp.data.ProductContract.SaleEntry;
+import com.example.android.inventoryapp.data.ProductContract.TransferEntry;
+
+import java.util.Arrays;
+
+/**
+ * Version checked writes of single products.
+ *
+ * An update only goes through while the row still has the version of the snapshot the change
+ * was based on. If somebody else changed the row in the meantime, the change is merged into
+ * the current row and tried again, so concurrent writers never silently overwrite each other.
+ *
+ * Imports and sync write by the natural key instead, see {@link #upsertAll}, and changes to
+ * many products at once are made by one statement, see {@link #adjustPricesByPercent}.
+ */
+public final class ProductWriter {
+
+    public static final String LOG_TAG = ProductWriter.class.getSimpleName();
+
+    /** How often a merged change is retried before giving up with a conflict */
+    private static final int MAX_ATTEMPTS = 5;
+
+    /** How many rows {@link #upsertAll} sends per call */
+    private static final int MAX_UPSERT_ROWS = 500;
+
+    private ProductWriter() {}
+
+    /**
+     * Write the given changes to the product, only if the row is still at the version of
+     * {@code base}. Returns a {@link UpdateResult.Status#CONFLICT} holding the current row if not.
+     */
+    public static UpdateResult update(ContentResolver resolver, Product base, ContentValues changes) {
+        int rowsUpdated = resolver.update(
+                ProductEntry.buildVersionedUri(base.getId(), base.getVersion()), changes, null, null);
+        if (rowsUpdated != 0) {
+            return new UpdateResult(UpdateResult.Status.UPDATED, null, false);
+        }
+        Product current = query(resolver, base.getId());
+        if (current == null) {
+            return new UpdateResult(UpdateResult.Status.NOT_FOUND, null, false);
+        }
+        return new UpdateResult(UpdateResult.Status.CONFLICT, current, false);
+    }
+
+    /**
+     * Write the given changes to the product, merging them into the current row as often as
+     * needed if it was changed since {@code base} was read. See {@link #merge}.
+     */
+    public static UpdateResult updateMerging(ContentResolver resolver, Product base,
+                                             ContentValues changes) {
+        boolean merged = false;
+        for (int attempt = 0; attempt < MAX_ATTEMPTS; attempt++) {
+            if (changes.size() == 0) {
+                // The row already holds everything we wanted to write
+                return new UpdateResult(UpdateResult.Status.UPDATED, null, merged);
+            }
+            UpdateResult result = update(resolver, base, changes);
+            if (result.getStatus() != UpdateResult.Status.CONFLICT) {
+                return new UpdateResult(result.getStatus(), null, merged);
+            }
+            Log.v(LOG_TAG, "Conflict updating " + base + ", current " + result.getCurrent());
+            changes = merge(base, result.getCurrent(), changes);
+            base = result.getCurrent();
+            merged = true;
+        }
+        return new UpdateResult(UpdateResult.Status.CONFLICT, query(resolver, base.getId()), merged);
+    }
+
+    /**
+     * Change the stock of the product by the given amount, based on the current stock of the
+     * row rather than the one of the snapshot. Fails with a {@link UpdateResult.Status#CONFLICT}
+     * holding the current row if the stock would drop below 0.
+     */
+    public static UpdateResult adjustStock(ContentResolver resolver, Product base, int delta) {
+        boolean merged = false;
+        for (int attempt = 0; attempt < MAX_ATTEMPTS; attempt++) {
+            int stock = base.getStock() + delta;
+            if (stock < 0) {
+                return new UpdateResult(UpdateResult.Status.CONFLICT, base, merged);
+            }
+            ContentValues changes = new ContentValues();
+            changes.put(ProductEntry.COLUMN_PRODUCT_STOCK, stock);
+            UpdateResult result = update(resolver, base, changes);
+            if (result.getStatus() != UpdateResult.Status.CONFLICT) {
+                return new UpdateResult(result.getStatus(), null, merged);
+            }
+            base = result.getCurrent();
+            merged = true;
+        }
+        return new UpdateResult(UpdateResult.Status.CONFLICT, base, merged);
+    }
+
+    /**
+     * Sell the given quantity of the product: record the sale and take it out of the stock,
+     * in one transaction. Returns the URI of the sale, or null if there isn't enough stock.
+     */
+    public static Uri sell(ContentResolver resolver, long productId, int quantity) {
+        ContentValues values = new ContentValues();
+        values.put(SaleEntry.COLUMN_PRODUCT_ID, productId);
+        values.put(SaleEntry.COLUMN_QUANTITY, quantity);
+        return resolver.insert(SaleEntry.CONTENT_URI, values);
+    }
+
+    /**
+     * Hold the given quantity of the product for the given time, for an order that is being
+     * prepared. Held stock can't be sold or held again until the reservation is committed,
+     * released or expires. Returns the id of the reservation, or -1 if not enough of the stock
+     * is available.
+     */
+    public static long reserve(ContentResolver resolver, long productId, int quantity,
+                               long ttlMillis) {
+        Bundle extras = new Bundle();
+        extras.putLong(ProductContract.EXTRA_PRODUCT_ID, productId);
+        extras.putInt(ProductContract.EXTRA_QUANTITY, quantity);
+        extras.putLong(ProductContract.EXTRA_TTL_MILLIS, ttlMillis);
+        Bundle result = resolver.call(ProductContract.BASE_CONTENT_URI,
+                ProductContract.METHOD_RESERVE, null, extras);
+        return result.getLong(ProductContract.RESULT_RESERVATION_ID);
+    }
+
+    /**
+     * Sell the stock held by the reservation and record the sale. Returns false if the
+     * reservation expired or was already committed or released.
+     */
+    public static boolean commitReservation(ContentResolver resolver, long reservationId) {
+        return endReservation(resolver, ProductContract.METHOD_COMMIT_RESERVATION, reservationId);
+    }
+
+    /**
+     * Give back the stock held by the reservation. Returns false if there was nothing to give
+     * back.
+     */
+    public static boolean releaseReservation(ContentResolver resolver, long reservationId) {
+        return endReservation(resolver, ProductContract.METHOD_RELEASE_RESERVATION, reservationId);
+    }
+
+    private static boolean endReservation(ContentResolver resolver, String method,
+                                          long reservationId) {
+        Bundle result = resolver.call(ProductContract.BASE_CONTENT_URI, method,
+                String.valueOf(reservationId), null);
+        return result.getInt(ProductContract.RESULT_ROWS) != 0;
+    }
+
+    /**
+     * Move the given quantity of the product from one location to another, in one transaction.
+     * The total stock of the product stays the same. Returns the URI of the transfer, or null
+     * if the product doesn't have enough stock at the source location.
+     */
+    public static Uri transfer(ContentResolver resolver, long productId, String from, String to,
+                               int quantity) {
+        ContentValues values = new ContentValues();
+        values.put(TransferEntry.COLUMN_PRODUCT_ID, productId);
+        values.put(TransferEntry.COLUMN_FROM_LOCATION, from);
+        values.put(TransferEntry.COLUMN_TO_LOCATION, to);
+        values.put(TransferEntry.COLUMN_QUANTITY, quantity);
+        return resolver.insert(TransferEntry.CONTENT_URI, values);
+    }
+
+    /**
+     * Set the stock of the product at the location, e.g. after counting it, which changes its
+     * total stock by the difference. Returns false if there is no such product.
+     */
+    public static boolean setLocationStock(ContentResolver resolver, long productId,
+                                           String location, int stock) {
+        ContentValues values = new ContentValues();
+        values.put(ProductLocationEntry.COLUMN_STOCK, stock);
+        return resolver.update(ProductLocationEntry.buildProductLocationUri(productId, location),
+                values, null, null) != 0;
+    }
+
+    /**
+     * Insert the product, or update the product with the same normalized name. See
+     * {@link ProductContract#METHOD_UPSERT}.
+     */
+    public static UpsertResult upsert(ContentResolver resolver, ContentValues values) {
+        return upsertAll(resolver, new ContentValues[] { values });
+    }
+
+    /**
+     * Insert or update all products by their normalized names. Rows are sent in chunks of
+     * {@link #MAX_UPSERT_ROWS} to stay clear of the Binder transaction limit, and every chunk
+     * is written in a transaction of its own. Running the same import again after a failed
+     * chunk is safe, the rows written before it come back unchanged.
+     */
+    public static UpsertResult upsertAll(ContentResolver resolver, ContentValues[] rows) {
+        UpsertResult result = new UpsertResult(0, 0, 0);
+        for (int start = 0; start < rows.length; start += MAX_UPSERT_ROWS) {
+            ContentValues[] chunk = Arrays.copyOfRange(rows, start,
+                    Math.min(rows.length, start + MAX_UPSERT_ROWS));
+            Bundle extras = new Bundle();
+            extras.putParcelableArray(ProductContract.EXTRA_VALUES, chunk);
+            Bundle bundle = resolver.call(ProductContract.BASE_CONTENT_URI,
+                    ProductContract.METHOD_UPSERT, null, extras);
+            result = result.plus(UpsertResult.fromBundle(bundle));
+        }
+        return result;
+    }
+
+    /**
+     * Change the price of every product the query selects by the given percentage, rounded to
+     * whole amounts. Pass null to change every product. Returns the number of products
+     * changed. See {@link ProductContract#METHOD_ADJUST_PRODUCTS}.
+     */
+    public static int adjustPricesByPercent(ContentResolver resolver, ProductQuery query,
+                                            double percent) {
+        Bundle extras = new Bundle();
+        extras.putDouble(ProductContract.EXTRA_PRICE_PERCENT, percent);
+        return adjustProducts(resolver, query, extras);
+    }
+
+    /**
+     * Add the given amount to the price of every product the query selects.
+     */
+    public static int adjustPrices(ContentResolver resolver, ProductQuery query, int change) {
+        Bundle extras = new Bundle();
+        extras.putInt(ProductContract.EXTRA_PRICE_CHANGE, change);
+        return adjustProducts(resolver, query, extras);
+    }
+
+    /**
+     * Set the stock of every product the query selects, as after a stock-take.
+     */
+    public static int setStocks(ContentResolver resolver, ProductQuery query, int stock) {
+        Bundle extras = new Bundle();
+        extras.putInt(ProductContract.EXTRA_STOCK, stock);
+        return adjustProducts(resolver, query, extras);
+    }
+
+    /**
+     * Add the given amount to the stock of every product the query selects.
+     */
+    public static int adjustStocks(ContentResolver resolver, ProductQuery query, int change) {
+        Bundle extras = new Bundle();
+        extras.putInt(ProductContract.EXTRA_STOCK_CHANGE, change);
+        return adjustProducts(resolver, query, extras);
+    }
+
+    private static int adjustProducts(ContentResolver resolver, ProductQuery query,
+                                      Bundle extras) {
+        Bundle result = resolver.call(ProductContract.BASE_CONTENT_URI,
+                ProductContract.METHOD_ADJUST_PRODUCTS,
+                query == null ? null : query.toUri().toString(), extras);
+        return result.getInt(ProductContract.RESULT_ROWS);
+    }
+
+    /**
+     * Rebase changes made against {@code base} onto {@code current}, the row as somebody else
+     * left it. A stock change is applied as a delta, so sales and edits made at the same time
+     * add up. For every other column our value wins. Columns that already hold our value are
+     * dropped, so the result may be empty.
+     */
+    static ContentValues merge(Product base, Product current, ContentValues changes) {
+        ContentValues merged = new ContentValues();
+        for (String column : changes.keySet()) {
+            if (ProductEntry.COLUMN_PRODUCT_STOCK.equals(column)) {
+                int delta = changes.getAsInteger(column) - base.getStock();
+                int stock = Math.max(0, current.getStock() + delta);
+                if (stock != current.getStock()) {
+                    merged.put(column, stock);
+                }
+                continue;
+            }
+            Object ours = changes.get(column);
+            Object theirs = current.getValue(column);
+            if (ours == null ? theirs != null : !ours.equals(theirs)) {
+                putValue(merged, column, ours);
+            }
+        }
+        return merged;
+    }
+
+    /**
+     * Read the current snapshot of a product, or null if it doesn't exist.
+     */
+    public static Product query(ContentResolver resolver, long id) {
+        Cursor cursor = resolver.query(ContentUris.withAppendedId(ProductEntry.CONTENT_URI, id),
+                Product.COLUMNS, null, null, null);
+        if (cursor == null) {
+            return null;
+        }
+        try {
+            return cursor.moveToFirst() ? Product.fromCursor(cursor) : null;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static void putValue(ContentValues values, String column, Object value) {
+        if (value == null) {
+            values.putNull(column);
+        } else if (value instanceof Integer) {
+            values.put(column, (Integer) value);
+        } else if (value instanceof Long) {
+            values.put(column, (Long) value);
+        } else {
+            values.put(column, value.toString());
+        }
+    }
+}
@@ -0,0 +1,175 @@
+package com.example.android.inventoryapp.data;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import com.example.android.inventoryapp.data.ProductContract.ProductEntry;
+import com.example.android.inventoryapp.data.ProductContract.ReservationEntry;
+
+/**
+ * Holds on the stock of products for orders that are being prepared.
+ *
+ * A product keeps the sum of its active holds in {@link ProductEntry#COLUMN_PRODUCT_RESERVED},
+ * so its available stock is the stock minus that, without counting anything. The sum is kept
+ * up to date by the triggers of migration 9: a new hold adds to it, a released or expired one
+ * subtracts from it, and a committed one subtracts from both the stock and the sum and records
+ * the sale. Reserving, committing and releasing are each one conditional statement, so two
+ * callers can never hold or sell the same item. The stock can't be lowered below the sum of
+ * the holds, a trigger of migration 12 refuses that, so a hold can always be committed.
+ *
+ * Expired holds count until they are swept, in batches along the index on their expiry. The
+ * holds of a product are swept before it is reserved or sold, so they never block anything.
+ */
+final class Reservations {
+
+    /** Holds swept per batch */
+    static final int SWEEP_BATCH_SIZE = 500;
+
+    private Reservations() {}
+
+    /**
+     * Hold the quantity of the product until the given time, if that much of it is available.
+     * Returns the id of the reservation, or -1 if there isn't enough available stock (or no
+     * such product).
+     */
+    static long reserve(SQLiteDatabase db, long productId, int quantity, long expiresAt,
+                        long now) {
+        sweepProduct(db, productId, now);
+        SQLiteStatement statement = db.compileStatement("INSERT INTO " + ReservationEntry.TABLE_NAME
+                + " (" + ReservationEntry.COLUMN_PRODUCT_ID + ", " + ReservationEntry.COLUMN_QUANTITY
+                + ", " + ReservationEntry.COLUMN_EXPIRES_AT + ") SELECT " + ProductEntry._ID
+                + ", ?, ? FROM " + ProductEntry.TABLE_NAME + " WHERE " + ProductEntry._ID
+                + " = ? AND " + availableStock() + " >= ?");
+        try {
+            statement.bindLong(1, quantity);
+            statement.bindLong(2, expiresAt);
+            statement.bindLong(3, productId);
+            statement.bindLong(4, quantity);
+            // -1 if the condition let no row through
+            return statement.executeInsert();
+        } finally {
+            statement.close();
+        }
+    }
+
+    /**
+     * Sell the held stock, unless the hold expired, was already committed or released, or the
+     * stock fell below it in the meantime. Returns whether or not it was sold.
+     */
+    static boolean commit(SQLiteDatabase db, long reservationId, long now) {
+        SQLiteStatement statement = db.compileStatement("UPDATE " + ReservationEntry.TABLE_NAME
+                + " SET " + ReservationEntry.COLUMN_COMMITTED_AT + " = ? WHERE "
+                + ReservationEntry._ID + " = ? AND " + ReservationEntry.COLUMN_COMMITTED_AT
+                + " IS NULL AND " + ReservationEntry.COLUMN_EXPIRES_AT + " > ? AND "
+                + ReservationEntry.COLUMN_QUANTITY + " <= (SELECT "
+                + ProductEntry.COLUMN_PRODUCT_STOCK + " FROM " + ProductEntry.TABLE_NAME
+                + " WHERE " + ProductEntry.TABLE_NAME + "." + ProductEntry._ID + " = "
+                + ReservationEntry.TABLE_NAME + "." + ReservationEntry.COLUMN_PRODUCT_ID + ")");
+        try {
+            statement.bindLong(1, now);
+            statement.bindLong(2, reservationId);
+            statement.bindLong(3, now);
+            return statement.executeUpdateDelete() != 0;
+        } finally {
+            statement.close();
+        }
+    }
+
+    /**
+     * Give the held stock back. Returns whether or not there was a hold to release.
+     */
+    static boolean release(SQLiteDatabase db, long reservationId) {
+        return db.delete(ReservationEntry.TABLE_NAME, ReservationEntry._ID + "=?",
+                new String[] { String.valueOf(reservationId) }) != 0;
+    }
+
+    /**
+     * Returns the product of the reservation, or -1 if there is no such reservation.
+     */
+    static long getProductId(SQLiteDatabase db, long reservationId) {
+        Cursor cursor = db.query(ReservationEntry.TABLE_NAME,
+                new String[] { ReservationEntry.COLUMN_PRODUCT_ID }, ReservationEntry._ID + "=?",
+                new String[] { String.valueOf(reservationId) }, null, null, null);
+        try {
+            return cursor.moveToFirst() ? cursor.getLong(0) : -1;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Release the expired holds of one product. Returns how many there were.
+     */
+    static int sweepProduct(SQLiteDatabase db, long productId, long now) {
+        return db.delete(ReservationEntry.TABLE_NAME, ReservationEntry.COLUMN_PRODUCT_ID
+                + "=? AND " + ReservationEntry.COLUMN_EXPIRES_AT + "<=?",
+                new String[] { String.valueOf(productId), String.valueOf(now) });
+    }
+
+    /**
+     * Release the expired holds of the products the selection of the products table selects.
+     * Returns how many there were.
+     */
+    static int sweepProducts(SQLiteDatabase db, String selection, String[] selectionArgs,
+                             long now) {
+        String products = "SELECT " + ProductEntry._ID + " FROM " + ProductEntry.TABLE_NAME
+                + (selection == null ? "" : " WHERE " + selection);
+        int count = selectionArgs == null ? 0 : selectionArgs.length;
+        String[] args = new String[count + 1];
+        for (int i = 0; i < count; i++) {
+            args[i] = selectionArgs[i];
+        }
+        args[count] = String.valueOf(now);
+        return db.delete(ReservationEntry.TABLE_NAME, ReservationEntry.COLUMN_PRODUCT_ID
+                + " IN (" + products + ") AND " + ReservationEntry.COLUMN_EXPIRES_AT + "<=?", args);
+    }
+
+    /**
+     * Release the holds of the product if the given stock doesn't cover them all, e.g. when
+     * the stock of another store overrules ours. Returns how many holds were released.
+     */
+    static int releaseUncovered(SQLiteDatabase db, long productId, int stock) {
+        String id = String.valueOf(productId);
+        return db.delete(ReservationEntry.TABLE_NAME, ReservationEntry.COLUMN_PRODUCT_ID
+                + "=? AND " + ReservationEntry.COLUMN_COMMITTED_AT + " IS NULL AND (SELECT "
+                + ProductEntry.COLUMN_PRODUCT_RESERVED + " FROM " + ProductEntry.TABLE_NAME
+                + " WHERE " + ProductEntry._ID + "=?) > ?",
+                new String[] { id, id, String.valueOf(stock) });
+    }
+
+    /**
+     * Release every expired hold, a batch at a time, and return how many there were. This must
+     * be called in a chunk of the bulk lane of the executor, interactive work gets its turn
+     * between the batches.
+     */
+    static int sweepExpired(SQLiteDatabase db, DatabaseExecutor executor, long now) {
+        int swept = 0;
+        int batch;
+        while ((batch = sweepBatch(db, now, SWEEP_BATCH_SIZE)) == SWEEP_BATCH_SIZE) {
+            swept += batch;
+            executor.yieldBulkChunk();
+        }
+        swept += batch;
+        InventoryMetrics.add("reservations.expired", swept);
+        return swept;
+    }
+
+    /**
+     * Release the next batch of expired holds, the ones that expired first. Returns how many
+     * there were, fewer than the batch size once none are left.
+     */
+    private static int sweepBatch(SQLiteDatabase db, long now, int batchSize) {
+        return db.delete(ReservationEntry.TABLE_NAME, ReservationEntry._ID + " IN (SELECT "
+                + ReservationEntry._ID + " FROM " + ReservationEntry.TABLE_NAME + " WHERE "
+                + ReservationEntry.COLUMN_EXPIRES_AT + "<=? ORDER BY "
+                + ReservationEntry.COLUMN_EXPIRES_AT + " LIMIT " + batchSize + ")",
+                new String[] { String.valueOf(now) });
+    }
+
+    /** SQL expression of the available stock of a product */
+    static String availableStock() {
+        return "(" + ProductEntry.COLUMN_PRODUCT_STOCK + " - "
+                + ProductEntry.COLUMN_PRODUCT_RESERVED + ")";
+    }
+}
@@ -0,0 +1,98 @@
+package com.example.android.inventoryapp.data;
+
+import android.content.ContentValues;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import com.example.android.inventoryapp.data.ProductContract.ProductEntry;
+
+/**
+ * The version of a product row ({@link ProductEntry#COLUMN_PRODUCT_VERSION}), which counts up
+ * with every change of its product data, so an editor can tell that the row changed under it.
+ *
+ * Every statement that writes product data counts it up itself, in the same UPDATE, rather
+ * than leaving it to a trigger: a trigger could only do it with a second UPDATE of the row,
+ * which fires every other update trigger of the products a second time. The triggers that
+ * write the stock do the same (see migration 13 of {@link ProductMigrations}).
+ */
+final class RowVersion {
+
+    /** The columns of product data. Changing any of them counts the version up. */
+    static final String[] DATA_COLUMNS = {
+            ProductEntry.COLUMN_PRODUCT_NAME,
+            ProductEntry.COLUMN_PRODUCT_STOCK,
+            ProductEntry.COLUMN_PRODUCT_PRICE,
+            ProductEntry.COLUMN_PRODUCT_PICTURE,
+            ProductEntry.COLUMN_PRODUCT_REORDER_THRESHOLD};
+
+    /** SQL assignment that counts the version of the updated row up */
+    static final String BUMP = ProductEntry.COLUMN_PRODUCT_VERSION + " = "
+            + ProductEntry.COLUMN_PRODUCT_VERSION + " + 1";
+
+    private RowVersion() {}
+
+    /**
+     * Returns whether or not the column is one of the {@link #DATA_COLUMNS}.
+     */
+    static boolean isDataColumn(String column) {
+        for (String dataColumn : DATA_COLUMNS) {
+            if (dataColumn.equals(column)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns whether or not the values write any of the {@link #DATA_COLUMNS}.
+     */
+    static boolean changesData(ContentValues values) {
+        for (String column : DATA_COLUMNS) {
+            if (values.containsKey(column)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Update the selected products with the given values, as
+     * {@link SQLiteDatabase#update(String, ContentValues, String, String[])} would, and count up
+     * the version of every updated row if the values write product data. Returns the number of
+     * rows updated.
+     */
+    static int update(SQLiteDatabase db, ContentValues values, String whereClause,
+                      String[] whereArgs) {
+        if (!changesData(values)) {
+            return db.update(ProductEntry.TABLE_NAME, values, whereClause, whereArgs);
+        }
+
+        StringBuilder sql = new StringBuilder("UPDATE " + ProductEntry.TABLE_NAME + " SET ");
+        Object[] bindArgs = new Object[values.size()];
+        int i = 0;
+        for (String column : values.keySet()) {
+            sql.append(column).append(" = ?, ");
+            bindArgs[i++] = values.get(column);
+        }
+        sql.append(BUMP);
+        if (whereClause != null) {
+            sql.append(" WHERE ").append(whereClause);
+        }
+
+        SQLiteStatement statement = db.compileStatement(sql.toString());
+        try {
+            for (i = 0; i < bindArgs.length; i++) {
+                DatabaseUtils.bindObjectToProgram(statement, i + 1, bindArgs[i]);
+            }
+            if (whereArgs != null) {
+                for (String arg : whereArgs) {
+                    statement.bindString(++i, arg);
+                }
+            }
+            return statement.executeUpdateDelete();
+        } finally {
+            statement.close();
+        }
+    }
+}
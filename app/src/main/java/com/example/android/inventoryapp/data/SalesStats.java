@@ -0,0 +1,151 @@
+package com.example.android.inventoryapp.data;
+
+import android.content.ContentValues;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.util.Log;
+
+import com.example.android.inventoryapp.data.ProductContract.SalesRollupEntry;
+import com.example.android.inventoryapp.data.ProductContract.SalesStatsEntry;
+
+/**
+ * Keeps the sliding windows of the per-product sales counters (see {@link SalesStatsEntry}).
+ *
+ * The counters hold every sale of a day after {@code end day - window}, where the end day is
+ * stored in {@link #WINDOW_TABLE}. New sales are added by a trigger. When the day changes,
+ * {@link #advanceWindows} moves the end day forward and subtracts the daily rollup bucket of
+ * every day that left a window, which only touches the products that sold on that day.
+ */
+final class SalesStats {
+
+    public static final String LOG_TAG = SalesStats.class.getSimpleName();
+
+    /** Single row table holding the UTC day the windows end on */
+    static final String WINDOW_TABLE = "sales_stats_window";
+    static final String COLUMN_END_DAY = "end_day";
+
+    /** The two windows, in days */
+    static final int SHORT_WINDOW_DAYS = 7;
+    static final int LONG_WINDOW_DAYS = 30;
+
+    private SalesStats() {}
+
+    /** Returns the start of the UTC day of the given time. */
+    static long startOfDay(long millis) {
+        return millis - millis % SalesRollupEntry.DAY_MILLIS;
+    }
+
+    /**
+     * Returns the counter column of the given window, or throws an IllegalArgumentException
+     * if there is no such window.
+     */
+    static String counterColumn(int windowDays) {
+        if (windowDays == SHORT_WINDOW_DAYS) {
+            return SalesStatsEntry.COLUMN_SOLD_7_DAYS;
+        }
+        if (windowDays == LONG_WINDOW_DAYS) {
+            return SalesStatsEntry.COLUMN_SOLD_30_DAYS;
+        }
+        throw new IllegalArgumentException("Unknown sales window of " + windowDays + " days");
+    }
+
+    /**
+     * Returns whether or not the windows end before the day of the given time, i.e.
+     * {@link #advanceWindows} has something to do. Only reads.
+     */
+    static boolean isBehind(SQLiteDatabase db, long nowMillis) {
+        return DatabaseUtils.longForQuery(db, "SELECT " + COLUMN_END_DAY + " FROM "
+                + WINDOW_TABLE, null) < startOfDay(nowMillis);
+    }
+
+    /**
+     * Move the windows forward to the day of the given time. Does nothing, and writes nothing,
+     * if they already end on that day. Returns whether or not the counters changed.
+     */
+    static boolean advanceWindows(SQLiteDatabase db, long nowMillis) {
+        if (!isBehind(db, nowMillis)) {
+            return false;
+        }
+        long today = startOfDay(nowMillis);
+
+        db.beginTransaction();
+        try {
+            // Read again inside the transaction, another thread may have advanced meanwhile
+            long endDay = DatabaseUtils.longForQuery(db, "SELECT " + COLUMN_END_DAY
+                    + " FROM " + WINDOW_TABLE, null);
+            long days = (today - endDay) / SalesRollupEntry.DAY_MILLIS;
+            if (days <= 0) {
+                return false;
+            }
+            if (days >= LONG_WINDOW_DAYS) {
+                // Every day of both windows changed, counting from scratch is cheaper
+                rebuild(db, today);
+            } else {
+                for (long day = endDay + SalesRollupEntry.DAY_MILLIS; day <= today;
+                        day += SalesRollupEntry.DAY_MILLIS) {
+                    expire(db, SalesStatsEntry.COLUMN_SOLD_7_DAYS,
+                            day - SHORT_WINDOW_DAYS * SalesRollupEntry.DAY_MILLIS);
+                    expire(db, SalesStatsEntry.COLUMN_SOLD_30_DAYS,
+                            day - LONG_WINDOW_DAYS * SalesRollupEntry.DAY_MILLIS);
+                }
+            }
+            ContentValues values = new ContentValues();
+            values.put(COLUMN_END_DAY, today);
+            db.update(WINDOW_TABLE, values, null, null);
+            db.setTransactionSuccessful();
+            Log.d(LOG_TAG, "Advanced sales windows by " + days + " days");
+        } finally {
+            db.endTransaction();
+        }
+        InventoryMetrics.increment("sales_stats.window_advances");
+        return true;
+    }
+
+    /**
+     * Subtract the sales of the given day from the given counter, for the products that sold
+     * anything that day.
+     */
+    private static void expire(SQLiteDatabase db, String counter, long day) {
+        SQLiteStatement update = db.compileStatement("UPDATE " + SalesStatsEntry.TABLE_NAME
+                + " SET " + counter + " = " + counter + " - (SELECT "
+                + SalesRollupEntry.COLUMN_QUANTITY + " FROM " + SalesRollupEntry.TABLE_DAILY
+                + " WHERE " + SalesRollupEntry.TABLE_DAILY + "." + SalesRollupEntry.COLUMN_PRODUCT_ID
+                + " = " + SalesStatsEntry.TABLE_NAME + "." + SalesStatsEntry.COLUMN_PRODUCT_ID
+                + " AND " + SalesRollupEntry.COLUMN_BUCKET_START + " = ?1)"
+                + " WHERE " + SalesStatsEntry.COLUMN_PRODUCT_ID + " IN (SELECT "
+                + SalesRollupEntry.COLUMN_PRODUCT_ID + " FROM " + SalesRollupEntry.TABLE_DAILY
+                + " WHERE " + SalesRollupEntry.COLUMN_BUCKET_START + " = ?1)");
+        try {
+            update.bindLong(1, day);
+            update.executeUpdateDelete();
+        } finally {
+            update.close();
+        }
+    }
+
+    /**
+     * Recount both windows, ending on the given day, from the daily rollup.
+     */
+    private static void rebuild(SQLiteDatabase db, long endDay) {
+        String productId = SalesStatsEntry.TABLE_NAME + "." + SalesStatsEntry.COLUMN_PRODUCT_ID;
+        db.execSQL("UPDATE " + SalesStatsEntry.TABLE_NAME + " SET "
+                + SalesStatsEntry.COLUMN_SOLD_7_DAYS + " = " + sumSince(productId, "?1") + ", "
+                + SalesStatsEntry.COLUMN_SOLD_30_DAYS + " = " + sumSince(productId, "?2"),
+                new Object[] {
+                        endDay - SHORT_WINDOW_DAYS * SalesRollupEntry.DAY_MILLIS,
+                        endDay - LONG_WINDOW_DAYS * SalesRollupEntry.DAY_MILLIS });
+    }
+
+    /**
+     * Returns the SQL expression for the items the given product sold in the days after the
+     * given one. Both arguments are SQL expressions.
+     */
+    static String sumSince(String productId, String afterDay) {
+        return "COALESCE((SELECT SUM(" + SalesRollupEntry.COLUMN_QUANTITY + ") FROM "
+                + SalesRollupEntry.TABLE_DAILY + " WHERE "
+                + SalesRollupEntry.TABLE_DAILY + "." + SalesRollupEntry.COLUMN_PRODUCT_ID
+                + " = " + productId
+                + " AND " + SalesRollupEntry.COLUMN_BUCKET_START + " > " + afterDay + "), 0)";
+    }
+}
@@ -0,0 +1,152 @@
+package com.example.android.inventoryapp.data;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.util.AtomicFile;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A tiny file holding the first rows of the catalog as they were last shown, so a cold start
+ * can render them before the database is even open.
+ *
+ * The snapshot is only a preview: it is replaced by real query results as soon as they arrive.
+ */
+public final class StartupSnapshot {
+
+    public static final String LOG_TAG = StartupSnapshot.class.getSimpleName();
+
+    /** Number of rows kept, about one screen of the catalog */
+    public static final int MAX_ROWS = 20;
+
+    /** Name of the snapshot file in the app's files directory */
+    private static final String FILE_NAME = "startup_snapshot.bin";
+
+    /** Format version, bumped whenever the file layout changes. Other versions are ignored. */
+    private static final int FORMAT_VERSION = 1;
+
+    private StartupSnapshot() {}
+
+    /**
+     * Read the snapshot. Returns an empty list if there is none or it can't be read.
+     * This does disk I/O and must not be called on the main thread.
+     */
+    public static List<Product> read(Context context) {
+        List<Product> products = new ArrayList<>();
+        AtomicFile file = getFile(context);
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(file.openRead()));
+            if (in.readInt() != FORMAT_VERSION) {
+                return products;
+            }
+            int count = Math.min(in.readInt(), MAX_ROWS);
+            for (int i = 0; i < count; i++) {
+                products.add(new Product(in.readLong(), in.readUTF(), in.readInt(), in.readInt(),
+                        in.readUTF(), in.readInt(), in.readInt()));
+            }
+        } catch (FileNotFoundException e) {
+            // No snapshot yet, e.g. on the very first start
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "Ignoring unreadable startup snapshot", e);
+            products.clear();
+        } finally {
+            closeQuietly(in);
+        }
+        return products;
+    }
+
+    /**
+     * Replace the snapshot with the given products, of which only the first {@link #MAX_ROWS}
+     * are kept. This does disk I/O and must not be called on the main thread.
+     */
+    public static void write(Context context, List<Product> products) {
+        AtomicFile file = getFile(context);
+        FileOutputStream out = null;
+        try {
+            out = file.startWrite();
+            DataOutputStream data = new DataOutputStream(new BufferedOutputStream(out));
+            int count = Math.min(products.size(), MAX_ROWS);
+            data.writeInt(FORMAT_VERSION);
+            data.writeInt(count);
+            for (int i = 0; i < count; i++) {
+                Product product = products.get(i);
+                data.writeLong(product.getId());
+                data.writeUTF(nullToEmpty(product.getName()));
+                data.writeInt(product.getStock());
+                data.writeInt(product.getPrice());
+                data.writeUTF(nullToEmpty(product.getPicture()));
+                data.writeInt(product.getVersion());
+                data.writeInt(product.getReorderThreshold());
+            }
+            data.flush();
+            file.finishWrite(out);
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "Failed to write startup snapshot", e);
+            if (out != null) {
+                file.failWrite(out);
+            }
+        }
+    }
+
+    /**
+     * Read the first {@link #MAX_ROWS} rows of a cursor, from its first row on.
+     * The cursor must contain all of {@link Product#COLUMNS}.
+     */
+    public static List<Product> firstRows(Cursor cursor) {
+        List<Product> products = new ArrayList<>();
+        int position = cursor.getPosition();
+        if (cursor.moveToFirst()) {
+            ProductMapper mapper = ProductMapper.forCursor(cursor);
+            do {
+                products.add(mapper.read(cursor));
+            } while (products.size() < MAX_ROWS && cursor.moveToNext());
+        }
+        cursor.moveToPosition(position);
+        return products;
+    }
+
+    /**
+     * Wrap snapshot rows in a cursor with all of {@link Product#COLUMNS}.
+     */
+    public static Cursor toCursor(List<Product> products) {
+        MatrixCursor cursor = new MatrixCursor(Product.COLUMNS, products.size());
+        for (Product product : products) {
+            Object[] row = new Object[Product.COLUMNS.length];
+            for (int i = 0; i < row.length; i++) {
+                row[i] = product.getValue(Product.COLUMNS[i]);
+            }
+            cursor.addRow(row);
+        }
+        return cursor;
+    }
+
+    private static AtomicFile getFile(Context context) {
+        return new AtomicFile(new File(context.getFilesDir(), FILE_NAME));
+    }
+
+    private static String nullToEmpty(String value) {
+        return value == null ? "" : value;
+    }
+
+    private static void closeQuietly(DataInputStream in) {
+        if (in != null) {
+            try {
+                in.close();
+            } catch (IOException e) {
+                // Nothing left to do
+            }
+        }
+    }
+}
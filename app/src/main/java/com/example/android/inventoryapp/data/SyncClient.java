@@ -0,0 +1,203 @@
+package com.example.android.inventoryapp.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.example.android.inventoryapp.data.ProductContract.ProductEntry;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Syncs the products of this store with a {@link SyncServer}: first pushes the changes of the
+ * {@link ChangeLog} in batches, then pulls the changes the server accepted from other stores.
+ *
+ * Conflicts are decided by row versions. A pushed change carries the server version the
+ * product was last synced at, and the server only accepts it if it still holds that version.
+ * Otherwise the server's newer version wins: it replaces the local product, and the local
+ * change is dropped. Pulled changes are applied if they are newer than the version the local
+ * product was synced at, which also skips our own changes coming back.
+ *
+ * Every batch is applied in one transaction, in a chunk of the bulk lane, and records its
+ * progress, so an interrupted sync continues where it stopped.
+ */
+final class SyncClient {
+
+    public static final String LOG_TAG = SyncClient.class.getSimpleName();
+
+    /** Changes per push and pull */
+    static final int BATCH_SIZE = 500;
+
+    private final SQLiteDatabase mDb;
+    private final DatabaseExecutor mExecutor;
+
+    private int mPushed;
+    private int mPulled;
+    private int mConflicts;
+    private long mBytesSent;
+    private long mBytesReceived;
+
+    SyncClient(SQLiteDatabase db, DatabaseExecutor executor) {
+        mDb = db;
+        mExecutor = executor;
+    }
+
+    /**
+     * Push every local change, then pull every remote change. This talks to the server and
+     * must not be called on the main thread.
+     */
+    SyncReport sync(SyncServer server) throws IOException {
+        long start = SystemClock.elapsedRealtime();
+        while (pushBatch(server)) {
+            // Until the log is empty
+        }
+        while (pullBatch(server)) {
+            // Until the server has nothing more
+        }
+        long elapsed = SystemClock.elapsedRealtime() - start;
+
+        InventoryMetrics.add("sync.pushed", mPushed);
+        InventoryMetrics.add("sync.pulled", mPulled);
+        InventoryMetrics.add("sync.conflicts", mConflicts);
+        InventoryMetrics.add("sync.bytes_sent", mBytesSent);
+        InventoryMetrics.add("sync.bytes_received", mBytesReceived);
+        InventoryMetrics.setGauge("sync.last_ms", elapsed);
+        SyncReport report = new SyncReport(mPushed, mPulled, mConflicts, mBytesSent,
+                mBytesReceived, elapsed);
+        Log.i(LOG_TAG, "Synced: " + report);
+        return report;
+    }
+
+    /**
+     * Push the next batch of changes. Returns false if there were none.
+     */
+    private boolean pushBatch(SyncServer server) throws IOException {
+        List<SyncRecord> changes = ChangeLog.readChanges(mDb,
+                ChangeLog.getState(mDb, ChangeLog.STATE_PUSHED_SEQ), BATCH_SIZE);
+        if (changes.isEmpty()) {
+            return false;
+        }
+        byte[] request = SyncCodec.encodePush(changes);
+        byte[] response = server.push(request);
+        mBytesSent += request.length;
+        mBytesReceived += response.length;
+        List<SyncCodec.PushResult> results = SyncCodec.decodePushResults(response);
+        if (results.size() != changes.size()) {
+            throw new IOException("Expected " + changes.size() + " push results, got "
+                    + results.size());
+        }
+
+        mExecutor.beginBulkChunk();
+        mDb.beginTransaction();
+        try {
+            for (int i = 0; i < changes.size(); i++) {
+                SyncCodec.PushResult result = results.get(i);
+                if (result.accepted) {
+                    setBaseVersion(changes.get(i).syncId, result.version);
+                } else {
+                    applyRemote(result.current);
+                    mConflicts++;
+                }
+            }
+            // Changes are read in order, everything up to the last one was pushed. A product
+            // changed again since is logged after it and goes with a later batch.
+            long pushedSeq = changes.get(changes.size() - 1).seq;
+            ChangeLog.putState(mDb, ChangeLog.STATE_PUSHED_SEQ, pushedSeq);
+            ChangeLog.prune(mDb, pushedSeq);
+            mDb.setTransactionSuccessful();
+        } finally {
+            mDb.endTransaction();
+            mExecutor.endBulkChunk();
+        }
+        mPushed += changes.size();
+        return true;
+    }
+
+    /**
+     * Pull and apply the next batch of remote changes. Returns whether the server has more.
+     */
+    private boolean pullBatch(SyncServer server) throws IOException {
+        long cursor = ChangeLog.getState(mDb, ChangeLog.STATE_REMOTE_CURSOR);
+        byte[] request = SyncCodec.encodePullRequest(cursor, BATCH_SIZE);
+        byte[] response = server.pull(request);
+        mBytesSent += request.length;
+        mBytesReceived += response.length;
+        SyncCodec.PullResponse pulled = SyncCodec.decodePullResponse(response);
+
+        mExecutor.beginBulkChunk();
+        mDb.beginTransaction();
+        try {
+            for (SyncRecord record : pulled.records) {
+                if (applyRemote(record)) {
+                    mPulled++;
+                }
+            }
+            ChangeLog.putState(mDb, ChangeLog.STATE_REMOTE_CURSOR, pulled.nextCursor);
+            mDb.setTransactionSuccessful();
+        } finally {
+            mDb.endTransaction();
+            mExecutor.endBulkChunk();
+        }
+        return pulled.more;
+    }
+
+    private void setBaseVersion(String syncId, int version) {
+        ContentValues values = new ContentValues();
+        values.put(ChangeLog.COLUMN_BASE_VERSION, version);
+        // Not product data, so neither the row version nor the log change
+        mDb.update(ProductEntry.TABLE_NAME, values, ChangeLog.COLUMN_SYNC_ID + "=?",
+                new String[] { syncId });
+    }
+
+    /**
+     * Write the server's version of a product, unless the local product is already at that
+     * version or a newer one. Returns whether or not anything was written.
+     */
+    private boolean applyRemote(SyncRecord record) {
+        String[] syncIdArgs = { record.syncId };
+        Cursor cursor = mDb.query(ProductEntry.TABLE_NAME,
+                new String[] { ProductEntry._ID, ChangeLog.COLUMN_BASE_VERSION },
+                ChangeLog.COLUMN_SYNC_ID + "=?", syncIdArgs, null, null, null);
+        boolean exists;
+        long productId;
+        int baseVersion;
+        try {
+            exists = cursor.moveToFirst();
+            productId = exists ? cursor.getLong(0) : -1;
+            baseVersion = exists ? cursor.getInt(1) : 0;
+        } finally {
+            cursor.close();
+        }
+        if (exists ? record.version <= baseVersion : record.deleted) {
+            return false;
+        }
+
+        if (record.deleted) {
+            mDb.delete(ProductEntry.TABLE_NAME, ChangeLog.COLUMN_SYNC_ID + "=?", syncIdArgs);
+        } else {
+            ContentValues values = new ContentValues();
+            values.put(ProductEntry.COLUMN_PRODUCT_NAME, record.name);
+            values.put(ProductEntry.COLUMN_PRODUCT_NAME_KEY,
+                    ProductEntry.normalizeName(record.name));
+            values.put(ProductEntry.COLUMN_PRODUCT_STOCK, record.stock);
+            values.put(ProductEntry.COLUMN_PRODUCT_PRICE, record.price);
+            values.put(ProductEntry.COLUMN_PRODUCT_PICTURE, record.picture);
+            values.put(ProductEntry.COLUMN_PRODUCT_REORDER_THRESHOLD, record.reorderThreshold);
+            values.put(ChangeLog.COLUMN_BASE_VERSION, record.version);
+            if (exists) {
+                // The stock of the other store wins, holds it no longer covers can't be sold
+                Reservations.releaseUncovered(mDb, productId, record.stock);
+                RowVersion.update(mDb, values, ChangeLog.COLUMN_SYNC_ID + "=?", syncIdArgs);
+            } else {
+                values.put(ChangeLog.COLUMN_SYNC_ID, record.syncId);
+                mDb.insertOrThrow(ProductEntry.TABLE_NAME, null, values);
+            }
+        }
+        // The write was logged by the triggers, and any local change is overruled by it
+        ChangeLog.forget(mDb, record.syncId);
+        return true;
+    }
+}
@@ -0,0 +1,190 @@
+package com.example.android.inventoryapp.data;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * The messages exchanged with a {@link SyncServer}. Batches of records are written with a
+ * DataOutputStream and compressed with gzip, as most of a batch is the same few column values
+ * over and over. The small pull request is sent as it is.
+ *
+ * A push request is a list of records. Its response holds one result per record, in the same
+ * order: the new version if the change was accepted, or the record the server holds if the
+ * change was based on an older version. A pull request is the cursor to continue after and
+ * the maximum number of records. Its response is the next cursor, whether more records are
+ * waiting, and the records.
+ */
+final class SyncCodec {
+
+    /** Result of one pushed record */
+    static final class PushResult {
+        final boolean accepted;
+        /** The new server version if accepted */
+        final int version;
+        /** The record the server holds if not accepted */
+        final SyncRecord current;
+
+        PushResult(boolean accepted, int version, SyncRecord current) {
+            this.accepted = accepted;
+            this.version = version;
+            this.current = current;
+        }
+    }
+
+    /** Response of a pull */
+    static final class PullResponse {
+        final long nextCursor;
+        final boolean more;
+        final List<SyncRecord> records;
+
+        PullResponse(long nextCursor, boolean more, List<SyncRecord> records) {
+            this.nextCursor = nextCursor;
+            this.more = more;
+            this.records = records;
+        }
+    }
+
+    private SyncCodec() {}
+
+    static byte[] encodePush(List<SyncRecord> records) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(new GZIPOutputStream(bytes));
+        writeRecords(out, records);
+        out.close();
+        return bytes.toByteArray();
+    }
+
+    static List<SyncRecord> decodePush(byte[] request) throws IOException {
+        DataInputStream in = openCompressed(request);
+        try {
+            return readRecords(in);
+        } finally {
+            in.close();
+        }
+    }
+
+    static byte[] encodePushResults(List<PushResult> results) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(new GZIPOutputStream(bytes));
+        out.writeInt(results.size());
+        for (PushResult result : results) {
+            out.writeBoolean(result.accepted);
+            if (result.accepted) {
+                out.writeInt(result.version);
+            } else {
+                writeRecord(out, result.current);
+            }
+        }
+        out.close();
+        return bytes.toByteArray();
+    }
+
+    static List<PushResult> decodePushResults(byte[] response) throws IOException {
+        DataInputStream in = openCompressed(response);
+        try {
+            int count = in.readInt();
+            List<PushResult> results = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                if (in.readBoolean()) {
+                    results.add(new PushResult(true, in.readInt(), null));
+                } else {
+                    results.add(new PushResult(false, 0, readRecord(in)));
+                }
+            }
+            return results;
+        } finally {
+            in.close();
+        }
+    }
+
+    static byte[] encodePullRequest(long cursor, int limit) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeLong(cursor);
+        out.writeInt(limit);
+        out.close();
+        return bytes.toByteArray();
+    }
+
+    /** Returns the cursor and the limit of a pull request */
+    static long[] decodePullRequest(byte[] request) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(request));
+        try {
+            return new long[] { in.readLong(), in.readInt() };
+        } finally {
+            in.close();
+        }
+    }
+
+    static byte[] encodePullResponse(PullResponse response) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(new GZIPOutputStream(bytes));
+        out.writeLong(response.nextCursor);
+        out.writeBoolean(response.more);
+        writeRecords(out, response.records);
+        out.close();
+        return bytes.toByteArray();
+    }
+
+    static PullResponse decodePullResponse(byte[] response) throws IOException {
+        DataInputStream in = openCompressed(response);
+        try {
+            long nextCursor = in.readLong();
+            boolean more = in.readBoolean();
+            return new PullResponse(nextCursor, more, readRecords(in));
+        } finally {
+            in.close();
+        }
+    }
+
+    private static DataInputStream openCompressed(byte[] message) throws IOException {
+        return new DataInputStream(new GZIPInputStream(new ByteArrayInputStream(message)));
+    }
+
+    private static void writeRecords(DataOutputStream out, List<SyncRecord> records)
+            throws IOException {
+        out.writeInt(records.size());
+        for (SyncRecord record : records) {
+            writeRecord(out, record);
+        }
+    }
+
+    private static List<SyncRecord> readRecords(DataInputStream in) throws IOException {
+        int count = in.readInt();
+        List<SyncRecord> records = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            records.add(readRecord(in));
+        }
+        return records;
+    }
+
+    private static void writeRecord(DataOutputStream out, SyncRecord record) throws IOException {
+        out.writeUTF(record.syncId);
+        out.writeInt(record.version);
+        out.writeBoolean(record.deleted);
+        if (!record.deleted) {
+            out.writeUTF(record.name);
+            out.writeInt(record.stock);
+            out.writeInt(record.price);
+            out.writeUTF(record.picture);
+            out.writeInt(record.reorderThreshold);
+        }
+    }
+
+    private static SyncRecord readRecord(DataInputStream in) throws IOException {
+        String syncId = in.readUTF();
+        int version = in.readInt();
+        if (in.readBoolean()) {
+            return SyncRecord.deleted(syncId, version, 0);
+        }
+        return new SyncRecord(syncId, version, in.readUTF(), in.readInt(), in.readInt(),
+                in.readUTF(), in.readInt(), 0);
+    }
+}
@@ -0,0 +1,68 @@
+package com.example.android.inventoryapp.data;
+
+/**
+ * A product as it travels between a store and the sync server, identified by its sync id
+ * rather than by the row id, which is only meaningful on one device.
+ *
+ * Pushed by a store, the version is the server version its change was based on. Sent by the
+ * server, it is the version the server holds. A deleted product only carries its sync id and
+ * version.
+ */
+final class SyncRecord {
+
+    final String syncId;
+    final int version;
+    final boolean deleted;
+    final String name;
+    final int stock;
+    final int price;
+    final String picture;
+    final int reorderThreshold;
+
+    /** Sequence number of the local change this record was read for, 0 if it wasn't */
+    final long seq;
+
+    SyncRecord(String syncId, int version, String name, int stock, int price, String picture,
+               int reorderThreshold, long seq) {
+        this.syncId = syncId;
+        this.version = version;
+        this.deleted = false;
+        this.name = name;
+        this.stock = stock;
+        this.price = price;
+        this.picture = picture;
+        this.reorderThreshold = reorderThreshold;
+        this.seq = seq;
+    }
+
+    private SyncRecord(String syncId, int version, long seq) {
+        this.syncId = syncId;
+        this.version = version;
+        this.deleted = true;
+        this.name = null;
+        this.stock = 0;
+        this.price = 0;
+        this.picture = null;
+        this.reorderThreshold = 0;
+        this.seq = seq;
+    }
+
+    /** Returns the record of a deleted product */
+    static SyncRecord deleted(String syncId, int version, long seq) {
+        return new SyncRecord(syncId, version, seq);
+    }
+
+    /** Returns the same record at another version */
+    SyncRecord withVersion(int version) {
+        if (deleted) {
+            return deleted(syncId, version, seq);
+        }
+        return new SyncRecord(syncId, version, name, stock, price, picture, reorderThreshold, seq);
+    }
+
+    @Override
+    public String toString() {
+        return "SyncRecord{" + syncId + " v" + version
+                + (deleted ? " deleted" : " " + name + ", stock " + stock + ", price " + price) + "}";
+    }
+}
@@ -0,0 +1,60 @@
+package com.example.android.inventoryapp.data;
+
+/**
+ * What a sync with a {@link SyncServer} did: the changes pushed and pulled, the conflicts
+ * where the server already held a newer version, the bytes sent and received, and how long
+ * it took.
+ */
+public final class SyncReport {
+
+    private final int mPushed;
+    private final int mPulled;
+    private final int mConflicts;
+    private final long mBytesSent;
+    private final long mBytesReceived;
+    private final long mElapsedMillis;
+
+    SyncReport(int pushed, int pulled, int conflicts, long bytesSent, long bytesReceived,
+               long elapsedMillis) {
+        mPushed = pushed;
+        mPulled = pulled;
+        mConflicts = conflicts;
+        mBytesSent = bytesSent;
+        mBytesReceived = bytesReceived;
+        mElapsedMillis = elapsedMillis;
+    }
+
+    /** Returns the number of changed products sent to the server */
+    public int getPushed() {
+        return mPushed;
+    }
+
+    /** Returns the number of remote changes applied to the local products */
+    public int getPulled() {
+        return mPulled;
+    }
+
+    /** Returns the number of pushed changes replaced by the newer version of the server */
+    public int getConflicts() {
+        return mConflicts;
+    }
+
+    public long getBytesSent() {
+        return mBytesSent;
+    }
+
+    public long getBytesReceived() {
+        return mBytesReceived;
+    }
+
+    public long getElapsedMillis() {
+        return mElapsedMillis;
+    }
+
+    @Override
+    public String toString() {
+        return "SyncReport{pushed=" + mPushed + ", pulled=" + mPulled + ", conflicts=" + mConflicts
+                + ", sent=" + mBytesSent + " B, received=" + mBytesReceived + " B, "
+                + mElapsedMillis + " ms}";
+    }
+}
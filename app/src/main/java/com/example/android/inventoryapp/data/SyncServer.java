@@ -0,0 +1,25 @@
+package com.example.android.inventoryapp.data;
+
+import java.io.IOException;
+
+/**
+ * Transport to the central inventory service. The messages are opaque to the transport: it
+ * sends the request bytes and hands back the response bytes, which are compressed batches
+ * the sync client writes and reads itself.
+ *
+ * The server keeps a version per product and a log of every change it accepted. A pushed
+ * change is only accepted if it is based on the version the server holds. Pulls page through
+ * the log after a cursor the store keeps.
+ */
+public interface SyncServer {
+
+    /**
+     * Send a batch of local changes and return the result of each.
+     */
+    byte[] push(byte[] request) throws IOException;
+
+    /**
+     * Return the changes the server accepted after the cursor in the request.
+     */
+    byte[] pull(byte[] request) throws IOException;
+}
@@ -0,0 +1,49 @@
+package com.example.android.inventoryapp.data;
+
+/**
+ * Outcome of a version checked product update made through {@link ProductWriter}.
+ */
+public final class UpdateResult {
+
+    public enum Status {
+        /** The row was updated */
+        UPDATED,
+        /** The row was changed by someone else since it was read, nothing was written */
+        CONFLICT,
+        /** The row no longer exists */
+        NOT_FOUND
+    }
+
+    private final Status mStatus;
+    private final Product mCurrent;
+    private final boolean mMerged;
+
+    UpdateResult(Status status, Product current, boolean merged) {
+        mStatus = status;
+        mCurrent = current;
+        mMerged = merged;
+    }
+
+    public Status getStatus() {
+        return mStatus;
+    }
+
+    public boolean isUpdated() {
+        return mStatus == Status.UPDATED;
+    }
+
+    /**
+     * For a {@link Status#CONFLICT}, the row as it is now in the database. Otherwise null.
+     */
+    public Product getCurrent() {
+        return mCurrent;
+    }
+
+    /**
+     * Returns whether or not the changes had to be merged with a concurrent change of the row
+     * before they could be written.
+     */
+    public boolean isMerged() {
+        return mMerged;
+    }
+}
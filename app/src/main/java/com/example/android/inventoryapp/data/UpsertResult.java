@@ -0,0 +1,61 @@
+package com.example.android.inventoryapp.data;
+
+import android.os.Bundle;
+
+/**
+ * Outcome of an upsert of products made through {@link ProductWriter#upsert}: how many of the
+ * rows were new, how many changed an existing product, and how many matched it already.
+ */
+public final class UpsertResult {
+
+    private final int mInserted;
+    private final int mUpdated;
+    private final int mUnchanged;
+
+    UpsertResult(int inserted, int updated, int unchanged) {
+        mInserted = inserted;
+        mUpdated = updated;
+        mUnchanged = unchanged;
+    }
+
+    /**
+     * Read the result of a {@link ProductContract#METHOD_UPSERT} call.
+     */
+    static UpsertResult fromBundle(Bundle bundle) {
+        return new UpsertResult(bundle.getInt(ProductContract.RESULT_INSERTED),
+                bundle.getInt(ProductContract.RESULT_UPDATED),
+                bundle.getInt(ProductContract.RESULT_UNCHANGED));
+    }
+
+    Bundle toBundle() {
+        Bundle bundle = new Bundle();
+        bundle.putInt(ProductContract.RESULT_INSERTED, mInserted);
+        bundle.putInt(ProductContract.RESULT_UPDATED, mUpdated);
+        bundle.putInt(ProductContract.RESULT_UNCHANGED, mUnchanged);
+        return bundle;
+    }
+
+    /** Returns the sum of this and the other result */
+    UpsertResult plus(UpsertResult other) {
+        return new UpsertResult(mInserted + other.mInserted, mUpdated + other.mUpdated,
+                mUnchanged + other.mUnchanged);
+    }
+
+    public int getInserted() {
+        return mInserted;
+    }
+
+    public int getUpdated() {
+        return mUpdated;
+    }
+
+    public int getUnchanged() {
+        return mUnchanged;
+    }
+
+    @Override
+    public String toString() {
+        return "UpsertResult{inserted=" + mInserted + ", updated=" + mUpdated
+                + ", unchanged=" + mUnchanged + "}";
+    }
+}
@@ -0,0 +1,80 @@
+package com.example.android.inventoryapp;
+
+import com.example.android.inventoryapp.data.RecordingProductProvider.Call;
+
+import java.util.List;
+
+import static org.junit.Assert.fail;
+
+/**
+ * The number of provider calls a screen is allowed to make during one lifecycle. File reads
+ * and writes don't count as queries or writes, but do count as main thread calls when they
+ * happen there. A run that goes over any of the limits fails the test, and with it the build.
+ */
+public class ScreenBudget {
+
+    private final String mScreen;
+    private int mMaxQueries;
+    private int mMaxWrites;
+    private int mMaxMainThreadCalls;
+
+    private ScreenBudget(String screen) {
+        mScreen = screen;
+    }
+
+    /**
+     * Start a budget for the given screen. Every limit starts at zero.
+     */
+    public static ScreenBudget forScreen(String screen) {
+        return new ScreenBudget(screen);
+    }
+
+    public ScreenBudget maxQueries(int queries) {
+        mMaxQueries = queries;
+        return this;
+    }
+
+    public ScreenBudget maxWrites(int writes) {
+        mMaxWrites = writes;
+        return this;
+    }
+
+    public ScreenBudget maxMainThreadCalls(int calls) {
+        mMaxMainThreadCalls = calls;
+        return this;
+    }
+
+    /**
+     * Fails with the full list of recorded calls if any limit was exceeded.
+     */
+    public void assertWithin(List<Call> calls) {
+        int queries = 0;
+        int writes = 0;
+        int mainThreadCalls = 0;
+        for (Call call : calls) {
+            if (call.isRead()) {
+                queries++;
+            } else if (call.isWrite()) {
+                writes++;
+            }
+            if (call.onMainThread) {
+                mainThreadCalls++;
+            }
+        }
+
+        StringBuilder overBudget = new StringBuilder();
+        if (queries > mMaxQueries) {
+            overBudget.append("\n  queries: ").append(queries).append(" > ").append(mMaxQueries);
+        }
+        if (writes > mMaxWrites) {
+            overBudget.append("\n  writes: ").append(writes).append(" > ").append(mMaxWrites);
+        }
+        if (mainThreadCalls > mMaxMainThreadCalls) {
+            overBudget.append("\n  main thread calls and file accesses: ").append(mainThreadCalls)
+                    .append(" > ").append(mMaxMainThreadCalls);
+        }
+        if (overBudget.length() > 0) {
+            fail(mScreen + " is over budget:" + overBudget + "\nrecorded calls: " + calls);
+        }
+    }
+}
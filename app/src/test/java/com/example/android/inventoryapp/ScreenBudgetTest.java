@@ -0,0 +1,154 @@
+package com.example.android.inventoryapp;
+
+import android.app.Activity;
+import android.content.ContentValues;
+import android.content.Intent;
+import android.net.Uri;
+
+import com.example.android.inventoryapp.data.Product;
+import com.example.android.inventoryapp.data.ProductContract;
+import com.example.android.inventoryapp.data.ProductContract.ProductEntry;
+import com.example.android.inventoryapp.data.RecordingProductProvider;
+import com.example.android.inventoryapp.data.StartupSnapshot;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+import org.robolectric.util.ActivityController;
+import org.robolectric.util.Scheduler;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Query-count and main-thread I/O budgets for each screen.
+ *
+ * Every test opens a screen through its full lifecycle against a {@link RecordingProductProvider}
+ * and checks the recorded provider calls and file accesses against the screen's
+ * {@link ScreenBudget}.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 22)
+public class ScreenBudgetTest {
+
+    /** Upper bound on scheduler rounds, so a task that keeps re-posting itself fails fast. */
+    private static final int MAX_SETTLE_ROUNDS = 100;
+
+    @Before
+    public void setUp() {
+        Robolectric.setupContentProvider(RecordingProductProvider.class,
+                ProductContract.CONTENT_AUTHORITY);
+        Robolectric.getBackgroundThreadScheduler().pause();
+        Robolectric.getForegroundThreadScheduler().pause();
+        RecordingProductProvider.reset();
+    }
+
+    @After
+    public void tearDown() {
+        RecordingProductProvider.stopRecording();
+    }
+
+    @Test
+    public void catalogOpen_isWithinBudget() {
+        open(Robolectric.buildActivity(CatalogActivity.class));
+
+        // The first page read during startup is the first result of the catalog loader
+        ScreenBudget.forScreen("CatalogActivity open")
+                .maxQueries(1)
+                .maxWrites(0)
+                .maxMainThreadCalls(0)
+                .assertWithin(RecordingProductProvider.getCalls());
+    }
+
+    @Test
+    public void editorOpenForNewProduct_isWithinBudget() {
+        open(Robolectric.buildActivity(EditorActivity.class));
+
+        ScreenBudget.forScreen("EditorActivity open (new product)")
+                .maxQueries(0)
+                .maxWrites(0)
+                .maxMainThreadCalls(0)
+                .assertWithin(RecordingProductProvider.getCalls());
+    }
+
+    @Test
+    public void editorOpenForExistingProduct_isWithinBudget() {
+        Uri productUri = insertTestProduct();
+        RecordingProductProvider.reset();
+
+        Intent intent = new Intent(RuntimeEnvironment.application, EditorActivity.class);
+        intent.setData(productUri);
+        open(Robolectric.buildActivity(EditorActivity.class).withIntent(intent));
+
+        ScreenBudget.forScreen("EditorActivity open (existing product)")
+                .maxQueries(1)
+                .maxWrites(0)
+                .maxMainThreadCalls(0)
+                .assertWithin(RecordingProductProvider.getCalls());
+    }
+
+    @Test
+    public void mainThreadFileAccess_isOverBudget() {
+        RecordingProductProvider.setMainThreadPhase(true);
+        StartupSnapshot.write(RuntimeEnvironment.application, new ArrayList<Product>());
+        StartupSnapshot.read(RuntimeEnvironment.application);
+        RecordingProductProvider.setMainThreadPhase(false);
+
+        List<RecordingProductProvider.Call> calls = RecordingProductProvider.getCalls();
+        boolean sawFile = false;
+        for (RecordingProductProvider.Call call : calls) {
+            sawFile |= call.isDiskAccess() && call.onMainThread;
+        }
+        assertTrue("No file access recorded: " + calls, sawFile);
+        boolean overBudget = false;
+        try {
+            ScreenBudget.forScreen("Startup snapshot on the main thread")
+                    .maxMainThreadCalls(0)
+                    .assertWithin(calls);
+        } catch (AssertionError expected) {
+            // File access on the main thread counts against the budget
+            overBudget = true;
+        }
+        assertTrue("Main thread file access was within budget", overBudget);
+    }
+
+    /**
+     * Drive the activity from create to visible on the main thread, then let loaders and
+     * posted UI work run until both schedulers are idle.
+     */
+    private <T extends Activity> void open(ActivityController<T> controller) {
+        RecordingProductProvider.setMainThreadPhase(true);
+        controller.create().start().postCreate(null).resume().visible();
+        settle();
+    }
+
+    private void settle() {
+        Scheduler background = Robolectric.getBackgroundThreadScheduler();
+        Scheduler foreground = Robolectric.getForegroundThreadScheduler();
+        int rounds = 0;
+        while ((background.size() > 0 || foreground.size() > 0) && rounds++ < MAX_SETTLE_ROUNDS) {
+            RecordingProductProvider.setMainThreadPhase(false);
+            background.advanceToLastPostedRunnable();
+            RecordingProductProvider.setMainThreadPhase(true);
+            foreground.advanceToLastPostedRunnable();
+        }
+        RecordingProductProvider.setMainThreadPhase(false);
+    }
+
+    private Uri insertTestProduct() {
+        ContentValues values = new ContentValues();
+        values.put(ProductEntry.COLUMN_PRODUCT_NAME, "Budget Product");
+        values.put(ProductEntry.COLUMN_PRODUCT_STOCK, 5);
+        values.put(ProductEntry.COLUMN_PRODUCT_PRICE, 250);
+        values.put(ProductEntry.COLUMN_PRODUCT_PICTURE, ProductEntry.NO_IMAGE);
+        return RuntimeEnvironment.application.getContentResolver()
+                .insert(ProductEntry.CONTENT_URI, values);
+    }
+}
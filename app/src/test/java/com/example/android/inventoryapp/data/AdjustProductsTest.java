@@ -0,0 +1,161 @@
+package com.example.android.inventoryapp.data;
+
+import android.content.ContentResolver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Bundle;
+
+import com.example.android.inventoryapp.BuildConfig;
+import com.example.android.inventoryapp.data.ProductContract.ProductEntry;
+import com.example.android.inventoryapp.data.ProductContract.ProductQuery;
+import com.example.android.inventoryapp.data.ProductContract.ReorderEntry;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowContentResolver;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static com.example.android.inventoryapp.data.TestProducts.insertProduct;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+import static org.robolectric.Shadows.shadowOf;
+
+/**
+ * Set-based adjustments change every selected product in one statement with one change
+ * notification, and change nothing at all if any product would end up invalid.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 22)
+public class AdjustProductsTest {
+
+    private static final ProductQuery IN_STOCK =
+            new ProductQuery.Builder().setInStockOnly(true).build();
+
+    private ProductProvider mProvider;
+    private ContentResolver mResolver;
+
+    @Before
+    public void setUp() {
+        mProvider = Robolectric.setupContentProvider(ProductProvider.class,
+                ProductContract.CONTENT_AUTHORITY);
+        mResolver = RuntimeEnvironment.application.getContentResolver();
+        insertProduct(mResolver, "Pen", 7, 150);
+        insertProduct(mResolver, "Pencil", 0, 80);
+        insertProduct(mResolver, "Paper", 12, 250);
+        shadowOf(mResolver).getNotifiedUris().clear();
+    }
+
+    @Test
+    public void percentageChangesSelectedPricesWithOneNotification() {
+        Bundle extras = new Bundle();
+        extras.putDouble(ProductContract.EXTRA_PRICE_PERCENT, 5);
+        assertEquals(2, adjust(IN_STOCK, extras));
+
+        assertPrices(158, 80, 263);
+        List<Uri> notified = new ArrayList<>();
+        for (ShadowContentResolver.NotifiedUri notifiedUri : shadowOf(mResolver).getNotifiedUris()) {
+            notified.add(notifiedUri.uri);
+        }
+        assertEquals(Arrays.asList(ProductEntry.CONTENT_URI, ReorderEntry.CONTENT_URI), notified);
+    }
+
+    @Test
+    public void stocksAreSetOrChanged() {
+        Bundle extras = new Bundle();
+        extras.putInt(ProductContract.EXTRA_STOCK, 7);
+        // The pen already has 7, so only the others change
+        assertEquals(2, adjust(null, extras));
+        assertEquals(0, adjust(null, extras));
+
+        extras = new Bundle();
+        extras.putInt(ProductContract.EXTRA_STOCK_CHANGE, -2);
+        extras.putInt(ProductContract.EXTRA_PRICE_CHANGE, 10);
+        assertEquals(2, adjust(new ProductQuery.Builder().setNamePrefix("pen").build(), extras));
+        assertPrices(160, 90, 250);
+        assertStocks(5, 5, 7);
+    }
+
+    @Test
+    public void invalidResultsChangeNothing() {
+        Bundle extras = new Bundle();
+        extras.putInt(ProductContract.EXTRA_STOCK_CHANGE, -8);
+        assertRejected(extras);
+
+        extras = new Bundle();
+        extras.putInt(ProductContract.EXTRA_PRICE_CHANGE, -100);
+        assertRejected(extras);
+
+        extras.putDouble(ProductContract.EXTRA_PRICE_PERCENT, 5);
+        assertRejected(extras);
+
+        assertRejected(new Bundle());
+        assertPrices(150, 80, 250);
+        assertStocks(7, 0, 12);
+    }
+
+    @Test
+    public void resultsTooLargeForAnIntChangeNothing() {
+        Bundle extras = new Bundle();
+        extras.putInt(ProductContract.EXTRA_STOCK_CHANGE, Integer.MAX_VALUE);
+        assertRejected(extras);
+
+        extras = new Bundle();
+        extras.putInt(ProductContract.EXTRA_PRICE_CHANGE, Integer.MAX_VALUE - 100);
+        assertRejected(extras);
+
+        extras = new Bundle();
+        extras.putDouble(ProductContract.EXTRA_PRICE_PERCENT, 1e12);
+        assertRejected(extras);
+
+        assertPrices(150, 80, 250);
+        assertStocks(7, 0, 12);
+    }
+
+    /**
+     * Call the provider directly, as {@link ProductWriter} would through the resolver
+     */
+    private int adjust(ProductQuery query, Bundle extras) {
+        Bundle result = mProvider.call(ProductContract.METHOD_ADJUST_PRODUCTS,
+                query == null ? null : query.toUri().toString(), extras);
+        return result.getInt(ProductContract.RESULT_ROWS);
+    }
+
+    private void assertRejected(Bundle extras) {
+        try {
+            adjust(null, extras);
+            fail("Expected the adjustment to be rejected: " + extras);
+        } catch (IllegalArgumentException expected) {
+            // Expected
+        }
+    }
+
+    private void assertPrices(Integer... prices) {
+        assertEquals(Arrays.asList(prices), readColumn(ProductEntry.COLUMN_PRODUCT_PRICE));
+    }
+
+    private void assertStocks(Integer... stocks) {
+        assertEquals(Arrays.asList(stocks), readColumn(ProductEntry.COLUMN_PRODUCT_STOCK));
+    }
+
+    private List<Integer> readColumn(String column) {
+        Cursor cursor = mResolver.query(ProductEntry.CONTENT_URI, new String[] { column },
+                null, null, ProductEntry._ID);
+        try {
+            List<Integer> values = new ArrayList<>();
+            while (cursor.moveToNext()) {
+                values.add(cursor.getInt(0));
+            }
+            return values;
+        } finally {
+            cursor.close();
+        }
+    }
+}
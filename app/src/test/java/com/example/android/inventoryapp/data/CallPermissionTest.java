@@ -0,0 +1,67 @@
+package com.example.android.inventoryapp.data;
+
+import android.os.Bundle;
+import android.os.Process;
+
+import com.example.android.inventoryapp.BuildConfig;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowBinder;
+
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.fail;
+
+/**
+ * Calls from other apps need the permissions of the provider, calls from the app itself don't.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 22)
+public class CallPermissionTest {
+
+    private ProductProvider mProvider;
+
+    @Before
+    public void setUp() {
+        mProvider = Robolectric.setupContentProvider(ProductProvider.class,
+                ProductContract.CONTENT_AUTHORITY);
+    }
+
+    @After
+    public void tearDown() {
+        ShadowBinder.reset();
+    }
+
+    @Test
+    public void theAppItselfNeedsNoPermission() {
+        assertNotNull(mProvider.call(ProductContract.METHOD_GET_METRICS, null, null));
+        assertNotNull(mProvider.call(ProductContract.METHOD_SWEEP_RESERVATIONS, null, null));
+    }
+
+    @Test
+    public void otherAppsNeedThePermissions() {
+        ShadowBinder.setCallingUid(Process.myUid() + 1);
+
+        String[] methods = { ProductContract.METHOD_GET_METRICS,
+                ProductContract.METHOD_READ_COLUMNS, ProductContract.METHOD_BACKUP,
+                ProductContract.METHOD_RESTORE, ProductContract.METHOD_RUN_MAINTENANCE,
+                ProductContract.METHOD_UPSERT, ProductContract.METHOD_ADJUST_PRODUCTS,
+                ProductContract.METHOD_RESERVE, ProductContract.METHOD_COMMIT_RESERVATION,
+                ProductContract.METHOD_RELEASE_RESERVATION,
+                ProductContract.METHOD_SWEEP_RESERVATIONS };
+        for (String method : methods) {
+            try {
+                // Checked before the arguments, so none are needed
+                mProvider.call(method, null, new Bundle());
+                fail(method + " was called without the permission");
+            } catch (SecurityException expected) {
+                // Expected
+            }
+        }
+    }
+}
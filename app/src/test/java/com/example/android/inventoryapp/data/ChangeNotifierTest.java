@@ -0,0 +1,177 @@
+package com.example.android.inventoryapp.data;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.net.Uri;
+
+import com.example.android.inventoryapp.BuildConfig;
+import com.example.android.inventoryapp.data.ProductContract.ProductEntry;
+import com.example.android.inventoryapp.data.ProductContract.ReorderEntry;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowContentResolver;
+import org.robolectric.shadows.ShadowLooper;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static com.example.android.inventoryapp.data.TestProducts.product;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.robolectric.Shadows.shadowOf;
+
+/**
+ * Batches send every changed URI once when they end, and earlier as well once a change waited
+ * too long. Batches only hold back the changes of their own thread.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 22)
+public class ChangeNotifierTest {
+
+    private ContentResolver mResolver;
+
+    @Before
+    public void setUp() {
+        Robolectric.setupContentProvider(ProductProvider.class, ProductContract.CONTENT_AUTHORITY);
+        mResolver = RuntimeEnvironment.application.getContentResolver();
+    }
+
+    @Test
+    public void bulkInsertNotifiesOnce() {
+        ContentValues[] rows = new ContentValues[100];
+        for (int i = 0; i < rows.length; i++) {
+            rows[i] = product("Product " + i, 5, 100);
+        }
+
+        assertEquals(rows.length, mResolver.bulkInsert(ProductEntry.CONTENT_URI, rows));
+
+        assertNotified(ProductEntry.CONTENT_URI, ReorderEntry.CONTENT_URI);
+    }
+
+    @Test
+    public void applyBatchDropsDuplicatesAndDescendants() throws Exception {
+        Uri pen = mResolver.insert(ProductEntry.CONTENT_URI, product("Pen", 5, 100));
+        Uri ink = mResolver.insert(ProductEntry.CONTENT_URI, product("Ink", 5, 100));
+        shadowOf(mResolver).getNotifiedUris().clear();
+
+        ArrayList<ContentProviderOperation> operations = new ArrayList<>();
+        for (int stock = 1; stock <= 10; stock++) {
+            operations.add(ContentProviderOperation.newUpdate(pen)
+                    .withValue(ProductEntry.COLUMN_PRODUCT_STOCK, stock).build());
+        }
+        operations.add(ContentProviderOperation.newUpdate(ink)
+                .withValue(ProductEntry.COLUMN_PRODUCT_STOCK, 3).build());
+        mResolver.applyBatch(ProductContract.CONTENT_AUTHORITY, operations);
+        assertNotified(pen, ReorderEntry.CONTENT_URI, ink);
+
+        // Notifying all products reaches the observers of single products as well
+        operations.clear();
+        operations.add(ContentProviderOperation.newUpdate(pen)
+                .withValue(ProductEntry.COLUMN_PRODUCT_STOCK, 20).build());
+        operations.add(ContentProviderOperation.newInsert(ProductEntry.CONTENT_URI)
+                .withValues(product("Paper", 5, 100)).build());
+        mResolver.applyBatch(ProductContract.CONTENT_AUTHORITY, operations);
+        assertNotified(ReorderEntry.CONTENT_URI, ProductEntry.CONTENT_URI);
+    }
+
+    @Test
+    public void openBatchIsFlushedAfterMaxLatency() {
+        ChangeNotifier notifier = new ChangeNotifier(mResolver);
+        Uri pen = ContentUris.withAppendedId(ProductEntry.CONTENT_URI, 1);
+        Uri ink = ContentUris.withAppendedId(ProductEntry.CONTENT_URI, 2);
+
+        notifier.beginBatch();
+        notifier.notifyChange(pen);
+        notifier.notifyChange(pen);
+        assertNotified();
+
+        ShadowLooper.idleMainLooper(ChangeNotifier.MAX_LATENCY_MILLIS);
+        assertNotified(pen);
+
+        // The batch is still open, so the next change waits again
+        notifier.notifyChange(ink);
+        assertNotified();
+        // The pen was sent before the batch was committed, so it is sent again
+        notifier.endBatch();
+        assertNotified(pen, ink);
+
+        // Without a batch changes go out right away
+        notifier.notifyChange(pen);
+        assertNotified(pen);
+    }
+
+    @Test
+    public void batchLongerThanMaxLatencyIsSentAgainWhenItEnds() {
+        ChangeNotifier notifier = new ChangeNotifier(mResolver);
+        Uri pen = ContentUris.withAppendedId(ProductEntry.CONTENT_URI, 1);
+
+        // A long import: its first rows are announced before its transaction is committed
+        notifier.beginBatch();
+        notifier.notifyChange(ProductEntry.CONTENT_URI);
+        ShadowLooper.idleMainLooper(ChangeNotifier.MAX_LATENCY_MILLIS);
+        assertNotified(ProductEntry.CONTENT_URI);
+
+        // Nothing else changes, the commit is announced all the same
+        notifier.notifyChange(pen);
+        notifier.endBatch();
+        assertNotified(ProductEntry.CONTENT_URI);
+    }
+
+    @Test
+    public void batchOfAnotherThreadDoesNotHoldBackChanges() throws Exception {
+        final ChangeNotifier notifier = new ChangeNotifier(mResolver);
+        final CountDownLatch opened = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(1);
+        Thread importer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                notifier.beginBatch();
+                opened.countDown();
+                try {
+                    done.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                notifier.endBatch();
+            }
+        });
+        importer.start();
+        assertTrue(opened.await(1, TimeUnit.SECONDS));
+
+        Uri pen = ContentUris.withAppendedId(ProductEntry.CONTENT_URI, 1);
+        notifier.notifyChange(pen);
+        assertNotified(pen);
+
+        done.countDown();
+        importer.join();
+        try {
+            notifier.endBatch();
+            fail("This thread has no batch open");
+        } catch (IllegalStateException expected) {
+            // Expected
+        }
+    }
+
+    /** Checks the URIs notified since the last check, in order, and forgets them */
+    private void assertNotified(Uri... expected) {
+        List<ShadowContentResolver.NotifiedUri> notified = shadowOf(mResolver).getNotifiedUris();
+        List<Uri> uris = new ArrayList<>();
+        for (ShadowContentResolver.NotifiedUri notifiedUri : notified) {
+            uris.add(notifiedUri.uri);
+        }
+        notified.clear();
+        assertEquals(Arrays.asList(expected), uris);
+    }
+}
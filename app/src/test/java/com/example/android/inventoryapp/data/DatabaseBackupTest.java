@@ -0,0 +1,113 @@
+package com.example.android.inventoryapp.data;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+import android.os.Bundle;
+import android.os.ParcelFileDescriptor;
+
+import com.example.android.inventoryapp.BuildConfig;
+import com.example.android.inventoryapp.data.ProductContract.ProductEntry;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.io.IOException;
+
+import static com.example.android.inventoryapp.data.TestProducts.insertProductId;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * A backup of the database of the app restores the same rows and ids, and the counters of its
+ * AUTOINCREMENT tables, so ids of deleted products aren't handed out again.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 22)
+public class DatabaseBackupTest {
+
+    private ProductProvider mProvider;
+    private ContentResolver mResolver;
+
+    @Before
+    public void setUp() {
+        mProvider = Robolectric.setupContentProvider(ProductProvider.class,
+                ProductContract.CONTENT_AUTHORITY);
+        mResolver = RuntimeEnvironment.application.getContentResolver();
+    }
+
+    @Test
+    public void restoredDatabaseKeepsIdsAndCounters() throws IOException {
+        long pen = insertProductId(mResolver, "Pen", 5, 150);
+        long paper = insertProductId(mResolver, "Paper", 5, 150);
+        long ink = insertProductId(mResolver, "Ink", 5, 150);
+        // The highest id is gone, the counter still remembers it
+        mResolver.delete(ContentUris.withAppendedId(ProductEntry.CONTENT_URI, ink), null, null);
+
+        File backup = new File(RuntimeEnvironment.application.getCacheDir(), "round_trip.backup");
+        callWithFile(ProductContract.METHOD_BACKUP, backup, ParcelFileDescriptor.MODE_WRITE_ONLY
+                | ParcelFileDescriptor.MODE_CREATE | ParcelFileDescriptor.MODE_TRUNCATE);
+        mResolver.delete(ProductEntry.CONTENT_URI, null, null);
+        callWithFile(ProductContract.METHOD_RESTORE, backup, ParcelFileDescriptor.MODE_READ_ONLY);
+
+        assertName("Pen", pen);
+        assertName("Paper", paper);
+        assertFalse(exists(ink));
+
+        SQLiteDatabase db = new ProductDbHelper(RuntimeEnvironment.application)
+                .getReadableDatabase();
+        Cursor sequence = db.rawQuery("SELECT seq FROM sqlite_sequence WHERE name = ?",
+                new String[] { ProductEntry.TABLE_NAME });
+        try {
+            // One row per table, holding the saved counter
+            assertEquals(1, sequence.getCount());
+            assertTrue(sequence.moveToFirst());
+            assertEquals(ink, sequence.getLong(0));
+        } finally {
+            sequence.close();
+        }
+
+        assertEquals(ink + 1, insertProductId(mResolver, "Eraser", 5, 150));
+    }
+
+    private void assertName(String name, long id) {
+        Cursor cursor = mResolver.query(ContentUris.withAppendedId(ProductEntry.CONTENT_URI, id),
+                new String[] { ProductEntry.COLUMN_PRODUCT_NAME }, null, null, null);
+        try {
+            assertTrue(cursor.moveToFirst());
+            assertEquals(name, cursor.getString(0));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private boolean exists(long id) {
+        Uri uri = ContentUris.withAppendedId(ProductEntry.CONTENT_URI, id);
+        Cursor cursor = mResolver.query(uri, new String[] { ProductEntry._ID }, null, null, null);
+        try {
+            return cursor.getCount() != 0;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private void callWithFile(String method, File file, int mode) throws IOException {
+        ParcelFileDescriptor fd = ParcelFileDescriptor.open(file, mode);
+        try {
+            Bundle extras = new Bundle();
+            extras.putParcelable(ProductContract.EXTRA_FILE_DESCRIPTOR, fd);
+            mProvider.call(method, null, extras);
+        } finally {
+            fd.close();
+        }
+    }
+}
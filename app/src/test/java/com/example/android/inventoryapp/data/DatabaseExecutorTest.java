@@ -0,0 +1,195 @@
+package com.example.android.inventoryapp.data;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.database.Cursor;
+
+import com.example.android.inventoryapp.BuildConfig;
+import com.example.android.inventoryapp.data.ProductContract.ProductEntry;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Interactive writes wait for the running bulk chunk for a while, bulk chunks wait for
+ * interactive work, and reads only wait for an exclusive chunk.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 22)
+public class DatabaseExecutorTest {
+
+    /** How long a thread that should be blocked is given to prove it isn't */
+    private static final long BLOCKED_MS = 100;
+
+    private DatabaseExecutor mExecutor;
+
+    @Before
+    public void setUp() {
+        mExecutor = new DatabaseExecutor();
+        InventoryMetrics.reset();
+    }
+
+    @Test
+    public void interactiveWriteWaitsForTheRunningChunk() throws Exception {
+        mExecutor.beginBulkChunk();
+        CountDownLatch entered = startInteractive(true);
+        assertFalse(entered.await(BLOCKED_MS, TimeUnit.MILLISECONDS));
+
+        mExecutor.endBulkChunk();
+        assertTrue(entered.await(1, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void interactiveWriteStopsWaitingForALongChunk() throws Exception {
+        mExecutor.beginBulkChunk();
+        try {
+            CountDownLatch entered = startInteractive(true);
+            assertFalse(entered.await(BLOCKED_MS, TimeUnit.MILLISECONDS));
+            // The chunk is still running
+            assertTrue(entered.await(DatabaseExecutor.MAX_INTERACTIVE_WAIT_MS + 1000,
+                    TimeUnit.MILLISECONDS));
+        } finally {
+            mExecutor.endBulkChunk();
+        }
+    }
+
+    @Test
+    public void bulkInsertLetsWritesGoBetweenItsChunks() throws Exception {
+        final ContentResolver resolver = RuntimeEnvironment.application.getContentResolver();
+        Robolectric.setupContentProvider(ProductProvider.class, ProductContract.CONTENT_AUTHORITY);
+        final ContentValues[] rows = new ContentValues[3 * ProductProvider.BULK_INSERT_CHUNK_SIZE];
+        for (int i = 0; i < rows.length; i++) {
+            rows[i] = new ContentValues();
+            rows[i].put(ProductEntry.COLUMN_PRODUCT_NAME, "Product " + i);
+            rows[i].put(ProductEntry.COLUMN_PRODUCT_STOCK, 1);
+            rows[i].put(ProductEntry.COLUMN_PRODUCT_PRICE, 100);
+            rows[i].put(ProductEntry.COLUMN_PRODUCT_PICTURE, ProductEntry.NO_IMAGE);
+        }
+        Thread bulk = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                resolver.bulkInsert(ProductEntry.CONTENT_URI, rows);
+            }
+        });
+        bulk.start();
+        ContentValues pen = new ContentValues();
+        pen.put(ProductEntry.COLUMN_PRODUCT_NAME, "Pen");
+        pen.put(ProductEntry.COLUMN_PRODUCT_STOCK, 5);
+        pen.put(ProductEntry.COLUMN_PRODUCT_PRICE, 150);
+        pen.put(ProductEntry.COLUMN_PRODUCT_PICTURE, ProductEntry.NO_IMAGE);
+        assertNotNull(resolver.insert(ProductEntry.CONTENT_URI, pen));
+        bulk.join();
+
+        // One chunk per hundred rows, each started anew after giving writes their turn
+        assertEquals(3, InventoryMetrics.getCount("executor.bulk.runs"));
+        Cursor cursor = resolver.query(ProductEntry.CONTENT_URI, null, null, null, null);
+        try {
+            assertEquals(rows.length + 1, cursor.getCount());
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Test
+    public void interactiveReadDoesNotWait() throws Exception {
+        mExecutor.beginBulkChunk();
+        try {
+            assertTrue(startInteractive(false).await(1, TimeUnit.SECONDS));
+        } finally {
+            mExecutor.endBulkChunk();
+        }
+        assertEquals(1, InventoryMetrics.getCount("executor.interactive.runs"));
+    }
+
+    @Test
+    public void bulkChunkYieldsToInteractiveWork() throws Exception {
+        mExecutor.beginInteractive(false);
+        final CountDownLatch started = new CountDownLatch(1);
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                mExecutor.beginBulkChunk();
+                started.countDown();
+                mExecutor.endBulkChunk();
+            }
+        }).start();
+        assertFalse(started.await(BLOCKED_MS, TimeUnit.MILLISECONDS));
+
+        mExecutor.endInteractive();
+        assertTrue(started.await(1, TimeUnit.SECONDS));
+        assertEquals(1, InventoryMetrics.getCount("executor.bulk.runs"));
+    }
+
+    @Test
+    public void theChunkItselfWritesThroughTheInteractiveLane() {
+        mExecutor.beginBulkChunk();
+        try {
+            // Would wait for itself forever if the owner of the chunk had to wait
+            mExecutor.beginInteractive(true);
+            mExecutor.endInteractive();
+        } finally {
+            mExecutor.endBulkChunk();
+        }
+    }
+
+    @Test
+    public void exclusiveChunkWaitsForRunningReads() throws Exception {
+        mExecutor.beginInteractive(false);
+        final CountDownLatch started = new CountDownLatch(1);
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                mExecutor.beginExclusive();
+                started.countDown();
+                mExecutor.endExclusive();
+            }
+        }).start();
+        // Unlike a bulk chunk, it doesn't give up waiting after MAX_BULK_WAIT_MS
+        assertFalse(started.await(2 * DatabaseExecutor.MAX_BULK_WAIT_MS, TimeUnit.MILLISECONDS));
+
+        mExecutor.endInteractive();
+        assertTrue(started.await(1, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void readsWaitForTheExclusiveChunk() throws Exception {
+        mExecutor.beginExclusive();
+        CountDownLatch read = startInteractive(false);
+        CountDownLatch write = startInteractive(true);
+        assertFalse(read.await(BLOCKED_MS, TimeUnit.MILLISECONDS));
+        // Unlike a bulk chunk, it is waited for without a deadline
+        assertFalse(write.await(DatabaseExecutor.MAX_INTERACTIVE_WAIT_MS + BLOCKED_MS,
+                TimeUnit.MILLISECONDS));
+
+        mExecutor.endExclusive();
+        assertTrue(read.await(1, TimeUnit.SECONDS));
+        assertTrue(write.await(1, TimeUnit.SECONDS));
+    }
+
+    /** Enters and leaves the interactive lane on a thread of its own */
+    private CountDownLatch startInteractive(final boolean write) {
+        final CountDownLatch entered = new CountDownLatch(1);
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                mExecutor.beginInteractive(write);
+                entered.countDown();
+                mExecutor.endInteractive();
+            }
+        }).start();
+        return entered;
+    }
+}
@@ -0,0 +1,91 @@
+package com.example.android.inventoryapp.data;
+
+import android.content.ContentResolver;
+import android.content.UriPermission;
+import android.database.Cursor;
+import android.os.Bundle;
+
+import com.example.android.inventoryapp.BuildConfig;
+import com.example.android.inventoryapp.data.ProductContract.ProductEntry;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+import org.robolectric.annotation.Implementation;
+import org.robolectric.annotation.Implements;
+import org.robolectric.shadows.ShadowContentResolver;
+
+import java.util.Collections;
+import java.util.List;
+
+import static com.example.android.inventoryapp.data.TestProducts.insertProductId;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Running the maintenance runs every job, checkpoint included, and leaves the products as
+ * they were.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 22,
+        shadows = DatabaseMaintenanceTest.ShadowPersistedPermissions.class)
+public class DatabaseMaintenanceTest {
+
+    private ProductProvider mProvider;
+    private ContentResolver mResolver;
+
+    @Before
+    public void setUp() {
+        mProvider = Robolectric.setupContentProvider(ProductProvider.class,
+                ProductContract.CONTENT_AUTHORITY);
+        mResolver = RuntimeEnvironment.application.getContentResolver();
+    }
+
+    @Test
+    public void runMaintenance_runsEveryJob() {
+        for (int i = 0; i < 20; i++) {
+            insertProductId(mResolver, "Item " + i, 5, 150);
+        }
+        // Leaves free pages for the vacuum
+        mResolver.delete(ProductEntry.CONTENT_URI, ProductEntry._ID + " > ?",
+                new String[] { "10" });
+
+        Bundle result = mProvider.call(ProductContract.METHOD_RUN_MAINTENANCE, null, null);
+
+        String[] jobs = { DatabaseMaintenance.JOB_RESERVATION_SWEEP,
+                DatabaseMaintenance.JOB_SALES_WINDOWS, DatabaseMaintenance.JOB_VACUUM,
+                DatabaseMaintenance.JOB_ANALYZE, DatabaseMaintenance.JOB_PICTURE_CLEANUP,
+                DatabaseMaintenance.JOB_CHECKPOINT, DatabaseMaintenance.JOB_INTEGRITY_CHECK };
+        for (String job : jobs) {
+            assertTrue("No timing of " + job, result.containsKey(job));
+        }
+        assertTrue(result.getBoolean(DatabaseMaintenance.RESULT_INTEGRITY_OK));
+
+        Cursor cursor = mResolver.query(ProductEntry.CONTENT_URI,
+                new String[] { ProductEntry._ID }, null, null, ProductEntry._ID);
+        try {
+            assertEquals(10, cursor.getCount());
+        } finally {
+            cursor.close();
+        }
+        // Still writable after the checkpoint
+        assertEquals(21, insertProductId(mResolver, "Item 20", 5, 150));
+    }
+
+    /**
+     * The app has no persisted picture permissions in the tests, and the activity manager
+     * that would list them isn't there.
+     */
+    @Implements(ContentResolver.class)
+    public static class ShadowPersistedPermissions extends ShadowContentResolver {
+
+        @Implementation
+        public List<UriPermission> getPersistedUriPermissions() {
+            return Collections.emptyList();
+        }
+    }
+}
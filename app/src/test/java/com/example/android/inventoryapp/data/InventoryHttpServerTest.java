@@ -0,0 +1,235 @@
+package com.example.android.inventoryapp.data;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.net.Uri;
+import android.os.Bundle;
+import android.os.ParcelFileDescriptor;
+
+import com.example.android.inventoryapp.BuildConfig;
+import com.example.android.inventoryapp.data.ProductContract.ProductEntry;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.URL;
+
+import static com.example.android.inventoryapp.data.TestProducts.insertProduct;
+import static com.example.android.inventoryapp.data.TestProducts.product;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Reads the catalog over localhost: pages of products, single products, the export, and
+ * conditional requests that are answered without a body while nothing changed.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 22)
+public class InventoryHttpServerTest {
+
+    private ProductProvider mProvider;
+    private ContentResolver mResolver;
+    private InventoryHttpServer mServer;
+
+    @Before
+    public void setUp() throws IOException {
+        mProvider = Robolectric.setupContentProvider(ProductProvider.class,
+                ProductContract.CONTENT_AUTHORITY);
+        mResolver = RuntimeEnvironment.application.getContentResolver();
+        mServer = new InventoryHttpServer(mResolver, InetAddress.getByName("127.0.0.1"), 0);
+        mServer.start();
+    }
+
+    @After
+    public void tearDown() {
+        mServer.stop();
+    }
+
+    @Test
+    public void productsArePaged() throws Exception {
+        insertProduct(mResolver, "Pen", 7, 150);
+        insertProduct(mResolver, "Paper", 12, 300);
+        insertProduct(mResolver, "Pencil", 0, 90);
+
+        JSONObject first = new JSONObject(get("/products?sort=price&page_size=2", null).body);
+        assertTrue(first.getBoolean("has_more"));
+        JSONArray products = first.getJSONArray("products");
+        assertEquals(2, products.length());
+        assertEquals("Pencil", products.getJSONObject(0).getString("name"));
+        assertEquals(150, products.getJSONObject(1).getInt("price"));
+
+        JSONObject second = new JSONObject(
+                get("/products?sort=price&page_size=2&page=2", null).body);
+        assertFalse(second.getBoolean("has_more"));
+        assertEquals(1, second.getJSONArray("products").length());
+        assertEquals("Paper", second.getJSONArray("products").getJSONObject(0).getString("name"));
+
+        JSONObject inStock = new JSONObject(get("/products?in_stock=1", null).body);
+        assertEquals(2, inStock.getJSONArray("products").length());
+    }
+
+    @Test
+    public void singleProducts() throws Exception {
+        Uri pen = insertProduct(mResolver, "Pen", 7, 150);
+
+        Response response = get("/products/" + ContentUris.parseId(pen), null);
+        assertEquals(200, response.code);
+        JSONObject product = new JSONObject(response.body);
+        assertEquals("Pen", product.getString("name"));
+        assertEquals(7, product.getInt("stock"));
+
+        assertEquals(404, get("/products/" + (ContentUris.parseId(pen) + 1), null).code);
+        assertEquals(404, get("/customers", null).code);
+    }
+
+    @Test
+    public void invalidQueriesAreRejected() throws Exception {
+        assertEquals(400, get("/products?page_size=0", null).code);
+        assertEquals(400, get("/products?sort=colour", null).code);
+    }
+
+    @Test
+    public void unchangedCatalogIsNotSentAgain() throws Exception {
+        Uri pen = insertProduct(mResolver, "Pen", 7, 150);
+        Response first = get("/products", null);
+        assertEquals(200, first.code);
+        assertNotNull(first.etag);
+
+        Response unchanged = get("/products", first.etag);
+        assertEquals(304, unchanged.code);
+        assertEquals("", unchanged.body);
+        assertEquals(first.etag, unchanged.etag);
+
+        ContentValues values = new ContentValues();
+        values.put(ProductEntry.COLUMN_PRODUCT_STOCK, 6);
+        mResolver.update(pen, values, null, null);
+        Response changed = get("/products", first.etag);
+        assertEquals(200, changed.code);
+        assertNotEquals(first.etag, changed.etag);
+        assertEquals(6, new JSONObject(changed.body).getJSONArray("products")
+                .getJSONObject(0).getInt("stock"));
+
+        mResolver.delete(pen, null, null);
+        assertEquals(200, get("/products", changed.etag).code);
+    }
+
+    @Test
+    public void exportStreamsEveryProduct() throws Exception {
+        ContentValues[] rows = new ContentValues[1000];
+        for (int i = 0; i < rows.length; i++) {
+            rows[i] = product("Product " + i, i % 50, 100 + i);
+        }
+        mResolver.bulkInsert(ProductEntry.CONTENT_URI, rows);
+
+        Response response = get("/export", null);
+        assertEquals(200, response.code);
+        String[] lines = response.body.split("\n");
+        assertEquals(rows.length, lines.length);
+        assertEquals("Product 0", new JSONObject(lines[0]).getString("name"));
+        assertEquals(1099, new JSONObject(lines[lines.length - 1]).getInt("price"));
+
+        assertEquals(304, get("/export", response.etag).code);
+    }
+
+    @Test
+    public void restoredCatalogIsSentAgain() throws Exception {
+        insertProduct(mResolver, "Pen", 7, 150);
+        File backup = new File(RuntimeEnvironment.application.getCacheDir(), "catalog.backup");
+        callWithFile(ProductContract.METHOD_BACKUP, backup, ParcelFileDescriptor.MODE_WRITE_ONLY
+                | ParcelFileDescriptor.MODE_CREATE | ParcelFileDescriptor.MODE_TRUNCATE);
+        Response backedUp = get("/products", null);
+        insertProduct(mResolver, "Paper", 12, 300);
+        Response changed = get("/products", null);
+
+        callWithFile(ProductContract.METHOD_RESTORE, backup, ParcelFileDescriptor.MODE_READ_ONLY);
+
+        // The version doesn't go back to the one of the backup, nor to one seen before
+        Response restored = get("/products", backedUp.etag);
+        assertEquals(200, restored.code);
+        assertNotEquals(changed.etag, restored.etag);
+        assertEquals(1, new JSONObject(restored.body).getJSONArray("products").length());
+        assertEquals(304, get("/products", restored.etag).code);
+    }
+
+    @Test
+    public void serverOnlyListensOnItsAddress() throws Exception {
+        assertTrue(mServer.isRunning());
+        assertEquals(200, get("/products", null).code);
+        try {
+            URL url = new URL("http://127.0.0.2:" + mServer.getPort() + "/products");
+            HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+            connection.setConnectTimeout(1000);
+            connection.getResponseCode();
+            fail("The server answered on another address");
+        } catch (IOException expected) {
+            // Connection refused, or no such address
+        }
+    }
+
+    private void callWithFile(String method, File file, int mode) throws IOException {
+        ParcelFileDescriptor fd = ParcelFileDescriptor.open(file, mode);
+        try {
+            Bundle extras = new Bundle();
+            extras.putParcelable(ProductContract.EXTRA_FILE_DESCRIPTOR, fd);
+            mProvider.call(method, null, extras);
+        } finally {
+            fd.close();
+        }
+    }
+
+    private Response get(String path, String etag) throws IOException {
+        URL url = new URL("http://127.0.0.1:" + mServer.getPort() + path);
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        try {
+            if (etag != null) {
+                connection.setRequestProperty("If-None-Match", etag);
+            }
+            int code = connection.getResponseCode();
+            InputStream in = code < 400 ? connection.getInputStream() : connection.getErrorStream();
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            if (in != null) {
+                byte[] buffer = new byte[4096];
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    body.write(buffer, 0, read);
+                }
+                in.close();
+            }
+            return new Response(code, connection.getHeaderField("ETag"), body.toString("UTF-8"));
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+
+    private static final class Response {
+        final int code;
+        final String etag;
+        final String body;
+
+        Response(int code, String etag, String body) {
+            this.code = code;
+            this.etag = etag;
+            this.body = body;
+        }
+    }
+}
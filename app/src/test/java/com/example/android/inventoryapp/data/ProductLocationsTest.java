@@ -0,0 +1,200 @@
+package com.example.android.inventoryapp.data;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+
+import com.example.android.inventoryapp.BuildConfig;
+import com.example.android.inventoryapp.data.ProductContract.ProductEntry;
+import com.example.android.inventoryapp.data.ProductContract.ProductLocationEntry;
+import com.example.android.inventoryapp.data.ProductContract.TransferEntry;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import static com.example.android.inventoryapp.data.TestProducts.insertPen;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * The stock of a product is the total over its locations: setting the stock at a location
+ * changes it, transfers between locations don't, and sales and edits of the product go to the
+ * default location.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 22)
+public class ProductLocationsTest {
+
+    private static final String MAIN = ProductLocationEntry.DEFAULT_LOCATION;
+    private static final String BACKROOM = "backroom";
+
+    private ContentResolver mResolver;
+    private long mPen;
+    private Uri mPenUri;
+
+    @Before
+    public void setUp() {
+        Robolectric.setupContentProvider(ProductProvider.class, ProductContract.CONTENT_AUTHORITY);
+        mResolver = RuntimeEnvironment.application.getContentResolver();
+        mPenUri = insertPen(mResolver);
+        mPen = ContentUris.parseId(mPenUri);
+    }
+
+    @Test
+    public void locationStockSetsTheTotal() {
+        assertLocations(MAIN + "=5");
+
+        assertTrue(ProductWriter.setLocationStock(mResolver, mPen, BACKROOM, 10));
+        assertLocations(BACKROOM + "=10", MAIN + "=5");
+        assertEquals(15, readStock());
+
+        assertTrue(ProductWriter.setLocationStock(mResolver, mPen, MAIN, 1));
+        assertEquals(11, readStock());
+        assertFalse(ProductWriter.setLocationStock(mResolver, mPen + 1, MAIN, 1));
+
+        assertEquals(1, mResolver.delete(
+                ProductLocationEntry.buildProductLocationUri(mPen, BACKROOM), null, null));
+        assertLocations(MAIN + "=1");
+        assertEquals(1, readStock());
+    }
+
+    @Test
+    public void transfersMoveStockAndKeepTheTotal() {
+        long version = readVersion();
+
+        assertNotNull(ProductWriter.transfer(mResolver, mPen, MAIN, BACKROOM, 3));
+        assertLocations(BACKROOM + "=3", MAIN + "=2");
+        assertEquals(5, readStock());
+        assertEquals(version, readVersion());
+
+        // Either both locations change or neither does
+        assertNull(ProductWriter.transfer(mResolver, mPen, MAIN, BACKROOM, 3));
+        assertNull(ProductWriter.transfer(mResolver, mPen, "attic", MAIN, 1));
+        assertLocations(BACKROOM + "=3", MAIN + "=2");
+
+        Cursor transfers = mResolver.query(TransferEntry.CONTENT_URI, new String[] {
+                TransferEntry.COLUMN_FROM_LOCATION, TransferEntry.COLUMN_QUANTITY },
+                null, null, null);
+        try {
+            assertEquals(1, transfers.getCount());
+            transfers.moveToFirst();
+            assertEquals(MAIN, transfers.getString(0));
+            assertEquals(3, transfers.getInt(1));
+        } finally {
+            transfers.close();
+        }
+    }
+
+    @Test
+    public void salesAndEditsGoToTheDefaultLocation() {
+        ProductWriter.setLocationStock(mResolver, mPen, BACKROOM, 10);
+
+        assertNotNull(ProductWriter.sell(mResolver, mPen, 5));
+        assertLocations(BACKROOM + "=10", MAIN + "=0");
+        // The rest is in the backroom, the sale is refused and nothing is recorded
+        assertNull(ProductWriter.sell(mResolver, mPen, 1));
+        assertEquals(10, readStock());
+
+        ContentValues values = new ContentValues();
+        values.put(ProductEntry.COLUMN_PRODUCT_STOCK, 12);
+        assertEquals(1, mResolver.update(mPenUri, values, null, null));
+        assertLocations(BACKROOM + "=10", MAIN + "=2");
+
+        values.put(ProductEntry.COLUMN_PRODUCT_STOCK, 9);
+        try {
+            mResolver.update(mPenUri, values, null, null);
+            fail("Stock was taken from the backroom");
+        } catch (IllegalArgumentException expected) {
+            // Only transfers and counts change other locations
+        }
+        assertEquals(12, readStock());
+    }
+
+    @Test
+    public void locationsAreSummedUp() {
+        ProductWriter.setLocationStock(mResolver, mPen, BACKROOM, 10);
+
+        Cursor locations = mResolver.query(ProductLocationEntry.CONTENT_URI, new String[] {
+                ProductLocationEntry.COLUMN_LOCATION, ProductLocationEntry.COLUMN_PRODUCT_COUNT,
+                ProductLocationEntry.COLUMN_STOCK }, null, null, null);
+        try {
+            assertEquals(2, locations.getCount());
+            locations.moveToFirst();
+            assertEquals(BACKROOM, locations.getString(0));
+            assertEquals(1, locations.getInt(1));
+            assertEquals(10, locations.getInt(2));
+        } finally {
+            locations.close();
+        }
+
+        Cursor backroom = mResolver.query(ProductLocationEntry.buildLocationUri(BACKROOM),
+                new String[] { ProductEntry.COLUMN_PRODUCT_NAME, ProductLocationEntry.COLUMN_STOCK },
+                null, null, null);
+        try {
+            assertEquals(1, backroom.getCount());
+            backroom.moveToFirst();
+            assertEquals("Pen", backroom.getString(0));
+            assertEquals(10, backroom.getInt(1));
+        } finally {
+            backroom.close();
+        }
+    }
+
+    @Test
+    public void deletingTheProductDropsItsLocations() {
+        ProductWriter.setLocationStock(mResolver, mPen, BACKROOM, 10);
+        mResolver.delete(mPenUri, null, null);
+
+        Cursor locations = mResolver.query(ProductLocationEntry.CONTENT_URI, null, null, null, null);
+        try {
+            assertEquals(0, locations.getCount());
+        } finally {
+            locations.close();
+        }
+    }
+
+    /** Assert the locations of the pen, as "location=stock" in the order of their names */
+    private void assertLocations(String... expected) {
+        Cursor cursor = mResolver.query(ProductLocationEntry.buildProductLocationsUri(mPen),
+                new String[] { ProductLocationEntry.COLUMN_LOCATION,
+                        ProductLocationEntry.COLUMN_STOCK }, null, null, null);
+        try {
+            assertEquals(expected.length, cursor.getCount());
+            for (String location : expected) {
+                assertTrue(cursor.moveToNext());
+                assertEquals(location, cursor.getString(0) + "=" + cursor.getInt(1));
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private int readStock() {
+        return (int) readLong(ProductEntry.COLUMN_PRODUCT_STOCK);
+    }
+
+    private long readVersion() {
+        return readLong(ProductEntry.COLUMN_PRODUCT_VERSION);
+    }
+
+    private long readLong(String column) {
+        Cursor cursor = mResolver.query(mPenUri, new String[] { column }, null, null, null);
+        try {
+            assertTrue(cursor.moveToFirst());
+            return cursor.getLong(0);
+        } finally {
+            cursor.close();
+        }
+    }
+}
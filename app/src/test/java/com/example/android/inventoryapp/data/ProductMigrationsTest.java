@@ -0,0 +1,199 @@
+package com.example.android.inventoryapp.data;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.example.android.inventoryapp.BuildConfig;
+import com.example.android.inventoryapp.data.ProductContract.ProductEntry;
+import com.example.android.inventoryapp.data.ProductContract.ProductQuery;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.Locale;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * A version 1 database is upgraded to the current schema, and its backfills resume where they
+ * stopped when they are interrupted. Queries by name find every product while the name key is
+ * being backfilled.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 22)
+public class ProductMigrationsTest {
+
+    private static final String DATABASE = "upgrade.db";
+
+    /** Enough products for three chunks of backfill */
+    private static final int PRODUCTS = 2 * MigrationRunner.CHUNK_SIZE + 200;
+
+    private final Context mContext = RuntimeEnvironment.application;
+
+    @Test
+    public void newDatabase_hasNameKeyIndexesRightAway() {
+        ProductDbHelper helper = new ProductDbHelper(mContext, "new.db");
+        SQLiteDatabase db = helper.getWritableDatabase();
+
+        assertTrue(helper.isNameKeyReady());
+        assertTrue(ProductDbHelper.hasIndex(db, ProductQueryPlan.INDEX_NAME));
+        assertTrue(ProductDbHelper.hasIndex(db, ProductQueryPlan.INDEX_IN_STOCK_NAME));
+        assertFalse(new MigrationRunner(ProductMigrations.ALL).hasPendingBackfills(db));
+    }
+
+    @Test
+    public void interruptedBackfill_resumesWhereItStopped() {
+        createVersion1Database();
+        ProductDbHelper helper = new ProductDbHelper(mContext, DATABASE);
+        SQLiteDatabase db = helper.getWritableDatabase();
+
+        assertEquals(ProductDbHelper.DATABASE_VERSION, db.getVersion());
+        assertEquals(PRODUCTS, countWithoutNameKey(db));
+        // The name key isn't indexed before every product has one
+        assertFalse(helper.isNameKeyReady());
+        assertFalse(ProductDbHelper.hasIndex(db, ProductQueryPlan.INDEX_NAME));
+        assertFalse(ProductDbHelper.hasIndex(db, ProductQueryPlan.INDEX_IN_STOCK_NAME));
+        assertNameQueriesFindEveryProduct(db, false);
+        // Upserts find the products the backfill hasn't reached yet
+        Product product = ProductProvider.queryProductByNameKey(db,
+                ProductEntry.normalizeName("ITEM 0042"), false);
+        assertEquals(" Item 0042", product.getName());
+
+        try {
+            new MigrationRunner(interruptedAfter(1)).runBackfills(db, new DatabaseExecutor());
+            fail("The backfill should have been interrupted");
+        } catch (IllegalStateException expected) {
+            // As if the process was killed during the second chunk
+        }
+        assertEquals(PRODUCTS - MigrationRunner.CHUNK_SIZE, countWithoutNameKey(db));
+        assertEquals(MigrationRunner.CHUNK_SIZE, DatabaseUtils.longForQuery(db, "SELECT "
+                + MigrationRunner.COLUMN_LAST_KEY + " FROM " + MigrationRunner.TABLE_NAME
+                + " WHERE " + MigrationRunner.COLUMN_NAME + " = ?",
+                new String[] { ProductMigrations.NAME_KEY }));
+        assertFalse(helper.isNameKeyReady());
+        assertNameQueriesFindEveryProduct(db, false);
+
+        helper.runPendingBackfills(new DatabaseExecutor());
+
+        assertEquals(0, countWithoutNameKey(db));
+        assertTrue(helper.isNameKeyReady());
+        assertTrue(ProductDbHelper.hasIndex(db, ProductQueryPlan.INDEX_NAME));
+        assertTrue(ProductDbHelper.hasIndex(db, ProductQueryPlan.INDEX_IN_STOCK_NAME));
+        assertFalse(new MigrationRunner(ProductMigrations.ALL).hasPendingBackfills(db));
+        assertNameQueriesFindEveryProduct(db, true);
+    }
+
+    /**
+     * Create the database as the first version of the app left it.
+     */
+    private void createVersion1Database() {
+        SQLiteDatabase db = mContext.openOrCreateDatabase(DATABASE, Context.MODE_PRIVATE, null);
+        try {
+            db.execSQL("CREATE TABLE " + ProductEntry.TABLE_NAME + " ("
+                    + ProductEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+                    + ProductEntry.COLUMN_PRODUCT_NAME + " TEXT NOT NULL, "
+                    + ProductEntry.COLUMN_PRODUCT_STOCK + " INTEGER NOT NULL DEFAULT 0, "
+                    + ProductEntry.COLUMN_PRODUCT_PRICE + " INTEGER NOT NULL DEFAULT 0, "
+                    + ProductEntry.COLUMN_PRODUCT_PICTURE + " TEXT NOT NULL);");
+            db.beginTransaction();
+            try {
+                for (int i = 1; i <= PRODUCTS; i++) {
+                    ContentValues values = new ContentValues();
+                    values.put(ProductEntry.COLUMN_PRODUCT_NAME,
+                            String.format(Locale.ROOT, " Item %04d", i));
+                    values.put(ProductEntry.COLUMN_PRODUCT_STOCK, i % 3);
+                    values.put(ProductEntry.COLUMN_PRODUCT_PRICE, 100);
+                    values.put(ProductEntry.COLUMN_PRODUCT_PICTURE, ProductEntry.NO_IMAGE);
+                    db.insertOrThrow(ProductEntry.TABLE_NAME, null, values);
+                }
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+            db.setVersion(1);
+        } finally {
+            db.close();
+        }
+    }
+
+    /**
+     * The migrations, with the backfill of the name key failing in the given chunk.
+     */
+    private static Migration[] interruptedAfter(final int chunks) {
+        Migration[] migrations = ProductMigrations.ALL.clone();
+        for (int i = 0; i < migrations.length; i++) {
+            final Migration migration = migrations[i];
+            if (!ProductMigrations.NAME_KEY.equals(migration.getName())) {
+                continue;
+            }
+            migrations[i] = new Migration(migration.getVersion(), migration.getName()) {
+                private int mChunks;
+
+                @Override
+                void applySchema(SQLiteDatabase db) {
+                    migration.applySchema(db);
+                }
+
+                @Override
+                boolean hasBackfill() {
+                    return migration.hasBackfill();
+                }
+
+                @Override
+                long backfillChunk(SQLiteDatabase db, long afterKey, int chunkSize) {
+                    if (mChunks++ == chunks) {
+                        throw new IllegalStateException("Interrupted");
+                    }
+                    return migration.backfillChunk(db, afterKey, chunkSize);
+                }
+
+                @Override
+                void finishBackfill(SQLiteDatabase db) {
+                    migration.finishBackfill(db);
+                }
+            };
+        }
+        return migrations;
+    }
+
+    /**
+     * Queries by name and by a prefix of the name find every matching product, in the order
+     * of their names.
+     */
+    private static void assertNameQueriesFindEveryProduct(SQLiteDatabase db, boolean nameKeyReady) {
+        ProductQuery byName = new ProductQuery.Builder()
+                .setSort(ProductEntry.SORT_NAME, true).build();
+        assertNames(db, ProductQueryPlan.of(byName, nameKeyReady), PRODUCTS, PRODUCTS);
+
+        // Items 100 to 199, given in another case than the names
+        ProductQuery byPrefix = new ProductQuery.Builder().setNamePrefix("ITEM 01").build();
+        assertNames(db, ProductQueryPlan.of(byPrefix, nameKeyReady), 100, 100);
+    }
+
+    private static void assertNames(SQLiteDatabase db, ProductQueryPlan plan, int count,
+                                    int first) {
+        Cursor cursor = db.query(plan.tables, new String[] { ProductEntry.COLUMN_PRODUCT_NAME },
+                plan.selection, plan.selectionArgs, null, null, plan.orderBy);
+        try {
+            assertEquals(count, cursor.getCount());
+            assertTrue(cursor.moveToFirst());
+            assertEquals(String.format(Locale.ROOT, " Item %04d", first), cursor.getString(0));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static long countWithoutNameKey(SQLiteDatabase db) {
+        return DatabaseUtils.queryNumEntries(db, ProductEntry.TABLE_NAME,
+                ProductEntry.COLUMN_PRODUCT_NAME_KEY + " IS NULL");
+    }
+}
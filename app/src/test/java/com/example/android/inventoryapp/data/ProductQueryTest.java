@@ -0,0 +1,151 @@
+package com.example.android.inventoryapp.data;
+
+import android.content.ContentResolver;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteQueryBuilder;
+
+import com.example.android.inventoryapp.BuildConfig;
+import com.example.android.inventoryapp.data.ProductContract.ProductEntry;
+import com.example.android.inventoryapp.data.ProductContract.ProductQuery;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static com.example.android.inventoryapp.data.TestProducts.insertProduct;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Typed product queries return the right products in the right order, are answered by walking
+ * one index without sorting, and unsupported combinations are rejected.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 22)
+public class ProductQueryTest {
+
+    private static final String[] SORTS = { ProductEntry.SORT_ADDED, ProductEntry.SORT_NAME,
+            ProductEntry.SORT_PRICE, ProductEntry.SORT_STOCK };
+
+    private ContentResolver mResolver;
+
+    @Before
+    public void setUp() {
+        Robolectric.setupContentProvider(ProductProvider.class, ProductContract.CONTENT_AUTHORITY);
+        mResolver = RuntimeEnvironment.application.getContentResolver();
+        insertProduct(mResolver, "Pencil", 0, 80);
+        insertProduct(mResolver, "ink", 4, 400);
+        insertProduct(mResolver, "Paper", 12, 250);
+        insertProduct(mResolver, "Pen", 7, 150);
+    }
+
+    @Test
+    public void sortsAndFilters() {
+        assertNames(new ProductQuery.Builder().build(), "Pencil", "ink", "Paper", "Pen");
+        assertNames(new ProductQuery.Builder().setSort(ProductEntry.SORT_NAME, false).build(),
+                "ink", "Paper", "Pen", "Pencil");
+        assertNames(new ProductQuery.Builder().setSort(ProductEntry.SORT_PRICE, true)
+                .setInStockOnly(true).build(), "ink", "Paper", "Pen");
+        assertNames(new ProductQuery.Builder().setSort(ProductEntry.SORT_STOCK, false)
+                .setInStockOnly(true).build(), "ink", "Pen", "Paper");
+
+        // A prefix matches in any case, and implies the sort by name
+        assertNames(new ProductQuery.Builder().setNamePrefix("PEN").build(), "Pen", "Pencil");
+        assertNames(new ProductQuery.Builder().setNamePrefix("pen").setInStockOnly(true).build(),
+                "Pen");
+        // Both ends of the price range are included
+        assertNames(new ProductQuery.Builder().setPriceRange(150, 400).build(),
+                "Pen", "Paper", "ink");
+        assertNames(new ProductQuery.Builder().setPriceRange(null, 100).build(), "Pencil");
+    }
+
+    @Test
+    public void everyQueryWalksAnIndexWithoutSorting() {
+        SQLiteDatabase db = new ProductDbHelper(RuntimeEnvironment.application).getReadableDatabase();
+        List<ProductQuery> queries = new ArrayList<>();
+        for (String sort : SORTS) {
+            for (boolean descending : new boolean[] { false, true }) {
+                for (boolean inStockOnly : new boolean[] { false, true }) {
+                    ProductQuery.Builder builder = new ProductQuery.Builder()
+                            .setSort(sort, descending).setInStockOnly(inStockOnly);
+                    queries.add(builder.build());
+                    if (ProductEntry.SORT_NAME.equals(sort)) {
+                        queries.add(builder.setNamePrefix("pe").build());
+                    } else if (ProductEntry.SORT_PRICE.equals(sort)) {
+                        queries.add(builder.setPriceRange(100, 300).build());
+                    }
+                }
+            }
+        }
+
+        for (ProductQuery query : queries) {
+            ProductQueryPlan plan = ProductQueryPlan.of(query);
+            String sql = SQLiteQueryBuilder.buildQueryString(false, plan.tables, null,
+                    plan.selection, null, null, plan.orderBy, null);
+            Cursor explain = db.rawQuery("EXPLAIN QUERY PLAN " + sql, plan.selectionArgs);
+            try {
+                assertEquals(sql, 1, explain.getCount());
+                explain.moveToFirst();
+                String detail = explain.getString(explain.getColumnIndexOrThrow("detail"));
+                assertFalse(sql + ": " + detail, detail.contains("TEMP B-TREE"));
+                assertTrue(sql + ": " + detail, detail.contains("INDEX") || !query.isInStockOnly()
+                        && ProductEntry.SORT_ADDED.equals(query.getSort()));
+            } finally {
+                explain.close();
+            }
+        }
+    }
+
+    @Test
+    public void unindexedCombinationsAreRejected() {
+        assertRejected(new ProductQuery.Builder().setNamePrefix("pen").setPriceRange(0, 100));
+        assertRejected(new ProductQuery.Builder().setSort(ProductEntry.SORT_STOCK, false)
+                .setNamePrefix("pen"));
+        assertRejected(new ProductQuery.Builder().setSort(ProductEntry.SORT_NAME, false)
+                .setPriceRange(0, 100));
+        assertRejected(new ProductQuery.Builder().setSort("picture", false));
+        assertRejected(new ProductQuery.Builder().setPriceRange(300, 200));
+
+        try {
+            mResolver.query(new ProductQuery.Builder().build().toUri(), null,
+                    ProductEntry.COLUMN_PRODUCT_STOCK + " > 0", null, null);
+            fail("A raw selection must not be combined with a product query");
+        } catch (IllegalArgumentException expected) {
+            // Expected
+        }
+    }
+
+    private void assertNames(ProductQuery query, String... names) {
+        Cursor cursor = mResolver.query(query.toUri(),
+                new String[] { ProductEntry.COLUMN_PRODUCT_NAME }, null, null, null);
+        try {
+            List<String> actual = new ArrayList<>();
+            while (cursor.moveToNext()) {
+                actual.add(cursor.getString(0));
+            }
+            assertEquals(query.toUri().toString(), Arrays.asList(names), actual);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static void assertRejected(ProductQuery.Builder builder) {
+        try {
+            builder.build();
+            fail("Expected the query to be rejected");
+        } catch (IllegalArgumentException expected) {
+            // Expected
+        }
+    }
+}
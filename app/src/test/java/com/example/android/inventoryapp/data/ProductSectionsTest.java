@@ -0,0 +1,91 @@
+package com.example.android.inventoryapp.data;
+
+import android.content.ContentResolver;
+import android.database.Cursor;
+
+import com.example.android.inventoryapp.BuildConfig;
+import com.example.android.inventoryapp.data.ProductContract.ProductEntry;
+import com.example.android.inventoryapp.data.ProductContract.ProductQuery;
+import com.example.android.inventoryapp.data.ProductContract.ProductSectionEntry;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import static com.example.android.inventoryapp.data.TestProducts.insertProduct;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * The sections of the list sorted by name point at the first product of every letter, and are
+ * counted again only after a write.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 22)
+public class ProductSectionsTest {
+
+    private static final ProductQuery BY_NAME =
+            new ProductQuery.Builder().setSort(ProductEntry.SORT_NAME, false).build();
+
+    private ContentResolver mResolver;
+
+    @Before
+    public void setUp() {
+        Robolectric.setupContentProvider(ProductProvider.class, ProductContract.CONTENT_AUTHORITY);
+        mResolver = RuntimeEnvironment.application.getContentResolver();
+        InventoryMetrics.reset();
+        insertProduct(mResolver, "pen", 3, 100);
+        insertProduct(mResolver, "Apple", 0, 100);
+        insertProduct(mResolver, "Paper", 5, 100);
+        insertProduct(mResolver, "apricot", 2, 100);
+        insertProduct(mResolver, "Ink", 1, 100);
+    }
+
+    @Test
+    public void sectionsPointAtTheFirstProductOfEachLetter() {
+        assertSections(BY_NAME, "A", 2, 0, "I", 1, 2, "P", 2, 3);
+        assertSections(BY_NAME.buildUpon().setSort(ProductEntry.SORT_NAME, true).build(),
+                "P", 2, 0, "I", 1, 2, "A", 2, 3);
+        // The apple is out of stock
+        assertSections(BY_NAME.buildUpon().setInStockOnly(true).build(),
+                "A", 1, 0, "I", 1, 1, "P", 2, 2);
+    }
+
+    @Test
+    public void sectionsAreCachedUntilTheNextWrite() {
+        assertSections(BY_NAME, "A", 2, 0, "I", 1, 2, "P", 2, 3);
+        assertSections(BY_NAME, "A", 2, 0, "I", 1, 2, "P", 2, 3);
+        assertEquals(1, InventoryMetrics.getCount("sections.counted"));
+
+        insertProduct(mResolver, "Blotter", 4, 100);
+        assertSections(BY_NAME, "A", 2, 0, "B", 1, 2, "I", 1, 3, "P", 2, 4);
+        assertEquals(2, InventoryMetrics.getCount("sections.counted"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void onlyTheListByNameHasSections() {
+        mResolver.query(new ProductQuery.Builder().setSort(ProductEntry.SORT_PRICE, false).build()
+                .toSectionsUri(), null, null, null, null);
+    }
+
+    /** Checks the sections, given as letter, count and offset of each */
+    private void assertSections(ProductQuery query, Object... expected) {
+        Cursor cursor = mResolver.query(query.toSectionsUri(), null, null, null, null);
+        try {
+            assertEquals(expected.length / 3, cursor.getCount());
+            for (int i = 0; cursor.moveToNext(); i++) {
+                assertEquals(expected[3 * i], cursor.getString(
+                        cursor.getColumnIndexOrThrow(ProductSectionEntry.COLUMN_LETTER)));
+                assertEquals(expected[3 * i + 1], cursor.getInt(
+                        cursor.getColumnIndexOrThrow(ProductSectionEntry.COLUMN_COUNT)));
+                assertEquals(expected[3 * i + 2], cursor.getInt(
+                        cursor.getColumnIndexOrThrow(ProductSectionEntry.COLUMN_OFFSET)));
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+}
@@ -0,0 +1,157 @@
+package com.example.android.inventoryapp.data;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.net.Uri;
+
+import com.example.android.inventoryapp.BuildConfig;
+import com.example.android.inventoryapp.data.ProductContract.ProductEntry;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import static com.example.android.inventoryapp.data.TestProducts.insertPen;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Version checked updates: a change based on a stale snapshot is refused with the current row,
+ * and the merging update rebases it onto that row, applying stock changes as deltas.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 22)
+public class ProductWriterTest {
+
+    private ContentResolver mResolver;
+    private Uri mPenUri;
+    private long mPen;
+
+    @Before
+    public void setUp() {
+        Robolectric.setupContentProvider(ProductProvider.class, ProductContract.CONTENT_AUTHORITY);
+        mResolver = RuntimeEnvironment.application.getContentResolver();
+        mPenUri = insertPen(mResolver);
+        mPen = ContentUris.parseId(mPenUri);
+    }
+
+    @Test
+    public void currentVersion_isUpdated() {
+        Product base = ProductWriter.query(mResolver, mPen);
+
+        UpdateResult result = ProductWriter.update(mResolver, base, price(175));
+
+        assertTrue(result.isUpdated());
+        assertFalse(result.isMerged());
+        assertNull(result.getCurrent());
+        Product current = ProductWriter.query(mResolver, mPen);
+        assertEquals(175, current.getPrice());
+        assertTrue(current.getVersion() > base.getVersion());
+    }
+
+    @Test
+    public void staleVersion_isConflictWithCurrentRow() {
+        Product base = ProductWriter.query(mResolver, mPen);
+        // Somebody else changes the row after we read it
+        assertEquals(1, mResolver.update(mPenUri, price(200), null, null));
+
+        UpdateResult result = ProductWriter.update(mResolver, base, price(300));
+
+        assertEquals(UpdateResult.Status.CONFLICT, result.getStatus());
+        assertFalse(result.isUpdated());
+        assertNotNull(result.getCurrent());
+        assertEquals(200, result.getCurrent().getPrice());
+        // Nothing was written
+        assertEquals(result.getCurrent(), ProductWriter.query(mResolver, mPen));
+    }
+
+    @Test
+    public void deletedRow_isNotFound() {
+        Product base = ProductWriter.query(mResolver, mPen);
+        mResolver.delete(mPenUri, null, null);
+
+        UpdateResult result = ProductWriter.update(mResolver, base, price(300));
+
+        assertEquals(UpdateResult.Status.NOT_FOUND, result.getStatus());
+        assertNull(result.getCurrent());
+        assertEquals(UpdateResult.Status.NOT_FOUND,
+                ProductWriter.updateMerging(mResolver, base, price(300)).getStatus());
+    }
+
+    @Test
+    public void updateMerging_addsUpStockChanges() {
+        Product base = ProductWriter.query(mResolver, mPen);
+        // Two are sold while the editor shows 5, then the editor adds 3
+        assertNotNull(ProductWriter.sell(mResolver, mPen, 2));
+        ContentValues changes = price(175);
+        changes.put(ProductEntry.COLUMN_PRODUCT_STOCK, 8);
+
+        UpdateResult result = ProductWriter.updateMerging(mResolver, base, changes);
+
+        assertTrue(result.isUpdated());
+        assertTrue(result.isMerged());
+        Product current = ProductWriter.query(mResolver, mPen);
+        assertEquals(6, current.getStock());
+        assertEquals(175, current.getPrice());
+    }
+
+    @Test
+    public void updateMerging_withNothingLeftToWrite_isUpdated() {
+        Product base = ProductWriter.query(mResolver, mPen);
+        mResolver.update(mPenUri, price(175), null, null);
+        Product concurrent = ProductWriter.query(mResolver, mPen);
+
+        UpdateResult result = ProductWriter.updateMerging(mResolver, base, price(175));
+
+        assertTrue(result.isUpdated());
+        assertTrue(result.isMerged());
+        // The row already held our change, so it wasn't written again
+        assertEquals(concurrent, ProductWriter.query(mResolver, mPen));
+    }
+
+    @Test
+    public void merge_appliesStockAsDeltaAndKeepsOurValues() {
+        Product base = new Product(mPen, "Pen", 5, 150, ProductEntry.NO_IMAGE, 1, 0);
+        Product current = new Product(mPen, "Pen", 3, 200, ProductEntry.NO_IMAGE, 2, 0);
+        ContentValues changes = price(175);
+        changes.put(ProductEntry.COLUMN_PRODUCT_STOCK, 8);
+        changes.put(ProductEntry.COLUMN_PRODUCT_NAME, "Pen");
+
+        ContentValues merged = ProductWriter.merge(base, current, changes);
+
+        assertEquals(Integer.valueOf(6), merged.getAsInteger(ProductEntry.COLUMN_PRODUCT_STOCK));
+        assertEquals(Integer.valueOf(175), merged.getAsInteger(ProductEntry.COLUMN_PRODUCT_PRICE));
+        // The name already holds our value
+        assertFalse(merged.containsKey(ProductEntry.COLUMN_PRODUCT_NAME));
+    }
+
+    @Test
+    public void merge_clampsStockAtZero() {
+        Product base = new Product(mPen, "Pen", 5, 150, ProductEntry.NO_IMAGE, 1, 0);
+        ContentValues changes = new ContentValues();
+        // We took all 5 out, but 3 of them were sold in the meantime
+        changes.put(ProductEntry.COLUMN_PRODUCT_STOCK, 0);
+
+        Product twoLeft = new Product(mPen, "Pen", 2, 150, ProductEntry.NO_IMAGE, 2, 0);
+        assertEquals(Integer.valueOf(0), ProductWriter.merge(base, twoLeft, changes)
+                .getAsInteger(ProductEntry.COLUMN_PRODUCT_STOCK));
+
+        // At 0 already, there is nothing left to write
+        Product noneLeft = new Product(mPen, "Pen", 0, 150, ProductEntry.NO_IMAGE, 2, 0);
+        assertEquals(0, ProductWriter.merge(base, noneLeft, changes).size());
+    }
+
+    private static ContentValues price(int price) {
+        ContentValues values = new ContentValues();
+        values.put(ProductEntry.COLUMN_PRODUCT_PRICE, price);
+        return values;
+    }
+}
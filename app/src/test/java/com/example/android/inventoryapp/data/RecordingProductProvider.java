@@ -0,0 +1,230 @@
+package com.example.android.inventoryapp.data;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Bundle;
+
+import org.robolectric.RuntimeEnvironment;
+
+import java.io.File;
+import java.security.Permission;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * {@link ProductProvider} that records every call made against it, and every file of the app
+ * that is read or written, together with whether it happened while the test harness was
+ * driving the main thread or the background scheduler.
+ *
+ * Robolectric runs loader work on the test thread, so the thread itself cannot tell us where a
+ * call came from. Instead the harness flips {@link #setMainThreadPhase(boolean)} around the
+ * lifecycle and UI tasks it runs, and everything else is background work.
+ *
+ * File access is seen through a {@link SecurityManager}, which the JVM asks before a file is
+ * opened, checked or deleted. StrictMode can't be used for this, its disk checks are hooks of
+ * the Android runtime that never fire on the JVM. Only files under the directories of the app
+ * (files, cache, databases, shared preferences) and only accesses from the test thread are
+ * recorded; the database itself is accessed by native code and shows up as provider calls.
+ */
+public class RecordingProductProvider extends ProductProvider {
+
+    /** Methods of {@link #call} that only read. Every other method counts as a write. */
+    private static final Set<String> READ_METHODS = new HashSet<>(Arrays.asList(
+            ProductContract.METHOD_GET_METRICS,
+            ProductContract.METHOD_READ_COLUMNS,
+            ProductContract.METHOD_BACKUP));
+
+    /** Method names of recorded file accesses */
+    private static final String DISK_READ = "disk:read";
+    private static final String DISK_WRITE = "disk:write";
+
+    /** A single recorded storage access. */
+    public static final class Call {
+        public final String method;
+        public final Uri uri;
+        public final boolean onMainThread;
+
+        Call(String method, Uri uri, boolean onMainThread) {
+            this.method = method;
+            this.uri = uri;
+            this.onMainThread = onMainThread;
+        }
+
+        /** Returns whether this is a provider call that only reads. */
+        public boolean isRead() {
+            return "query".equals(method) || READ_METHODS.contains(callMethod());
+        }
+
+        /** Returns whether this is a provider call that writes. */
+        public boolean isWrite() {
+            return !isRead() && !isDiskAccess();
+        }
+
+        /** Returns whether this is a read or write of a file, rather than a provider call. */
+        public boolean isDiskAccess() {
+            return DISK_READ.equals(method) || DISK_WRITE.equals(method);
+        }
+
+        private String callMethod() {
+            return method.startsWith("call:") ? method.substring("call:".length()) : null;
+        }
+
+        @Override
+        public String toString() {
+            return method + " " + uri + (onMainThread ? " [main thread]" : "");
+        }
+    }
+
+    private static final List<Call> sCalls = Collections.synchronizedList(new ArrayList<Call>());
+
+    private static volatile boolean sMainThreadPhase;
+
+    /** The thread file accesses are recorded on, the one that last called {@link #reset()} */
+    private static volatile Thread sTestThread;
+
+    /** The security manager that was installed before recording started */
+    private static SecurityManager sPreviousSecurityManager;
+
+    private static volatile String[] sAppDirectories = new String[0];
+
+    /** Forget every recorded call and record the file accesses of the app from now on. */
+    public static void reset() {
+        sCalls.clear();
+        sMainThreadPhase = false;
+        sTestThread = Thread.currentThread();
+        startRecordingDiskAccess();
+    }
+
+    /** Stop recording file accesses, at the end of a test. */
+    public static void stopRecording() {
+        sCalls.clear();
+        sMainThreadPhase = false;
+        if (System.getSecurityManager() instanceof DiskAccessRecorder) {
+            System.setSecurityManager(sPreviousSecurityManager);
+        }
+    }
+
+    /** Mark whether the calls that follow are made from the main thread. */
+    public static void setMainThreadPhase(boolean onMainThread) {
+        sMainThreadPhase = onMainThread;
+    }
+
+    /** Returns a copy of the calls recorded since the last {@link #reset()}. */
+    public static List<Call> getCalls() {
+        synchronized (sCalls) {
+            return new ArrayList<>(sCalls);
+        }
+    }
+
+    private static void record(String method, Uri uri) {
+        sCalls.add(new Call(method, uri, sMainThreadPhase));
+    }
+
+    private static synchronized void startRecordingDiskAccess() {
+        if (System.getSecurityManager() instanceof DiskAccessRecorder) {
+            return;
+        }
+        // Resolve the directories first, asking for them creates them
+        Context context = RuntimeEnvironment.application;
+        List<String> directories = new ArrayList<>();
+        for (File directory : new File[] { context.getFilesDir(), context.getCacheDir(),
+                context.getDatabasePath(ProductDbHelper.DATABASE_NAME).getParentFile(),
+                new File(context.getApplicationInfo().dataDir) }) {
+            directories.add(directory.getAbsolutePath());
+        }
+        sAppDirectories = directories.toArray(new String[directories.size()]);
+        sPreviousSecurityManager = System.getSecurityManager();
+        System.setSecurityManager(new DiskAccessRecorder());
+    }
+
+    /**
+     * Records the reads and writes of files of the app. Everything is permitted, this only
+     * listens.
+     */
+    private static final class DiskAccessRecorder extends SecurityManager {
+
+        /** Set while a file access is recorded, so recording it doesn't record itself */
+        private final ThreadLocal<Boolean> mRecording = new ThreadLocal<>();
+
+        @Override
+        public void checkPermission(Permission permission) {
+            // Permit everything
+        }
+
+        @Override
+        public void checkPermission(Permission permission, Object context) {
+            // Permit everything
+        }
+
+        @Override
+        public void checkRead(String file) {
+            recordFile(DISK_READ, file);
+        }
+
+        @Override
+        public void checkWrite(String file) {
+            recordFile(DISK_WRITE, file);
+        }
+
+        @Override
+        public void checkDelete(String file) {
+            recordFile(DISK_WRITE, file);
+        }
+
+        private void recordFile(String method, String file) {
+            if (Thread.currentThread() != sTestThread || mRecording.get() != null) {
+                return;
+            }
+            mRecording.set(Boolean.TRUE);
+            try {
+                String path = new File(file).getAbsolutePath();
+                for (String directory : sAppDirectories) {
+                    if (path.startsWith(directory)) {
+                        record(method, Uri.fromFile(new File(path)));
+                        return;
+                    }
+                }
+            } finally {
+                mRecording.remove();
+            }
+        }
+    }
+
+    @Override
+    public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs,
+                        String sortOrder) {
+        record("query", uri);
+        return super.query(uri, projection, selection, selectionArgs, sortOrder);
+    }
+
+    @Override
+    public Uri insert(Uri uri, ContentValues contentValues) {
+        record("insert", uri);
+        return super.insert(uri, contentValues);
+    }
+
+    @Override
+    public int update(Uri uri, ContentValues contentValues, String selection,
+                      String[] selectionArgs) {
+        record("update", uri);
+        return super.update(uri, contentValues, selection, selectionArgs);
+    }
+
+    @Override
+    public int delete(Uri uri, String selection, String[] selectionArgs) {
+        record("delete", uri);
+        return super.delete(uri, selection, selectionArgs);
+    }
+
+    @Override
+    public Bundle call(String method, String arg, Bundle extras) {
+        record("call:" + method, null);
+        return super.call(method, arg, extras);
+    }
+}
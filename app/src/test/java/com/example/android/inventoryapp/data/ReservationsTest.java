@@ -0,0 +1,214 @@
+package com.example.android.inventoryapp.data;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.net.Uri;
+import android.os.Bundle;
+
+import com.example.android.inventoryapp.BuildConfig;
+import com.example.android.inventoryapp.data.ProductContract.ProductEntry;
+import com.example.android.inventoryapp.data.ProductContract.ProductLocationEntry;
+import com.example.android.inventoryapp.data.ProductContract.ReservationEntry;
+import com.example.android.inventoryapp.data.ProductContract.SaleEntry;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import static com.example.android.inventoryapp.data.TestProducts.insertPen;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Reservations hold stock so it can't be sold twice: held stock is neither reserved again nor
+ * sold, committing sells it, and releasing or letting it expire gives it back. Held stock
+ * can't be edited or adjusted away either.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 22)
+public class ReservationsTest {
+
+    private static final long TTL_MILLIS = 60 * 1000;
+
+    private ProductProvider mProvider;
+    private ContentResolver mResolver;
+    private long mPen;
+
+    @Before
+    public void setUp() {
+        mProvider = Robolectric.setupContentProvider(ProductProvider.class,
+                ProductContract.CONTENT_AUTHORITY);
+        mResolver = RuntimeEnvironment.application.getContentResolver();
+        mPen = ContentUris.parseId(insertPen(mResolver));
+    }
+
+    @Test
+    public void heldStockIsNotReservedAgainOrSold() {
+        long first = reserve(3, TTL_MILLIS);
+        assertTrue(first > 0);
+        assertEquals(-1, reserve(3, TTL_MILLIS));
+        assertTrue(reserve(2, TTL_MILLIS) > 0);
+        assertEquals(-1, reserve(1, TTL_MILLIS));
+        assertStock(5, 0);
+
+        // Nothing is left to sell over the counter
+        assertNull(ProductWriter.sell(mResolver, mPen, 1));
+
+        assertEquals(1, endReservation(ProductContract.METHOD_RELEASE_RESERVATION, first));
+        assertStock(5, 2);
+        assertNotNull(ProductWriter.sell(mResolver, mPen, 1));
+        assertStock(4, 2);
+    }
+
+    @Test
+    public void committingSellsTheHeldStockOnce() {
+        long reservation = reserve(2, TTL_MILLIS);
+
+        assertEquals(1, endReservation(ProductContract.METHOD_COMMIT_RESERVATION, reservation));
+        assertStock(3, 0);
+        assertEquals(0, endReservation(ProductContract.METHOD_COMMIT_RESERVATION, reservation));
+        assertEquals(0, endReservation(ProductContract.METHOD_RELEASE_RESERVATION, reservation));
+        assertStock(3, 0);
+
+        // The sale is recorded at the price of the product
+        Cursor sales = mResolver.query(SaleEntry.CONTENT_URI, new String[] {
+                SaleEntry.COLUMN_QUANTITY, SaleEntry.COLUMN_UNIT_PRICE }, null, null, null);
+        try {
+            assertEquals(1, sales.getCount());
+            sales.moveToFirst();
+            assertEquals(2, sales.getInt(0));
+            assertEquals(150, sales.getInt(1));
+        } finally {
+            sales.close();
+        }
+    }
+
+    @Test
+    public void expiredHoldsAreGivenBack() throws InterruptedException {
+        reserve(1, TTL_MILLIS);
+        long expired = reserve(4, 1);
+        Thread.sleep(10);
+
+        assertEquals(0, endReservation(ProductContract.METHOD_COMMIT_RESERVATION, expired));
+        Bundle swept = mProvider.call(ProductContract.METHOD_SWEEP_RESERVATIONS, null, null);
+        assertEquals(1, swept.getInt(ProductContract.RESULT_ROWS));
+        assertStock(5, 4);
+
+        // A new hold doesn't have to wait for the sweep
+        reserve(4, 1);
+        Thread.sleep(10);
+        assertTrue(reserve(4, TTL_MILLIS) > 0);
+        assertStock(5, 0);
+    }
+
+    @Test
+    public void heldStockCannotBeEditedAway() {
+        long reservation = reserve(3, TTL_MILLIS);
+        Uri pen = ContentUris.withAppendedId(ProductEntry.CONTENT_URI, mPen);
+
+        ContentValues values = new ContentValues();
+        values.put(ProductEntry.COLUMN_PRODUCT_STOCK, 2);
+        try {
+            mResolver.update(pen, values, null, null);
+            fail("The editor took held stock");
+        } catch (IllegalArgumentException expected) {
+            // Expected
+        }
+        Bundle adjustment = new Bundle();
+        adjustment.putInt(ProductContract.EXTRA_STOCK_CHANGE, -3);
+        try {
+            mProvider.call(ProductContract.METHOD_ADJUST_PRODUCTS, null, adjustment);
+            fail("An adjustment took held stock");
+        } catch (IllegalArgumentException expected) {
+            // Expected
+        }
+        try {
+            ProductWriter.setLocationStock(mResolver, mPen,
+                    ProductLocationEntry.DEFAULT_LOCATION, 1);
+            fail("A location took held stock");
+        } catch (IllegalArgumentException expected) {
+            // Expected
+        }
+        assertStock(5, 2);
+
+        // Down to what is held, which can still be sold
+        values.put(ProductEntry.COLUMN_PRODUCT_STOCK, 3);
+        assertEquals(1, mResolver.update(pen, values, null, null));
+        assertEquals(1, endReservation(ProductContract.METHOD_COMMIT_RESERVATION, reservation));
+        assertStock(0, 0);
+    }
+
+    @Test
+    public void expiredHoldsDoNotKeepTheStockUp() throws InterruptedException {
+        reserve(4, 1);
+        Thread.sleep(10);
+
+        ContentValues values = new ContentValues();
+        values.put(ProductEntry.COLUMN_PRODUCT_STOCK, 1);
+        assertEquals(1, mResolver.update(
+                ContentUris.withAppendedId(ProductEntry.CONTENT_URI, mPen), values, null, null));
+        assertStock(1, 1);
+    }
+
+    @Test
+    public void deletingTheProductDropsItsHolds() {
+        reserve(2, TTL_MILLIS);
+        mResolver.delete(ContentUris.withAppendedId(ProductEntry.CONTENT_URI, mPen), null, null);
+
+        assertEquals(0, DatabaseUtils.queryNumEntries(
+                new ProductDbHelper(RuntimeEnvironment.application).getReadableDatabase(),
+                ReservationEntry.TABLE_NAME));
+        assertEquals(-1, reserve(1, TTL_MILLIS));
+    }
+
+    @Test
+    public void reservedStockCannotBeWritten() {
+        ContentValues values = new ContentValues();
+        values.put(ProductEntry.COLUMN_PRODUCT_RESERVED, 0);
+        Uri pen = ContentUris.withAppendedId(ProductEntry.CONTENT_URI, mPen);
+        try {
+            mResolver.update(pen, values, null, null);
+            fail("Reserved stock was written");
+        } catch (IllegalArgumentException expected) {
+            // Only reservations hold stock
+        }
+    }
+
+    private long reserve(int quantity, long ttlMillis) {
+        Bundle extras = new Bundle();
+        extras.putLong(ProductContract.EXTRA_PRODUCT_ID, mPen);
+        extras.putInt(ProductContract.EXTRA_QUANTITY, quantity);
+        extras.putLong(ProductContract.EXTRA_TTL_MILLIS, ttlMillis);
+        return mProvider.call(ProductContract.METHOD_RESERVE, null, extras)
+                .getLong(ProductContract.RESULT_RESERVATION_ID);
+    }
+
+    private int endReservation(String method, long reservationId) {
+        return mProvider.call(method, String.valueOf(reservationId), null)
+                .getInt(ProductContract.RESULT_ROWS);
+    }
+
+    /** Assert the stock of the pen, and how much of it is available */
+    private void assertStock(int stock, int available) {
+        Cursor cursor = mResolver.query(ContentUris.withAppendedId(ProductEntry.CONTENT_URI, mPen),
+                new String[] { ProductEntry.COLUMN_PRODUCT_STOCK,
+                        ProductEntry.COLUMN_PRODUCT_RESERVED }, null, null, null);
+        try {
+            assertTrue(cursor.moveToFirst());
+            assertEquals(stock, cursor.getInt(0));
+            assertEquals(available, cursor.getInt(0) - cursor.getInt(1));
+        } finally {
+            cursor.close();
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package com.example.android.inventoryapp.data;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Bundle;
+
+import com.example.android.inventoryapp.BuildConfig;
+import com.example.android.inventoryapp.data.ProductContract.ProductEntry;
+import com.example.android.inventoryapp.data.ProductContract.ProductLocationEntry;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import static com.example.android.inventoryapp.data.TestProducts.insertPen;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Every write of product data counts the version of the row up exactly once, whether it comes
+ * from the provider or from a trigger writing the stock, and the catalog version with it.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 22)
+public class RowVersionTest {
+
+    private ProductProvider mProvider;
+    private ContentResolver mResolver;
+    private long mPen;
+    private Uri mPenUri;
+
+    @Before
+    public void setUp() {
+        mProvider = Robolectric.setupContentProvider(ProductProvider.class,
+                ProductContract.CONTENT_AUTHORITY);
+        mResolver = RuntimeEnvironment.application.getContentResolver();
+        mPenUri = insertPen(mResolver);
+        mPen = ContentUris.parseId(mPenUri);
+    }
+
+    @Test
+    public void editCountsBothVersionsUpOnce() {
+        long version = readVersion();
+        long catalogVersion = readCatalogVersion();
+
+        ContentValues values = new ContentValues();
+        values.put(ProductEntry.COLUMN_PRODUCT_PRICE, 175);
+        assertEquals(1, mResolver.update(mPenUri, values, null, null));
+
+        assertEquals(version + 1, readVersion());
+        assertEquals(catalogVersion + 1, readCatalogVersion());
+    }
+
+    @Test
+    public void everyWriteOfTheStockCountsTheVersionUpOnce() {
+        long version = readVersion();
+
+        assertNotNull(ProductWriter.sell(mResolver, mPen, 1));
+        assertEquals(++version, readVersion());
+
+        assertTrue(ProductWriter.setLocationStock(mResolver, mPen, "backroom", 3));
+        assertEquals(++version, readVersion());
+
+        Bundle extras = new Bundle();
+        extras.putInt(ProductContract.EXTRA_STOCK_CHANGE, 2);
+        mProvider.call(ProductContract.METHOD_ADJUST_PRODUCTS, null, extras);
+        assertEquals(++version, readVersion());
+
+        // Holding stock doesn't change the product data, selling it does
+        long reservation = ProductWriter.reserve(mResolver, mPen, 2, 60000);
+        assertEquals(version, readVersion());
+        assertTrue(ProductWriter.commitReservation(mResolver, reservation));
+        assertEquals(++version, readVersion());
+
+        // Moving stock between locations leaves the total as it is
+        assertNotNull(ProductWriter.transfer(mResolver, mPen,
+                ProductLocationEntry.DEFAULT_LOCATION, "backroom", 1));
+        assertEquals(version, readVersion());
+    }
+
+    @Test
+    public void holdsLeaveTheCatalogVersion() {
+        long catalogVersion = readCatalogVersion();
+
+        long reservation = ProductWriter.reserve(mResolver, mPen, 2, 60000);
+        assertTrue(ProductWriter.releaseReservation(mResolver, reservation));
+
+        // The reserved stock isn't product data, so the catalog reads the same
+        assertEquals(catalogVersion, readCatalogVersion());
+    }
+
+    private long readVersion() {
+        Cursor cursor = mResolver.query(mPenUri,
+                new String[] { ProductEntry.COLUMN_PRODUCT_VERSION }, null, null, null);
+        try {
+            assertTrue(cursor.moveToFirst());
+            return cursor.getLong(0);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private long readCatalogVersion() {
+        Cursor cursor = mResolver.query(ProductEntry.CATALOG_VERSION_URI, null, null, null, null);
+        try {
+            assertTrue(cursor.moveToFirst());
+            return cursor.getLong(0);
+        } finally {
+            cursor.close();
+        }
+    }
+}
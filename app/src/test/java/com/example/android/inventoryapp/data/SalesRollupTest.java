@@ -0,0 +1,130 @@
+package com.example.android.inventoryapp.data;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+
+import com.example.android.inventoryapp.BuildConfig;
+import com.example.android.inventoryapp.data.ProductContract.ProductEntry;
+import com.example.android.inventoryapp.data.ProductContract.SaleEntry;
+import com.example.android.inventoryapp.data.ProductContract.SalesRollupEntry;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import static com.example.android.inventoryapp.data.TestProducts.insertProductId;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Sales recorded through the provider end up in the right hourly and daily buckets, and take
+ * the sold quantity out of the stock.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 22)
+public class SalesRollupTest {
+
+    /** 2017-03-01 00:00 UTC */
+    private static final long DAY = 1488326400000L;
+    private static final long HOUR = SalesRollupEntry.HOUR_MILLIS;
+
+    private ContentResolver mResolver;
+
+    @Before
+    public void setUp() {
+        Robolectric.setupContentProvider(ProductProvider.class, ProductContract.CONTENT_AUTHORITY);
+        mResolver = RuntimeEnvironment.application.getContentResolver();
+    }
+
+    @Test
+    public void salesAreRolledUpPerHourAndDay() {
+        long pen = insertProductId(mResolver, "Pen", 10, 150);
+        long ink = insertProductId(mResolver, "Ink", 10, 400);
+
+        assertNotNull(sell(pen, 2, DAY + 10 * 60 * 1000));
+        assertNotNull(sell(pen, 1, DAY + 50 * 60 * 1000));
+        assertNotNull(sell(pen, 3, DAY + 2 * HOUR));
+        assertNotNull(sell(ink, 1, DAY + 2 * HOUR + 1));
+        assertNotNull(sell(pen, 1, DAY + SalesRollupEntry.DAY_MILLIS));
+
+        // The pen's first day, by hour
+        Cursor hourly = mResolver.query(SalesRollupEntry.buildRangeUri(SalesRollupEntry.HOURLY_URI,
+                DAY, DAY + SalesRollupEntry.DAY_MILLIS, pen), null, null, null, null);
+        try {
+            assertEquals(2, hourly.getCount());
+            hourly.moveToFirst();
+            assertBucket(hourly, DAY, 3, 450);
+            hourly.moveToNext();
+            assertBucket(hourly, DAY + 2 * HOUR, 3, 450);
+        } finally {
+            hourly.close();
+        }
+
+        // Every product, by day
+        Cursor daily = mResolver.query(SalesRollupEntry.buildRangeUri(SalesRollupEntry.DAILY_URI,
+                DAY, DAY + 2 * SalesRollupEntry.DAY_MILLIS, -1), null, null, null, null);
+        try {
+            assertEquals(2, daily.getCount());
+            daily.moveToFirst();
+            assertBucket(daily, DAY, 7, 6 * 150 + 400);
+            daily.moveToNext();
+            assertBucket(daily, DAY + SalesRollupEntry.DAY_MILLIS, 1, 150);
+        } finally {
+            daily.close();
+        }
+
+        assertEquals(3, queryStock(pen));
+        assertEquals(9, queryStock(ink));
+    }
+
+    @Test
+    public void saleBeyondStockIsRejected() {
+        long pen = insertProductId(mResolver, "Pen", 1, 150);
+
+        assertNull(sell(pen, 2, DAY));
+
+        assertEquals(1, queryStock(pen));
+        Cursor sales = mResolver.query(SaleEntry.CONTENT_URI, null, null, null, null);
+        try {
+            assertEquals(0, sales.getCount());
+        } finally {
+            sales.close();
+        }
+    }
+
+    private static void assertBucket(Cursor cursor, long start, int quantity, int revenue) {
+        assertEquals(start, cursor.getLong(
+                cursor.getColumnIndexOrThrow(SalesRollupEntry.COLUMN_BUCKET_START)));
+        assertEquals(quantity, cursor.getInt(
+                cursor.getColumnIndexOrThrow(SalesRollupEntry.COLUMN_QUANTITY)));
+        assertEquals(revenue, cursor.getInt(
+                cursor.getColumnIndexOrThrow(SalesRollupEntry.COLUMN_REVENUE)));
+    }
+
+    private Uri sell(long productId, int quantity, long soldAt) {
+        ContentValues values = new ContentValues();
+        values.put(SaleEntry.COLUMN_PRODUCT_ID, productId);
+        values.put(SaleEntry.COLUMN_QUANTITY, quantity);
+        values.put(SaleEntry.COLUMN_SOLD_AT, soldAt);
+        return mResolver.insert(SaleEntry.CONTENT_URI, values);
+    }
+
+    private int queryStock(long productId) {
+        Cursor cursor = mResolver.query(ContentUris.withAppendedId(ProductEntry.CONTENT_URI, productId),
+                new String[] { ProductEntry.COLUMN_PRODUCT_STOCK }, null, null, null);
+        try {
+            cursor.moveToFirst();
+            return cursor.getInt(0);
+        } finally {
+            cursor.close();
+        }
+    }
+}
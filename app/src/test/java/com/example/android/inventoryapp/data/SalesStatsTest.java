@@ -0,0 +1,147 @@
+package com.example.android.inventoryapp.data;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+
+import com.example.android.inventoryapp.BuildConfig;
+import com.example.android.inventoryapp.data.ProductContract.ProductEntry;
+import com.example.android.inventoryapp.data.ProductContract.SaleEntry;
+import com.example.android.inventoryapp.data.ProductContract.SalesRollupEntry;
+import com.example.android.inventoryapp.data.ProductContract.SalesStatsEntry;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import static com.example.android.inventoryapp.data.TestProducts.insertProductId;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The sales counters follow new sales right away, and lose the days that leave a window when
+ * the windows are moved forward.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 22)
+public class SalesStatsTest {
+
+    private ContentResolver mResolver;
+    private long mNow;
+
+    @Before
+    public void setUp() {
+        Robolectric.setupContentProvider(ProductProvider.class, ProductContract.CONTENT_AUTHORITY);
+        mResolver = RuntimeEnvironment.application.getContentResolver();
+        mNow = System.currentTimeMillis();
+    }
+
+    @Test
+    public void rankingsFollowSales() {
+        long pen = insertProductId(mResolver, "Pen", 20, 100);
+        long ink = insertProductId(mResolver, "Ink", 20, 100);
+        long paper = insertProductId(mResolver, "Paper", 20, 100);
+        insertProductId(mResolver, "Stapler", 0, 100);
+
+        sell(pen, 3, mNow);
+        sell(ink, 5, mNow);
+        // Outside of the 7 day window, inside of the 30 day one
+        sell(paper, 9, mNow - 10 * SalesRollupEntry.DAY_MILLIS);
+
+        // Products that sold nothing in the window are no top sellers
+        assertRanking(SalesStatsEntry.TOP_SELLERS_URI, 7, "Ink", "Pen");
+        assertRanking(SalesStatsEntry.TOP_SELLERS_URI, 30, "Paper", "Ink", "Pen");
+        // The stapler is out of stock, so it's no slow mover
+        assertRanking(SalesStatsEntry.SLOW_MOVERS_URI, 7, "Paper", "Pen", "Ink");
+    }
+
+    @Test
+    public void advancingExpiresOldSales() {
+        long pen = insertProductId(mResolver, "Pen", 20, 100);
+        long ink = insertProductId(mResolver, "Ink", 20, 100);
+        sell(pen, 3, mNow);
+        sell(ink, 1, mNow - 5 * SalesRollupEntry.DAY_MILLIS);
+
+        SQLiteDatabase db = new ProductDbHelper(RuntimeEnvironment.application).getWritableDatabase();
+        SalesStats.advanceWindows(db, mNow + 3 * SalesRollupEntry.DAY_MILLIS);
+        assertCounters(db, ink, 0, 1);
+        assertCounters(db, pen, 3, 3);
+
+        SalesStats.advanceWindows(db, mNow + 7 * SalesRollupEntry.DAY_MILLIS);
+        assertCounters(db, pen, 0, 3);
+
+        // A jump past both windows recounts everything
+        SalesStats.advanceWindows(db, mNow + 40 * SalesRollupEntry.DAY_MILLIS);
+        assertCounters(db, pen, 0, 0);
+        assertCounters(db, ink, 0, 0);
+    }
+
+    @Test
+    public void staleWindowsAreMovedBeforeARankingIsRead() {
+        long pen = insertProductId(mResolver, "Pen", 20, 100);
+        SQLiteDatabase db = new ProductDbHelper(RuntimeEnvironment.application).getWritableDatabase();
+        // The windows were last moved two days ago, and nothing was sold since
+        long today = SalesStats.startOfDay(mNow);
+        ContentValues window = new ContentValues();
+        window.put(SalesStats.COLUMN_END_DAY, today - 2 * SalesRollupEntry.DAY_MILLIS);
+        db.update(SalesStats.WINDOW_TABLE, window, null, null);
+        // Eight days ago, which was still in the short window then
+        ContentValues sale = new ContentValues();
+        sale.put(SaleEntry.COLUMN_PRODUCT_ID, pen);
+        sale.put(SaleEntry.COLUMN_QUANTITY, 1);
+        sale.put(SaleEntry.COLUMN_UNIT_PRICE, 100);
+        sale.put(SaleEntry.COLUMN_SOLD_AT, mNow - 8 * SalesRollupEntry.DAY_MILLIS);
+        db.insertOrThrow(SaleEntry.TABLE_NAME, null, sale);
+        assertCounters(db, pen, 1, 1);
+        assertTrue(SalesStats.isBehind(db, mNow));
+
+        assertRanking(SalesStatsEntry.TOP_SELLERS_URI, 7);
+        assertFalse(SalesStats.isBehind(db, mNow));
+        assertCounters(db, pen, 0, 1);
+    }
+
+    private void assertRanking(Uri rankingUri, int windowDays, String... names) {
+        Cursor cursor = mResolver.query(SalesStatsEntry.buildRankingUri(rankingUri, windowDays, 10),
+                null, null, null, null);
+        try {
+            assertEquals(names.length, cursor.getCount());
+            for (String name : names) {
+                cursor.moveToNext();
+                assertEquals(name, cursor.getString(
+                        cursor.getColumnIndexOrThrow(ProductEntry.COLUMN_PRODUCT_NAME)));
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static void assertCounters(SQLiteDatabase db, long productId, int sold7Days,
+                                       int sold30Days) {
+        Cursor cursor = db.query(SalesStatsEntry.TABLE_NAME, new String[] {
+                        SalesStatsEntry.COLUMN_SOLD_7_DAYS, SalesStatsEntry.COLUMN_SOLD_30_DAYS },
+                SalesStatsEntry.COLUMN_PRODUCT_ID + "=?", new String[] { String.valueOf(productId) },
+                null, null, null);
+        try {
+            cursor.moveToFirst();
+            assertEquals(sold7Days, cursor.getInt(0));
+            assertEquals(sold30Days, cursor.getInt(1));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private void sell(long productId, int quantity, long soldAt) {
+        ContentValues values = new ContentValues();
+        values.put(SaleEntry.COLUMN_PRODUCT_ID, productId);
+        values.put(SaleEntry.COLUMN_QUANTITY, quantity);
+        values.put(SaleEntry.COLUMN_SOLD_AT, soldAt);
+        mResolver.insert(SaleEntry.CONTENT_URI, values);
+    }
+}
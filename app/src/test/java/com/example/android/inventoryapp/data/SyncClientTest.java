@@ -0,0 +1,150 @@
+package com.example.android.inventoryapp.data;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+
+import com.example.android.inventoryapp.BuildConfig;
+import com.example.android.inventoryapp.data.ProductContract.ProductEntry;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static com.example.android.inventoryapp.data.TestProducts.insertProduct;
+import static com.example.android.inventoryapp.data.TestProducts.product;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Two stores sync through the in-memory server: the store of the provider and a second
+ * database with a sync client of its own. Changes, deletes and conflicts reach the other store,
+ * and nothing is synced twice.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 22)
+public class SyncClientTest {
+
+    private InMemorySyncServer mServer;
+    private ProductProvider mProvider;
+    private ContentResolver mResolver;
+    private SQLiteDatabase mOtherStore;
+    private SyncClient mOtherClient;
+
+    @Before
+    public void setUp() {
+        mServer = new InMemorySyncServer();
+        mProvider = Robolectric.setupContentProvider(ProductProvider.class,
+                ProductContract.CONTENT_AUTHORITY);
+        mResolver = RuntimeEnvironment.application.getContentResolver();
+        mOtherStore = new ProductDbHelper(RuntimeEnvironment.application, "other_store.db")
+                .getWritableDatabase();
+        mOtherClient = new SyncClient(mOtherStore, new DatabaseExecutor());
+    }
+
+    @Test
+    public void productsReachTheOtherStoreOnce() throws Exception {
+        insertProduct(mResolver, "Pen", 7, 100);
+        insertProduct(mResolver, "Paper", 12, 100);
+
+        assertReport(2, 0, 0, mProvider.sync(mServer));
+        assertReport(0, 2, 0, mOtherClient.sync(mServer));
+        assertEquals(Arrays.asList("Pen 7", "Paper 12"), readProducts(mOtherStore));
+
+        // Our own changes come back from the server, but are already applied
+        assertReport(0, 0, 0, mProvider.sync(mServer));
+        assertReport(0, 0, 0, mOtherClient.sync(mServer));
+    }
+
+    @Test
+    public void changesAndDeletesGoBothWays() throws Exception {
+        Uri pen = insertProduct(mResolver, "Pen", 7, 100);
+        insertProduct(mResolver, "Paper", 12, 100);
+        mProvider.sync(mServer);
+        mOtherClient.sync(mServer);
+
+        ContentValues values = new ContentValues();
+        values.put(ProductEntry.COLUMN_PRODUCT_STOCK, 3);
+        mOtherStore.update(ProductEntry.TABLE_NAME, values,
+                ProductEntry.COLUMN_PRODUCT_NAME + "=?", new String[] { "Paper" });
+        assertReport(1, 0, 0, mOtherClient.sync(mServer));
+        assertReport(0, 1, 0, mProvider.sync(mServer));
+
+        mResolver.delete(pen, null, null);
+        assertReport(1, 0, 0, mProvider.sync(mServer));
+        assertReport(0, 1, 0, mOtherClient.sync(mServer));
+        assertEquals(Arrays.asList("Paper 3"), readProducts(mOtherStore));
+        assertEquals(Arrays.asList("Paper 3"),
+                readProducts(new ProductDbHelper(RuntimeEnvironment.application)
+                        .getReadableDatabase()));
+    }
+
+    @Test
+    public void theFirstChangeToReachTheServerWins() throws Exception {
+        Uri pen = insertProduct(mResolver, "Pen", 7, 100);
+        mProvider.sync(mServer);
+        mOtherClient.sync(mServer);
+
+        // Both stores change the pen before syncing
+        ContentValues values = new ContentValues();
+        values.put(ProductEntry.COLUMN_PRODUCT_STOCK, 5);
+        mResolver.update(pen, values, null, null);
+        values.put(ProductEntry.COLUMN_PRODUCT_STOCK, 2);
+        mOtherStore.update(ProductEntry.TABLE_NAME, values, null, null);
+
+        assertReport(1, 0, 0, mProvider.sync(mServer));
+        assertReport(1, 0, 1, mOtherClient.sync(mServer));
+        assertEquals(Arrays.asList("Pen 5"), readProducts(mOtherStore));
+
+        // The overruled change isn't pushed again
+        assertReport(0, 0, 0, mOtherClient.sync(mServer));
+        assertReport(0, 0, 0, mProvider.sync(mServer));
+    }
+
+    @Test
+    public void largeChangeSetsAreBatchedAndCompressed() throws Exception {
+        ContentValues[] rows = new ContentValues[3 * SyncClient.BATCH_SIZE + 1];
+        for (int i = 0; i < rows.length; i++) {
+            rows[i] = product("Product " + i, i % 50, 100);
+        }
+        mResolver.bulkInsert(ProductEntry.CONTENT_URI, rows);
+
+        SyncReport report = mProvider.sync(mServer);
+        assertEquals(rows.length, report.getPushed());
+        // Uncompressed, the sync id alone takes 34 bytes and a whole product over 60
+        assertTrue(report.toString(), report.getBytesSent() < rows.length * 40);
+        assertEquals(rows.length, mOtherClient.sync(mServer).getPulled());
+    }
+
+    private static void assertReport(int pushed, int pulled, int conflicts, SyncReport report) {
+        assertEquals(report.toString(), pushed, report.getPushed());
+        assertEquals(report.toString(), pulled, report.getPulled());
+        assertEquals(report.toString(), conflicts, report.getConflicts());
+    }
+
+    /** Returns the name and stock of every product of the store, in the order of their ids */
+    private static List<String> readProducts(SQLiteDatabase db) {
+        Cursor cursor = db.query(ProductEntry.TABLE_NAME, new String[] {
+                ProductEntry.COLUMN_PRODUCT_NAME, ProductEntry.COLUMN_PRODUCT_STOCK },
+                null, null, null, null, ProductEntry._ID);
+        try {
+            List<String> products = new ArrayList<>();
+            while (cursor.moveToNext()) {
+                products.add(cursor.getString(0) + " " + cursor.getInt(1));
+            }
+            return products;
+        } finally {
+            cursor.close();
+        }
+    }
+}
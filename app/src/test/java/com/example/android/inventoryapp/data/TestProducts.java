@@ -0,0 +1,61 @@
+package com.example.android.inventoryapp.data;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.net.Uri;
+
+import com.example.android.inventoryapp.data.ProductContract.ProductEntry;
+
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Products the tests of the data layer start from, all of them without a picture.
+ */
+final class TestProducts {
+
+    /** The product most tests start from: a pen, with 5 in stock at a price of 150 */
+    static final String PEN = "Pen";
+    static final int PEN_STOCK = 5;
+    static final int PEN_PRICE = 150;
+
+    private TestProducts() {}
+
+    /**
+     * Returns the values of a product with the given name, stock and price.
+     */
+    static ContentValues product(String name, int stock, int price) {
+        ContentValues values = new ContentValues();
+        values.put(ProductEntry.COLUMN_PRODUCT_NAME, name);
+        values.put(ProductEntry.COLUMN_PRODUCT_STOCK, stock);
+        values.put(ProductEntry.COLUMN_PRODUCT_PRICE, price);
+        values.put(ProductEntry.COLUMN_PRODUCT_PICTURE, ProductEntry.NO_IMAGE);
+        return values;
+    }
+
+    /**
+     * Insert a product through the resolver and return its URI. Fails the test if the product
+     * wasn't inserted.
+     */
+    static Uri insertProduct(ContentResolver resolver, String name, int stock, int price) {
+        Uri uri = resolver.insert(ProductEntry.CONTENT_URI, product(name, stock, price));
+        assertNotNull("Failed to insert " + name, uri);
+        assertTrue("Failed to insert " + name, ContentUris.parseId(uri) > 0);
+        return uri;
+    }
+
+    /**
+     * Insert a product through the resolver and return its id.
+     */
+    static long insertProductId(ContentResolver resolver, String name, int stock, int price) {
+        return ContentUris.parseId(insertProduct(resolver, name, stock, price));
+    }
+
+    /**
+     * Insert the {@link #PEN} and return its URI.
+     */
+    static Uri insertPen(ContentResolver resolver) {
+        return insertProduct(resolver, PEN, PEN_STOCK, PEN_PRICE);
+    }
+}
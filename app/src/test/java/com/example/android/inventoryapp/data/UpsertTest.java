@@ -0,0 +1,167 @@
+package com.example.android.inventoryapp.data;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.os.Bundle;
+
+import com.example.android.inventoryapp.BuildConfig;
+import com.example.android.inventoryapp.data.ProductContract.ProductEntry;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import static com.example.android.inventoryapp.data.TestProducts.product;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * Upserts insert new products, update changed ones by their normalized name, and leave
+ * products that already match alone, so running the same import twice changes nothing.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 22)
+public class UpsertTest {
+
+    private ProductProvider mProvider;
+    private ContentResolver mResolver;
+
+    @Before
+    public void setUp() {
+        mProvider = Robolectric.setupContentProvider(ProductProvider.class,
+                ProductContract.CONTENT_AUTHORITY);
+        mResolver = RuntimeEnvironment.application.getContentResolver();
+    }
+
+    @Test
+    public void importingTwiceChangesNothing() {
+        ContentValues[] rows = { product("Pen", 5, 150), product("Paper", 12, 250) };
+        assertResult(2, 0, 0, upsert(rows));
+        int version = productVersion("Pen");
+
+        assertResult(0, 0, 2, upsert(rows));
+        assertEquals(version, productVersion("Pen"));
+        assertEquals(2, productCount());
+    }
+
+    @Test
+    public void changedRowsUpdateTheProductWithTheSameName() {
+        upsert(new ContentValues[] { product("Pen", 5, 150), product("Paper", 12, 250) });
+
+        // Numbers given as text match the stored numbers
+        ContentValues paper = new ContentValues();
+        paper.put(ProductEntry.COLUMN_PRODUCT_NAME, "Paper");
+        paper.put(ProductEntry.COLUMN_PRODUCT_STOCK, "12");
+        // The key ignores case, the name is updated to the new spelling
+        ContentValues pen = new ContentValues();
+        pen.put(ProductEntry.COLUMN_PRODUCT_NAME, "PEN");
+        pen.put(ProductEntry.COLUMN_PRODUCT_PRICE, 175);
+        assertResult(1, 1, 1,
+                upsert(new ContentValues[] { paper, pen, product("Ink", 3, 400) }));
+
+        assertEquals(3, productCount());
+        Cursor cursor = mResolver.query(ProductEntry.CONTENT_URI, Product.COLUMNS,
+                ProductEntry.COLUMN_PRODUCT_PRICE + "=?", new String[] { "175" }, null);
+        try {
+            assertEquals(1, cursor.getCount());
+            cursor.moveToFirst();
+            Product updated = Product.fromCursor(cursor);
+            assertEquals("PEN", updated.getName());
+            assertEquals(5, updated.getStock());
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Test
+    public void changedValuesKeepTheTypesOfTheColumns() {
+        Product pen = new Product(1, "Pen", 5, 150, ProductEntry.NO_IMAGE, 1, 0);
+        ContentValues row = new ContentValues();
+        row.put(ProductEntry.COLUMN_PRODUCT_NAME, "Pen");
+        row.put(ProductEntry.COLUMN_PRODUCT_STOCK, "5");
+        row.put(ProductEntry.COLUMN_PRODUCT_PRICE, "175");
+        row.put(ProductEntry.COLUMN_PRODUCT_REORDER_THRESHOLD, "many");
+
+        ContentValues changes = ProductProvider.changedValues(pen, row);
+
+        assertEquals(2, changes.size());
+        assertEquals(Integer.valueOf(175), changes.get(ProductEntry.COLUMN_PRODUCT_PRICE));
+        // Not a number, left for the update to refuse
+        assertEquals("many", changes.get(ProductEntry.COLUMN_PRODUCT_REORDER_THRESHOLD));
+    }
+
+    @Test
+    public void anInvalidRowWritesNothing() {
+        try {
+            upsert(new ContentValues[] { product("Pen", 5, 150), product("Paper", -1, 250) });
+            fail("A negative stock must be rejected");
+        } catch (IllegalArgumentException expected) {
+            // Expected
+        }
+        assertEquals(0, productCount());
+    }
+
+    @Test
+    public void rowsMayOnlyWriteProductData() {
+        upsert(new ContentValues[] { product("Pen", 5, 150) });
+        String[] columns = { ProductEntry._ID, ProductEntry.COLUMN_PRODUCT_VERSION,
+                ChangeLog.COLUMN_SYNC_ID, ChangeLog.COLUMN_BASE_VERSION };
+        for (String column : columns) {
+            // Neither for the update of the pen nor for the insert of the paper
+            for (String name : new String[] { "Pen", "Paper" }) {
+                ContentValues row = product(name, 5, 150);
+                row.put(column, 99);
+                try {
+                    upsert(new ContentValues[] { row });
+                    fail("The upsert wrote " + column);
+                } catch (IllegalArgumentException expected) {
+                    // Expected
+                }
+            }
+        }
+        assertEquals(1, productCount());
+    }
+
+    /**
+     * Call the provider directly, as {@link ProductWriter#upsertAll} would through the resolver
+     */
+    private UpsertResult upsert(ContentValues[] rows) {
+        Bundle extras = new Bundle();
+        extras.putParcelableArray(ProductContract.EXTRA_VALUES, rows);
+        return UpsertResult.fromBundle(
+                mProvider.call(ProductContract.METHOD_UPSERT, null, extras));
+    }
+
+    private static void assertResult(int inserted, int updated, int unchanged,
+                                     UpsertResult result) {
+        assertEquals(result.toString(), inserted, result.getInserted());
+        assertEquals(result.toString(), updated, result.getUpdated());
+        assertEquals(result.toString(), unchanged, result.getUnchanged());
+    }
+
+    private int productVersion(String name) {
+        Cursor cursor = mResolver.query(ProductEntry.CONTENT_URI,
+                new String[] { ProductEntry.COLUMN_PRODUCT_VERSION },
+                ProductEntry.COLUMN_PRODUCT_NAME + "=?", new String[] { name }, null);
+        try {
+            cursor.moveToFirst();
+            return cursor.getInt(0);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private int productCount() {
+        Cursor cursor = mResolver.query(ProductEntry.CONTENT_URI, null, null, null, null);
+        try {
+            return cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+    }
+}